@@ -0,0 +1,166 @@
+/*
+ * @(#)AotCompiler.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Compiles the TAM code in the given file ahead of time into a runnable jar.
+ *
+ * <p>
+ * Each routine is translated to JVM bytecode as the interpreter's jit would
+ * translate it once it was hot, as a method of one class. The jar holds that
+ * class, the object program, and the classes of the machine, which run the
+ * routines that cannot be translated and do the I/O and the heap. Run with
+ * {@code java -jar}, it behaves as the interpreter does, failures included,
+ * but with no routine waiting to become hot. For example:
+ * </p>
+ *
+ * <pre>
+ *   java triangle.abstractMachine.AotCompiler obj.tam [-out=obj.jar]
+ *   java -jar obj.jar [-stack=words] [-heap=words] [grow]
+ * </pre>
+ */
+public class AotCompiler {
+
+	static String objectName = "obj.tam";
+
+	static String jarName = null;
+
+	/**
+	 * Writes the jar for the named object program.
+	 *
+	 * @param objectName the name of the object file.
+	 * @param jarName    the name of the jar to write.
+	 * @return the compiler of the program, with its counts of routines.
+	 * @throws IOException if the object file cannot be read, or the jar cannot
+	 *                     be written.
+	 */
+	static ProgramCompiler compile(String objectName, String jarName) throws IOException {
+		var object = Files.readAllBytes(Path.of(objectName));
+		var compiler = new ProgramCompiler(CodeSegment.load(objectName));
+		var classFile = compiler.compile();
+
+		var manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, PrecompiledRunner.class.getName());
+		try (var jar = new JarOutputStream(new FileOutputStream(jarName), manifest)) {
+			var written = new HashSet<String>();
+			write(jar, written, ProgramCompiler.className + ".class", classFile);
+			write(jar, written, PrecompiledRunner.objectEntry, object);
+			copyClasses(jar, written, Machine.class);
+			copyClasses(jar, written, TamVm.class);
+		}
+		return compiler;
+	}
+
+	private static void write(JarOutputStream jar, Set<String> written, String name, byte[] bytes)
+			throws IOException {
+		if (written.add(name)) {
+			jar.putNextEntry(new JarEntry(name));
+			jar.write(bytes);
+			jar.closeEntry();
+		}
+	}
+
+	private static void copyClasses(JarOutputStream jar, Set<String> written, Class<?> of) throws IOException {
+		// Copies the classes found alongside the given one, in a directory or
+		// a jar.
+
+		Path location;
+		try {
+			var source = of.getProtectionDomain().getCodeSource();
+			if (source == null) {
+				throw new IOException("cannot find the classes of " + of.getName());
+			}
+			location = Path.of(source.getLocation().toURI());
+		} catch (URISyntaxException e) {
+			throw new IOException("cannot find the classes of " + of.getName(), e);
+		}
+
+		if (Files.isDirectory(location)) {
+			try (var files = Files.walk(location)) {
+				for (var file : (Iterable<Path>) files::iterator) {
+					if (file.toString().endsWith(".class")) {
+						var name = location.relativize(file).toString().replace(file.getFileSystem().getSeparator(),
+								"/");
+						write(jar, written, name, Files.readAllBytes(file));
+					}
+				}
+			}
+		} else {
+			try (var in = new JarInputStream(Files.newInputStream(location))) {
+				for (var entry = in.getNextJarEntry(); entry != null; entry = in.getNextJarEntry()) {
+					if (entry.getName().endsWith(".class")) {
+						write(jar, written, entry.getName(), in.readAllBytes());
+					}
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		System.out.println("********** TAM Ahead-of-Time Compiler (Java Version 2.1) **********");
+
+		parseArgs(args);
+		if (jarName == null) {
+			jarName = (objectName.endsWith(".tam") ? objectName.substring(0, objectName.length() - 4) : objectName)
+					+ ".jar";
+		}
+
+		try {
+			var compiler = compile(objectName, jarName);
+			System.out.println("Translated " + compiler.translated() + " of " + compiler.routines()
+					+ " routines into " + jarName);
+		} catch (NoSuchFileException s) {
+			System.err.println("Error opening object file: " + s);
+		} catch (IOException s) {
+			System.err.println("Error compiling to jar: " + s);
+		}
+	}
+
+	/**
+	 * Parse command-line arguments. Usage:
+	 *
+	 * <pre>
+	 *   java triangle.abstractMachine.AotCompiler [obj.tam] [-out=obj.jar]
+	 * </pre>
+	 */
+	private static void parseArgs(String[] args) {
+		for (String s : args) {
+			if (s.toLowerCase().startsWith("-out=")) {
+				jarName = s.substring(5);
+			} else {
+				objectName = s;
+			}
+		}
+	}
+}
@@ -18,10 +18,8 @@
 
 package triangle.abstractMachine;
 
-import java.io.DataInputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
 
 /**
  * Disassembles the TAM code in the given file, and displays the instructions on
@@ -46,6 +44,8 @@ public class Disassembler {
 
 	static int CT;
 
+	static ObjectFile.View program;
+
 	/**
 	 * Writes the r-field of an instruction in the form "l<I>reg</I>r", where l and
 	 * r are the bracket characters to use.
@@ -62,7 +62,7 @@ public class Disassembler {
 	}
 
 	private static void writeR(char leftBracket, int r, char rightBracket) {
-		var register = Register.values()[r];
+		var register = Instruction.registers[r];
 		writeR(leftBracket, register, rightBracket);
 	}
 
@@ -103,7 +103,7 @@ public class Disassembler {
 	 * @param d the displacement of the primitive routine.
 	 */
 	private static void writePrimitive(int d) {
-		var primitive = Primitive.values()[d];
+		var primitive = Instruction.primitives[d];
 		switch (primitive) {
 		case ID:
 			System.out.print("id      ");
@@ -301,7 +301,7 @@ public class Disassembler {
 	private static void disassembleProgram() {
 		for (int addr = Machine.CB; addr < CT; addr++) {
 			System.out.print(addr + ":  ");
-			writeInstruction(Machine.code[addr]);
+			writeInstruction(program.instruction(addr));
 			System.out.println();
 		}
 	}
@@ -309,27 +309,17 @@ public class Disassembler {
 	// LOADING
 
 	/**
-	 * Loads the TAM object program into code store from the named file.
+	 * Maps the TAM object program in the named file, in either format, ready to
+	 * be disassembled an instruction at a time.
 	 *
 	 * @param objectName the name of the file containing the program.
 	 */
 	static void loadObjectProgram(String objectName) {
 
-		var finished = false;
-
-		try (var objectFile = new FileInputStream(objectName)) {
-			var objectStream = new DataInputStream(objectFile);
-			var addr = Machine.CB;
-			while (!finished) {
-				Machine.code[addr] = Instruction.read(objectStream);
-				if (Machine.code[addr] == null) {
-					finished = true;
-				} else {
-					addr = addr + 1;
-				}
-			}
-			CT = addr;
-		} catch (FileNotFoundException s) {
+		try {
+			program = ObjectFile.map(objectName);
+			CT = Machine.CB + program.count();
+		} catch (NoSuchFileException s) {
 			CT = Machine.CB;
 			System.err.println("Error opening object file: " + s);
 		} catch (IOException s) {
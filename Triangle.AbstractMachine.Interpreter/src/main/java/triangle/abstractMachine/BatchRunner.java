@@ -0,0 +1,177 @@
+/*
+ * @(#)BatchRunner.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs one decoded program against every input file in a directory, on a pool
+ * of threads that share the {@link CodeSegment}, and anything compiled from
+ * it, between their machines.
+ *
+ * <p>
+ * Each run reads its input file and writes the program's output to a file
+ * named after the whole input file name with {@code .out} added, so that
+ * {@code a.txt} and {@code a.in} give {@code a.txt.out} and {@code a.in.out},
+ * in the output directory. Files already ending in {@code .out} are not taken
+ * as inputs, so the input directory may be the output directory too.
+ * </p>
+ */
+final class BatchRunner {
+
+	final static String outputExtension = ".out";
+
+	// Short names for the statuses, for the summary
+	private final static String[] statusNames = { "running", "halted", "data store full", "invalid code address",
+			"invalid instruction", "overflow", "zero divide", "I/O error", "out of fuel", "time limit",
+			"stack quota", "heap quota", "paused" };
+
+	// The outcome of one run
+	final static class Result {
+
+		final String name;
+
+		final int status; // -1 if the files could not be opened
+
+		final long instructions, nanos;
+
+		final String problem;
+
+		Result(String name, int status, long instructions, long nanos, String problem) {
+			this.name = name;
+			this.status = status;
+			this.instructions = instructions;
+			this.nanos = nanos;
+			this.problem = problem;
+		}
+
+		@Override
+		public String toString() {
+			var outcome = problem != null ? "error: " + problem
+					: 0 <= status && status < statusNames.length ? statusNames[status] : "status " + status;
+			return String.format("%-24s %-22s %14d %10.3f", name, outcome, instructions, nanos / 1e6);
+		}
+	}
+
+	private final CodeSegment code;
+
+	private final VmOptions options;
+
+	BatchRunner(CodeSegment code, VmOptions options) {
+		this.code = code;
+		this.options = options.copy();
+		this.options.setCounted(true);
+	}
+
+	/**
+	 * @param inputs a directory of input files.
+	 * @return the input files in the directory, by name.
+	 * @throws IOException if the directory cannot be read.
+	 */
+	static ArrayList<Path> inputFiles(Path inputs) throws IOException {
+		var files = new ArrayList<Path>();
+		try (var listing = Files.list(inputs)) {
+			listing.filter(file -> Files.isRegularFile(file) && !file.toString().endsWith(outputExtension))
+					.sorted().forEach(files::add);
+		}
+		return files;
+	}
+
+	static Path outputFile(Path input, Path outputs) {
+		return outputs.resolve(input.getFileName().toString() + outputExtension);
+	}
+
+	/**
+	 * Runs the program once for each input file, on the given number of
+	 * threads, writing a line of summary for each run, in the order of the
+	 * files, and a total.
+	 *
+	 * @param inputs  the directory of input files.
+	 * @param outputs the directory for the output files, created if need be.
+	 * @param threads the number of runs at a time.
+	 * @param summary the stream for the summary.
+	 * @return the results of the runs, in the order of the files.
+	 * @throws IOException if the directories cannot be read or created.
+	 */
+	ArrayList<Result> run(Path inputs, Path outputs, int threads, PrintStream summary) throws IOException {
+		var files = inputFiles(inputs);
+		Files.createDirectories(outputs);
+
+		var start = System.nanoTime();
+		var results = new ArrayList<Result>();
+		var poolSize = Math.max(1, Math.min(threads, files.size()));
+		var executor = Executors.newFixedThreadPool(poolSize);
+		try {
+			var pending = new ArrayList<Future<Result>>();
+			for (var file : files) {
+				pending.add(executor.submit(() -> runOne(file, outputFile(file, outputs))));
+			}
+			summary.println(String.format("%-24s %-22s %14s %10s", "input", "status", "instructions", "ms"));
+			for (var i = 0; i < files.size(); i++) {
+				Result result;
+				try {
+					result = pending.get(i).get();
+				} catch (ExecutionException s) {
+					result = new Result(files.get(i).getFileName().toString(), -1, 0, 0, s.toString());
+				} catch (InterruptedException s) {
+					// keep the interrupt for the caller; the runs not yet done are
+					// cancelled and reported as such
+					Thread.currentThread().interrupt();
+					executor.shutdownNow();
+					result = new Result(files.get(i).getFileName().toString(), -1, 0, 0, s.toString());
+				}
+				summary.println(result);
+				results.add(result);
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		long halted = 0, instructions = 0;
+		for (var result : results) {
+			halted += result.status == TamVm.halted ? 1 : 0;
+			instructions += result.instructions;
+		}
+		summary.println(String.format("%d runs, %d halted, %d instructions, %.3f ms on %d threads", results.size(),
+				halted, instructions, (System.nanoTime() - start) / 1e6, poolSize));
+		return results;
+	}
+
+	Result runOne(Path input, Path output) {
+		var name = input.getFileName().toString();
+		var start = System.nanoTime();
+		try (var in = new BufferedInputStream(Files.newInputStream(input));
+				var out = new PrintStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+			var vm = new TamVm(code, in, out, options);
+			var status = vm.run();
+			return new Result(name, status, vm.getInstructionCount(), System.nanoTime() - start, null);
+		} catch (IOException s) {
+			return new Result(name, -1, 0, System.nanoTime() - start, s.toString());
+		}
+	}
+}
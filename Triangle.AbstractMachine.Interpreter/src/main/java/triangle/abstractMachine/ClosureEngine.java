@@ -0,0 +1,611 @@
+/*
+ * @(#)ClosureEngine.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.util.ArrayList;
+
+/**
+ * An alternative to the interpreter's {@code switch} loop that runs a
+ * {@link CodeSegment} as a tree of pre-bound Java closures.
+ *
+ * <p>
+ * The first time control reaches an address, the straight-line code from
+ * there up to the next control transfer is turned into a {@link Block}: one
+ * step per instruction, each a lambda with its operands, register and
+ * primitive already resolved, followed by an exit that sets CP. Running a
+ * block therefore never decodes an instruction or switches on its op-code.
+ * Blocks only capture the code, so they are shared by every machine running
+ * the segment.
+ * </p>
+ *
+ * <p>
+ * Blocks are built from the original instructions, ignoring superinstructions,
+ * and leave the machine in exactly the state the interpreter would, including
+ * when an instruction fails part-way through a block.
+ * </p>
+ */
+final class ClosureEngine {
+
+	/**
+	 * One instruction that does not transfer control.
+	 */
+	interface Step {
+		/**
+		 * @return true to go on to the next step, or false if the machine has
+		 *         stopped, with CP where the interpreter would leave it.
+		 */
+		boolean run(TamVm vm);
+	}
+
+	/**
+	 * The instruction that ends a block.
+	 */
+	interface Exit {
+		/**
+		 * Sets CP to the next instruction to run.
+		 *
+		 * @return true if a routine was called or a backward jump taken, where the
+		 *         compiled tier counts the target.
+		 */
+		boolean run(TamVm vm);
+	}
+
+	/**
+	 * Register contents that depend on the machine, or on when an instruction
+	 * runs.
+	 */
+	interface Address {
+		int of(TamVm vm);
+	}
+
+	final static class Block {
+
+		private final Step[] steps;
+
+		private final Exit exit;
+
+		Block(Step[] steps, Exit exit) {
+			this.steps = steps;
+			this.exit = exit;
+		}
+
+		boolean run(TamVm vm) {
+			for (var step : steps) {
+				if (!step.run(vm)) {
+					return false;
+				}
+			}
+			return exit.run(vm);
+		}
+	}
+
+	final static int dynamic = Integer.MIN_VALUE;
+
+	final CodeSegment code;
+
+	private final int CT;
+
+	// by starting address; racing machines may each build the same block,
+	// which does no harm as blocks are immutable
+	private final Block[] blocks;
+
+	ClosureEngine(CodeSegment code) {
+		this.code = code;
+		this.CT = code.CT;
+		this.blocks = new Block[code.CT];
+	}
+
+	/**
+	 * Runs the machine from CP until it halts or fails, or until LB returns to
+	 * callerLB, when compiled code is waiting for the result.
+	 *
+	 * @return the status of the machine.
+	 */
+	int run(TamVm vm, int callerLB) {
+		do {
+			var hot = block(vm.CP).run(vm);
+			if (vm.limited && !vm.chargeRun()) {
+				return vm.status;
+			}
+			if (hot && vm.jit != null) {
+				vm.tierUp(vm.CP);
+			}
+			if (vm.LB == callerLB) {
+				return vm.status;
+			}
+			if (vm.CP < TamVm.CB || vm.CP >= CT) {
+				vm.status = TamVm.failedInvalidCodeAddress;
+			}
+		} while (vm.status == TamVm.running);
+		return vm.status;
+	}
+
+	// BLOCKS
+
+	Block block(int start) {
+		// The block starting at start, built the first time it is needed.
+
+		var block = blocks[start];
+		if (block == null) {
+			block = build(start);
+			blocks[start] = block;
+		}
+		return block;
+	}
+
+	private Block build(int start) {
+		var steps = new ArrayList<Step>();
+		for (var a = start; a < CT; a++) {
+			var step = step(a);
+			if (step == null) {
+				return new Block(steps.toArray(new Step[0]), exit(a));
+			}
+			steps.add(step);
+		}
+		// running off the end of the code leaves CP invalid
+		return new Block(steps.toArray(new Step[0]), vm -> {
+			vm.CP = CT;
+			return false;
+		});
+	}
+
+	Step step(int a) {
+		// The step for the instruction at a, or null if it ends a block.
+
+		var word = code.words[2 * a];
+		var op = CodeSegment.baseOp(CodeSegment.op(word));
+		var r = CodeSegment.register(word);
+		var n = CodeSegment.length(word);
+		var d = code.words[2 * a + 1];
+		if (op == Machine.CALLop && fixed(r, a) != dynamic && d + fixed(r, a) >= Machine.PB) {
+			return primitive(d + fixed(r, a) - Machine.PB, a);
+		}
+		switch (op) {
+		case Machine.LOADop:
+			return load(r, n, d, a);
+		case Machine.LOADAop:
+			return loadAddress(r, d, a);
+		case Machine.LOADIop:
+			return loadIndirect(n, a);
+		case Machine.LOADLop:
+			return loadLiteral(d, a);
+		case Machine.STOREop:
+			return store(r, n, d, a);
+		case Machine.STOREIop:
+			return storeIndirect(n);
+		case Machine.PUSHop:
+			return push(d, a);
+		case Machine.POPop:
+			return pop(n, d);
+		default:
+			return null;
+		}
+	}
+
+	int fixed(int r, int a) {
+		// Returns the content of register r when the instruction at a runs, if
+		// it is the same on every machine, else dynamic.
+
+		switch (r) {
+		case Machine.CBr:
+			return TamVm.CB;
+		case Machine.CTr:
+			return CT;
+		case Machine.PBr:
+			return Machine.PB;
+		case Machine.PTr:
+			return Machine.PT;
+		case Machine.SBr:
+			return TamVm.SB;
+		case Machine.CPr:
+			return a;
+		case Machine.STr:
+		case Machine.HBr:
+		case Machine.HTr:
+		case Machine.LBr:
+		case Machine.L1r:
+		case Machine.L2r:
+		case Machine.L3r:
+		case Machine.L4r:
+		case Machine.L5r:
+		case Machine.L6r:
+			return dynamic;
+		default:
+			return 0;
+		}
+	}
+
+	private Address address(int r, int d, int a) {
+		// Resolves d + content(r) as far as it can be before the code runs.
+
+		var base = fixed(r, a);
+		if (base != dynamic) {
+			var addr = d + base;
+			return vm -> addr;
+		}
+		switch (r) {
+		case Machine.LBr:
+			return vm -> d + vm.LB;
+		case Machine.L1r:
+			return vm -> d + vm.data[vm.LB];
+		default:
+			return vm -> d + vm.content(r);
+		}
+	}
+
+	// STEPS
+
+	private Step load(int r, int n, int d, int a) {
+		var base = fixed(r, a);
+		if (n == 1 && base != dynamic) {
+			var addr = d + base;
+			return vm -> {
+				if (!vm.checkSpace(1)) {
+					vm.CP = a;
+					return false;
+				}
+				vm.data[vm.ST] = vm.data[addr];
+				vm.ST = vm.ST + 1;
+				return true;
+			};
+		}
+		if (n == 1 && r == Machine.LBr) {
+			return vm -> {
+				var addr = d + vm.LB;
+				if (!vm.checkSpace(1)) {
+					vm.CP = a;
+					return false;
+				}
+				vm.data[vm.ST] = vm.data[addr];
+				vm.ST = vm.ST + 1;
+				return true;
+			};
+		}
+		var address = address(r, d, a);
+		return vm -> {
+			var addr = address.of(vm);
+			if (!vm.checkSpace(n)) {
+				vm.CP = a;
+				return false;
+			}
+			var data = vm.data;
+			for (var index = 0; index < n; index++) {
+				data[vm.ST + index] = data[addr + index];
+			}
+			vm.ST = vm.ST + n;
+			return true;
+		};
+	}
+
+	private Step loadAddress(int r, int d, int a) {
+		var address = address(r, d, a);
+		return vm -> {
+			var addr = address.of(vm);
+			if (!vm.checkSpace(1)) {
+				vm.CP = a;
+				return false;
+			}
+			vm.data[vm.ST] = addr;
+			vm.ST = vm.ST + 1;
+			return true;
+		};
+	}
+
+	private Step loadIndirect(int n, int a) {
+		return vm -> {
+			vm.ST = vm.ST - 1;
+			var addr = vm.data[vm.ST];
+			if (!vm.checkSpace(n)) {
+				vm.CP = a;
+				return false;
+			}
+			var data = vm.data;
+			for (var index = 0; index < n; index++) {
+				data[vm.ST + index] = data[addr + index];
+			}
+			vm.ST = vm.ST + n;
+			return true;
+		};
+	}
+
+	private Step loadLiteral(int d, int a) {
+		return vm -> {
+			if (!vm.checkSpace(1)) {
+				vm.CP = a;
+				return false;
+			}
+			vm.data[vm.ST] = d;
+			vm.ST = vm.ST + 1;
+			return true;
+		};
+	}
+
+	private Step store(int r, int n, int d, int a) {
+		var base = fixed(r, a);
+		if (n == 1 && base != dynamic) {
+			var addr = d + base;
+			return vm -> {
+				vm.ST = vm.ST - 1;
+				vm.data[addr] = vm.data[vm.ST];
+				return true;
+			};
+		}
+		if (n == 1 && r == Machine.LBr) {
+			return vm -> {
+				vm.ST = vm.ST - 1;
+				vm.data[d + vm.LB] = vm.data[vm.ST];
+				return true;
+			};
+		}
+		var address = address(r, d, a);
+		return vm -> {
+			var addr = address.of(vm);
+			vm.ST = vm.ST - n;
+			var data = vm.data;
+			for (var index = 0; index < n; index++) {
+				data[addr + index] = data[vm.ST + index];
+			}
+			return true;
+		};
+	}
+
+	private Step storeIndirect(int n) {
+		return vm -> {
+			vm.ST = vm.ST - 1;
+			var addr = vm.data[vm.ST];
+			vm.ST = vm.ST - n;
+			var data = vm.data;
+			for (var index = 0; index < n; index++) {
+				data[addr + index] = data[vm.ST + index];
+			}
+			return true;
+		};
+	}
+
+	private Step push(int d, int a) {
+		return vm -> {
+			if (!vm.checkSpace(d)) {
+				vm.CP = a;
+				return false;
+			}
+			vm.ST = vm.ST + d;
+			return true;
+		};
+	}
+
+	private Step pop(int n, int d) {
+		return vm -> {
+			var addr = vm.ST - n - d;
+			vm.ST = vm.ST - n;
+			var data = vm.data;
+			for (var index = 0; index < n; index++) {
+				data[addr + index] = data[vm.ST + index];
+			}
+			vm.ST = addr + n;
+			return true;
+		};
+	}
+
+	private Step primitive(int displacement, int a) {
+		// The common arithmetic and comparisons are bound directly; anything
+		// else goes through the machine's own callPrimitive.
+
+		switch (displacement) {
+		case Machine.idDisplacement:
+			return vm -> true;
+		case Machine.notDisplacement:
+			return vm -> {
+				vm.data[vm.ST - 1] = TamVm.toInt(!TamVm.isTrue(vm.data[vm.ST - 1]));
+				return true;
+			};
+		case Machine.addDisplacement:
+			return vm -> {
+				vm.ST = vm.ST - 1;
+				var data = vm.data;
+				data[vm.ST - 1] = vm.overflowChecked((long) data[vm.ST - 1] + data[vm.ST]);
+				return carryOn(vm, a);
+			};
+		case Machine.subDisplacement:
+			return vm -> {
+				vm.ST = vm.ST - 1;
+				var data = vm.data;
+				data[vm.ST - 1] = vm.overflowChecked((long) data[vm.ST - 1] - data[vm.ST]);
+				return carryOn(vm, a);
+			};
+		case Machine.multDisplacement:
+			return vm -> {
+				vm.ST = vm.ST - 1;
+				var data = vm.data;
+				data[vm.ST - 1] = vm.overflowChecked((long) data[vm.ST - 1] * data[vm.ST]);
+				return carryOn(vm, a);
+			};
+		case Machine.ltDisplacement:
+			return vm -> {
+				vm.ST = vm.ST - 1;
+				var data = vm.data;
+				data[vm.ST - 1] = TamVm.toInt(data[vm.ST - 1] < data[vm.ST]);
+				return true;
+			};
+		case Machine.leDisplacement:
+			return vm -> {
+				vm.ST = vm.ST - 1;
+				var data = vm.data;
+				data[vm.ST - 1] = TamVm.toInt(data[vm.ST - 1] <= data[vm.ST]);
+				return true;
+			};
+		case Machine.geDisplacement:
+			return vm -> {
+				vm.ST = vm.ST - 1;
+				var data = vm.data;
+				data[vm.ST - 1] = TamVm.toInt(data[vm.ST - 1] >= data[vm.ST]);
+				return true;
+			};
+		case Machine.gtDisplacement:
+			return vm -> {
+				vm.ST = vm.ST - 1;
+				var data = vm.data;
+				data[vm.ST - 1] = TamVm.toInt(data[vm.ST - 1] > data[vm.ST]);
+				return true;
+			};
+		default:
+			return vm -> {
+				vm.callPrimitive(displacement);
+				return carryOn(vm, a);
+			};
+		}
+	}
+
+	private static boolean carryOn(TamVm vm, int a) {
+		// After a primitive at a that may fail, which the interpreter steps past
+		// either way.
+
+		if (vm.status != TamVm.running) {
+			vm.CP = a + 1;
+			return false;
+		}
+		return true;
+	}
+
+	// EXITS
+
+	Exit exit(int a) {
+		// The exit for the instruction at a, which ends a block.
+
+		var word = code.words[2 * a];
+		return exit(CodeSegment.baseOp(CodeSegment.op(word)), CodeSegment.register(word), CodeSegment.length(word),
+				code.words[2 * a + 1], a);
+	}
+
+	private Exit exit(int op, int r, int n, int d, int a) {
+		switch (op) {
+		case Machine.CALLop:
+			return call(r, n, d, a);
+		case Machine.CALLIop:
+			return vm -> {
+				vm.ST = vm.ST - 2;
+				var addr = vm.data[vm.ST + 1];
+				if (addr >= Machine.PB) {
+					vm.callPrimitive(addr - Machine.PB);
+					vm.CP = a + 1;
+				} else {
+					// data[ST] = static link already
+					vm.data[vm.ST + 1] = vm.LB; // dynamic link
+					vm.data[vm.ST + 2] = a + 1; // return address
+					vm.LB = vm.ST;
+					vm.displayLB = -1;
+					vm.ST = vm.ST + 3;
+					vm.CP = addr;
+				}
+				return false;
+			};
+		case Machine.RETURNop:
+			return vm -> {
+				var data = vm.data;
+				var addr = vm.LB - d;
+				vm.CP = data[vm.LB + 2];
+				vm.LB = data[vm.LB + 1];
+				vm.ST = vm.ST - n;
+				for (var index = 0; index < n; index++) {
+					data[addr + index] = data[vm.ST + index];
+				}
+				vm.ST = addr + n;
+				return false;
+			};
+		case Machine.JUMPop: {
+			var target = fixed(r, a);
+			if (target != dynamic) {
+				var addr = d + target;
+				var backward = addr <= a;
+				return vm -> {
+					vm.CP = addr;
+					return backward;
+				};
+			}
+			var address = address(r, d, a);
+			return vm -> {
+				vm.CP = address.of(vm);
+				return vm.CP <= a;
+			};
+		}
+		case Machine.JUMPIop:
+			return vm -> {
+				vm.ST = vm.ST - 1;
+				vm.CP = vm.data[vm.ST];
+				return false;
+			};
+		case Machine.JUMPIFop: {
+			var address = address(r, d, a);
+			return vm -> {
+				vm.ST = vm.ST - 1;
+				if (vm.data[vm.ST] == n) {
+					vm.CP = address.of(vm);
+					return vm.CP <= a;
+				}
+				vm.CP = a + 1;
+				return false;
+			};
+		}
+		case Machine.HALTop:
+			return vm -> {
+				vm.status = TamVm.halted;
+				vm.CP = a;
+				return false;
+			};
+		default:
+			return vm -> {
+				vm.status = TamVm.failedInvalidInstruction;
+				vm.CP = a;
+				return false;
+			};
+		}
+	}
+
+	private Exit call(int r, int n, int d, int a) {
+		// A call to a routine, or through a register whose content is only
+		// known at run time.
+
+		var address = address(r, d, a);
+		var staticLink = 0 <= n && n <= 15 ? address(n, 0, a) : null;
+		return vm -> {
+			var addr = address.of(vm);
+			if (addr >= Machine.PB) {
+				vm.callPrimitive(addr - Machine.PB);
+				vm.CP = a + 1;
+				return false;
+			}
+			if (!vm.checkSpace(3)) {
+				vm.CP = a;
+				return false;
+			}
+			var data = vm.data;
+			if (staticLink != null) {
+				data[vm.ST] = staticLink.of(vm);
+			} else {
+				vm.status = TamVm.failedInvalidInstruction;
+			}
+			data[vm.ST + 1] = vm.LB; // dynamic link
+			data[vm.ST + 2] = a + 1; // return address
+			vm.LB = vm.ST;
+			vm.displayLB = -1;
+			vm.ST = vm.ST + 3;
+			vm.CP = addr;
+			return true;
+		};
+	}
+}
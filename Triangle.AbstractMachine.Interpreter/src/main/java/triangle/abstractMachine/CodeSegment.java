@@ -0,0 +1,678 @@
+/*
+ * @(#)CodeSegment.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+
+/**
+ * A TAM program decoded into a flat array of ints, ready for interpretation.
+ *
+ * <p>
+ * Each instruction at code address a occupies the two words
+ * {@code words[2a]} and {@code words[2a + 1]}. The first holds the op-code,
+ * register and length fields packed as
+ *
+ * <pre>
+ *   bits  0..7   op-code    (Machine.LOADop .. Machine.HALTop)
+ *   bits  8..15  register   (Machine.CBr .. Machine.CPr)
+ *   bits 16..31  length     (0..65535, unsigned)
+ * </pre>
+ *
+ * and the second holds the operand. The interpreter therefore never touches
+ * an {@link Instruction} object or an enum while executing.
+ * </p>
+ *
+ * <p>
+ * Decoding may also fuse common instruction sequences into superinstructions,
+ * which the interpreter executes in a single dispatch. A superinstruction
+ * only replaces the op-code of the first instruction in its sequence: the
+ * remaining instructions, and every field of the first, are left as they
+ * were. A jump into the middle of a sequence therefore still finds the
+ * original instructions, and code addresses are unchanged.
+ * </p>
+ *
+ * <p>
+ * Other common instructions are quickened in the same way: their op-code is
+ * replaced by one for that instruction with its register, length or primitive
+ * already known, such as a single-word LOAD from SB, or a CALL to add.
+ * </p>
+ */
+public final class CodeSegment {
+
+	static final int OP_MASK = 0xFF, R_SHIFT = 8, R_MASK = 0xFF, N_SHIFT = 16, N_MAX = 0xFFFF;
+
+	// Stack effect of a routine whose RETURNs are missing or disagree.
+	static final int unknown = Integer.MIN_VALUE;
+
+	// Pseudo op-code for instructions whose fields cannot be represented.
+	static final int INVALIDop = OP_MASK;
+
+	// Superinstructions. In the comments, "prim" is a dyadic primitive routine
+	// (and, or, add, sub, mult, div, mod, lt, le, ge, gt) called through PB, and
+	// single-word LOADs and STOREs only use SB, LB or L1..L6.
+	static final int LOADLOADPRIMop = 16, // LOAD(1); LOAD(1); CALL prim
+			LOADLOADPRIMSTOREop = 17, // LOAD(1); LOAD(1); CALL prim; STORE(1)
+			LOADLOADPRIMJUMPIFop = 18, // LOAD(1); LOAD(1); CALL prim; JUMPIF(n)
+			LOADLITPRIMop = 19, // LOAD(1); LOADL; CALL prim
+			LOADLITPRIMSTOREop = 20, // LOAD(1); LOADL; CALL prim; STORE(1)
+			LOADLITPRIMJUMPIFop = 21, // LOAD(1); LOADL; CALL prim; JUMPIF(n)
+			LITPRIMop = 22, // LOADL; CALL prim
+			LITPRIMSTOREop = 23, // LOADL; CALL prim; STORE(1)
+			LITMULTADDop = 24, // LOADL; CALL mult; CALL add
+			LITSTOREop = 25, // LOADL; STORE(1)
+			PRIMSTOREop = 26, // CALL prim; STORE(1)
+			PRIMJUMPIFop = 27, // CALL prim; JUMPIF(n)
+			INDEXLOADop = 28, // LOADA; CALL add; LOADI(n)
+			INDEXSTOREop = 29; // LOADA; CALL add; STOREI(n)
+
+	// Quickened instructions: single instructions that start no superinstruction,
+	// specialised for their register, length or primitive, so the interpreter
+	// neither looks the register up nor loops over the words.
+	static final int LOADSBop = 30, // LOAD(1) d[SB]
+			LOADLBop = 31, // LOAD(1) d[LB]
+			LOADASBop = 32, // LOADA d[SB]
+			LOADALBop = 33, // LOADA d[LB]
+			STORESBop = 34, // STORE(1) d[SB]
+			STORELBop = 35, // STORE(1) d[LB]
+			CALLCBop = 36, // CALL(n) d[CB], to a routine
+			CALLADDop = 37, // CALL add
+			CALLSUBop = 38, // CALL sub
+			CALLPRIMop = 39, // CALL prim, any other dyadic primitive
+			JUMPCBop = 40, // JUMP d[CB]
+			JUMPIFCBop = 41; // JUMPIF(n) d[CB]
+
+	final int[] words;
+
+	final int CT;
+
+	private Jit jit, limitedJit;
+
+	private ClosureEngine closures;
+
+	private RegisterEngine registers;
+
+	private int[] runLengths;
+
+	private BitSet inputRuns;
+
+	private long hash;
+
+	private boolean hashed = false;
+
+	private Verifier verifier;
+
+	private CodeSegment(int[] words, int CT) {
+		this.words = words;
+		this.CT = CT;
+	}
+
+	Jit jit() {
+		return jit(false);
+	}
+
+	synchronized Jit jit(boolean limited) {
+		// The compiled tier for this program, shared by all its machines. Code
+		// compiled for machines with limits charges for its runs as it goes,
+		// so it is kept apart from the rest.
+
+		if (limited) {
+			if (limitedJit == null) {
+				limitedJit = new Jit(this, true);
+			}
+			return limitedJit;
+		}
+		if (jit == null) {
+			jit = new Jit(this, false);
+		}
+		return jit;
+	}
+
+	synchronized ClosureEngine closures() {
+		// The closures built for this program, shared by all its machines.
+
+		if (closures == null) {
+			closures = new ClosureEngine(this);
+		}
+		return closures;
+	}
+
+	synchronized RegisterEngine registers() {
+		// The register instructions translated for this program, shared by all
+		// its machines.
+
+		if (registers == null) {
+			registers = new RegisterEngine(closures());
+		}
+		return registers;
+	}
+
+	synchronized Verifier verifier() {
+		// The verifier's findings for this program, worked out on first use.
+
+		if (verifier == null) {
+			verifier = new Verifier(this);
+		}
+		return verifier;
+	}
+
+	/**
+	 * Checks whether machines may run this program in verified mode, without
+	 * checking each instruction. The program is only checked once.
+	 *
+	 * @return null if the program is verified, else a description of the first
+	 *         problem found.
+	 */
+	public String verify() {
+		return verifier().problem();
+	}
+
+	/**
+	 * @return a hash of the instructions, the same whether or not they were
+	 *         fused into superinstructions.
+	 */
+	public synchronized long hash() {
+		if (!hashed) {
+			var bytes = ByteBuffer.allocate(8 * CT + 4);
+			bytes.putInt(CT);
+			for (var a = 0; a < CT; a++) {
+				var word = words[2 * a];
+				bytes.putInt(pack(baseOp(op(word)), register(word), length(word)));
+				bytes.putInt(words[2 * a + 1]);
+			}
+			try {
+				hash = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(bytes.array())).getLong();
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e); // every JVM has SHA-256
+			}
+			hashed = true;
+		}
+		return hash;
+	}
+
+	static int pack(int op, int r, int n) {
+		return op | (r << R_SHIFT) | (n << N_SHIFT);
+	}
+
+	static int op(int word) {
+		return word & OP_MASK;
+	}
+
+	static int register(int word) {
+		return (word >> R_SHIFT) & R_MASK;
+	}
+
+	static int length(int word) {
+		return word >>> N_SHIFT;
+	}
+
+	static int baseOp(int op) {
+		// Returns the op-code an instruction had before it was fused or
+		// quickened.
+
+		switch (op) {
+		case LOADLOADPRIMop:
+		case LOADLOADPRIMSTOREop:
+		case LOADLOADPRIMJUMPIFop:
+		case LOADLITPRIMop:
+		case LOADLITPRIMSTOREop:
+		case LOADLITPRIMJUMPIFop:
+			return Machine.LOADop;
+		case LITPRIMop:
+		case LITPRIMSTOREop:
+		case LITMULTADDop:
+		case LITSTOREop:
+			return Machine.LOADLop;
+		case PRIMSTOREop:
+		case PRIMJUMPIFop:
+			return Machine.CALLop;
+		case INDEXLOADop:
+		case INDEXSTOREop:
+		case LOADASBop:
+		case LOADALBop:
+			return Machine.LOADAop;
+		case LOADSBop:
+		case LOADLBop:
+			return Machine.LOADop;
+		case STORESBop:
+		case STORELBop:
+			return Machine.STOREop;
+		case CALLCBop:
+		case CALLADDop:
+		case CALLSUBop:
+		case CALLPRIMop:
+			return Machine.CALLop;
+		case JUMPCBop:
+			return Machine.JUMPop;
+		case JUMPIFCBop:
+			return Machine.JUMPIFop;
+		default:
+			return op;
+		}
+	}
+
+	/**
+	 * Decodes the instructions code[CB..CT-1] into a new code segment.
+	 *
+	 * @param code the code store holding the loaded program.
+	 * @param CT   the code top, one past the last instruction.
+	 * @return the decoded program.
+	 */
+	public static CodeSegment decode(Instruction[] code, int CT) {
+		return decode(code, CT, true);
+	}
+
+	/**
+	 * Decodes the instructions code[CB..CT-1] into a new code segment.
+	 *
+	 * @param code the code store holding the loaded program.
+	 * @param CT   the code top, one past the last instruction.
+	 * @param fuse whether to fuse common sequences into superinstructions, and
+	 *             quicken other common instructions.
+	 * @return the decoded program.
+	 */
+	public static CodeSegment decode(Instruction[] code, int CT, boolean fuse) {
+		var words = new int[2 * CT];
+		for (var addr = Machine.CB; addr < CT; addr++) {
+			var instr = code[addr];
+			set(words, addr, instr.opCode.ordinal(), instr.register.ordinal(), instr.length, instr.operand);
+		}
+		return decoded(words, CT, fuse);
+	}
+
+	/**
+	 * Decodes the instructions of an object file into a new code segment,
+	 * straight from the bytes of the file.
+	 *
+	 * @param program the instructions of the object file.
+	 * @param fuse    whether to fuse common sequences into superinstructions,
+	 *                and quicken other common instructions.
+	 * @return the decoded program.
+	 * @throws IOException if there are more instructions than fit in the code
+	 *                     store.
+	 */
+	public static CodeSegment decode(ObjectFile.View program, boolean fuse) throws IOException {
+		var CT = Machine.CB + program.count();
+		if (CT > Machine.PB) {
+			throw new IOException("too many instructions for code segment");
+		}
+		var words = new int[2 * CT];
+		for (var addr = Machine.CB; addr < CT; addr++) {
+			set(words, addr, program.opCode(addr), program.register(addr), program.length(addr),
+					program.operand(addr));
+		}
+		return decoded(words, CT, fuse);
+	}
+
+	private static void set(int[] words, int addr, int op, int r, int n, int d) {
+		words[2 * addr] = n < 0 || n > N_MAX ? INVALIDop : pack(op, r, n);
+		words[2 * addr + 1] = d;
+	}
+
+	private static CodeSegment decoded(int[] words, int CT, boolean fuse) {
+		if (fuse) {
+			fuse(words, CT);
+		}
+		return new CodeSegment(words, CT);
+	}
+
+	// SUPERINSTRUCTIONS
+
+	private static void fuse(int[] words, int CT) {
+		// Gives each instruction that starts a known sequence the op-code of the
+		// longest superinstruction matching there, or failing that quickens it.
+		// Patterns only ever inspect later instructions, which are still
+		// unfused when they are looked at.
+
+		for (var addr = Machine.CB; addr < CT; addr++) {
+			var fused = match(words, addr, CT);
+			if (fused == 0) {
+				fused = quicken(words, addr);
+			}
+			if (fused != 0) {
+				words[2 * addr] = (words[2 * addr] & ~OP_MASK) | fused;
+			}
+		}
+	}
+
+	private static int match(int[] words, int addr, int CT) {
+		if (isLoad1(words, addr, CT)) {
+			if (isLoad1(words, addr + 1, CT) && isDyadic(words, addr + 2, CT)) {
+				if (isStore1(words, addr + 3, CT)) {
+					return LOADLOADPRIMSTOREop;
+				} else if (isJumpIf(words, addr + 3, CT)) {
+					return LOADLOADPRIMJUMPIFop;
+				}
+				return LOADLOADPRIMop;
+			}
+			if (isOp(words, addr + 1, CT, Machine.LOADLop) && isDyadic(words, addr + 2, CT)) {
+				if (isStore1(words, addr + 3, CT)) {
+					return LOADLITPRIMSTOREop;
+				} else if (isJumpIf(words, addr + 3, CT)) {
+					return LOADLITPRIMJUMPIFop;
+				}
+				return LOADLITPRIMop;
+			}
+		} else if (isOp(words, addr, CT, Machine.LOADLop)) {
+			if (isPrimitive(words, addr + 1, CT, Machine.multDisplacement)
+					&& isPrimitive(words, addr + 2, CT, Machine.addDisplacement)) {
+				return LITMULTADDop;
+			}
+			if (isDyadic(words, addr + 1, CT)) {
+				return isStore1(words, addr + 2, CT) ? LITPRIMSTOREop : LITPRIMop;
+			}
+			if (isStore1(words, addr + 1, CT)) {
+				return LITSTOREop;
+			}
+		} else if (isDyadic(words, addr, CT)) {
+			if (isStore1(words, addr + 1, CT)) {
+				return PRIMSTOREop;
+			} else if (isJumpIf(words, addr + 1, CT)) {
+				return PRIMJUMPIFop;
+			}
+		} else if (isOp(words, addr, CT, Machine.LOADAop) && isDataRegister(register(words[2 * addr]))
+				&& isPrimitive(words, addr + 1, CT, Machine.addDisplacement)) {
+			if (isOp(words, addr + 2, CT, Machine.LOADIop)) {
+				return INDEXLOADop;
+			} else if (isOp(words, addr + 2, CT, Machine.STOREIop)) {
+				return INDEXSTOREop;
+			}
+		}
+		return 0;
+	}
+
+	private static int quicken(int[] words, int addr) {
+		var word = words[2 * addr];
+		var r = register(word);
+		var n = length(word);
+		var d = words[2 * addr + 1];
+		switch (op(word)) {
+		case Machine.LOADop:
+			if (n == 1 && r == Machine.SBr) {
+				return LOADSBop;
+			}
+			return n == 1 && r == Machine.LBr ? LOADLBop : 0;
+		case Machine.LOADAop:
+			if (r == Machine.SBr) {
+				return LOADASBop;
+			}
+			return r == Machine.LBr ? LOADALBop : 0;
+		case Machine.STOREop:
+			if (n == 1 && r == Machine.SBr) {
+				return STORESBop;
+			}
+			return n == 1 && r == Machine.LBr ? STORELBop : 0;
+		case Machine.CALLop:
+			if (r == Machine.CBr && d < Machine.PB) {
+				return CALLCBop;
+			} else if (r != Machine.PBr || !isDyadic(d)) {
+				return 0;
+			}
+			return d == Machine.addDisplacement ? CALLADDop : d == Machine.subDisplacement ? CALLSUBop : CALLPRIMop;
+		case Machine.JUMPop:
+			return r == Machine.CBr ? JUMPCBop : 0;
+		case Machine.JUMPIFop:
+			return r == Machine.CBr ? JUMPIFCBop : 0;
+		default:
+			return 0;
+		}
+	}
+
+	private static boolean isOp(int[] words, int addr, int CT, int op) {
+		return addr < CT && op(words[2 * addr]) == op;
+	}
+
+	private static boolean isDataRegister(int r) {
+		// Registers whose content cannot change between the steps of a
+		// superinstruction.
+		return r == Machine.SBr || (Machine.LBr <= r && r <= Machine.L6r);
+	}
+
+	private static boolean isLoad1(int[] words, int addr, int CT) {
+		return isOp(words, addr, CT, Machine.LOADop) && length(words[2 * addr]) == 1
+				&& isDataRegister(register(words[2 * addr]));
+	}
+
+	private static boolean isStore1(int[] words, int addr, int CT) {
+		return isOp(words, addr, CT, Machine.STOREop) && length(words[2 * addr]) == 1
+				&& isDataRegister(register(words[2 * addr]));
+	}
+
+	private static boolean isJumpIf(int[] words, int addr, int CT) {
+		return isOp(words, addr, CT, Machine.JUMPIFop) && register(words[2 * addr]) == Machine.CBr;
+	}
+
+	private static boolean isPrimitive(int[] words, int addr, int CT, int displacement) {
+		return isOp(words, addr, CT, Machine.CALLop) && register(words[2 * addr]) == Machine.PBr
+				&& words[2 * addr + 1] == displacement;
+	}
+
+	static boolean isDyadic(int displacement) {
+		// The primitives that pop two single words and push one.
+		return displacement == Machine.andDisplacement || displacement == Machine.orDisplacement
+				|| (Machine.addDisplacement <= displacement && displacement <= Machine.gtDisplacement);
+	}
+
+	private static boolean isDyadic(int[] words, int addr, int CT) {
+		return isOp(words, addr, CT, Machine.CALLop) && register(words[2 * addr]) == Machine.PBr
+				&& isDyadic(words[2 * addr + 1]);
+	}
+
+	// ROUTINES
+
+	BitSet reach(int entry) {
+		// The instructions reachable from entry without following a CALL.
+
+		var reached = new BitSet(CT);
+		var work = new int[CT];
+		var count = 0;
+		work[count++] = entry;
+		reached.set(entry);
+		while (count > 0) {
+			var addr = work[--count];
+			var word = words[2 * addr];
+			var isCB = register(word) == Machine.CBr;
+			int next = addr + 1, jump = -1;
+			switch (baseOp(op(word))) {
+			case Machine.JUMPop:
+				next = -1;
+				jump = isCB ? words[2 * addr + 1] : -1;
+				break;
+			case Machine.JUMPIFop:
+				jump = isCB ? words[2 * addr + 1] : -1;
+				break;
+			case Machine.RETURNop:
+			case Machine.HALTop:
+			case Machine.JUMPIop:
+			case INVALIDop:
+				next = -1;
+				break;
+			}
+			for (var successor : new int[] { next, jump }) {
+				if (0 <= successor && successor < CT && !reached.get(successor)) {
+					reached.set(successor);
+					work[count++] = successor;
+				}
+			}
+		}
+		return reached;
+	}
+
+	static boolean endsRun(int word, int d) {
+		// Whether an instruction may transfer control, ending the run of
+		// straight-line code it is in. A CALL only continues the run if it is
+		// to a primitive at a fixed address.
+
+		switch (baseOp(op(word))) {
+		case Machine.LOADop:
+		case Machine.LOADAop:
+		case Machine.LOADIop:
+		case Machine.LOADLop:
+		case Machine.STOREop:
+		case Machine.STOREIop:
+		case Machine.PUSHop:
+		case Machine.POPop:
+			return false;
+		case Machine.CALLop:
+			return primitiveCalled(word, d) < 0;
+		default:
+			return true;
+		}
+	}
+
+	static int primitiveCalled(int word, int d) {
+		// The displacement of the primitive a CALL goes to, if it is at a fixed
+		// address, else -1.
+
+		var r = register(word);
+		if (r == Machine.PBr) {
+			return d;
+		}
+		return r == Machine.CBr && d >= Machine.PB ? d - Machine.PB : -1;
+	}
+
+	synchronized int[] runLengths() {
+		// For each address, the number of instructions from there up to and
+		// including the next one that ends a run. Machines with limits are
+		// charged this much each time control is transferred to the address.
+
+		if (runLengths == null) {
+			runLengths = new int[CT];
+			for (var a = CT - 1; a >= 0; a--) {
+				var last = a == CT - 1 || endsRun(words[2 * a], words[2 * a + 1]);
+				runLengths[a] = last ? 1 : 1 + runLengths[a + 1];
+			}
+		}
+		return runLengths;
+	}
+
+	synchronized BitSet inputRuns() {
+		// The addresses whose run calls get, geteol or getint, for machines
+		// that pause before reading input.
+
+		if (inputRuns == null) {
+			inputRuns = new BitSet(CT);
+			for (var a = CT - 1; a >= 0; a--) {
+				var word = words[2 * a];
+				var d = words[2 * a + 1];
+				var primitive = baseOp(op(word)) == Machine.CALLop ? primitiveCalled(word, d) : -1;
+				if (primitive == Machine.getDisplacement || primitive == Machine.geteolDisplacement
+						|| primitive == Machine.getintDisplacement
+						|| (a < CT - 1 && !endsRun(word, d) && inputRuns.get(a + 1))) {
+					inputRuns.set(a);
+				}
+			}
+		}
+		return inputRuns;
+	}
+
+	int returnEffect(int entry) {
+		// Returns the change in stack depth made by a call to the routine at
+		// entry, or unknown if it has no RETURN or its RETURNs disagree.
+
+		var effect = unknown;
+		var reached = reach(entry);
+		for (var a = reached.nextSetBit(0); a >= 0; a = reached.nextSetBit(a + 1)) {
+			if (op(words[2 * a]) == Machine.RETURNop) {
+				var returned = length(words[2 * a]) - words[2 * a + 1];
+				if (effect != unknown && effect != returned) {
+					return unknown;
+				}
+				effect = returned;
+			}
+		}
+		return effect;
+	}
+
+	static int pops(int primitive) {
+		// Words popped by a primitive other than eq and ne.
+
+		switch (primitive) {
+		case Machine.idDisplacement:
+		case Machine.eolDisplacement:
+		case Machine.eofDisplacement:
+		case Machine.geteolDisplacement:
+		case Machine.puteolDisplacement:
+			return 0;
+		case Machine.notDisplacement:
+		case Machine.succDisplacement:
+		case Machine.predDisplacement:
+		case Machine.negDisplacement:
+		case Machine.getDisplacement:
+		case Machine.putDisplacement:
+		case Machine.getintDisplacement:
+		case Machine.putintDisplacement:
+		case Machine.newDisplacement:
+		case Machine.disposeDisplacement:
+			return 1;
+		default:
+			return CodeSegment.isDyadic(primitive) ? 2 : -1;
+		}
+	}
+
+	static int pushes(int primitive) {
+		// Words pushed by a primitive other than eq and ne.
+
+		switch (primitive) {
+		case Machine.getDisplacement:
+		case Machine.putDisplacement:
+		case Machine.geteolDisplacement:
+		case Machine.puteolDisplacement:
+		case Machine.getintDisplacement:
+		case Machine.putintDisplacement:
+		case Machine.disposeDisplacement:
+		case Machine.idDisplacement:
+			return 0;
+		default:
+			return 1;
+		}
+	}
+
+	/**
+	 * Loads the TAM object program in the named file and decodes it, fusing
+	 * superinstructions.
+	 *
+	 * @param objectName the name of the file containing the program.
+	 * @return the decoded program, with CT == CB if the file is empty.
+	 * @throws IOException if the file cannot be opened or read, or holds more
+	 *                     instructions than fit in the code store.
+	 */
+	public static CodeSegment load(String objectName) throws IOException {
+		return load(objectName, true);
+	}
+
+	/**
+	 * Loads the TAM object program in the named file, in either format, and
+	 * decodes it. The file is memory-mapped, and decoded straight from its
+	 * bytes.
+	 *
+	 * @param objectName the name of the file containing the program.
+	 * @param fuse       whether to fuse common sequences into superinstructions,
+	 *                   and quicken other common instructions.
+	 * @return the decoded program, with CT == CB if the file is empty.
+	 * @throws IOException if the file cannot be opened or read, or holds more
+	 *                     instructions than fit in the code store.
+	 */
+	public static CodeSegment load(String objectName, boolean fuse) throws IOException {
+		return decode(ObjectFile.map(objectName), fuse);
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * @(#)CompiledProgram.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+/**
+ * The routines of a whole TAM program translated to JVM bytecode ahead of
+ * time by a {@link ProgramCompiler}, one method for each routine that could
+ * be translated. Those that could not are left to the interpreter.
+ */
+interface CompiledProgram {
+
+	/**
+	 * Runs one of the routines, as {@link CompiledRoutine#run} does.
+	 *
+	 * @param vm      the machine.
+	 * @param routine the routine's entry point.
+	 * @param entry   the routine's entry point or one of its loop headers.
+	 */
+	void run(TamVm vm, int routine, int entry);
+
+	/**
+	 * @return for each routine translated, its entry point, the offset from LB
+	 *         to the first stack word of its frame, its greatest stack depth,
+	 *         the number of addresses it may be entered at, then those
+	 *         addresses, then the stack depth at each, all in one array.
+	 */
+	int[] units();
+}
@@ -0,0 +1,38 @@
+/*
+ * @(#)CompiledRoutine.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+/**
+ * A TAM routine translated to JVM bytecode by a {@link RoutineCompiler}.
+ */
+interface CompiledRoutine {
+
+	/**
+	 * Runs the routine whose frame is at the machine's LB, starting at the given
+	 * code address with ST where the interpreter would have it there. Returns
+	 * when the routine returns, when the machine halts or fails, or when the
+	 * rest of the routine must be left to the interpreter; in every case the
+	 * machine's registers and data store are as the interpreter would leave
+	 * them, with CP the next instruction to interpret.
+	 *
+	 * @param vm    the machine.
+	 * @param entry the routine's entry point or one of its loop headers.
+	 */
+	void run(TamVm vm, int entry);
+}
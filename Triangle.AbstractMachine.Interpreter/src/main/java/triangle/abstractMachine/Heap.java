@@ -0,0 +1,327 @@
+/*
+ * @(#)Heap.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Manages the heap of a {@link TamVm}, between HT and HB, for the NEW and
+ * DISPOSE primitives. The machine passes itself to the methods that move HT.
+ *
+ * <p>
+ * The blocks are recorded here rather than in the data store, so a block of
+ * n words takes exactly n words, as in TAM, and a program that never disposes
+ * of anything sees the same addresses it always did. A disposed block is
+ * merged with any free neighbours; a free block reaching down to HT is handed
+ * back to the stack by raising HT. NEW takes a free block of exactly the size
+ * asked for if there is one, else the smallest larger one, split, and only
+ * lowers HT if no free block is big enough.
+ * </p>
+ *
+ * <p>
+ * Free blocks of up to {@link #smallSizes} words are kept in a list for each
+ * size; the list is only checked against the blocks as it is used, so merging
+ * need not search it. Larger free blocks are kept ordered by size.
+ * </p>
+ */
+public final class Heap {
+
+	final static int smallSizes = 16;
+
+	// block sizes, by address
+	private final HashMap<Integer, Integer> allocated = new HashMap<>();
+
+	private final TreeMap<Integer, Integer> free = new TreeMap<>();
+
+	// for each small size, addresses that were free blocks of that size
+	private final List<ArrayDeque<Integer>> bins = new ArrayList<>();
+
+	// larger free blocks, as size << 32 | address
+	private final TreeSet<Long> large = new TreeSet<>();
+
+	private long allocations, disposals, invalidDisposals;
+
+	private int liveWords, peakLiveWords, highWater, freeWords;
+
+	Heap() {
+		for (var size = 0; size <= smallSizes; size++) {
+			bins.add(new ArrayDeque<>()); // the bin for size 0 is never used
+		}
+	}
+
+	void reset() {
+		allocated.clear();
+		free.clear();
+		for (var size = 1; size <= smallSizes; size++) {
+			bins.get(size).clear();
+		}
+		large.clear();
+		allocations = disposals = invalidDisposals = 0;
+		liveWords = peakLiveWords = highWater = freeWords = 0;
+	}
+
+	// ALLOCATION, called by the machine
+
+	/**
+	 * Allocates a block of the given size, lowering HT if need be, and fails the
+	 * machine if there is no room.
+	 *
+	 * @return the address of the block, or HT if the machine failed.
+	 */
+	int allocate(TamVm vm, int size) {
+		if (size <= 0) {
+			return vm.HT; // takes no space, and is not recorded
+		}
+		var addr = takeFree(size);
+		if (addr < 0) {
+			vm.checkHeapSpace(size);
+			if (vm.status != TamVm.running) {
+				return vm.HT;
+			}
+			vm.HT = vm.HT - size;
+			addr = vm.HT;
+			highWater = Math.max(highWater, vm.HB - vm.HT);
+		}
+		allocated.put(addr, size);
+		allocations++;
+		liveWords += size;
+		peakLiveWords = Math.max(peakLiveWords, liveWords);
+		return addr;
+	}
+
+	/**
+	 * Frees the block at the given address. An address that is not the start
+	 * of a block is ignored, as TAM ignored every DISPOSE.
+	 */
+	void dispose(TamVm vm, int addr) {
+		var size = allocated.remove(addr);
+		if (size == null) {
+			invalidDisposals++;
+			return;
+		}
+		disposals++;
+		liveWords -= size;
+
+		var below = free.lowerEntry(addr);
+		if (below != null && below.getKey() + below.getValue() == addr) {
+			removeFree(below.getKey(), below.getValue());
+			addr = below.getKey();
+			size = size + below.getValue();
+		}
+		var above = free.get(addr + size);
+		if (above != null) {
+			removeFree(addr + size, above);
+			size = size + above;
+		}
+		if (addr == vm.HT) {
+			vm.HT = vm.HT + size;
+		} else {
+			addFree(addr, size);
+		}
+	}
+
+	private int takeFree(int size) {
+		// Takes the best-fitting free block of at least size words, splitting
+		// it if it is bigger, and returns its address, or -1 if there is none.
+
+		for (var s = size; s <= smallSizes; s++) {
+			var bin = bins.get(s);
+			while (!bin.isEmpty()) {
+				int addr = bin.pop();
+				var found = free.get(addr);
+				if (found != null && found == s) {
+					free.remove(addr);
+					freeWords -= s;
+					split(addr, s, size);
+					return addr;
+				}
+			}
+		}
+		var block = large.ceiling((long) size << 32);
+		if (block == null) {
+			return -1;
+		}
+		var addr = (int) (long) block;
+		var s = (int) (block >>> 32);
+		removeFree(addr, s);
+		split(addr, s, size);
+		return addr;
+	}
+
+	private void split(int addr, int blockSize, int size) {
+		if (blockSize > size) {
+			addFree(addr + size, blockSize - size);
+		}
+	}
+
+	private void addFree(int addr, int size) {
+		free.put(addr, size);
+		freeWords += size;
+		if (size <= smallSizes) {
+			bins.get(size).push(addr);
+		} else {
+			large.add((long) size << 32 | addr);
+		}
+	}
+
+	private void removeFree(int addr, int size) {
+		// A small block's entry in its bin is left to be skipped when reached.
+		free.remove(addr);
+		freeWords -= size;
+		if (size > smallSizes) {
+			large.remove((long) size << 32 | addr);
+		}
+	}
+
+	// STATE, for snapshots and forks
+
+	Map<Integer, Integer> allocatedBlocks() {
+		return allocated;
+	}
+
+	Map<Integer, Integer> freeBlocks() {
+		return free;
+	}
+
+	/**
+	 * Rebuilds the heap from its blocks, and the counts from them, for a
+	 * machine whose store and HT have already been set.
+	 */
+	void restore(TamVm vm, Map<Integer, Integer> allocatedBlocks, Map<Integer, Integer> freeBlocks) {
+		reset();
+		for (var block : allocatedBlocks.entrySet()) {
+			allocated.put(block.getKey(), block.getValue());
+			liveWords += block.getValue();
+		}
+		for (var block : freeBlocks.entrySet()) {
+			addFree(block.getKey(), block.getValue());
+		}
+		peakLiveWords = liveWords;
+		highWater = vm.HB - vm.HT;
+	}
+
+	void copyCounts(Heap heap) {
+		allocations = heap.allocations;
+		disposals = heap.disposals;
+		invalidDisposals = heap.invalidDisposals;
+		peakLiveWords = heap.peakLiveWords;
+		highWater = heap.highWater;
+	}
+
+	// RESULTS
+
+	/**
+	 * @return the number of blocks allocated by NEW.
+	 */
+	public long getAllocations() {
+		return allocations;
+	}
+
+	/**
+	 * @return the number of blocks freed by DISPOSE.
+	 */
+	public long getDisposals() {
+		return disposals;
+	}
+
+	/**
+	 * @return the number of DISPOSEs of an address that was not the start of an
+	 *         allocated block, which were ignored.
+	 */
+	public long getInvalidDisposals() {
+		return invalidDisposals;
+	}
+
+	/**
+	 * @return the words in allocated blocks.
+	 */
+	public int getLiveWords() {
+		return liveWords;
+	}
+
+	/**
+	 * @return the most words that were in allocated blocks at once.
+	 */
+	public int getPeakLiveWords() {
+		return peakLiveWords;
+	}
+
+	/**
+	 * @return the most words the heap took from the store at once, from HT to
+	 *         HB.
+	 */
+	public int getHighWater() {
+		return highWater;
+	}
+
+	/**
+	 * @return the words in free blocks, between HT and HB.
+	 */
+	public int getFreeWords() {
+		return freeWords;
+	}
+
+	/**
+	 * @return the number of free blocks.
+	 */
+	public int getFreeBlocks() {
+		return free.size();
+	}
+
+	/**
+	 * @return the size of the largest free block, or 0 if there is none.
+	 */
+	public int getLargestFreeBlock() {
+		var largest = 0;
+		for (var size : free.values()) {
+			largest = Math.max(largest, size);
+		}
+		return largest;
+	}
+
+	/**
+	 * @return the fraction of the free words that are not in the largest free
+	 *         block, from 0 when the free space is in one piece to nearly 1
+	 *         when it is scattered.
+	 */
+	public double getFragmentation() {
+		return freeWords == 0 ? 0 : 1 - (double) getLargestFreeBlock() / freeWords;
+	}
+
+	/**
+	 * Writes the counts and sizes above.
+	 *
+	 * @param out the stream to write to.
+	 */
+	public void writeStatistics(PrintStream out) {
+		out.println("Heap: " + allocations + " blocks allocated, " + disposals + " disposed"
+				+ (invalidDisposals > 0 ? ", " + invalidDisposals + " invalid disposals ignored" : ""));
+		out.println("Heap: " + liveWords + " words live, peak " + peakLiveWords + ", high-water " + highWater
+				+ " words");
+		out.println("Heap: " + freeWords + " words free in " + free.size() + " blocks, largest "
+				+ getLargestFreeBlock() + ", fragmentation " + String.format("%.2f", getFragmentation()));
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * @(#)Jit.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The compiled tier, shared by all the machines running one
+ * {@link CodeSegment}.
+ *
+ * <p>
+ * Machines count the calls to each routine and the backward jumps to each loop
+ * header. Once a count reaches the machine's threshold, the routine holding
+ * that address is translated by a {@link RoutineCompiler} into a hidden class,
+ * and from then on the machine runs that class instead of interpreting the
+ * routine. Loop headers are entry points of the class too, so a long-running
+ * loop moves to the compiled tier part-way through, even in the main program.
+ * </p>
+ */
+final class Jit {
+
+	/**
+	 * A routine translated to JVM bytecode, with the addresses it may be entered
+	 * at and the stack depth, relative to its frame, at each.
+	 */
+	final static class Unit {
+
+		final CompiledRoutine routine;
+
+		final int frameOffset; // from LB to the first stack word of the frame
+
+		final int maxDepth;
+
+		final int[] entries, depths;
+
+		Unit(CompiledRoutine routine, int frameOffset, int maxDepth, int[] entries, int[] depths) {
+			this.routine = routine;
+			this.frameOffset = frameOffset;
+			this.maxDepth = maxDepth;
+			this.entries = entries;
+			this.depths = depths;
+		}
+
+		int depthAt(int entry) {
+			for (var i = 0; i < entries.length; i++) {
+				if (entries[i] == entry) {
+					return depths[i];
+				}
+			}
+			return -1;
+		}
+	}
+
+	// Marks addresses where compiled code cannot be entered
+	private final static Unit none = new Unit(null, 0, 0, new int[0], new int[0]);
+
+	final static int unknown = CodeSegment.unknown;
+
+	final CodeSegment code;
+
+	final boolean limited; // whether compiled code charges for its runs
+
+	private final int[] counts;
+
+	private final Unit[] units; // by entry address
+
+	private final Map<Integer, Unit> routines = new HashMap<>(); // by routine entry point
+
+	private final Map<Integer, Integer> returnEffects = new HashMap<>();
+
+	private int[] owners; // routine holding each instruction, or -1
+
+	private BitSet entries; // routine entry points, found with the owners
+
+	private boolean precompiled = false;
+
+	Jit(CodeSegment code, boolean limited) {
+		this.code = code;
+		this.limited = limited;
+		this.counts = new int[code.CT];
+		this.units = new Unit[code.CT];
+	}
+
+	/**
+	 * Counts a call to, or a backward jump to, the given address.
+	 *
+	 * @param addr      a routine entry point or loop header.
+	 * @param threshold the count at which to compile the routine.
+	 * @return the compiled routine if it can be entered at addr, else null.
+	 */
+	Unit hot(int addr, int threshold) {
+		var unit = units[addr];
+		if (unit == null) {
+			// Racing machines may miss a count or two, which does no harm
+			counts[addr] = counts[addr] + 1;
+			if (counts[addr] < threshold) {
+				return null;
+			}
+			unit = compile(addr);
+		}
+		return unit == none ? null : unit;
+	}
+
+	/**
+	 * @return the number of routines translated so far.
+	 */
+	synchronized int compiledRoutines() {
+		return (int) routines.values().stream().filter(unit -> unit != none).count();
+	}
+
+	private synchronized Unit compile(int addr) {
+		if (units[addr] != null) {
+			return units[addr];
+		}
+		var entry = owner(addr);
+		var unit = entry < 0 ? none : routines.get(entry);
+		if (unit == null) {
+			unit = new RoutineCompiler(this, entry).compile();
+			if (unit == null) {
+				unit = none;
+			}
+			routines.put(entry, unit);
+			for (var i = 0; i < unit.entries.length; i++) {
+				units[unit.entries[i]] = unit;
+			}
+		}
+		if (units[addr] == null) {
+			units[addr] = none;
+		}
+		return units[addr];
+	}
+
+	/**
+	 * Takes the routines of a program translated ahead of time, so that each
+	 * is entered as soon as it is reached rather than once it is hot.
+	 *
+	 * @param program the routines, translated from this jit's code segment.
+	 */
+	synchronized void install(CompiledProgram program) {
+		var table = program.units();
+		var at = 0;
+		while (at < table.length) {
+			var entry = table[at];
+			var count = table[at + 3];
+			var entries = Arrays.copyOfRange(table, at + 4, at + 4 + count);
+			var depths = Arrays.copyOfRange(table, at + 4 + count, at + 4 + 2 * count);
+			CompiledRoutine routine = (vm, from) -> program.run(vm, entry, from);
+			var unit = new Unit(routine, table[at + 1], table[at + 2], entries, depths);
+			routines.put(entry, unit);
+			for (var e : entries) {
+				if (units[e] == null) {
+					units[e] = unit;
+				}
+			}
+			at = at + 4 + 2 * count;
+		}
+		precompiled = true;
+	}
+
+	/**
+	 * @return whether the routines were translated ahead of time, in which
+	 *         case the main program is entered compiled too.
+	 */
+	boolean isPrecompiled() {
+		return precompiled;
+	}
+
+	static CompiledRoutine define(byte[] classFile) {
+		// Loads a class written by RoutineCompiler. A class the JVM rejects just
+		// leaves its routine in the interpreter.
+
+		try {
+			var lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+			return (CompiledRoutine) lookup.lookupClass().getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	// ROUTINES
+
+	private int owner(int addr) {
+		// Returns the entry point of the one routine holding addr, or -1.
+
+		if (owners == null) {
+			var words = code.words;
+			entries = new BitSet(code.CT);
+			for (var a = 0; a < code.CT; a++) {
+				// routines are called, or made into closures, through CB
+				var op = CodeSegment.baseOp(CodeSegment.op(words[2 * a]));
+				var d = words[2 * a + 1];
+				if ((op == Machine.CALLop || op == Machine.LOADAop)
+						&& CodeSegment.register(words[2 * a]) == Machine.CBr && 0 <= d && d < code.CT) {
+					entries.set(d);
+				}
+			}
+			// the main program, at CB, had better not be called as well
+			var mainIsCalled = entries.get(Machine.CB);
+			entries.set(Machine.CB);
+			owners = new int[code.CT];
+			Arrays.fill(owners, -1);
+			for (var e = entries.nextSetBit(0); e >= 0; e = entries.nextSetBit(e + 1)) {
+				var reached = code.reach(e);
+				for (var a = reached.nextSetBit(0); a >= 0; a = reached.nextSetBit(a + 1)) {
+					owners[a] = (owners[a] == -1 && !(mainIsCalled && e == Machine.CB)) ? e : -2;
+				}
+			}
+		}
+		return owners[addr] >= 0 ? owners[addr] : -1;
+	}
+
+	/**
+	 * @return the entry points of the routines that may be compiled, in
+	 *         increasing order.
+	 */
+	synchronized int[] routineEntries() {
+		owner(Machine.CB);
+		return entries.stream().filter(e -> owner(e) == e).toArray();
+	}
+
+	/**
+	 * @param entry a routine entry point.
+	 * @return the change in stack depth made by a call to the routine, or
+	 *         unknown if it has no RETURN or its RETURNs disagree.
+	 */
+	synchronized int returnEffect(int entry) {
+		return returnEffects.computeIfAbsent(entry, code::returnEffect);
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * @(#)PrecompiledRunner.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The main class of a jar written by the ahead-of-time compiler, which holds
+ * the object program as {@link #objectEntry}, its routines translated by a
+ * {@link ProgramCompiler}, and the classes of the machine.
+ *
+ * <p>
+ * The program is run as the interpreter would run it, but with each
+ * translated routine, and the main program, entered compiled as soon as it is
+ * reached. Usage:
+ * </p>
+ *
+ * <pre>
+ *   java -jar program.jar [-stack=words] [-heap=words] [grow]
+ * </pre>
+ */
+public final class PrecompiledRunner {
+
+	/**
+	 * The name of the jar entry holding the object program.
+	 */
+	public final static String objectEntry = "program.tam";
+
+	private PrecompiledRunner() {
+	}
+
+	/**
+	 * Creates a machine that runs a program with its routines translated ahead
+	 * of time. Options that limit the run leave the routines to the jit, as
+	 * compiled code that charges for its runs is kept apart.
+	 *
+	 * @param code    the decoded program.
+	 * @param program its routines, translated by a ProgramCompiler.
+	 * @param in      the stream read by the input primitives.
+	 * @param out     the stream written by the output primitives.
+	 * @param options the settings for the run; the compile threshold is
+	 *                ignored.
+	 * @return the machine, ready to run.
+	 */
+	static TamVm machine(CodeSegment code, CompiledProgram program, InputStream in, PrintStream out,
+			VmOptions options) {
+		var jit = code.jit();
+		if (!jit.isPrecompiled()) {
+			jit.install(program);
+		}
+		options = options.copy();
+		options.setCompileThreshold(1);
+		return new TamVm(code, in, out, options);
+	}
+
+	public static void main(String[] args) {
+		var options = new VmOptions();
+		for (String s : args) {
+			String lower = s.toLowerCase();
+			if (lower.startsWith("-stack=")) {
+				options.setStackSize(Integer.parseInt(s.substring(7)));
+			} else if (lower.startsWith("-heap=")) {
+				options.setHeapSize(Integer.parseInt(s.substring(6)));
+			} else if (lower.equals("grow")) {
+				options.setGrowable(true);
+			} else {
+				System.err.println("Unknown option: " + s);
+				return;
+			}
+		}
+
+		CodeSegment code;
+		CompiledProgram program;
+		try (var object = PrecompiledRunner.class.getResourceAsStream("/" + objectEntry)) {
+			if (object == null) {
+				System.err.println("Error opening object program: no " + objectEntry + " in the jar");
+				return;
+			}
+			code = CodeSegment.decode(ObjectFile.open(ByteBuffer.wrap(object.readAllBytes())), true);
+			program = (CompiledProgram) Class.forName(ProgramCompiler.className.replace('/', '.'))
+					.getDeclaredConstructor().newInstance();
+		} catch (IOException s) {
+			System.err.println("Error reading object program: " + s);
+			return;
+		} catch (ReflectiveOperationException s) {
+			System.err.println("Error loading compiled program: " + s);
+			return;
+		}
+
+		var vm = machine(code, program, System.in, System.out, options);
+		vm.run();
+		vm.showStatus();
+	}
+}
@@ -0,0 +1,327 @@
+/*
+ * @(#)Profiler.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * The counts gathered by a profiled {@link TamVm}.
+ *
+ * <p>
+ * The machine counts every instruction it executes against the instruction's
+ * address, and against the node of a call tree for the chain of calls that
+ * reached it. A routine is identified by the address its CALL or CALLI went
+ * to; the main program is the root of the tree. Calls to primitives are
+ * counted but, taking no instructions of their own, are not part of the tree.
+ * </p>
+ *
+ * <p>
+ * A routine's exclusive count is the instructions executed in the routine
+ * itself, its inclusive count adds those of the routines it calls. A recursive
+ * routine's instructions are counted once in its inclusive count, not once for
+ * each activation they ran under.
+ * </p>
+ */
+public final class Profiler {
+
+	// One node of the call tree, for each distinct chain of calls
+	private final static class Node {
+
+		final int routine; // entry point, or -1 for the main program
+
+		final Node parent;
+
+		final int depth;
+
+		long calls, self, total;
+
+		Node firstChild, nextSibling;
+
+		Node(int routine, Node parent) {
+			this.routine = routine;
+			this.parent = parent;
+			this.depth = parent == null ? 0 : parent.depth + 1;
+		}
+	}
+
+	private final CodeSegment code;
+
+	private final long[] counts; // by code address
+
+	private final long[] primitiveCalls; // by primitive displacement
+
+	private final Node root = new Node(-1, null);
+
+	private Node current = root;
+
+	Profiler(CodeSegment code) {
+		this.code = code;
+		this.counts = new long[code.CT];
+		this.primitiveCalls = new long[Machine.PT - Machine.PB];
+		root.calls = 1;
+	}
+
+	// COUNTING, called by the machine
+
+	void count(int addr) {
+		counts[addr]++;
+		current.self++;
+	}
+
+	void enter(int routine) {
+		var child = current.firstChild;
+		while (child != null && child.routine != routine) {
+			child = child.nextSibling;
+		}
+		if (child == null) {
+			child = new Node(routine, current);
+			child.nextSibling = current.firstChild;
+			current.firstChild = child;
+		}
+		child.calls++;
+		current = child;
+	}
+
+	void leave() {
+		// A RETURN from the main program fails the run, so leaves it there
+		if (current.parent != null) {
+			current = current.parent;
+		}
+	}
+
+	void callPrimitive(int primitiveDisplacement) {
+		if (0 <= primitiveDisplacement && primitiveDisplacement < primitiveCalls.length) {
+			primitiveCalls[primitiveDisplacement]++;
+		}
+	}
+
+	void restart() {
+		current = root;
+	}
+
+	// RESULTS
+
+	/**
+	 * @return the number of instructions executed.
+	 */
+	public long getInstructionCount() {
+		long total = 0;
+		for (var count : counts) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * @param addr a code address.
+	 * @return the number of times the instruction at addr was executed.
+	 */
+	public long getCount(int addr) {
+		return 0 <= addr && addr < counts.length ? counts[addr] : 0;
+	}
+
+	/**
+	 * @param routine a routine entry point, or -1 for the main program.
+	 * @return the number of calls to the routine, its inclusive count and its
+	 *         exclusive count, all zero if it was never called.
+	 */
+	public long[] getRoutine(int routine) {
+		var routines = summarise();
+		return routines.containsKey(routine) ? routines.get(routine) : new long[3];
+	}
+
+	private TreeMap<Integer, long[]> summarise() {
+		// Adds up the call tree by routine: calls, inclusive and exclusive
+		// counts. A node's total counts towards its routine's inclusive count
+		// only if no node above it is for the same routine.
+
+		var nodes = preorder();
+		for (var i = nodes.size() - 1; i >= 0; i--) {
+			var node = nodes.get(i);
+			node.total = node.self;
+			for (var child = node.firstChild; child != null; child = child.nextSibling) {
+				node.total += child.total;
+			}
+		}
+		var routines = new TreeMap<Integer, long[]>();
+		var active = new HashMap<Integer, Integer>();
+		var path = new ArrayList<Node>();
+		for (var node : nodes) {
+			while (path.size() > node.depth) {
+				active.merge(path.remove(path.size() - 1).routine, -1, Integer::sum);
+			}
+			path.add(node);
+			var sums = routines.computeIfAbsent(node.routine, routine -> new long[3]);
+			sums[0] += node.calls;
+			if (active.merge(node.routine, 1, Integer::sum) == 1) {
+				sums[1] += node.total;
+			}
+			sums[2] += node.self;
+		}
+		return routines;
+	}
+
+	private ArrayList<Node> preorder() {
+		var nodes = new ArrayList<Node>();
+		var work = new ArrayDeque<Node>();
+		work.push(root);
+		while (!work.isEmpty()) {
+			var node = work.pop();
+			nodes.add(node);
+			for (var child = node.firstChild; child != null; child = child.nextSibling) {
+				work.push(child);
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * Writes the counts as a table of routines, by inclusive count, a table of
+	 * primitives, and the instructions executed, by address.
+	 *
+	 * @param out the stream to write to.
+	 */
+	public void writeReport(PrintStream out) {
+		var total = getInstructionCount();
+		var routines = summarise();
+		long calls = 0;
+		for (var sums : routines.values()) {
+			calls += sums[0];
+		}
+		for (var primitive : primitiveCalls) {
+			calls += primitive;
+		}
+		out.println("Profile: " + total + " instructions executed, " + (calls - 1) + " calls");
+		out.println("");
+
+		out.println("Routines, by inclusive count:");
+		out.println("");
+		out.println(String.format("%12s %14s %7s %14s %7s  %s", "calls", "inclusive", "%", "exclusive", "%", "routine"));
+		var byInclusive = new ArrayList<>(routines.entrySet());
+		byInclusive.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+		for (var entry : byInclusive) {
+			var sums = entry.getValue();
+			out.println(String.format("%12d %14d %7s %14d %7s  %s", sums[0], sums[1], percent(sums[1], total),
+					sums[2], percent(sums[2], total), name(entry.getKey())));
+		}
+		out.println("");
+
+		out.println("Primitives:");
+		out.println("");
+		out.println(String.format("%12s  %s", "calls", "primitive"));
+		for (var d = 0; d < primitiveCalls.length; d++) {
+			if (primitiveCalls[d] > 0) {
+				out.println(String.format("%12d  %s", primitiveCalls[d], name(Machine.PB + d)));
+			}
+		}
+		out.println("");
+
+		out.println("Instructions, by address:");
+		out.println("");
+		out.println(String.format("%8s %14s %7s  %s", "address", "count", "%", "instruction"));
+		for (var addr = 0; addr < counts.length; addr++) {
+			if (counts[addr] > 0) {
+				out.println(String.format("%8d %14d %7s  %s", addr, counts[addr], percent(counts[addr], total),
+						instruction(addr)));
+			}
+		}
+	}
+
+	/**
+	 * Writes the call tree in the collapsed-stack format read by flame graph
+	 * tools: one line for each chain of calls that executed instructions of its
+	 * own, naming the routines from the main program down, separated by
+	 * semicolons, then the number of instructions.
+	 *
+	 * @param out the stream to write to.
+	 */
+	public void writeCollapsedStacks(PrintStream out) {
+		var path = new ArrayList<String>();
+		for (var node : preorder()) {
+			while (path.size() > node.depth) {
+				path.remove(path.size() - 1);
+			}
+			path.add(name(node.routine));
+			if (node.self > 0) {
+				out.println(String.join(";", path) + " " + node.self);
+			}
+		}
+	}
+
+	private static String percent(long count, long total) {
+		return total == 0 ? "-" : String.format("%.2f", 100.0 * count / total);
+	}
+
+	private static String name(int routine) {
+		if (routine < 0) {
+			return "main";
+		}
+		var d = routine - Machine.PB;
+		if (0 <= d && d < Instruction.primitives.length) {
+			return Instruction.primitives[d].name().toLowerCase();
+		}
+		return routine + "[CB]";
+	}
+
+	private String instruction(int addr) {
+		// Writes the instruction at addr in the style of the disassembler.
+
+		var word = code.words[2 * addr];
+		var op = CodeSegment.baseOp(CodeSegment.op(word));
+		var r = CodeSegment.register(word);
+		var n = CodeSegment.length(word);
+		var d = code.words[2 * addr + 1];
+		if (op < 0 || op >= Instruction.opCodes.length) {
+			return "(invalid)";
+		}
+		var name = Instruction.opCodes[op].name();
+		var register = r < Instruction.registers.length ? Instruction.registers[r].name() : String.valueOf(r);
+		switch (op) {
+		case Machine.LOADop:
+		case Machine.STOREop:
+			return name + " (" + n + ") " + d + "[" + register + "]";
+		case Machine.LOADAop:
+		case Machine.JUMPop:
+			return name + " " + d + "[" + register + "]";
+		case Machine.LOADIop:
+		case Machine.STOREIop:
+			return name + " (" + n + ")";
+		case Machine.LOADLop:
+		case Machine.PUSHop:
+			return name + " " + d;
+		case Machine.CALLop:
+			if (r == Machine.PBr) {
+				return name + " " + name(Machine.PB + d);
+			}
+			var link = n < Instruction.registers.length ? Instruction.registers[n].name() : String.valueOf(n);
+			return name + " (" + link + ") " + d + "[" + register + "]";
+		case Machine.RETURNop:
+		case Machine.POPop:
+			return name + " (" + n + ") " + d;
+		case Machine.JUMPIFop:
+			return name + " (" + n + ") " + d + "[" + register + "]";
+		default:
+			return name;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * @(#)ProgramCompiler.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import static triangle.abstractMachine.jvm.CodeWriter.*;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+
+import triangle.abstractMachine.jvm.ClassWriter;
+import triangle.abstractMachine.jvm.CodeWriter.Label;
+
+/**
+ * Translates every routine of a TAM program ahead of time into one JVM class
+ * implementing {@link CompiledProgram}.
+ *
+ * <p>
+ * Each routine becomes a method written by a {@link RoutineCompiler}, just as
+ * the jit would translate it once it was hot, so the primitives other than
+ * I/O and the heap are JVM arithmetic and the program fails exactly as the
+ * interpreter would. A routine the jit would leave to the interpreter is left
+ * to it here too. The class is in the package of {@link TamVm}, whose fields
+ * the methods work on directly.
+ * </p>
+ */
+final class ProgramCompiler {
+
+	/**
+	 * The internal name of the class written.
+	 */
+	final static String className = "triangle/abstractMachine/AotProgram";
+
+	private final static String VM = "triangle/abstractMachine/TamVm";
+
+	private final CodeSegment code;
+
+	private int routines = 0, translated = 0;
+
+	ProgramCompiler(CodeSegment code) {
+		this.code = code;
+	}
+
+	/**
+	 * @return the class file.
+	 */
+	byte[] compile() {
+		var jit = new Jit(code, false);
+		var cf = new ClassWriter(ClassWriter.ACC_FINAL | ClassWriter.ACC_SUPER, className, "java/lang/Object",
+				"triangle/abstractMachine/CompiledProgram");
+
+		var init = cf.addMethod(ClassWriter.ACC_PUBLIC, "<init>", "()V");
+		init.local(ALOAD, 0);
+		init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+		init.op(RETURN);
+
+		var entries = new ArrayList<Integer>();
+		var units = new ArrayList<Jit.Unit>();
+		for (var entry : jit.routineEntries()) {
+			var unit = new RoutineCompiler(jit, entry).compileInto(cf, method(entry));
+			routines = routines + 1;
+			if (unit != null) {
+				entries.add(entry);
+				units.add(unit);
+				translated = translated + 1;
+			}
+		}
+		dispatch(cf, entries);
+		table(cf, entries, units);
+		return cf.toByteArray();
+	}
+
+	/**
+	 * @return the number of routines found by the last compile.
+	 */
+	int routines() {
+		return routines;
+	}
+
+	/**
+	 * @return the number of those translated.
+	 */
+	int translated() {
+		return translated;
+	}
+
+	/**
+	 * Loads a class written by a ProgramCompiler as a hidden class.
+	 *
+	 * @param classFile the class file.
+	 * @return an instance of the class.
+	 * @throws ReflectiveOperationException if the class cannot be instantiated.
+	 */
+	static CompiledProgram define(byte[] classFile) throws ReflectiveOperationException {
+		var lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+		return (CompiledProgram) lookup.lookupClass().getDeclaredConstructor().newInstance();
+	}
+
+	private static String method(int entry) {
+		return "routine" + entry;
+	}
+
+	private static void dispatch(ClassWriter cf, List<Integer> entries) {
+		// run(vm, routine, entry) calls the method for the routine.
+
+		var cw = cf.addMethod(ClassWriter.ACC_PUBLIC, "run", "(L" + VM + ";II)V");
+		var keys = new int[entries.size()];
+		var labels = new Label[keys.length];
+		for (var i = 0; i < keys.length; i++) {
+			keys[i] = entries.get(i);
+			labels[i] = new Label();
+		}
+		var none = new Label();
+		cw.local(ILOAD, 2);
+		cw.lookupswitch(keys, labels, none);
+		for (var i = 0; i < keys.length; i++) {
+			cw.mark(labels[i]);
+			cw.local(ALOAD, 0);
+			cw.local(ALOAD, 1);
+			cw.local(ILOAD, 3);
+			cw.invoke(INVOKEVIRTUAL, className, method(keys[i]), "(L" + VM + ";I)V");
+			cw.op(RETURN);
+		}
+		cw.mark(none);
+		cw.op(RETURN);
+	}
+
+	private static void table(ClassWriter cf, List<Integer> entries, List<Jit.Unit> units) {
+		// units() builds the table described by CompiledProgram.units.
+
+		var table = new ArrayList<Integer>();
+		for (var i = 0; i < units.size(); i++) {
+			var unit = units.get(i);
+			table.add(entries.get(i));
+			table.add(unit.frameOffset);
+			table.add(unit.maxDepth);
+			table.add(unit.entries.length);
+			for (var entry : unit.entries) {
+				table.add(entry);
+			}
+			for (var depth : unit.depths) {
+				table.add(depth);
+			}
+		}
+
+		var cw = cf.addMethod(ClassWriter.ACC_PUBLIC, "units", "()[I");
+		cw.iconst(table.size());
+		cw.newarray(T_INT);
+		for (var i = 0; i < table.size(); i++) {
+			cw.op(DUP);
+			cw.iconst(i);
+			cw.iconst(table.get(i));
+			cw.op(IASTORE);
+		}
+		cw.op(ARETURN);
+	}
+}
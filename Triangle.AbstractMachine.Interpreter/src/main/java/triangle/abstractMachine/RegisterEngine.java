@@ -0,0 +1,643 @@
+/*
+ * @(#)RegisterEngine.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * An alternative to the interpreter's {@code switch} loop that translates each
+ * basic block of a {@link CodeSegment}, when first reached, into register
+ * instructions, and runs those.
+ *
+ * <p>
+ * TAM is a stack machine, so {@code a := a + 1} takes four instructions: two
+ * pushes, a call to add and a store. Within a block the depth of the stack
+ * before each instruction is known relative to ST at the start of the block,
+ * so each stack slot can be named like a register. The translation follows
+ * the stack as it goes, and instead of a push passes the variable, address or
+ * literal pushed to the instruction that pops it; a single-word STORE of the
+ * result is folded in as well. The assignment above becomes one register
+ * instruction: ADD 3[LB] and the literal 1, and store the sum to 3[LB].
+ * </p>
+ *
+ * <p>
+ * Programs may read the words just above ST that were popped, so each
+ * register instruction still writes every word that the pushes it stands for
+ * would have, and the machine is left in exactly the state the interpreter
+ * would leave it in, including when an instruction fails. What is saved is
+ * the dispatch of each push and store and the updates of ST in between.
+ * Instructions with no register form, such as a multi-word LOAD or a call to
+ * an I/O primitive, run as their {@link ClosureEngine} step, and unusual
+ * control transfers as its exit. A block that needs more room on the stack
+ * than is left is run by the closure engine instead, so that it fails at the
+ * same instruction as the interpreter would.
+ * </p>
+ */
+final class RegisterEngine {
+
+	// Each register instruction takes size words: the head, packing the
+	// op-code, a primitive, and the address a of the TAM instruction that may
+	// fail or transfer control; the slot k it works on, counted from ST at the
+	// start of the block or after the last step; and the operands x, y and z.
+	private final static int size = 5;
+
+	private final static int OP_MASK = 0xFF, PRIM_SHIFT = 8, PRIM_MASK = 0xFF, A_SHIFT = 16;
+
+	// Op-codes. "k := x" also writes x to slot k, unless x is that slot.
+	private final static int ROOM = 0, // unless k words are free above ST, run the closures from a
+			MOVE = 1, // k := x
+			ADD = 2, // k := x; k + 1 := y; k := k + (k + 1); z := k
+			SUB = 3, // as ADD, with k - (k + 1)
+			DYADIC = 4, // as ADD, with the dyadic primitive
+			MONADIC = 5, // k := x; k := prim k; z := k
+			STORE = 6, // k := x; z := k
+			LOADI = 7, // k := x; k := data[k]
+			STOREI = 8, // k := x; k + 1 := y; data[k + 1] := k
+			STEP = 9, // ST := k; run closure step x; count slots from ST again
+			JUMP = 10, // ST := k; CP := x
+			JUMPIF = 11, // k := x; ST := k; CP := y if k = z, else a + 1
+			CALL = 12, // call the routine at x, with static link y, from ST = k
+			RETURN = 13, // return x words, popping y, from ST = k
+			EXIT = 14, // ST := k; run the closure exit
+			END = 15; // ST := k; run off the end of the code
+
+	// Operands pack a value, shifted left, with its kind. An operand that is
+	// not a slot stands for the push of its value.
+	private final static int KIND = 7, SHIFT = 3;
+
+	private final static int SLOT = 0, // the slot of that number
+			FRAME = 1, // the word at LB + value
+			GLOBAL = 2, // the word at value
+			UP = 3, // the word at L1 + value
+			LITERAL = 4, // value itself
+			FRAME_ADDRESS = 5, // LB + value
+			NONE = 7; // no operand
+
+	final static class Block {
+
+		private final int[] ir;
+
+		private final ClosureEngine.Step[] steps;
+
+		private final ClosureEngine.Exit exit; // null if the block runs off the end of the code
+
+		Block(int[] ir, ClosureEngine.Step[] steps, ClosureEngine.Exit exit) {
+			this.ir = ir;
+			this.steps = steps;
+			this.exit = exit;
+		}
+	}
+
+	private final ClosureEngine closures;
+
+	private final CodeSegment code;
+
+	private final int CT;
+
+	// by starting address; racing machines may each build the same block,
+	// which does no harm as blocks are immutable
+	private final Block[] blocks;
+
+	RegisterEngine(ClosureEngine closures) {
+		this.closures = closures;
+		this.code = closures.code;
+		this.CT = code.CT;
+		this.blocks = new Block[CT];
+	}
+
+	/**
+	 * Runs the machine from CP until it halts or fails, or until LB returns to
+	 * callerLB, when compiled code is waiting for the result.
+	 *
+	 * @return the status of the machine.
+	 */
+	int run(TamVm vm, int callerLB) {
+		do {
+			var block = blocks[vm.CP];
+			if (block == null) {
+				block = new Translation(vm.CP).block();
+				blocks[vm.CP] = block;
+			}
+			var hot = run(vm, block);
+			if (vm.limited && !vm.chargeRun()) {
+				return vm.status;
+			}
+			if (hot && vm.jit != null) {
+				vm.tierUp(vm.CP);
+			}
+			if (vm.LB == callerLB) {
+				return vm.status;
+			}
+			if (vm.CP < TamVm.CB || vm.CP >= CT) {
+				vm.status = TamVm.failedInvalidCodeAddress;
+			}
+		} while (vm.status == TamVm.running);
+		return vm.status;
+	}
+
+	private boolean run(TamVm vm, Block block) {
+		// Runs a block, leaving CP at the next instruction to run. Returns true
+		// if a routine was called or a backward jump taken, as an exit does.
+
+		var ir = block.ir;
+		var data = vm.data;
+		var st = vm.ST; // the slots are counted from here
+		var lb = vm.LB;
+		var pc = 0;
+		try {
+			for (;; pc += size) {
+				var head = ir[pc];
+				var k = st + ir[pc + 1];
+				var a = head >>> A_SHIFT;
+				int value;
+				switch (head & OP_MASK) {
+				case ROOM:
+					if (vm.HT - st < ir[pc + 1]) {
+						vm.ST = st;
+						vm.CP = a;
+						return closures.block(a).run(vm);
+					}
+					if (k > data.length) {
+						vm.growData(k);
+						data = vm.data;
+					}
+					break;
+				case MOVE:
+					operand(data, ir[pc + 2], k, lb);
+					break;
+				case ADD:
+					value = operand(data, ir[pc + 2], k, lb);
+					value = TamVm.checked((long) value + operand(data, ir[pc + 3], k + 1, lb));
+					data[k] = value;
+					store(data, ir[pc + 4], lb, value);
+					break;
+				case SUB:
+					value = operand(data, ir[pc + 2], k, lb);
+					value = TamVm.checked((long) value - operand(data, ir[pc + 3], k + 1, lb));
+					data[k] = value;
+					store(data, ir[pc + 4], lb, value);
+					break;
+				case DYADIC:
+					value = operand(data, ir[pc + 2], k, lb);
+					value = TamVm.dyadic((head >>> PRIM_SHIFT) & PRIM_MASK, value,
+							operand(data, ir[pc + 3], k + 1, lb));
+					data[k] = value;
+					store(data, ir[pc + 4], lb, value);
+					break;
+				case MONADIC:
+					value = monadic((head >>> PRIM_SHIFT) & PRIM_MASK, operand(data, ir[pc + 2], k, lb));
+					data[k] = value;
+					store(data, ir[pc + 4], lb, value);
+					break;
+				case STORE:
+					store(data, ir[pc + 4], lb, operand(data, ir[pc + 2], k, lb));
+					break;
+				case LOADI:
+					data[k] = data[operand(data, ir[pc + 2], k, lb)];
+					break;
+				case STOREI:
+					value = operand(data, ir[pc + 2], k, lb);
+					data[operand(data, ir[pc + 3], k + 1, lb)] = value;
+					break;
+				case STEP:
+					vm.ST = k;
+					if (!block.steps[ir[pc + 2]].run(vm)) {
+						return false;
+					}
+					data = vm.data;
+					st = vm.ST;
+					break;
+				case JUMP:
+					vm.ST = k;
+					vm.CP = ir[pc + 2];
+					return vm.CP <= a;
+				case JUMPIF:
+					value = operand(data, ir[pc + 2], k, lb);
+					vm.ST = k;
+					if (value == ir[pc + 4]) {
+						vm.CP = ir[pc + 3];
+						return vm.CP <= a;
+					}
+					vm.CP = a + 1;
+					return false;
+				case CALL:
+					if (vm.HT - k < 3 || k + 3 > data.length) {
+						vm.ST = k;
+						return block.exit.run(vm);
+					}
+					data[k] = value(data, ir[pc + 3], lb); // static link
+					data[k + 1] = lb; // dynamic link
+					data[k + 2] = a + 1; // return address
+					vm.LB = k;
+					vm.displayLB = -1;
+					vm.ST = k + 3;
+					vm.CP = ir[pc + 2];
+					return true;
+				case RETURN:
+					value = lb - ir[pc + 3];
+					vm.CP = data[lb + 2];
+					vm.LB = data[lb + 1];
+					k = k - ir[pc + 2];
+					for (var index = 0; index < ir[pc + 2]; index++) {
+						data[value + index] = data[k + index];
+					}
+					vm.ST = value + ir[pc + 2];
+					return false;
+				case EXIT:
+					vm.ST = k;
+					return block.exit.run(vm);
+				default: // END
+					vm.ST = k;
+					vm.CP = CT;
+					return false;
+				}
+			}
+		} catch (TamVm.Stop stop) {
+			// a primitive failed, leaving its result slot on top of the stack
+			var k = st + ir[pc + 1];
+			if (stop.status == TamVm.failedOverflow) {
+				data[k] = 0; // the instruction that overflowed leaves 0 as its result
+			}
+			vm.ST = k + 1;
+			vm.CP = (ir[pc] >>> A_SHIFT) + 1;
+			vm.status = stop.status;
+			return false;
+		}
+	}
+
+	private static int operand(int[] data, int x, int slot, int lb) {
+		// Returns the value of operand x for the given slot, first pushing it
+		// there unless it is that slot.
+
+		if ((x & KIND) == SLOT) {
+			return data[slot];
+		}
+		var value = value(data, x, lb);
+		data[slot] = value;
+		return value;
+	}
+
+	private static int value(int[] data, int x, int lb) {
+		var v = x >> SHIFT;
+		switch (x & KIND) {
+		case FRAME:
+			return data[lb + v];
+		case GLOBAL:
+			return data[v];
+		case UP:
+			return data[data[lb] + v];
+		case FRAME_ADDRESS:
+			return lb + v;
+		default: // LITERAL
+			return v;
+		}
+	}
+
+	private static void store(int[] data, int z, int lb, int value) {
+		var v = z >> SHIFT;
+		switch (z & KIND) {
+		case FRAME:
+			data[lb + v] = value;
+			break;
+		case GLOBAL:
+			data[v] = value;
+			break;
+		case UP:
+			data[data[lb] + v] = value;
+			break;
+		default: // NONE
+			break;
+		}
+	}
+
+	private static int monadic(int primitive, int value) {
+		switch (primitive) {
+		case Machine.notDisplacement:
+			return TamVm.toInt(!TamVm.isTrue(value));
+		case Machine.succDisplacement:
+			return TamVm.checked((long) value + 1);
+		case Machine.predDisplacement:
+			return TamVm.checked((long) value - 1);
+		default: // neg
+			return -value;
+		}
+	}
+
+	// TRANSLATION
+
+	private static int operand(int kind, int value) {
+		// Returns the operand, or NONE if the value does not fit.
+
+		return (value << SHIFT) >> SHIFT == value ? (value << SHIFT) | kind : NONE;
+	}
+
+	private final class Translation {
+		// Translates the block starting at start, following the stack as it
+		// goes. The pushes not yet passed to an instruction are always the
+		// top of the stack.
+
+		private final int start;
+
+		private int[] ir = new int[16 * size];
+
+		private int count = 0; // words of ir used
+
+		private final ArrayList<ClosureEngine.Step> steps = new ArrayList<>();
+
+		private int depth = 0; // slots in use, from the start or the last step
+
+		private int[] pushed = new int[8]; // operands of the pending pushes, bottom first
+
+		private int pending = 0;
+
+		// The current run of slots, up to the next step: where its instructions
+		// start in ir, the address of its first TAM instruction, and the most
+		// slots it uses
+		private int segment = 0, segmentStart, room = 0;
+
+		Translation(int start) {
+			this.start = start;
+			this.segmentStart = start;
+		}
+
+		Block block() {
+			var words = code.words;
+			for (var a = start; a < CT; a++) {
+				var word = words[2 * a];
+				var op = CodeSegment.baseOp(CodeSegment.op(word));
+				var r = CodeSegment.register(word);
+				var n = CodeSegment.length(word);
+				var d = words[2 * a + 1];
+				if (CodeSegment.endsRun(word, d)) {
+					exit(op, r, n, d, a);
+					return new Block(Arrays.copyOf(ir, count), steps.toArray(new ClosureEngine.Step[0]),
+							closures.exit(a));
+				}
+				var x = NONE;
+				switch (op) {
+				case Machine.LOADop:
+					x = n == 1 ? variable(r, d, a) : NONE;
+					if (x != NONE) {
+						push(x);
+						continue;
+					}
+					break;
+				case Machine.LOADAop:
+					x = address(r, d, a);
+					if (x != NONE) {
+						push(x);
+						continue;
+					}
+					break;
+				case Machine.LOADLop:
+					x = operand(LITERAL, d);
+					if (x != NONE) {
+						push(x);
+						continue;
+					}
+					break;
+				case Machine.LOADIop:
+					if (n == 1) {
+						var k = take(1);
+						emit(LOADI, 0, a, k, operandOf(k), 0, NONE);
+						popTo(k + 1);
+						continue;
+					}
+					break;
+				case Machine.STOREop:
+					x = n == 1 ? variable(r, d, a) : NONE;
+					if (x != NONE) {
+						var k = take(1);
+						emit(STORE, 0, a, k, operandOf(k), 0, x);
+						popTo(k);
+						continue;
+					}
+					break;
+				case Machine.STOREIop:
+					if (n == 1) {
+						var k = take(2);
+						emit(STOREI, 0, a, k, operandOf(k), operandOf(k + 1), NONE);
+						popTo(k);
+						continue;
+					}
+					break;
+				case Machine.CALLop:
+					var primitive = CodeSegment.primitiveCalled(word, d);
+					if (primitive == Machine.idDisplacement) {
+						continue;
+					} else if (CodeSegment.isDyadic(primitive)) {
+						var k = take(2);
+						var z = storeAfter(a);
+						emit(primitive == Machine.addDisplacement ? ADD
+								: primitive == Machine.subDisplacement ? SUB : DYADIC, primitive, a, k, operandOf(k),
+								operandOf(k + 1), z);
+						popTo(z == NONE ? k + 1 : k);
+						a = z == NONE ? a : a + 1;
+						continue;
+					} else if (primitive == Machine.notDisplacement || primitive == Machine.succDisplacement
+							|| primitive == Machine.predDisplacement || primitive == Machine.negDisplacement) {
+						var k = take(1);
+						var z = storeAfter(a);
+						emit(MONADIC, primitive, a, k, operandOf(k), 0, z);
+						popTo(z == NONE ? k + 1 : k);
+						a = z == NONE ? a : a + 1;
+						continue;
+					}
+					break;
+				default:
+					break;
+				}
+				step(a);
+			}
+			flush(0);
+			emit(END, 0, CT, depth, 0, 0, NONE);
+			close();
+			return new Block(Arrays.copyOf(ir, count), steps.toArray(new ClosureEngine.Step[0]), null);
+		}
+
+		private void exit(int op, int r, int n, int d, int a) {
+			var target = closures.fixed(r, a);
+			if (target != ClosureEngine.dynamic) {
+				target = d + target;
+			}
+			if (op == Machine.JUMPop && target != ClosureEngine.dynamic) {
+				flush(0);
+				emit(JUMP, 0, a, depth, target, 0, NONE);
+			} else if (op == Machine.JUMPIFop && target != ClosureEngine.dynamic) {
+				var k = take(1);
+				emit(JUMPIF, 0, a, k, operandOf(k), target, n);
+				popTo(k);
+			} else if (op == Machine.CALLop && target != ClosureEngine.dynamic && 0 <= target
+					&& target < Machine.PB && staticLink(n) != NONE) {
+				flush(0);
+				emit(CALL, 0, a, depth, target, staticLink(n), NONE);
+			} else if (op == Machine.RETURNop) {
+				flush(0);
+				emit(RETURN, 0, a, depth, n, d, NONE);
+			} else {
+				flush(0);
+				emit(EXIT, 0, a, depth, 0, 0, NONE);
+			}
+			close();
+		}
+
+		private int variable(int r, int d, int a) {
+			// The operand for the word at d[r], if it has one.
+
+			var base = closures.fixed(r, a);
+			if (base != ClosureEngine.dynamic) {
+				return operand(GLOBAL, d + base);
+			} else if (r == Machine.LBr) {
+				return operand(FRAME, d);
+			} else if (r == Machine.L1r) {
+				return operand(UP, d);
+			}
+			return NONE;
+		}
+
+		private int address(int r, int d, int a) {
+			// The operand for the address d[r], if it has one.
+
+			var base = closures.fixed(r, a);
+			if (base != ClosureEngine.dynamic) {
+				return operand(LITERAL, d + base);
+			} else if (r == Machine.LBr) {
+				return operand(FRAME_ADDRESS, d);
+			}
+			return NONE;
+		}
+
+		private int staticLink(int n) {
+			switch (n) {
+			case Machine.SBr:
+				return operand(LITERAL, TamVm.SB);
+			case Machine.LBr:
+				return operand(FRAME_ADDRESS, 0);
+			case Machine.L1r:
+				return operand(FRAME, 0);
+			default:
+				return NONE;
+			}
+		}
+
+		private int storeAfter(int a) {
+			// The operand of a single-word STORE at a + 1 that pops the result of
+			// the instruction at a, if it can be folded into it.
+
+			if (a + 1 >= CT) {
+				return NONE;
+			}
+			var word = code.words[2 * (a + 1)];
+			if (CodeSegment.baseOp(CodeSegment.op(word)) != Machine.STOREop || CodeSegment.length(word) != 1) {
+				return NONE;
+			}
+			return variable(CodeSegment.register(word), code.words[2 * (a + 1) + 1], a + 1);
+		}
+
+		private void push(int x) {
+			if (pending == pushed.length) {
+				pushed = Arrays.copyOf(pushed, 2 * pending);
+			}
+			pushed[pending] = x;
+			pending = pending + 1;
+			depth = depth + 1;
+			room = Math.max(room, depth);
+		}
+
+		private int operandOf(int k) {
+			// The operand for slot k: the push still pending for it, or the slot.
+
+			var bottom = depth - pending;
+			return k >= bottom ? pushed[k - bottom] : operand(SLOT, k);
+		}
+
+		private int take(int m) {
+			// Prepares to pop the top m slots, emitting the pending pushes below
+			// them, and returns the first of them. Their operands are then read
+			// with operandOf, before popTo.
+
+			flush(m);
+			return depth - m;
+		}
+
+		private void popTo(int depth) {
+			// After an instruction that took the pending pushes, and left depth
+			// slots in use.
+
+			this.depth = depth;
+			pending = 0;
+		}
+
+		private void flush(int m) {
+			// Emits each pending push below the top m slots as a MOVE.
+
+			var bottom = depth - pending;
+			var flushed = Math.max(0, pending - m);
+			for (var i = 0; i < flushed; i++) {
+				emit(MOVE, 0, 0, bottom + i, pushed[i], 0, NONE);
+			}
+			System.arraycopy(pushed, flushed, pushed, 0, pending - flushed);
+			pending = pending - flushed;
+		}
+
+		private void step(int a) {
+			// Runs the instruction at a as its closure step, after which the
+			// slots are counted from ST again.
+
+			flush(0);
+			emit(STEP, 0, a, depth, steps.size(), 0, NONE);
+			steps.add(closures.step(a));
+			close();
+			depth = 0;
+			segmentStart = a + 1;
+		}
+
+		private void emit(int op, int primitive, int a, int k, int x, int y, int z) {
+			if (count + size > ir.length) {
+				ir = Arrays.copyOf(ir, 2 * ir.length);
+			}
+			ir[count] = op | (primitive << PRIM_SHIFT) | (a << A_SHIFT);
+			ir[count + 1] = k;
+			ir[count + 2] = x;
+			ir[count + 3] = y;
+			ir[count + 4] = z;
+			count = count + size;
+		}
+
+		private void close() {
+			// Ends a run of slots, checking for the room it needs at its start.
+
+			if (room > 0) {
+				if (count + size > ir.length) {
+					ir = Arrays.copyOf(ir, 2 * ir.length);
+				}
+				System.arraycopy(ir, segment, ir, segment + size, count - segment);
+				ir[segment] = ROOM | (segmentStart << A_SHIFT);
+				ir[segment + 1] = room;
+				ir[segment + 2] = 0;
+				ir[segment + 3] = 0;
+				ir[segment + 4] = NONE;
+				count = count + size;
+			}
+			segment = count;
+			room = 0;
+		}
+	}
+}
@@ -0,0 +1,1032 @@
+/*
+ * @(#)RoutineCompiler.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import static triangle.abstractMachine.jvm.CodeWriter.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import triangle.abstractMachine.jvm.ClassWriter;
+import triangle.abstractMachine.jvm.CodeWriter;
+import triangle.abstractMachine.jvm.CodeWriter.Label;
+
+/**
+ * Translates one TAM routine into a JVM class implementing
+ * {@link CompiledRoutine}, or into a method of a {@link CompiledProgram}.
+ *
+ * <p>
+ * A routine is the code reachable from its entry point without following a
+ * CALL. The main program is treated as a routine whose frame starts at SB. The
+ * translation first works out the stack depth before every instruction, which
+ * must be the same on every path, and gives up on anything it cannot analyse
+ * statically, such as JUMPI, CALLI, or a call to a routine whose RETURNs
+ * disagree. Such routines are left to the interpreter.
+ * </p>
+ *
+ * <p>
+ * If nothing in the routine takes the address of its own frame, each stack
+ * slot of the frame becomes a JVM local, which HotSpot can keep in a machine
+ * register. The slots are only written back to the data store where something
+ * else may look at them: around calls, on leaving the compiled code, and for
+ * the operands of the primitives left to {@link TamVm#callPrimitive(int)}.
+ * Otherwise the slots stay in the data store and only the dispatch is removed.
+ * Either way the data store, registers and status end up exactly as the
+ * interpreter would leave them, including when the program fails.
+ * </p>
+ */
+final class RoutineCompiler {
+
+	// Routines with deeper frames than this keep their slots in the data store
+	final static int maxRegisterSlots = 64;
+
+	// HotSpot does not compile methods with more bytecode than this
+	final static int maxMethodSize = 8000;
+
+	private final static String VM = "triangle/abstractMachine/TamVm";
+
+	// Local variables of the generated run method
+	private final static int vmLocal = 1, entryLocal = 2, dataLocal = 3, lbLocal = 4, baseLocal = 5, exitCPLocal = 6,
+			exitDepthLocal = 7, exitStatusLocal = 8, addrLocal = 9, valueLocal = 10, longLocal = 11, firstSlotLocal = 13;
+
+	private final static int notOwn = -1, straddles = -2;
+
+	private final Jit jit;
+
+	private final int[] words;
+
+	private final int CT, entry, frameOffset;
+
+	private final boolean main;
+
+	// Filled in by analyse()
+
+	private int[] depth; // stack depth before each instruction, or -1 if unreachable
+
+	private boolean[] jumpedTo;
+
+	private final List<Integer> loopHeaders = new ArrayList<>();
+
+	private final List<Integer> comparisons = new ArrayList<>();
+
+	private int maxDepth = 0;
+
+	private boolean addressTaken = false;
+
+	// Used by generate()
+
+	private boolean inRegisters;
+
+	private CodeWriter cw;
+
+	private Label[] labels;
+
+	private Label exit;
+
+	private final List<Runnable> stubs = new ArrayList<>();
+
+	RoutineCompiler(Jit jit, int entry) {
+		this.jit = jit;
+		this.words = jit.code.words;
+		this.CT = jit.code.CT;
+		this.entry = entry;
+		this.main = entry == Machine.CB;
+		this.frameOffset = main ? 0 : 3;
+	}
+
+	/**
+	 * @return the translated routine, or null if it cannot be translated.
+	 */
+	Jit.Unit compile() {
+		if (!analyse()) {
+			return null;
+		}
+
+		var entries = entries();
+		var classFile = (!addressTaken && maxDepth <= maxRegisterSlots) ? routineClass(true, entries) : null;
+		if (classFile == null) {
+			classFile = routineClass(false, entries);
+		}
+		if (classFile == null) {
+			return null;
+		}
+		var routine = Jit.define(classFile);
+		if (routine == null) {
+			return null;
+		}
+		return new Jit.Unit(routine, frameOffset, maxDepth, entries, depths(entries));
+	}
+
+	/**
+	 * Translates the routine into a method of a class holding the whole
+	 * program, taking the same arguments as {@link CompiledRoutine#run}.
+	 *
+	 * @param program the class.
+	 * @param name    the name of the method.
+	 * @return the routine's entry points and frame, with no routine, or null if
+	 *         it cannot be translated, in which case no method is added.
+	 */
+	Jit.Unit compileInto(ClassWriter program, String name) {
+		if (!analyse()) {
+			return null;
+		}
+
+		// A method that turns out too large cannot be taken back out of the
+		// class, so each form is first tried in a class of its own
+		var entries = entries();
+		var inRegisters = !addressTaken && maxDepth <= maxRegisterSlots && routineClass(true, entries) != null;
+		if (!inRegisters && routineClass(false, entries) == null) {
+			return null;
+		}
+		generate(program.addMethod(ClassWriter.ACC_FINAL, name, "(L" + VM + ";I)V"), inRegisters, entries);
+		return new Jit.Unit(null, frameOffset, maxDepth, entries, depths(entries));
+	}
+
+	private int[] entries() {
+		// The entry point, then the loop headers.
+
+		var entries = new int[1 + loopHeaders.size()];
+		entries[0] = entry;
+		var count = 1;
+		for (var header : loopHeaders) {
+			if (header != entry) {
+				entries[count] = header;
+				count = count + 1;
+			}
+		}
+		return Arrays.copyOf(entries, count);
+	}
+
+	private int[] depths(int[] entries) {
+		var depths = new int[entries.length];
+		for (var i = 0; i < entries.length; i++) {
+			depths[i] = depth[entries[i]];
+		}
+		return depths;
+	}
+
+	// ANALYSIS
+
+	private int op(int addr) {
+		return CodeSegment.baseOp(CodeSegment.op(words[2 * addr]));
+	}
+
+	private int register(int addr) {
+		return CodeSegment.register(words[2 * addr]);
+	}
+
+	private int length(int addr) {
+		return CodeSegment.length(words[2 * addr]);
+	}
+
+	private int operand(int addr) {
+		return words[2 * addr + 1];
+	}
+
+	private boolean isComputable(int r) {
+		// Registers whose content the generated code can work out.
+
+		switch (r) {
+		case Machine.CBr:
+		case Machine.PBr:
+		case Machine.SBr:
+		case Machine.LBr:
+			return true;
+		default:
+			return !main && Machine.L1r <= r && r <= Machine.L6r;
+		}
+	}
+
+	private int own(int r, int d, int n) {
+		// Returns the slot of d[r] if the n words there lie in this routine's
+		// own frame, notOwn if they lie elsewhere, or straddles.
+
+		if (r != Machine.LBr && !(main && r == Machine.SBr)) {
+			return notOwn;
+		}
+		var slot = d - frameOffset;
+		if (slot >= 0) {
+			return slot;
+		}
+		return slot + n > 0 ? straddles : notOwn;
+	}
+
+	private int comparandSize(int addr) {
+		// The size of the values compared by the eq or ne at addr, which the
+		// compiler always pushes with the LOADL just before.
+
+		return (addr > 0 && op(addr - 1) == Machine.LOADLop) ? operand(addr - 1) : -1;
+	}
+
+	private boolean analyse() {
+		// Works out the depth of the stack before each instruction, and the
+		// loop headers. Returns false if the routine cannot be translated.
+
+		depth = new int[CT];
+		Arrays.fill(depth, -1);
+		jumpedTo = new boolean[CT];
+		var work = new ArrayDeque<Integer>();
+		depth[entry] = 0;
+		work.push(entry);
+		while (!work.isEmpty()) {
+			int addr = work.pop();
+			var k = depth[addr];
+			var r = register(addr);
+			var n = length(addr);
+			var d = operand(addr);
+			var next = addr + 1;
+			var jump = -1;
+			var after = k;
+			int slot;
+
+			switch (op(addr)) {
+			case Machine.LOADop:
+				slot = own(r, d, n);
+				if (!isComputable(r) || slot == straddles || (slot >= 0 && slot + n > k)) {
+					return false;
+				}
+				after = k + n;
+				break;
+			case Machine.LOADAop:
+				if (!isComputable(r)) {
+					return false;
+				}
+				if (own(r, d, 1) != notOwn) {
+					addressTaken = true;
+				}
+				after = k + 1;
+				break;
+			case Machine.LOADIop:
+				if (k < 1) {
+					return false;
+				}
+				after = k - 1 + n;
+				break;
+			case Machine.LOADLop:
+				after = k + 1;
+				break;
+			case Machine.STOREop:
+				slot = own(r, d, n);
+				if (!isComputable(r) || slot == straddles || (slot >= 0 && slot + n > k) || k < n) {
+					return false;
+				}
+				after = k - n;
+				break;
+			case Machine.STOREIop:
+				if (k < n + 1) {
+					return false;
+				}
+				after = k - 1 - n;
+				break;
+			case Machine.CALLop:
+				if (r != Machine.CBr && r != Machine.PBr) {
+					return false;
+				}
+				var callee = d + (r == Machine.PBr ? Machine.PB : Machine.CB);
+				if (callee >= Machine.PB) {
+					var primitive = callee - Machine.PB;
+					if (primitive == Machine.eqDisplacement || primitive == Machine.neDisplacement) {
+						var size = comparandSize(addr);
+						if (size < 0 || k < 2 * size + 1) {
+							return false;
+						}
+						comparisons.add(addr);
+						after = k - 2 * size;
+					} else {
+						if (CodeSegment.pops(primitive) < 0 || k < CodeSegment.pops(primitive)) {
+							return false;
+						}
+						after = k - CodeSegment.pops(primitive) + CodeSegment.pushes(primitive);
+					}
+				} else {
+					var effect = callee < 0 ? Jit.unknown : jit.returnEffect(callee);
+					if (effect == Jit.unknown || !isComputable(n) || k + effect < 0) {
+						return false;
+					}
+					after = k + effect;
+				}
+				break;
+			case Machine.RETURNop:
+				if (main || k < n) {
+					return false;
+				}
+				next = -1;
+				break;
+			case Machine.PUSHop:
+				if (d < 0) {
+					return false;
+				}
+				after = k + d;
+				break;
+			case Machine.POPop:
+				if (d < 0 || k < n + d) {
+					return false;
+				}
+				after = k - d;
+				break;
+			case Machine.JUMPop:
+				if (r != Machine.CBr) {
+					return false;
+				}
+				next = -1;
+				jump = d;
+				break;
+			case Machine.JUMPIFop:
+				if (r != Machine.CBr || k < 1) {
+					return false;
+				}
+				jump = d;
+				after = k - 1;
+				break;
+			case Machine.HALTop:
+				next = -1;
+				break;
+			default:
+				// JUMPI and CALLI go to addresses known only at run time
+				return false;
+			}
+
+			maxDepth = Math.max(maxDepth, after);
+			for (var successor : new int[] { next, jump }) {
+				if (successor < 0) {
+					continue;
+				}
+				if (successor >= CT) {
+					return false;
+				}
+				if (depth[successor] < 0) {
+					depth[successor] = after;
+					work.push(successor);
+				} else if (depth[successor] != after) {
+					return false;
+				}
+			}
+			if (jump >= 0) {
+				jumpedTo[jump] = true;
+				if (jump <= addr && !loopHeaders.contains(jump)) {
+					loopHeaders.add(jump);
+				}
+			}
+		}
+
+		// An eq or ne reached other than from its LOADL could compare values
+		// of some other size.
+		for (var addr : comparisons) {
+			if (jumpedTo[addr] || addr == entry) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// CODE GENERATION
+
+	private byte[] routineClass(boolean inRegisters, int[] entries) {
+		// Returns the class file, or null if the method would be too large.
+
+		var cf = new ClassWriter(ClassWriter.ACC_FINAL | ClassWriter.ACC_SUPER,
+				"triangle/abstractMachine/Routine" + entry, "java/lang/Object",
+				"triangle/abstractMachine/CompiledRoutine");
+
+		var init = cf.addMethod(ClassWriter.ACC_PUBLIC, "<init>", "()V");
+		init.local(ALOAD, 0);
+		init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+		init.op(RETURN);
+
+		if (!generate(cf.addMethod(ClassWriter.ACC_PUBLIC, "run", "(L" + VM + ";I)V"), inRegisters, entries)) {
+			return null;
+		}
+		return cf.toByteArray();
+	}
+
+	private boolean generate(CodeWriter method, boolean inRegisters, int[] entries) {
+		// Writes the body of the run method, returning false if it would be too
+		// large.
+
+		this.inRegisters = inRegisters;
+		stubs.clear();
+		cw = method;
+		labels = new Label[CT];
+		for (var addr = 0; addr < CT; addr++) {
+			if (jumpedTo[addr]) {
+				labels[addr] = new Label();
+			}
+		}
+		if (labels[entry] == null) {
+			labels[entry] = new Label();
+		}
+		exit = new Label();
+
+		prologue(entries);
+		for (var addr = 0; addr < CT; addr++) {
+			if (depth[addr] >= 0) {
+				if (labels[addr] != null) {
+					cw.mark(labels[addr]);
+				}
+				instruction(addr, depth[addr]);
+				if (cw.size() > maxMethodSize) {
+					return false;
+				}
+			}
+		}
+		for (var stub : stubs) {
+			stub.run();
+		}
+		epilogue();
+		return cw.size() <= maxMethodSize;
+	}
+
+	private void prologue(int[] entries) {
+		cw.local(ALOAD, vmLocal);
+		cw.field(GETFIELD, VM, "data", "[I");
+		cw.local(ASTORE, dataLocal);
+		cw.local(ALOAD, vmLocal);
+		cw.field(GETFIELD, VM, "LB", "I");
+		cw.local(ISTORE, lbLocal);
+		cw.local(ILOAD, lbLocal);
+		cw.iconst(frameOffset);
+		cw.op(IADD);
+		cw.local(ISTORE, baseLocal);
+		for (var local : new int[] { exitCPLocal, exitDepthLocal, exitStatusLocal, addrLocal, valueLocal }) {
+			cw.iconst(0);
+			cw.local(ISTORE, local);
+		}
+		cw.lconst(0);
+		cw.local(LSTORE, longLocal);
+		reload(0, maxDepth);
+
+		if (entries.length == 1) {
+			cw.jump(GOTO, labels[entry]);
+		} else {
+			var keys = entries.clone();
+			Arrays.sort(keys);
+			var targets = new Label[keys.length];
+			for (var i = 0; i < keys.length; i++) {
+				targets[i] = labels[keys[i]];
+			}
+			cw.local(ILOAD, entryLocal);
+			cw.lookupswitch(keys, targets, labels[entry]);
+		}
+	}
+
+	private void epilogue() {
+		// Leaves the compiled code with ST, CP and status taken from the exit
+		// locals.
+
+		cw.mark(exit);
+		spill(0, maxDepth);
+		cw.local(ALOAD, vmLocal);
+		cw.local(ILOAD, exitCPLocal);
+		cw.field(PUTFIELD, VM, "CP", "I");
+		cw.local(ALOAD, vmLocal);
+		cw.local(ILOAD, baseLocal);
+		cw.local(ILOAD, exitDepthLocal);
+		cw.op(IADD);
+		cw.field(PUTFIELD, VM, "ST", "I");
+		cw.local(ALOAD, vmLocal);
+		cw.local(ILOAD, exitStatusLocal);
+		cw.field(PUTFIELD, VM, "status", "I");
+		cw.op(RETURN);
+	}
+
+	private void leave(int cp, int depth, int status) {
+		// Jumps to the exit with the given state.
+
+		cw.iconst(cp);
+		cw.local(ISTORE, exitCPLocal);
+		cw.iconst(depth);
+		cw.local(ISTORE, exitDepthLocal);
+		cw.iconst(status);
+		cw.local(ISTORE, exitStatusLocal);
+		cw.jump(GOTO, exit);
+	}
+
+	private Label stub(Runnable code) {
+		// Returns a label for out-of-line code, written after the routine.
+
+		var label = new Label();
+		stubs.add(() -> {
+			cw.mark(label);
+			code.run();
+		});
+		return label;
+	}
+
+	// Stack slots
+
+	private void slotAddress(int slot) {
+		cw.local(ALOAD, dataLocal);
+		cw.local(ILOAD, baseLocal);
+		if (slot != 0) {
+			cw.iconst(slot);
+			cw.op(IADD);
+		}
+	}
+
+	private void loadSlot(int slot) {
+		if (inRegisters) {
+			cw.local(ILOAD, firstSlotLocal + slot);
+		} else {
+			slotAddress(slot);
+			cw.op(IALOAD);
+		}
+	}
+
+	private void storeSlot(int slot) {
+		// Pops the int on top of the JVM stack into the slot.
+
+		if (inRegisters) {
+			cw.local(ISTORE, firstSlotLocal + slot);
+		} else {
+			cw.local(ISTORE, valueLocal);
+			slotAddress(slot);
+			cw.local(ILOAD, valueLocal);
+			cw.op(IASTORE);
+		}
+	}
+
+	private void spill(int from, int to) {
+		// Writes slots from..to-1 back to the data store.
+
+		if (inRegisters) {
+			for (var slot = from; slot < to; slot++) {
+				slotAddress(slot);
+				cw.local(ILOAD, firstSlotLocal + slot);
+				cw.op(IASTORE);
+			}
+		}
+	}
+
+	private void reload(int from, int to) {
+		// Reads slots from..to-1 from the data store.
+
+		if (inRegisters) {
+			for (var slot = from; slot < to; slot++) {
+				slotAddress(slot);
+				cw.op(IALOAD);
+				cw.local(ISTORE, firstSlotLocal + slot);
+			}
+		}
+	}
+
+	private void reloadData() {
+		// The data store may have grown.
+
+		cw.local(ALOAD, vmLocal);
+		cw.field(GETFIELD, VM, "data", "[I");
+		cw.local(ASTORE, dataLocal);
+	}
+
+	private void setST(int depth) {
+		cw.local(ALOAD, vmLocal);
+		cw.local(ILOAD, baseLocal);
+		cw.iconst(depth);
+		cw.op(IADD);
+		cw.field(PUTFIELD, VM, "ST", "I");
+	}
+
+	private void checkRoom(int cp, int depth) {
+		// The heap may have grown into the space this frame was entered with,
+		// in which case the interpreter takes over to fail at the right push.
+
+		cw.local(ALOAD, vmLocal);
+		cw.field(GETFIELD, VM, "HT", "I");
+		cw.local(ILOAD, baseLocal);
+		cw.op(ISUB);
+		cw.iconst(maxDepth);
+		cw.jump(IF_ICMPLT, stub(() -> leave(cp, depth, TamVm.running)));
+	}
+
+	// Registers and addresses
+
+	private void content(int r) {
+		// Pushes the content of a register accepted by isComputable.
+
+		switch (r) {
+		case Machine.PBr:
+			cw.iconst(Machine.PB);
+			break;
+		case Machine.LBr:
+			cw.local(ILOAD, lbLocal);
+			break;
+		case Machine.CBr:
+		case Machine.SBr:
+			cw.iconst(0);
+			break;
+		default:
+			// L1..L6 follow the static links from LB
+			cw.local(ALOAD, dataLocal);
+			content(r == Machine.L1r ? Machine.LBr : r - 1);
+			cw.op(IALOAD);
+			break;
+		}
+	}
+
+	private void address(int r, int d) {
+		content(r);
+		if (d != 0) {
+			cw.iconst(d);
+			cw.op(IADD);
+		}
+	}
+
+	private void load(int offset) {
+		// Pushes data[addr + offset].
+
+		cw.local(ALOAD, dataLocal);
+		cw.local(ILOAD, addrLocal);
+		if (offset != 0) {
+			cw.iconst(offset);
+			cw.op(IADD);
+		}
+		cw.op(IALOAD);
+	}
+
+	private void store(int offset, int slot) {
+		// Copies the slot to data[addr + offset].
+
+		cw.local(ALOAD, dataLocal);
+		cw.local(ILOAD, addrLocal);
+		if (offset != 0) {
+			cw.iconst(offset);
+			cw.op(IADD);
+		}
+		loadSlot(slot);
+		cw.op(IASTORE);
+	}
+
+	private void truthValue(int jumpIfTrue) {
+		// Turns a comparison into a truth value on the stack.
+
+		var isTrue = new Label();
+		var done = new Label();
+		cw.jump(jumpIfTrue, isTrue);
+		cw.iconst(Machine.falseRep);
+		cw.jump(GOTO, done);
+		cw.mark(isTrue);
+		cw.iconst(Machine.trueRep);
+		cw.mark(done);
+	}
+
+	// Instructions
+
+	private void instruction(int addr, int k) {
+		// Writes the code for the instruction at addr, with k words of the
+		// frame on the stack before it.
+
+		var r = register(addr);
+		var n = length(addr);
+		var d = operand(addr);
+		int slot;
+
+		switch (op(addr)) {
+		case Machine.LOADop:
+			slot = own(r, d, n);
+			if (slot >= 0) {
+				for (var index = 0; index < n; index++) {
+					loadSlot(slot + index);
+					storeSlot(k + index);
+				}
+			} else {
+				address(r, d);
+				cw.local(ISTORE, addrLocal);
+				for (var index = 0; index < n; index++) {
+					load(index);
+					storeSlot(k + index);
+				}
+			}
+			break;
+		case Machine.LOADAop:
+			address(r, d);
+			storeSlot(k);
+			break;
+		case Machine.LOADIop:
+			loadSlot(k - 1);
+			cw.local(ISTORE, addrLocal);
+			for (var index = 0; index < n; index++) {
+				load(index);
+				storeSlot(k - 1 + index);
+			}
+			break;
+		case Machine.LOADLop:
+			cw.iconst(d);
+			storeSlot(k);
+			break;
+		case Machine.STOREop:
+			slot = own(r, d, n);
+			if (slot >= 0) {
+				for (var index = 0; index < n; index++) {
+					loadSlot(k - n + index);
+					storeSlot(slot + index);
+				}
+			} else {
+				address(r, d);
+				cw.local(ISTORE, addrLocal);
+				for (var index = 0; index < n; index++) {
+					store(index, k - n + index);
+				}
+			}
+			break;
+		case Machine.STOREIop:
+			loadSlot(k - 1);
+			cw.local(ISTORE, addrLocal);
+			for (var index = 0; index < n; index++) {
+				store(index, k - 1 - n + index);
+			}
+			break;
+		case Machine.CALLop:
+			var callee = d + (r == Machine.PBr ? Machine.PB : Machine.CB);
+			if (callee >= Machine.PB) {
+				primitive(addr, k, callee - Machine.PB);
+			} else {
+				call(addr, k, callee, n);
+			}
+			break;
+		case Machine.RETURNop:
+			spill(0, maxDepth);
+			cw.local(ILOAD, lbLocal);
+			cw.iconst(d);
+			cw.op(ISUB);
+			cw.local(ISTORE, addrLocal);
+			cw.local(ALOAD, vmLocal);
+			cw.local(ALOAD, dataLocal);
+			cw.local(ILOAD, lbLocal);
+			cw.iconst(2);
+			cw.op(IADD);
+			cw.op(IALOAD);
+			cw.field(PUTFIELD, VM, "CP", "I");
+			cw.local(ALOAD, vmLocal);
+			cw.local(ALOAD, dataLocal);
+			cw.local(ILOAD, lbLocal);
+			cw.iconst(1);
+			cw.op(IADD);
+			cw.op(IALOAD);
+			cw.field(PUTFIELD, VM, "LB", "I");
+			for (var index = 0; index < n; index++) {
+				store(index, k - n + index);
+			}
+			cw.local(ALOAD, vmLocal);
+			cw.local(ILOAD, addrLocal);
+			cw.iconst(n);
+			cw.op(IADD);
+			cw.field(PUTFIELD, VM, "ST", "I");
+			if (jit.limited) {
+				// the caller carries on from the run at the return address
+				cw.local(ALOAD, vmLocal);
+				cw.invoke(INVOKEVIRTUAL, VM, "chargeRun", "()Z");
+				cw.op(POP);
+			}
+			cw.op(RETURN);
+			break;
+		case Machine.PUSHop:
+			break;
+		case Machine.POPop:
+			for (var index = 0; index < n; index++) {
+				loadSlot(k - n + index);
+				storeSlot(k - n - d + index);
+			}
+			break;
+		case Machine.JUMPop:
+			if (jit.limited) {
+				charge(d, k);
+			}
+			cw.jump(GOTO, labels[d]);
+			break;
+		case Machine.JUMPIFop:
+			loadSlot(k - 1);
+			var taken = labels[d];
+			if (jit.limited) {
+				taken = stub(() -> {
+					charge(d, k - 1);
+					cw.jump(GOTO, labels[d]);
+				});
+			}
+			if (n == 0) {
+				cw.jump(IFEQ, taken);
+			} else {
+				cw.iconst(n);
+				cw.jump(IF_ICMPEQ, taken);
+			}
+			if (jit.limited) {
+				charge(addr + 1, k - 1);
+			}
+			break;
+		case Machine.HALTop:
+			leave(addr, k, TamVm.halted);
+			break;
+		}
+	}
+
+	private void charge(int cp, int depth) {
+		// For a machine with limits, charges for the run at cp, which control is
+		// about to go to with depth words on the stack, and leaves the compiled
+		// code with the status chargeRun set if the machine must stop. Calls and
+		// returns are charged for by callRoutine and the RETURN.
+
+		var charged = new Label();
+		cw.local(ALOAD, vmLocal);
+		cw.iconst(cp);
+		cw.invoke(INVOKEVIRTUAL, VM, "chargeRun", "(I)Z");
+		cw.jump(IFNE, charged);
+		cw.iconst(cp);
+		cw.local(ISTORE, exitCPLocal);
+		cw.iconst(depth);
+		cw.local(ISTORE, exitDepthLocal);
+		cw.local(ALOAD, vmLocal);
+		cw.field(GETFIELD, VM, "status", "I");
+		cw.local(ISTORE, exitStatusLocal);
+		cw.jump(GOTO, exit);
+		cw.mark(charged);
+	}
+
+	private void call(int addr, int k, int callee, int staticLink) {
+		// The callee runs in the interpreter, or in its own compiled code,
+		// with this frame written back to the data store.
+
+		spill(0, maxDepth);
+		setST(k);
+		cw.local(ALOAD, vmLocal);
+		cw.iconst(callee);
+		content(staticLink);
+		cw.iconst(addr + 1);
+		cw.invoke(INVOKEVIRTUAL, VM, "callRoutine", "(III)Z");
+		var returned = new Label();
+		cw.jump(IFNE, returned);
+		cw.op(RETURN);
+		cw.mark(returned);
+		reloadData();
+		reload(0, maxDepth);
+		checkRoom(addr + 1, k + jit.returnEffect(callee));
+	}
+
+	private void checked(int addr, int slot, int after) {
+		// Stores the long on top of the stack into the slot, failing as
+		// overflowChecked would if it does not fit in a word.
+
+		var overflow = stub(() -> {
+			cw.iconst(0);
+			storeSlot(slot);
+			leave(addr + 1, after, TamVm.failedOverflow);
+		});
+		cw.local(LSTORE, longLocal);
+		cw.local(LLOAD, longLocal);
+		cw.lconst(Machine.maxintRep);
+		cw.op(LCMP);
+		cw.jump(IFGT, overflow);
+		cw.local(LLOAD, longLocal);
+		cw.lconst(-Machine.maxintRep);
+		cw.op(LCMP);
+		cw.jump(IFLT, overflow);
+		cw.local(LLOAD, longLocal);
+		cw.op(L2I);
+		storeSlot(slot);
+	}
+
+	private void primitive(int addr, int k, int primitive) {
+		switch (primitive) {
+		case Machine.idDisplacement:
+			break;
+		case Machine.notDisplacement:
+			loadSlot(k - 1);
+			cw.iconst(Machine.trueRep);
+			truthValue(IF_ICMPNE);
+			storeSlot(k - 1);
+			break;
+		case Machine.andDisplacement:
+		case Machine.orDisplacement: {
+			// and is true unless either is false; or is false unless either is true
+			var and = primitive == Machine.andDisplacement;
+			var decided = new Label();
+			var done = new Label();
+			loadSlot(k - 2);
+			cw.iconst(Machine.trueRep);
+			cw.jump(and ? IF_ICMPNE : IF_ICMPEQ, decided);
+			loadSlot(k - 1);
+			cw.iconst(Machine.trueRep);
+			cw.jump(and ? IF_ICMPNE : IF_ICMPEQ, decided);
+			cw.iconst(and ? Machine.trueRep : Machine.falseRep);
+			cw.jump(GOTO, done);
+			cw.mark(decided);
+			cw.iconst(and ? Machine.falseRep : Machine.trueRep);
+			cw.mark(done);
+			storeSlot(k - 2);
+			break;
+		}
+		case Machine.succDisplacement:
+		case Machine.predDisplacement:
+			loadSlot(k - 1);
+			cw.op(I2L);
+			cw.lconst(1);
+			cw.op(primitive == Machine.succDisplacement ? LADD : LSUB);
+			checked(addr, k - 1, k);
+			break;
+		case Machine.negDisplacement:
+			loadSlot(k - 1);
+			cw.op(INEG);
+			storeSlot(k - 1);
+			break;
+		case Machine.addDisplacement:
+		case Machine.subDisplacement:
+		case Machine.multDisplacement:
+			loadSlot(k - 2);
+			cw.op(I2L);
+			loadSlot(k - 1);
+			cw.op(I2L);
+			cw.op(primitive == Machine.addDisplacement ? LADD : primitive == Machine.subDisplacement ? LSUB : LMUL);
+			checked(addr, k - 2, k - 1);
+			break;
+		case Machine.divDisplacement:
+		case Machine.modDisplacement:
+			loadSlot(k - 1);
+			cw.jump(IFEQ, stub(() -> leave(addr + 1, k - 1, TamVm.failedZeroDivide)));
+			loadSlot(k - 2);
+			cw.op(I2L);
+			loadSlot(k - 1);
+			cw.op(I2L);
+			cw.op(primitive == Machine.divDisplacement ? LDIV : LREM);
+			cw.op(L2I);
+			storeSlot(k - 2);
+			break;
+		case Machine.ltDisplacement:
+		case Machine.leDisplacement:
+		case Machine.geDisplacement:
+		case Machine.gtDisplacement:
+			loadSlot(k - 2);
+			loadSlot(k - 1);
+			truthValue(primitive == Machine.ltDisplacement ? IF_ICMPLT
+					: primitive == Machine.leDisplacement ? IF_ICMPLE
+							: primitive == Machine.geDisplacement ? IF_ICMPGE : IF_ICMPGT);
+			storeSlot(k - 2);
+			break;
+		case Machine.eqDisplacement:
+		case Machine.neDisplacement: {
+			var size = comparandSize(addr);
+			var result = k - 2 * size - 1;
+			var differ = new Label();
+			var done = new Label();
+			for (var index = 0; index < size; index++) {
+				loadSlot(result + index);
+				loadSlot(result + size + index);
+				cw.jump(IF_ICMPNE, differ);
+			}
+			var eq = primitive == Machine.eqDisplacement;
+			cw.iconst(eq ? Machine.trueRep : Machine.falseRep);
+			cw.jump(GOTO, done);
+			cw.mark(differ);
+			cw.iconst(eq ? Machine.falseRep : Machine.trueRep);
+			cw.mark(done);
+			storeSlot(result);
+			break;
+		}
+		default: {
+			// I/O and the heap are left to the machine, which sees only the
+			// slots it pops and pushes
+			var from = k - CodeSegment.pops(primitive);
+			var after = from + CodeSegment.pushes(primitive);
+			spill(from, k);
+			setST(k);
+			cw.local(ALOAD, vmLocal);
+			cw.iconst(primitive);
+			cw.invoke(INVOKEVIRTUAL, VM, "callPrimitive", "(I)V");
+			if (primitive == Machine.newDisplacement) {
+				reloadData();
+			}
+			reload(from, after);
+			cw.local(ALOAD, vmLocal);
+			cw.field(GETFIELD, VM, "status", "I");
+			cw.jump(IFNE, stub(() -> {
+				cw.local(ALOAD, vmLocal);
+				cw.field(GETFIELD, VM, "status", "I");
+				cw.local(ISTORE, exitStatusLocal);
+				cw.iconst(addr + 1);
+				cw.local(ISTORE, exitCPLocal);
+				cw.iconst(after);
+				cw.local(ISTORE, exitDepthLocal);
+				cw.jump(GOTO, exit);
+			}));
+			if (primitive == Machine.newDisplacement) {
+				checkRoom(addr + 1, after);
+			}
+			break;
+		}
+		}
+	}
+}
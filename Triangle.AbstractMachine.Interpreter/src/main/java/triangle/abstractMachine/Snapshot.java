@@ -0,0 +1,174 @@
+/*
+ * @(#)Snapshot.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes and reads the state of a {@link TamVm} in a compact binary form.
+ *
+ * <p>
+ * A snapshot holds the hash of the program it was taken from, the size of the
+ * data store, the registers CP, ST, HT and LB, the status, the stack from SB
+ * to ST and the heap from HT to HB, the blocks of the heap, and any input the
+ * machine had read ahead but not yet used. Everything after the hash is written as variable-length
+ * integers, so small values, which most words of a TAM store are, take one
+ * byte.
+ * </p>
+ *
+ * <pre>
+ *   int     magic "TAMS"
+ *   byte    version
+ *   long    program hash
+ *   varint  HB, CP, ST, HT, LB, status, current character + 1
+ *   varint  data[SB .. ST - 1], data[HT .. HB - 1]
+ *   varint  count of allocated blocks, then the address and size of each
+ *   varint  count of free blocks, then the address and size of each
+ *   varint  count of input bytes, then the bytes
+ * </pre>
+ */
+final class Snapshot {
+
+	private final static int magic = 0x54414D53, version = 2;
+
+	static void write(TamVm vm, OutputStream stream) throws IOException {
+		var out = new DataOutputStream(stream);
+		out.writeInt(magic);
+		out.writeByte(version);
+		out.writeLong(vm.code.hash());
+		for (var register : new int[] { vm.HB, vm.CP, vm.ST, vm.HT, vm.LB, vm.status, vm.currentChar + 1 }) {
+			writeVarint(out, register);
+		}
+		for (var addr = TamVm.SB; addr < vm.ST; addr++) {
+			writeVarint(out, vm.data[addr]);
+		}
+		for (var addr = vm.HT; addr < vm.HB; addr++) {
+			writeVarint(out, vm.data[addr]);
+		}
+		writeBlocks(out, vm.heap.allocatedBlocks());
+		writeBlocks(out, vm.heap.freeBlocks());
+		var pending = vm.input.pending();
+		writeVarint(out, pending.length);
+		out.write(pending);
+		out.flush();
+	}
+
+	static void read(TamVm vm, InputStream stream) throws IOException {
+		var in = new DataInputStream(stream);
+		if (in.readInt() != magic) {
+			throw new IOException("not a TAM snapshot");
+		}
+		if (in.readByte() != version) {
+			throw new IOException("unsupported snapshot version");
+		}
+		if (in.readLong() != vm.code.hash()) {
+			throw new IOException("snapshot is of a different program");
+		}
+		var HB = readVarint(in);
+		if (HB != vm.HB) {
+			throw new IOException("snapshot needs a data store of " + HB + " words, not " + vm.HB);
+		}
+		var CP = readVarint(in);
+		var ST = readVarint(in);
+		var HT = readVarint(in);
+		var LB = readVarint(in);
+		var status = readVarint(in);
+		var currentChar = readVarint(in) - 1;
+		if (ST < TamVm.SB || HT < ST || HT > HB || LB < TamVm.SB || LB > ST) {
+			throw new IOException("inconsistent registers in snapshot");
+		}
+
+		vm.growData(HT < HB ? HB : ST);
+		for (var addr = TamVm.SB; addr < ST; addr++) {
+			vm.data[addr] = readVarint(in);
+		}
+		for (var addr = HT; addr < HB; addr++) {
+			vm.data[addr] = readVarint(in);
+		}
+		var allocated = readBlocks(in, HT, HB);
+		var free = readBlocks(in, HT, HB);
+		var pending = new byte[readVarint(in)];
+		in.readFully(pending);
+		vm.input.unread(pending);
+
+		vm.CP = CP;
+		vm.ST = ST;
+		vm.HT = HT;
+		vm.LB = LB;
+		vm.status = status;
+		vm.currentChar = currentChar;
+		vm.displayLB = -1;
+		vm.heap.restore(vm, allocated, free);
+	}
+
+	private static void writeBlocks(DataOutputStream out, Map<Integer, Integer> blocks) throws IOException {
+		writeVarint(out, blocks.size());
+		for (var block : blocks.entrySet()) {
+			writeVarint(out, block.getKey());
+			writeVarint(out, block.getValue());
+		}
+	}
+
+	private static HashMap<Integer, Integer> readBlocks(DataInputStream in, int HT, int HB) throws IOException {
+		var blocks = new HashMap<Integer, Integer>();
+		for (var count = readVarint(in); count > 0; count--) {
+			var addr = readVarint(in);
+			var size = readVarint(in);
+			if (addr < HT || size <= 0 || size > HB - addr) {
+				throw new IOException("inconsistent heap in snapshot");
+			}
+			blocks.put(addr, size);
+		}
+		return blocks;
+	}
+
+	// VARIABLE-LENGTH INTEGERS, zig-zag encoded so small negative numbers are
+	// short too
+
+	private static void writeVarint(DataOutputStream out, int value) throws IOException {
+		var bits = (value << 1) ^ (value >> 31);
+		while ((bits & ~0x7F) != 0) {
+			out.writeByte((bits & 0x7F) | 0x80);
+			bits = bits >>> 7;
+		}
+		out.writeByte(bits);
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		var bits = 0;
+		for (var shift = 0; shift < 35; shift += 7) {
+			var b = in.read();
+			if (b < 0) {
+				throw new EOFException("snapshot is truncated");
+			}
+			bits = bits | ((b & 0x7F) << shift);
+			if ((b & 0x80) == 0) {
+				return (bits >>> 1) ^ -(bits & 1);
+			}
+		}
+		throw new IOException("malformed snapshot");
+	}
+}
@@ -0,0 +1,2088 @@
+/*
+ * @(#)TamVm.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An instance of the Triangle Abstract Machine.
+ *
+ * <p>
+ * Each machine holds its own registers, data store and I/O streams, and only
+ * reads the {@link CodeSegment} it is given, so any number of machines may run
+ * the same decoded program concurrently, for example one per task on an
+ * executor:
+ * </p>
+ *
+ * <pre>
+ * var code = CodeSegment.load("obj.tam");
+ * executor.submit(() -&gt; new TamVm(code, in, out).run());
+ * </pre>
+ *
+ * <p>
+ * A machine is not itself thread-safe: use one machine per concurrent run.
+ * </p>
+ *
+ * <p>
+ * The I/O primitives are buffered. Output reaches the stream when the program
+ * halts or fails, when it waits for input, and whenever the buffer fills, so a
+ * run writes the same bytes as unbuffered printing would, in fewer calls.
+ * </p>
+ */
+public class TamVm {
+
+	// CODE STORE, decoded and shared read-only between machines
+
+	final CodeSegment code;
+
+	final int CT;
+
+	// DATA STORE, which may be smaller than HB while it is growable
+
+	int[] data;
+
+	// DATA STORE REGISTERS AND OTHER REGISTERS
+
+	final static int CB = 0, SB = 0;
+
+	final int HB; // = upper bound of data store + 1
+
+	int CP, ST, HT, LB, status;
+
+	// status values
+	public final static int running = 0, halted = 1, failedDataStoreFull = 2, failedInvalidCodeAddress = 3,
+			failedInvalidInstruction = 4, failedOverflow = 5, failedZeroDivide = 6, failedIOError = 7,
+			failedOutOfFuel = 8, failedTimeLimit = 9, failedStackQuota = 10, failedHeapQuota = 11, paused = 12;
+
+	// Thrown within the loop of interpret to stop the machine with the status
+	// it carries. It has no stack trace, so one is shared for each status.
+	static final class Stop extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		final int status;
+
+		private Stop(int status) {
+			super(null, null, false, false);
+			this.status = status;
+		}
+	}
+
+	private final static Stop[] stops = new Stop[paused + 1];
+
+	static {
+		for (var status = 0; status < stops.length; status++) {
+			stops[status] = new Stop(status);
+		}
+	}
+
+	static Stop stop(int status) {
+		return stops[status];
+	}
+
+	// INPUT AND OUTPUT
+
+	final InputStream in;
+
+	final PrintStream out;
+
+	// the primitives read and write through these, not in and out
+	final InputBuffer input;
+
+	final OutputBuffer output;
+
+	long startTimeNanos = 0;
+
+	// COMPILED TIER
+
+	final Jit jit; // null if everything is interpreted
+
+	final int compileThreshold;
+
+	// Compiled code nests Java calls as deep as the TAM calls it makes, so
+	// beyond this depth the interpreter takes over
+	final static int maxNesting = 400;
+
+	int nesting = 0;
+
+	// DISPLAY of the frames L1..L6 for the frame at displayLB, valid up to
+	// displayDepth. It is dropped whenever a frame is pushed, as the new frame
+	// may reuse the address of one whose display is still held; the static
+	// links themselves are only ever written by CALL and CALLI.
+
+	final boolean displayCached;
+
+	final int[] display = new int[7];
+
+	int displayLB = -1, displayDepth = 0;
+
+	// ENGINE
+
+	final ClosureEngine closures; // null to use the switch loop
+
+	final RegisterEngine registers; // null unless running register instructions
+
+	final Verifier verifier; // null unless running without per-instruction checks
+
+	final Profiler profiler; // null unless profiling
+
+	final Heap heap = new Heap();
+
+	// LIMITS on a run. Control only ever enters a run of straight-line code
+	// at a transfer, so each engine charges the fuel for the whole run, and
+	// checks the clock and the stack quota, when it transfers control. A run
+	// is charged for even if it fails part-way.
+
+	final boolean limited; // false if none of the limits below is set
+
+	final int[] runLengths; // null unless limited
+
+	long fuel; // instructions that may still be started
+
+	long charged; // instructions started, for a counted machine
+
+	final long timeLimitNanos;
+
+	long deadlineNanos;
+
+	// Reading the clock costs more than a run of instructions, so it is only
+	// read every so many charges
+	final static int clockInterval = 1024;
+
+	int clockCountdown = 0;
+
+	final int stackQuota, heapQuota;
+
+	final BitSet inputRuns; // null unless pausing before input
+
+	// FORKING
+
+	private final VmOptions options;
+
+	/**
+	 * Creates a machine that will run the given program using the standard input
+	 * and output streams.
+	 *
+	 * @param code the decoded program.
+	 */
+	public TamVm(CodeSegment code) {
+		this(code, System.in, System.out);
+	}
+
+	/**
+	 * Creates a machine with the default settings that will run the given
+	 * program, reading and writing through the given streams.
+	 *
+	 * @param code the decoded program.
+	 * @param in   the stream read by the GET, GETEOL and GETINT primitives.
+	 * @param out  the stream written by the PUT, PUTEOL and PUTINT primitives, and
+	 *             by {@link #showStatus()}.
+	 */
+	public TamVm(CodeSegment code, InputStream in, PrintStream out) {
+		this(code, in, out, new VmOptions());
+	}
+
+	/**
+	 * Creates a machine that will run the given program, reading and writing
+	 * through the given streams.
+	 *
+	 * @param code    the decoded program.
+	 * @param in      the stream read by the GET, GETEOL and GETINT primitives.
+	 * @param out     the stream written by the PUT, PUTEOL and PUTINT primitives,
+	 *                and by {@link #showStatus()}.
+	 * @param options the settings for this run, such as the size of the data
+	 *                store.
+	 */
+	public TamVm(CodeSegment code, InputStream in, PrintStream out, VmOptions options) {
+		this.code = code;
+		this.CT = code.CT;
+		this.in = in;
+		this.out = out;
+		this.input = new InputBuffer(in);
+		this.output = new OutputBuffer(out);
+		this.HB = options.getDataStoreSize();
+		this.data = new int[options.growable ? Math.min(HB, VmOptions.initialCapacity) : HB];
+		this.compileThreshold = options.compileThreshold;
+		this.profiler = options.profiled ? new Profiler(code) : null;
+		this.options = options.copy();
+		this.limited = options.fuel > 0 || options.timeLimit > 0 || options.stackQuota > 0
+				|| options.pausedBeforeInput || options.counted;
+		this.runLengths = limited ? code.runLengths() : null;
+		this.inputRuns = options.pausedBeforeInput ? code.inputRuns() : null;
+		this.fuel = options.fuel > 0 ? options.fuel : Long.MAX_VALUE;
+		this.timeLimitNanos = options.timeLimit * 1_000_000;
+		this.stackQuota = options.stackQuota > 0 ? options.stackQuota : Integer.MAX_VALUE;
+		this.heapQuota = options.heapQuota > 0 ? options.heapQuota : Integer.MAX_VALUE;
+		this.jit = compileThreshold > 0 && profiler == null ? code.jit(limited) : null;
+		this.closures = options.closureCompiled && profiler == null ? code.closures() : null;
+		this.registers = options.registerCompiled && profiler == null ? code.registers() : null;
+		this.displayCached = options.displayCached;
+		this.verifier = options.verified && profiler == null && code.verifier().problem() == null ? code.verifier()
+				: null;
+	}
+
+	/**
+	 * @return the counts gathered so far if this machine is profiling, else
+	 *         null.
+	 */
+	public Profiler getProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * @return the heap, with its counts of the blocks allocated and freed.
+	 */
+	public Heap getHeap() {
+		return heap;
+	}
+
+	/**
+	 * @return the number of instructions executed so far, if this machine is
+	 *         counted, profiled or has limits, else -1. Other than when
+	 *         profiling, a run of straight-line code is counted in full as
+	 *         control reaches it, even if the program fails part-way through.
+	 */
+	public long getInstructionCount() {
+		if (profiler != null) {
+			return profiler.getInstructionCount();
+		}
+		return limited ? charged : -1;
+	}
+
+	/**
+	 * @return the current status of this machine: {@link #running},
+	 *         {@link #halted} or one of the failure codes.
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	long accumulator;
+
+	int staticLink(int level) {
+		// Returns the frame that is level static links out from LB, the
+		// content of L1..L6. The display remembers the frames already found
+		// for the current frame, so each link is followed once per frame.
+
+		if (displayLB == LB && level <= displayDepth) {
+			return display[level];
+		}
+		return findStaticLink(level);
+	}
+
+	private int findStaticLink(int level) {
+		if (!displayCached) {
+			var frame = LB;
+			for (var i = 0; i < level; i++) {
+				frame = data[frame];
+			}
+			return frame;
+		}
+		if (displayLB != LB) {
+			displayLB = LB;
+			display[0] = LB;
+			displayDepth = 0;
+		}
+		while (displayDepth < level) {
+			display[displayDepth + 1] = data[display[displayDepth]];
+			displayDepth = displayDepth + 1;
+		}
+		return display[level];
+	}
+
+	int content(int r) {
+		// Returns the current content of register r,
+		// even if r is one of the pseudo-registers L1..L6.
+
+		switch (r) {
+		case Machine.CBr:
+			return CB;
+		case Machine.CTr:
+			return CT;
+		case Machine.PBr:
+			return Machine.PB;
+		case Machine.PTr:
+			return Machine.PT;
+		case Machine.SBr:
+			return SB;
+		case Machine.STr:
+			return ST;
+		case Machine.HBr:
+			return HB;
+		case Machine.HTr:
+			return HT;
+		case Machine.LBr:
+			return LB;
+		case Machine.L1r:
+			return data[LB];
+		case Machine.L2r:
+		case Machine.L3r:
+		case Machine.L4r:
+		case Machine.L5r:
+		case Machine.L6r:
+			return staticLink(r - Machine.LBr);
+		case Machine.CPr:
+			return CP;
+		default:
+			return 0;
+		}
+	}
+
+	// PROGRAM STATUS
+
+	public void dump() {
+		// Writes a summary of the machine state.
+
+		output.flush();
+		out.println("");
+		out.println("State of data store and registers:");
+		out.println("");
+		if (HT == HB) {
+			out.println("            |--------|          (heap is empty)");
+		} else {
+			out.println("       HB-->");
+			out.println("            |--------|");
+			for (var addr = HB - 1; addr >= HT; addr--) {
+				out.print(addr + ":");
+				if (addr == HT) {
+					out.print(" HT-->");
+				} else {
+					out.print("      ");
+				}
+				out.println("|" + data[addr] + "|");
+			}
+			out.println("            |--------|");
+		}
+		out.println("            |////////|");
+		out.println("            |////////|");
+		if (ST == SB) {
+			out.println("            |--------|          (stack is empty)");
+		} else {
+			var dynamicLink = LB;
+			var staticLink = LB;
+			var localRegNum = Register.LB;
+			out.println("      ST--> |////////|");
+			out.println("            |--------|");
+			for (var addr = ST - 1; addr >= SB; addr--) {
+				out.print(addr + ":");
+				if (addr == SB) {
+					out.print(" SB-->");
+				} else if (addr == staticLink) {
+					switch (localRegNum) {
+					case LB:
+						out.print(" LB-->");
+						break;
+					case L1:
+						out.print(" L1-->");
+						break;
+					case L2:
+						out.print(" L2-->");
+						break;
+					case L3:
+						out.print(" L3-->");
+						break;
+					case L4:
+						out.print(" L4-->");
+						break;
+					case L5:
+						out.print(" L5-->");
+						break;
+					case L6:
+						out.print(" L6-->");
+						break;
+					default:
+						break;
+					}
+					staticLink = data[addr];
+					localRegNum = Instruction.registers[localRegNum.ordinal() + 1];
+				} else {
+					out.print("      ");
+				}
+				if (addr == dynamicLink && dynamicLink != SB) {
+					out.print("|SL=" + data[addr] + "|");
+				} else if (addr == dynamicLink + 1 && dynamicLink != SB) {
+					out.print("|DL=" + data[addr] + "|");
+				} else if (addr == dynamicLink + 2 && dynamicLink != SB) {
+					out.print("|RA=" + data[addr] + "|");
+				} else {
+					out.print("|" + data[addr] + "|");
+				}
+				out.println("");
+				if (addr == dynamicLink) {
+					out.println("            |--------|");
+					dynamicLink = data[addr + 1];
+				}
+			}
+		}
+		out.println("");
+	}
+
+	public void showStatus() {
+		// Writes an indication of whether and why the program has terminated.
+		output.flush();
+		out.println("");
+		switch (status) {
+		case running:
+			out.println("Program is running.");
+			break;
+		case halted:
+			out.println("Program has halted normally.");
+			out.println("Total execution time (ns): " + (System.nanoTime() - startTimeNanos));
+			break;
+		case failedDataStoreFull:
+			out.println("Program has failed due to exhaustion of Data Store.");
+			break;
+		case failedInvalidCodeAddress:
+			out.println("Program has failed due to an invalid code address.");
+			break;
+		case failedInvalidInstruction:
+			out.println("Program has failed due to an invalid instruction.");
+			break;
+		case failedOverflow:
+			out.println("Program has failed due to overflow.");
+			break;
+		case failedZeroDivide:
+			out.println("Program has failed due to division by zero.");
+			break;
+		case failedIOError:
+			out.println("Program has failed due to an IO error.");
+			break;
+		case failedOutOfFuel:
+			out.println("Program has been stopped after executing its limit of instructions.");
+			break;
+		case failedTimeLimit:
+			out.println("Program has been stopped after running for its time limit.");
+			break;
+		case failedStackQuota:
+			out.println("Program has been stopped for exceeding its stack quota.");
+			break;
+		case failedHeapQuota:
+			out.println("Program has been stopped for exceeding its heap quota.");
+			break;
+		case paused:
+			out.println("Program is paused before reading input.");
+			break;
+		}
+		if (heap.getAllocations() > 0) {
+			heap.writeStatistics(out);
+		}
+		if (status != halted) {
+			dump();
+		}
+	}
+
+	// INTERPRETATION
+
+	boolean checkSpace(int spaceNeeded) {
+		// Signals failure if there is not enough space to expand the stack by
+		// spaceNeeded, growing the data store first if it is short. Returns
+		// whether the instruction may go ahead.
+
+		if (HT - ST < spaceNeeded) {
+			status = failedDataStoreFull;
+			return false;
+		}
+		if (ST + spaceNeeded > data.length) {
+			growData(ST + spaceNeeded);
+		}
+		return true;
+	}
+
+	void checkHeapSpace(int spaceNeeded) {
+		// Signals failure if there is not enough space to expand the heap by
+		// spaceNeeded. The heap lies at the top of the store, so a growable
+		// store is extended to its full size.
+
+		if (HT - ST < spaceNeeded) {
+			status = failedDataStoreFull;
+		} else if ((long) HB - HT + spaceNeeded > heapQuota) {
+			status = failedHeapQuota;
+		}
+		growData(HB);
+	}
+
+	void growData(int capacityNeeded) {
+		// Extends a growable data store to at least capacityNeeded words,
+		// doubling it to keep the cost of copying linear. A full-size store is
+		// left alone.
+
+		if (data.length < capacityNeeded) {
+			var capacity = Math.min(HB, Math.max(capacityNeeded, 2 * data.length));
+			data = Arrays.copyOf(data, capacity);
+		}
+	}
+
+	static boolean isTrue(int datum) {
+		// Tests whether the given datum represents true.
+		return (datum == Machine.trueRep);
+	}
+
+	boolean equal(int size, int addr1, int addr2) {
+		// Tests whether two multi-word objects are equal, given their common
+		// size and their base addresses.
+
+		boolean eq;
+		int index;
+
+		eq = true;
+		index = 0;
+		while (eq && (index < size)) {
+			if (data[addr1 + index] == data[addr2 + index]) {
+				index = index + 1;
+			} else {
+				eq = false;
+			}
+		}
+
+		return eq;
+	}
+
+	int[] room(int st, int ht, int spaceNeeded) {
+		// As checkSpace, for the loop of interpret, which holds ST and HT in
+		// locals: stops the machine if the stack cannot grow by spaceNeeded,
+		// else returns the data store, grown first if it is short.
+
+		if (ht - st < spaceNeeded) {
+			throw stop(failedDataStoreFull);
+		}
+		if (st + spaceNeeded > data.length) {
+			growData(st + spaceNeeded);
+		}
+		return data;
+	}
+
+	int content(int r, int cp, int st, int lb) {
+		// As content(r), for the loop of interpret, which holds CP, ST and LB
+		// in locals.
+
+		switch (r) {
+		case Machine.CBr:
+			return CB;
+		case Machine.PBr:
+			return Machine.PB;
+		case Machine.SBr:
+			return SB;
+		case Machine.LBr:
+			return lb;
+		case Machine.L1r:
+			return data[lb];
+		case Machine.STr:
+			return st;
+		case Machine.CPr:
+			return cp;
+		default:
+			return content(r);
+		}
+	}
+
+	int overflowChecked(long datum) {
+		// Signals failure if the datum is too large to fit into a single word,
+		// otherwise returns the datum as a single word.
+
+		if ((-Machine.maxintRep <= datum) && (datum <= Machine.maxintRep)) {
+			return (int) datum;
+		} else {
+			status = failedOverflow;
+			return 0;
+		}
+	}
+
+	static int checked(long datum) {
+		// As overflowChecked, for the loop of interpret: stops the machine if
+		// the datum does not fit into a single word.
+
+		if ((-Machine.maxintRep <= datum) && (datum <= Machine.maxintRep)) {
+			return (int) datum;
+		}
+		throw stop(failedOverflow);
+	}
+
+	static int toInt(boolean b) {
+		return b ? Machine.trueRep : Machine.falseRep;
+	}
+
+	int currentChar;
+
+	int readInt() throws java.io.IOException {
+		int temp = 0;
+		int sign = 1;
+
+		do {
+			currentChar = input.read();
+		} while (Character.isWhitespace((char) currentChar));
+
+		if ((currentChar == '-') || (currentChar == '+')) {
+			do {
+				sign = (currentChar == '-') ? -1 : 1;
+				currentChar = input.read();
+			} while ((currentChar == '-') || currentChar == '+');
+		}
+
+		if (Character.isDigit((char) currentChar)) {
+			do {
+				temp = temp * 10 + (currentChar - '0');
+				currentChar = input.read();
+			} while (Character.isDigit((char) currentChar));
+		}
+
+		return sign * temp;
+	}
+
+	int binary(int primitiveDisplacement, int left, int right) {
+		// Applies a dyadic primitive to two words, as callPrimitive would, and
+		// returns the word it would leave on the stack.
+
+		switch (primitiveDisplacement) {
+		case Machine.andDisplacement:
+			return toInt(isTrue(left) & isTrue(right));
+		case Machine.orDisplacement:
+			return toInt(isTrue(left) | isTrue(right));
+		case Machine.addDisplacement:
+			return overflowChecked((long) left + right);
+		case Machine.subDisplacement:
+			return overflowChecked((long) left - right);
+		case Machine.multDisplacement:
+			return overflowChecked((long) left * right);
+		case Machine.divDisplacement:
+			if (right != 0) {
+				return (int) ((long) left / right);
+			}
+			status = failedZeroDivide;
+			return left;
+		case Machine.modDisplacement:
+			if (right != 0) {
+				return (int) ((long) left % right);
+			}
+			status = failedZeroDivide;
+			return left;
+		case Machine.ltDisplacement:
+			return toInt(left < right);
+		case Machine.leDisplacement:
+			return toInt(left <= right);
+		case Machine.geDisplacement:
+			return toInt(left >= right);
+		case Machine.gtDisplacement:
+			return toInt(left > right);
+		default:
+			status = failedInvalidInstruction;
+			return left;
+		}
+	}
+
+	static int dyadic(int primitiveDisplacement, int left, int right) {
+		// As binary, for the loop of interpret: stops the machine if the
+		// primitive fails, rather than setting the status.
+
+		switch (primitiveDisplacement) {
+		case Machine.andDisplacement:
+			return toInt(isTrue(left) & isTrue(right));
+		case Machine.orDisplacement:
+			return toInt(isTrue(left) | isTrue(right));
+		case Machine.addDisplacement:
+			return checked((long) left + right);
+		case Machine.subDisplacement:
+			return checked((long) left - right);
+		case Machine.multDisplacement:
+			return checked((long) left * right);
+		case Machine.divDisplacement:
+			if (right == 0) {
+				throw stop(failedZeroDivide);
+			}
+			return (int) ((long) left / right);
+		case Machine.modDisplacement:
+			if (right == 0) {
+				throw stop(failedZeroDivide);
+			}
+			return (int) ((long) left % right);
+		case Machine.ltDisplacement:
+			return toInt(left < right);
+		case Machine.leDisplacement:
+			return toInt(left <= right);
+		case Machine.geDisplacement:
+			return toInt(left >= right);
+		case Machine.gtDisplacement:
+			return toInt(left > right);
+		default:
+			throw stop(failedInvalidInstruction);
+		}
+	}
+
+	void callPrimitive(int primitiveDisplacement) {
+		// Invokes the given primitive routine.
+
+		int addr, size;
+		char ch;
+
+		switch (primitiveDisplacement) {
+		case Machine.idDisplacement:
+			break; // nothing to be done
+		case Machine.notDisplacement:
+			data[ST - 1] = toInt(!isTrue(data[ST - 1]));
+			break;
+		case Machine.andDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(isTrue(data[ST - 1]) & isTrue(data[ST]));
+			break;
+		case Machine.orDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(isTrue(data[ST - 1]) | isTrue(data[ST]));
+			break;
+		case Machine.succDisplacement:
+			data[ST - 1] = overflowChecked(data[ST - 1] + 1);
+			break;
+		case Machine.predDisplacement:
+			data[ST - 1] = overflowChecked(data[ST - 1] - 1);
+			break;
+		case Machine.negDisplacement:
+			data[ST - 1] = -data[ST - 1];
+			break;
+		case Machine.addDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			data[ST - 1] = overflowChecked(accumulator + data[ST]);
+			break;
+		case Machine.subDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			data[ST - 1] = overflowChecked(accumulator - data[ST]);
+			break;
+		case Machine.multDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			data[ST - 1] = overflowChecked(accumulator * data[ST]);
+			break;
+		case Machine.divDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			if (data[ST] != 0) {
+				data[ST - 1] = (int) (accumulator / data[ST]);
+			} else {
+				status = failedZeroDivide;
+			}
+			break;
+		case Machine.modDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			if (data[ST] != 0) {
+				data[ST - 1] = (int) (accumulator % data[ST]);
+			} else {
+				status = failedZeroDivide;
+			}
+			break;
+		case Machine.ltDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] < data[ST]);
+			break;
+		case Machine.leDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] <= data[ST]);
+			break;
+		case Machine.geDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] >= data[ST]);
+			break;
+		case Machine.gtDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] > data[ST]);
+			break;
+		case Machine.eqDisplacement:
+			size = data[ST - 1]; // size of each comparand
+			ST = ST - 2 * size;
+			data[ST - 1] = toInt(equal(size, ST - 1, ST - 1 + size));
+			break;
+		case Machine.neDisplacement:
+			size = data[ST - 1]; // size of each comparand
+			ST = ST - 2 * size;
+			data[ST - 1] = toInt(!equal(size, ST - 1, ST - 1 + size));
+			break;
+		case Machine.eolDisplacement:
+			data[ST] = toInt(currentChar == '\n');
+			ST = ST + 1;
+			break;
+		case Machine.eofDisplacement:
+			data[ST] = toInt(currentChar == -1);
+			ST = ST + 1;
+			break;
+		case Machine.getDisplacement:
+			ST = ST - 1;
+			addr = data[ST];
+			output.flush();
+			try {
+				currentChar = input.read();
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			data[addr] = currentChar;
+			break;
+		case Machine.putDisplacement:
+			ST = ST - 1;
+			ch = (char) data[ST];
+			output.put(ch);
+			break;
+		case Machine.geteolDisplacement:
+			output.flush();
+			try {
+				while ((currentChar = input.read()) != '\n')
+					;
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			break;
+		case Machine.puteolDisplacement:
+			output.putEol();
+			break;
+		case Machine.getintDisplacement:
+			output.putString("enter int: ");
+			output.putEol();
+			output.flush();
+			ST = ST - 1;
+			addr = data[ST];
+			try {
+				accumulator = readInt();
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			data[addr] = (int) accumulator;
+			break;
+		case Machine.putintDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST];
+			output.putInt(accumulator);
+			break;
+		case Machine.newDisplacement:
+			size = data[ST - 1];
+			data[ST - 1] = heap.allocate(this, size);
+			break;
+		case Machine.disposeDisplacement:
+			ST = ST - 1;
+			heap.dispose(this, data[ST]);
+			break;
+		}
+	}
+
+	/**
+	 * Runs the program from CB until it halts or fails.
+	 *
+	 * @return the final status of this machine.
+	 */
+	public int run() {
+		// Runs the program in the decoded code segment.
+
+		// Initialize registers ...
+		startTimeNanos = System.nanoTime();
+		ST = SB;
+		HT = HB;
+		LB = SB;
+		displayLB = -1;
+		CP = CB;
+		status = running;
+		charged = 0;
+		heap.reset();
+		if (profiler != null) {
+			profiler.restart();
+		}
+		if (limited) {
+			deadlineNanos = startTimeNanos + timeLimitNanos;
+			if (!chargeRun()) {
+				return status;
+			}
+		}
+		try {
+			// a program translated ahead of time is compiled from the start
+			if (jit != null && jit.isPrecompiled() && tierUp(CB) && status != running) {
+				return status;
+			}
+			return interpret(-1);
+		} finally {
+			output.flush();
+		}
+	}
+
+	/**
+	 * @return whether the machine stopped as control was transferred, so that
+	 *         it may be resumed, snapshotted or forked: it was paused, or ran out
+	 *         of fuel or time.
+	 */
+	public boolean isResumable() {
+		return status == paused || status == failedOutOfFuel || status == failedTimeLimit;
+	}
+
+	/**
+	 * Carries on a run that was paused, stopped by its fuel or time limit, or
+	 * restored from a snapshot, from the instruction at CP. Either way the
+	 * machine stopped as control was transferred, so nothing was left part
+	 * done. A paused machine goes on to read its input, rather than pausing
+	 * again. A machine that halted or failed otherwise is left as it is.
+	 *
+	 * @return the final status of this machine.
+	 */
+	public int resume() {
+		if (status != running && !isResumable()) {
+			return status;
+		}
+		var wasPaused = status == paused;
+		startTimeNanos = System.nanoTime();
+		status = running;
+		if (limited) {
+			deadlineNanos = startTimeNanos + timeLimitNanos;
+			if (!(wasPaused ? charge(CB <= CP && CP < CT ? runLengths[CP] : 0) : chargeRun())) {
+				return status;
+			}
+		}
+		try {
+			return interpret(-1);
+		} finally {
+			output.flush();
+		}
+	}
+
+	/**
+	 * Allows a machine with a fuel limit to execute more instructions, for
+	 * instance before it resumes.
+	 *
+	 * @param instructions the number of instructions to add.
+	 */
+	public void addFuel(long instructions) {
+		fuel = fuel > Long.MAX_VALUE - instructions ? Long.MAX_VALUE : fuel + instructions;
+	}
+
+	// CHECKPOINTS
+
+	/**
+	 * Writes the state of this machine as a compact snapshot: the registers,
+	 * the status, the parts of the data store in use and any input read ahead.
+	 * A machine stopped by its fuel or time limit may be restored from the
+	 * snapshot and resumed, in this process or another, and carries on as if
+	 * it had never stopped. Output is flushed first, but what the program
+	 * writes after the snapshot is not part of it.
+	 *
+	 * @param snapshot the stream to write to.
+	 * @throws IOException if the stream cannot be written.
+	 */
+	public void checkpoint(OutputStream snapshot) throws IOException {
+		output.flush();
+		Snapshot.write(this, snapshot);
+	}
+
+	/**
+	 * Replaces the state of this machine with one written by
+	 * {@link #checkpoint(OutputStream)}, ready for {@link #resume()}. The
+	 * machine must be running the same program, with a data store of the same
+	 * size.
+	 *
+	 * @param snapshot the stream to read from.
+	 * @throws IOException if the stream cannot be read, or does not hold a
+	 *                     snapshot this machine can take.
+	 */
+	public void restore(InputStream snapshot) throws IOException {
+		Snapshot.read(this, snapshot);
+	}
+
+	// FORKING
+
+	/**
+	 * Creates a machine that carries on from where this one stopped, with its
+	 * own input and output and a copy of the stack and heap. The program, and
+	 * any of it already compiled, are shared. A program that takes a long time
+	 * to set up before reading its input can be paused there, with
+	 * {@link VmOptions#setPausedBeforeInput(boolean)}, and forked once for
+	 * each input, so that the set-up runs only once.
+	 *
+	 * @param in      the stream the new machine reads.
+	 * @param out     the stream the new machine writes.
+	 * @param options the settings for the new machine, which must have a data
+	 *                store of the same size as this one.
+	 * @return the new machine, ready for {@link #resume()}.
+	 */
+	public TamVm fork(InputStream in, PrintStream out, VmOptions options) {
+		if (!isResumable()) {
+			throw new IllegalStateException("only a paused or stopped machine can be forked");
+		}
+		if (options.getDataStoreSize() != HB) {
+			throw new IllegalArgumentException("a fork needs a data store of " + HB + " words");
+		}
+		output.flush();
+		var child = new TamVm(code, in, out, options);
+		child.growData(HT < HB ? HB : ST);
+		System.arraycopy(data, SB, child.data, SB, ST - SB);
+		System.arraycopy(data, HT, child.data, HT, HB - HT);
+		child.CP = CP;
+		child.ST = ST;
+		child.HT = HT;
+		child.LB = LB;
+		child.status = status;
+		child.currentChar = currentChar;
+		child.heap.restore(child, heap.allocatedBlocks(), heap.freeBlocks());
+		child.heap.copyCounts(heap);
+		return child;
+	}
+
+	/**
+	 * Creates a machine that carries on from where this one stopped, with the
+	 * same settings except that it does not pause before reading input.
+	 *
+	 * @param in  the stream the new machine reads.
+	 * @param out the stream the new machine writes.
+	 * @return the new machine, ready for {@link #resume()}.
+	 * @see #fork(InputStream, PrintStream, VmOptions)
+	 */
+	public TamVm fork(InputStream in, PrintStream out) {
+		var childOptions = options.copy();
+		childOptions.setPausedBeforeInput(false);
+		return fork(in, out, childOptions);
+	}
+
+	// LIMITS
+
+	boolean chargeRun() {
+		// Charges for the run of instructions at CP, which control has just
+		// been transferred to. Returns false, having stopped the machine, if
+		// the run may not start, or if it has stopped already.
+
+		return chargeRun(CP);
+	}
+
+	boolean chargeRun(int cp) {
+		if (status != running) {
+			return false;
+		}
+		if (cp < CB || cp >= CT) {
+			return charge(0); // the machine fails on reaching it
+		}
+		if (inputRuns != null && inputRuns.get(cp)) {
+			status = paused;
+			return false;
+		}
+		return charge(runLengths[cp]);
+	}
+
+	void chargeOrStop(int cp, int st) {
+		// As chargeRun, for the loop of interpret, which holds CP and ST in
+		// locals: stops the machine if the run at cp may not start.
+
+		ST = st;
+		if (!chargeRun(cp)) {
+			throw stop(status);
+		}
+	}
+
+	boolean charge(int instructions) {
+		if (fuel < instructions) {
+			status = failedOutOfFuel;
+			return false;
+		}
+		fuel = fuel - instructions;
+		charged = charged + instructions;
+		if (ST - SB > stackQuota) {
+			status = failedStackQuota;
+			return false;
+		}
+		clockCountdown = clockCountdown - 1;
+		if (clockCountdown <= 0) {
+			clockCountdown = clockInterval;
+			if (timeLimitNanos > 0 && System.nanoTime() - deadlineNanos > 0) {
+				status = failedTimeLimit;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// COMPILED TIER
+
+	boolean tierUp(int entry) {
+		// Counts a call to, or backward jump to, the given address, and once it
+		// is hot runs compiled code from there. Returns whether compiled code
+		// ran, after which LB may have changed.
+
+		if (entry < CB || entry >= CT) {
+			return false; // the interpreter will fail
+		}
+		var unit = jit.hot(entry, compileThreshold);
+		if (unit == null || status != running || nesting >= maxNesting) {
+			return false;
+		}
+		// The compiled code relies on room for its whole frame
+		var base = LB + unit.frameOffset;
+		if (ST != base + unit.depthAt(entry) || HT - base < unit.maxDepth) {
+			return false;
+		}
+		growData(base + unit.maxDepth);
+		nesting = nesting + 1;
+		try {
+			unit.routine.run(this, entry);
+		} finally {
+			nesting = nesting - 1;
+		}
+		return true;
+	}
+
+	boolean tierUp(int entry, int st) {
+		// As tierUp, for the loop of interpret: first writes back the registers
+		// it holds in locals, as the compiled code reads them.
+
+		CP = entry;
+		ST = st;
+		return tierUp(entry);
+	}
+
+	boolean callRoutine(int routine, int staticLink, int returnAddress) {
+		// Calls a routine for compiled code, which has left the data store and
+		// ST as the interpreter would, and runs it until it returns. Returns
+		// false if the caller must stop instead: the machine has halted or
+		// failed, calls are nested too deeply, in which case CP is left at the
+		// CALL for the interpreter, or the routine returned somewhere other
+		// than the return address it was given.
+
+		if (nesting >= maxNesting || !checkSpace(3)) {
+			CP = returnAddress - 1;
+			return false;
+		}
+		var callerLB = LB;
+		data[ST] = staticLink;
+		data[ST + 1] = LB; // dynamic link
+		data[ST + 2] = returnAddress;
+		LB = ST;
+		displayLB = -1;
+		ST = ST + 3;
+		CP = routine;
+		if (limited && !chargeRun()) {
+			return false;
+		}
+		nesting = nesting + 1;
+		try {
+			tierUp(routine);
+			if (status == running && LB != callerLB) {
+				interpret(callerLB);
+			}
+		} finally {
+			nesting = nesting - 1;
+		}
+		return status == running && CP == returnAddress;
+	}
+
+	// VERIFIED INTERPRETATION
+
+	boolean enterVerified() {
+		// At the start of the main program or a routine, checks once that the
+		// data store has room for all the routine does, so that the verified
+		// loop can run it without checking each instruction.
+
+		var need = verifier.needs[CP];
+		var base = CP == CB ? SB : LB + 3;
+		if (need < 0 || ST != base || HT != HB || HT - ST < need) {
+			return false;
+		}
+		growData(ST + need);
+		return true;
+	}
+
+	boolean stillVerified(int callerLB) {
+		// After compiled code has run, tests whether the verified loop may carry
+		// on from CP. If it may not, the loop returns true if interpret would
+		// have stopped, else false.
+
+		if (status != running || LB == callerLB || HT != HB) {
+			return false;
+		}
+		if (CP < CB || CP >= CT) {
+			status = failedInvalidCodeAddress;
+			return false;
+		}
+		return true;
+	}
+
+	boolean interpretVerified(int callerLB) {
+		// Interprets a verified program as interpret would, but with one space
+		// check per routine entered and no checks on code addresses. Returns
+		// true once interpret would have returned, or false to have the
+		// checked loop carry on from CP: when a routine needs more room than
+		// is left, a NEW moves the heap, or a RETURN goes somewhere no call
+		// returns to.
+
+		var words = code.words;
+		var needs = verifier.needs;
+		for (;;) {
+			// Fetch instruction ...
+			var pc = 2 * CP;
+			var word = words[pc];
+			var d = words[pc + 1];
+			// Unpack fields ...
+			var op = CodeSegment.op(word);
+			var r = CodeSegment.register(word);
+			var n = CodeSegment.length(word);
+			int addr;
+			if (op >= CodeSegment.LOADSBop) {
+				// quickened instructions are run as they were
+				op = CodeSegment.baseOp(op);
+			}
+
+			// Execute instruction ...
+			switch (op) {
+			case Machine.LOADop:
+				addr = d + content(r);
+				for (var index = 0; index < n; index++) {
+					data[ST + index] = data[addr + index];
+				}
+				ST = ST + n;
+				CP = CP + 1;
+				break;
+			case Machine.LOADAop:
+				data[ST] = d + content(r);
+				ST = ST + 1;
+				CP = CP + 1;
+				break;
+			case Machine.LOADIop:
+				ST = ST - 1;
+				addr = data[ST];
+				for (var index = 0; index < n; index++) {
+					data[ST + index] = data[addr + index];
+				}
+				ST = ST + n;
+				CP = CP + 1;
+				break;
+			case Machine.LOADLop:
+				data[ST] = d;
+				ST = ST + 1;
+				CP = CP + 1;
+				break;
+			case Machine.STOREop:
+				addr = d + content(r);
+				ST = ST - n;
+				for (var index = 0; index < n; index++) {
+					data[addr + index] = data[ST + index];
+				}
+				CP = CP + 1;
+				break;
+			case Machine.STOREIop:
+				ST = ST - 1;
+				addr = data[ST];
+				ST = ST - n;
+				for (var index = 0; index < n; index++) {
+					data[addr + index] = data[ST + index];
+				}
+				CP = CP + 1;
+				break;
+			case Machine.CALLop:
+				addr = d + content(r);
+				if (addr >= Machine.PB) {
+					callPrimitive(addr - Machine.PB);
+					CP = CP + 1;
+					if (status != running) {
+						return true;
+					}
+					if (HT != HB) {
+						return false;
+					}
+				} else {
+					if (HT - ST < 3 + needs[addr]) {
+						return false;
+					}
+					growData(ST + 3 + needs[addr]);
+					data[ST] = content(n); // static link
+					data[ST + 1] = LB; // dynamic link
+					data[ST + 2] = CP + 1; // return address
+					LB = ST;
+					displayLB = -1;
+					ST = ST + 3;
+					CP = addr;
+					if (limited && !chargeRun()) {
+						return true;
+					}
+					if (jit != null && tierUp(CP) && !stillVerified(callerLB)) {
+						return status != running || LB == callerLB;
+					}
+				}
+				break;
+			case Machine.CALLIop:
+				addr = data[ST - 1];
+				if (addr < 0 || !verifier.isClosure(addr)) {
+					return false;
+				}
+				if (addr >= Machine.PB) {
+					ST = ST - 2;
+					callPrimitive(addr - Machine.PB);
+					CP = CP + 1;
+					if (status != running || (limited && !chargeRun())) {
+						return true;
+					}
+					if (HT != HB) {
+						return false;
+					}
+				} else {
+					if (HT - (ST - 2) < 3 + needs[addr]) {
+						return false;
+					}
+					ST = ST - 2;
+					growData(ST + 3 + needs[addr]);
+					// data[ST] = static link already
+					data[ST + 1] = LB; // dynamic link
+					data[ST + 2] = CP + 1; // return address
+					LB = ST;
+					displayLB = -1;
+					ST = ST + 3;
+					CP = addr;
+					if (limited && !chargeRun()) {
+						return true;
+					}
+				}
+				break;
+			case Machine.RETURNop:
+				addr = LB - d;
+				CP = data[LB + 2];
+				LB = data[LB + 1];
+				ST = ST - n;
+				for (var index = 0; index < n; index++) {
+					data[addr + index] = data[ST + index];
+				}
+				ST = addr + n;
+				if ((limited && !chargeRun()) || LB == callerLB) {
+					return true;
+				}
+				if (CP < CB || CP >= CT) {
+					status = failedInvalidCodeAddress;
+					return true;
+				}
+				if (!verifier.returnPoints[CP]) {
+					return false;
+				}
+				break;
+			case Machine.PUSHop:
+				ST = ST + d;
+				CP = CP + 1;
+				break;
+			case Machine.POPop:
+				addr = ST - n - d;
+				ST = ST - n;
+				for (var index = 0; index < n; index++) {
+					data[addr + index] = data[ST + index];
+				}
+				ST = addr + n;
+				CP = CP + 1;
+				break;
+			case Machine.JUMPop:
+				CP = d;
+				if (limited && !chargeRun()) {
+					return true;
+				}
+				if (jit != null && 2 * CP <= pc && tierUp(CP) && !stillVerified(callerLB)) {
+					return status != running || LB == callerLB;
+				}
+				break;
+			case Machine.JUMPIFop:
+				ST = ST - 1;
+				if (data[ST] == n) {
+					CP = d;
+					if (limited && !chargeRun()) {
+						return true;
+					}
+					if (jit != null && 2 * CP <= pc && tierUp(CP) && !stillVerified(callerLB)) {
+						return status != running || LB == callerLB;
+					}
+				} else {
+					CP = CP + 1;
+					if (limited && !chargeRun()) {
+						return true;
+					}
+				}
+				break;
+			case Machine.HALTop:
+				status = halted;
+				return true;
+
+			// Superinstructions, as in interpret
+
+			case CodeSegment.LOADLOADPRIMop:
+			case CodeSegment.LOADLOADPRIMSTOREop:
+			case CodeSegment.LOADLOADPRIMJUMPIFop:
+			case CodeSegment.LOADLITPRIMop:
+			case CodeSegment.LOADLITPRIMSTOREop:
+			case CodeSegment.LOADLITPRIMJUMPIFop:
+				data[ST] = data[d + content(r)];
+				ST = ST + 1;
+				if (op <= CodeSegment.LOADLOADPRIMJUMPIFop) {
+					data[ST] = data[words[pc + 3] + content(CodeSegment.register(words[pc + 2]))];
+				} else {
+					data[ST] = words[pc + 3];
+				}
+				data[ST - 1] = binary(words[pc + 5], data[ST - 1], data[ST]);
+				CP = CP + 3;
+				if (status != running) {
+					return true;
+				}
+				word = words[pc + 6];
+				if (op == CodeSegment.LOADLOADPRIMSTOREop || op == CodeSegment.LOADLITPRIMSTOREop) {
+					ST = ST - 1;
+					data[words[pc + 7] + content(CodeSegment.register(word))] = data[ST];
+					CP = CP + 1;
+				} else if (op == CodeSegment.LOADLOADPRIMJUMPIFop || op == CodeSegment.LOADLITPRIMJUMPIFop) {
+					ST = ST - 1;
+					if (data[ST] == CodeSegment.length(word)) {
+						CP = words[pc + 7];
+						if (limited && !chargeRun()) {
+							return true;
+						}
+						if (jit != null && 2 * CP <= pc && tierUp(CP) && !stillVerified(callerLB)) {
+							return status != running || LB == callerLB;
+						}
+					} else {
+						CP = CP + 1;
+						if (limited && !chargeRun()) {
+							return true;
+						}
+					}
+				}
+				break;
+			case CodeSegment.LITPRIMop:
+			case CodeSegment.LITPRIMSTOREop:
+				data[ST] = d;
+				data[ST - 1] = binary(words[pc + 3], data[ST - 1], d);
+				CP = CP + 2;
+				if (status != running) {
+					return true;
+				}
+				if (op == CodeSegment.LITPRIMSTOREop) {
+					ST = ST - 1;
+					data[words[pc + 5] + content(CodeSegment.register(words[pc + 4]))] = data[ST];
+					CP = CP + 1;
+				}
+				break;
+			case CodeSegment.LITMULTADDop:
+				data[ST] = d;
+				data[ST - 1] = overflowChecked((long) data[ST - 1] * d);
+				CP = CP + 2;
+				if (status != running) {
+					return true;
+				}
+				ST = ST - 1;
+				data[ST - 1] = overflowChecked((long) data[ST - 1] + data[ST]);
+				CP = CP + 1;
+				if (status != running) {
+					return true;
+				}
+				break;
+			case CodeSegment.LITSTOREop:
+				data[ST] = d;
+				data[words[pc + 3] + content(CodeSegment.register(words[pc + 2]))] = d;
+				CP = CP + 2;
+				break;
+			case CodeSegment.PRIMSTOREop:
+			case CodeSegment.PRIMJUMPIFop:
+				ST = ST - 1;
+				data[ST - 1] = binary(d, data[ST - 1], data[ST]);
+				CP = CP + 1;
+				if (status != running) {
+					return true;
+				}
+				word = words[pc + 2];
+				ST = ST - 1;
+				if (op == CodeSegment.PRIMSTOREop) {
+					data[words[pc + 3] + content(CodeSegment.register(word))] = data[ST];
+					CP = CP + 1;
+				} else if (data[ST] == CodeSegment.length(word)) {
+					CP = words[pc + 3];
+					if (limited && !chargeRun()) {
+						return true;
+					}
+					if (jit != null && 2 * CP <= pc && tierUp(CP) && !stillVerified(callerLB)) {
+						return status != running || LB == callerLB;
+					}
+				} else {
+					CP = CP + 1;
+					if (limited && !chargeRun()) {
+						return true;
+					}
+				}
+				break;
+			case CodeSegment.INDEXLOADop:
+			case CodeSegment.INDEXSTOREop:
+				data[ST] = d + content(r);
+				data[ST - 1] = overflowChecked((long) data[ST - 1] + data[ST]);
+				CP = CP + 2;
+				if (status != running) {
+					return true;
+				}
+				n = CodeSegment.length(words[pc + 4]);
+				ST = ST - 1;
+				addr = data[ST];
+				if (op == CodeSegment.INDEXLOADop) {
+					for (var index = 0; index < n; index++) {
+						data[ST + index] = data[addr + index];
+					}
+					ST = ST + n;
+				} else {
+					ST = ST - n;
+					for (var index = 0; index < n; index++) {
+						data[addr + index] = data[ST + index];
+					}
+				}
+				CP = CP + 1;
+				break;
+			default:
+				return false;
+			}
+		}
+	}
+
+	// INTERPRETATION LOOP
+
+	int interpret(int callerLB) {
+		// Interprets from CP until the machine halts or fails, or until LB
+		// returns to callerLB, when compiled code is waiting for the result.
+		//
+		// The loop holds CP, ST, LB and HT in locals, and writes them back only
+		// when it calls out or stops; LB is also kept in its field, which the
+		// display is keyed on. The operands of an instruction or sequence are
+		// held in locals rather than read back from the stack, but every word
+		// is still written to the store, as programs may read the words just
+		// above ST that were popped. Failures are thrown as a Stop from where
+		// the locals are as the failing instruction leaves the registers.
+
+		if (registers != null) {
+			return registers.run(this, callerLB);
+		}
+		if (closures != null) {
+			return closures.run(this, callerLB);
+		}
+		if (verifier != null && enterVerified() && interpretVerified(callerLB)) {
+			return status;
+		}
+		var words = code.words;
+		var profiler = this.profiler;
+		reload: for (;;) {
+			// (Re)load the registers, on entry and after compiled code has run
+			var data = this.data;
+			var cp = CP;
+			var st = ST;
+			var lb = LB;
+			var ht = HT;
+			try {
+				for (;;) {
+					if (cp < CB || cp >= CT) {
+						throw stop(failedInvalidCodeAddress);
+					}
+					// Fetch instruction ...
+					var pc = 2 * cp;
+					var word = words[pc];
+					var d = words[pc + 1];
+					// Unpack fields ...
+					var op = CodeSegment.op(word);
+					var r = CodeSegment.register(word);
+					var n = CodeSegment.length(word);
+					int addr, left, right;
+					if (profiler != null) {
+						// every instruction is counted, so none is fused with the next
+						profiler.count(cp);
+						op = CodeSegment.baseOp(op);
+					} else if (op >= CodeSegment.LOADLOADPRIMop && (ht - st < 2 || st + 2 > data.length)) {
+						// a superinstruction or quickened instruction pushes at most
+						// two words, bar a CALL, which checks for itself; with less
+						// room each is run as its original instructions
+						op = CodeSegment.baseOp(op);
+					}
+
+					// Execute instruction ...
+					switch (op) {
+					case Machine.LOADop:
+						addr = d + content(r, cp, st, lb);
+						data = room(st, ht, n);
+						for (var index = 0; index < n; index++) {
+							data[st + index] = data[addr + index];
+						}
+						st = st + n;
+						cp = cp + 1;
+						break;
+					case Machine.LOADAop:
+						addr = d + content(r, cp, st, lb);
+						data = room(st, ht, 1);
+						data[st] = addr;
+						st = st + 1;
+						cp = cp + 1;
+						break;
+					case Machine.LOADIop:
+						st = st - 1;
+						addr = data[st];
+						data = room(st, ht, n);
+						for (var index = 0; index < n; index++) {
+							data[st + index] = data[addr + index];
+						}
+						st = st + n;
+						cp = cp + 1;
+						break;
+					case Machine.LOADLop:
+						data = room(st, ht, 1);
+						data[st] = d;
+						st = st + 1;
+						cp = cp + 1;
+						break;
+					case Machine.STOREop:
+						addr = d + content(r, cp, st, lb);
+						st = st - n;
+						for (var index = 0; index < n; index++) {
+							data[addr + index] = data[st + index];
+						}
+						cp = cp + 1;
+						break;
+					case Machine.STOREIop:
+						st = st - 1;
+						addr = data[st];
+						st = st - n;
+						for (var index = 0; index < n; index++) {
+							data[addr + index] = data[st + index];
+						}
+						cp = cp + 1;
+						break;
+					case Machine.CALLop:
+						addr = d + content(r, cp, st, lb);
+						if (addr >= Machine.PB) {
+							var primitive = addr - Machine.PB;
+							if (profiler != null) {
+								profiler.callPrimitive(primitive);
+							}
+							cp = cp + 1;
+							if (CodeSegment.isDyadic(primitive)) {
+								st = st - 1;
+								data[st - 1] = dyadic(primitive, data[st - 1], data[st]);
+							} else {
+								switch (primitive) {
+								case Machine.idDisplacement:
+									break;
+								case Machine.notDisplacement:
+									data[st - 1] = toInt(!isTrue(data[st - 1]));
+									break;
+								case Machine.succDisplacement:
+									data[st - 1] = checked(data[st - 1] + 1);
+									break;
+								case Machine.predDisplacement:
+									data[st - 1] = checked(data[st - 1] - 1);
+									break;
+								case Machine.negDisplacement:
+									data[st - 1] = -data[st - 1];
+									break;
+								default:
+									ST = st;
+									callPrimitive(primitive);
+									data = this.data;
+									st = ST;
+									ht = HT;
+									if (status != running) {
+										throw stop(status);
+									}
+									break;
+								}
+							}
+							if (limited && CodeSegment.endsRun(word, d)) {
+								chargeOrStop(cp, st);
+							}
+						} else {
+							data = room(st, ht, 3);
+							if (n <= 15) {
+								data[st] = content(n, cp, st, lb); // static link
+							}
+							data[st + 1] = lb; // dynamic link
+							data[st + 2] = cp + 1; // return address
+							lb = st;
+							LB = lb;
+							displayLB = -1;
+							st = st + 3;
+							cp = addr;
+							if (profiler != null) {
+								profiler.enter(addr);
+							}
+							if (n > 15) {
+								throw stop(failedInvalidInstruction);
+							}
+							if (limited) {
+								chargeOrStop(cp, st);
+							}
+							if (jit != null && tierUp(cp, st)) {
+								if (status != running || LB == callerLB) {
+									return status;
+								}
+								continue reload;
+							}
+						}
+						break;
+					case Machine.CALLIop:
+						st = st - 2;
+						addr = data[st + 1];
+						if (addr >= Machine.PB) {
+							if (profiler != null) {
+								profiler.callPrimitive(addr - Machine.PB);
+							}
+							cp = cp + 1;
+							ST = st;
+							callPrimitive(addr - Machine.PB);
+							data = this.data;
+							st = ST;
+							ht = HT;
+							if (status != running) {
+								throw stop(status);
+							}
+						} else {
+							// data[st] = static link already
+							data[st + 1] = lb; // dynamic link
+							data[st + 2] = cp + 1; // return address
+							lb = st;
+							LB = lb;
+							displayLB = -1;
+							st = st + 3;
+							cp = addr;
+							if (profiler != null) {
+								profiler.enter(addr);
+							}
+						}
+						if (limited) {
+							chargeOrStop(cp, st);
+						}
+						break;
+					case Machine.RETURNop:
+						addr = lb - d;
+						cp = data[lb + 2];
+						lb = data[lb + 1];
+						LB = lb;
+						st = st - n;
+						for (var index = 0; index < n; index++) {
+							data[addr + index] = data[st + index];
+						}
+						st = addr + n;
+						if (profiler != null) {
+							profiler.leave();
+						}
+						if (limited) {
+							chargeOrStop(cp, st);
+						}
+						if (lb == callerLB) {
+							CP = cp;
+							ST = st;
+							return status;
+						}
+						break;
+					case Machine.PUSHop:
+						data = room(st, ht, d);
+						st = st + d;
+						cp = cp + 1;
+						break;
+					case Machine.POPop:
+						addr = st - n - d;
+						st = st - n;
+						for (var index = 0; index < n; index++) {
+							data[addr + index] = data[st + index];
+						}
+						st = addr + n;
+						cp = cp + 1;
+						break;
+					case Machine.JUMPop:
+						cp = d + content(r, cp, st, lb);
+						if (limited) {
+							chargeOrStop(cp, st);
+						}
+						if (jit != null && 2 * cp <= pc && tierUp(cp, st)) {
+							if (status != running || LB == callerLB) {
+								return status;
+							}
+							continue reload;
+						}
+						break;
+					case Machine.JUMPIop:
+						st = st - 1;
+						cp = data[st];
+						if (limited) {
+							chargeOrStop(cp, st);
+						}
+						break;
+					case Machine.JUMPIFop:
+						st = st - 1;
+						if (data[st] == n) {
+							cp = d + content(r, cp, st, lb);
+							if (limited) {
+								chargeOrStop(cp, st);
+							}
+							if (jit != null && 2 * cp <= pc && tierUp(cp, st)) {
+								if (status != running || LB == callerLB) {
+									return status;
+								}
+								continue reload;
+							}
+						} else {
+							cp = cp + 1;
+							if (limited) {
+								chargeOrStop(cp, st);
+							}
+						}
+						break;
+					case Machine.HALTop:
+						throw stop(halted);
+					case CodeSegment.INVALIDop:
+						throw stop(failedInvalidInstruction);
+
+					// Superinstructions: each does exactly what its sequence would
+					// do, stopping where the sequence would if it fails part-way.
+					// The fields of the later instructions are read from the words
+					// after this one. The operands of the primitive are held in
+					// locals as well as pushed, so are not read back.
+
+					case CodeSegment.LOADLOADPRIMop:
+					case CodeSegment.LOADLOADPRIMSTOREop:
+					case CodeSegment.LOADLOADPRIMJUMPIFop:
+					case CodeSegment.LOADLITPRIMop:
+					case CodeSegment.LOADLITPRIMSTOREop:
+					case CodeSegment.LOADLITPRIMJUMPIFop:
+						left = data[d + content(r, cp, st, lb)];
+						data[st] = left;
+						if (op <= CodeSegment.LOADLOADPRIMJUMPIFop) {
+							right = data[words[pc + 3] + content(CodeSegment.register(words[pc + 2]), cp, st + 1, lb)];
+						} else {
+							right = words[pc + 3];
+						}
+						data[st + 1] = right;
+						st = st + 1;
+						cp = cp + 3;
+						left = dyadic(words[pc + 5], left, right);
+						data[st - 1] = left;
+						word = words[pc + 6];
+						if (op == CodeSegment.LOADLOADPRIMSTOREop || op == CodeSegment.LOADLITPRIMSTOREop) {
+							st = st - 1;
+							data[words[pc + 7] + content(CodeSegment.register(word), cp, st, lb)] = left;
+							cp = cp + 1;
+						} else if (op == CodeSegment.LOADLOADPRIMJUMPIFop || op == CodeSegment.LOADLITPRIMJUMPIFop) {
+							st = st - 1;
+							if (left == CodeSegment.length(word)) {
+								cp = words[pc + 7] + content(CodeSegment.register(word), cp, st, lb);
+								if (limited) {
+									chargeOrStop(cp, st);
+								}
+								if (jit != null && 2 * cp <= pc && tierUp(cp, st)) {
+									if (status != running || LB == callerLB) {
+										return status;
+									}
+									continue reload;
+								}
+							} else {
+								cp = cp + 1;
+								if (limited) {
+									chargeOrStop(cp, st);
+								}
+							}
+						}
+						break;
+					case CodeSegment.LITPRIMop:
+					case CodeSegment.LITPRIMSTOREop:
+						data[st] = d;
+						cp = cp + 2;
+						left = dyadic(words[pc + 3], data[st - 1], d);
+						data[st - 1] = left;
+						if (op == CodeSegment.LITPRIMSTOREop) {
+							st = st - 1;
+							data[words[pc + 5] + content(CodeSegment.register(words[pc + 4]), cp, st, lb)] = left;
+							cp = cp + 1;
+						}
+						break;
+					case CodeSegment.LITMULTADDop:
+						data[st] = d;
+						cp = cp + 2;
+						right = checked((long) data[st - 1] * d);
+						data[st - 1] = right;
+						st = st - 1;
+						cp = cp + 1;
+						data[st - 1] = checked((long) data[st - 1] + right);
+						break;
+					case CodeSegment.LITSTOREop:
+						data[st] = d;
+						data[words[pc + 3] + content(CodeSegment.register(words[pc + 2]), cp, st, lb)] = d;
+						cp = cp + 2;
+						break;
+					case CodeSegment.PRIMSTOREop:
+					case CodeSegment.PRIMJUMPIFop:
+						st = st - 1;
+						cp = cp + 1;
+						left = dyadic(d, data[st - 1], data[st]);
+						data[st - 1] = left;
+						word = words[pc + 2];
+						st = st - 1;
+						if (op == CodeSegment.PRIMSTOREop) {
+							data[words[pc + 3] + content(CodeSegment.register(word), cp, st, lb)] = left;
+							cp = cp + 1;
+						} else if (left == CodeSegment.length(word)) {
+							cp = words[pc + 3] + content(CodeSegment.register(word), cp, st, lb);
+							if (limited) {
+								chargeOrStop(cp, st);
+							}
+							if (jit != null && 2 * cp <= pc && tierUp(cp, st)) {
+								if (status != running || LB == callerLB) {
+									return status;
+								}
+								continue reload;
+							}
+						} else {
+							cp = cp + 1;
+							if (limited) {
+								chargeOrStop(cp, st);
+							}
+						}
+						break;
+					case CodeSegment.INDEXLOADop:
+					case CodeSegment.INDEXSTOREop:
+						right = d + content(r, cp, st, lb);
+						data[st] = right;
+						cp = cp + 2;
+						addr = checked((long) data[st - 1] + right);
+						data[st - 1] = addr;
+						n = CodeSegment.length(words[pc + 4]);
+						st = st - 1;
+						if (op == CodeSegment.INDEXLOADop) {
+							data = room(st, ht, n);
+							for (var index = 0; index < n; index++) {
+								data[st + index] = data[addr + index];
+							}
+							st = st + n;
+						} else {
+							st = st - n;
+							for (var index = 0; index < n; index++) {
+								data[addr + index] = data[st + index];
+							}
+						}
+						cp = cp + 1;
+						break;
+
+					// Quickened instructions: each does exactly what the
+					// instruction would, with its register, length or primitive
+					// known.
+
+					case CodeSegment.LOADSBop:
+						data[st] = data[d + SB];
+						st = st + 1;
+						cp = cp + 1;
+						break;
+					case CodeSegment.LOADLBop:
+						data[st] = data[d + lb];
+						st = st + 1;
+						cp = cp + 1;
+						break;
+					case CodeSegment.LOADASBop:
+						data[st] = d + SB;
+						st = st + 1;
+						cp = cp + 1;
+						break;
+					case CodeSegment.LOADALBop:
+						data[st] = d + lb;
+						st = st + 1;
+						cp = cp + 1;
+						break;
+					case CodeSegment.STORESBop:
+						st = st - 1;
+						data[d + SB] = data[st];
+						cp = cp + 1;
+						break;
+					case CodeSegment.STORELBop:
+						st = st - 1;
+						data[d + lb] = data[st];
+						cp = cp + 1;
+						break;
+					case CodeSegment.CALLCBop:
+						data = room(st, ht, 3);
+						if (n <= 15) {
+							data[st] = content(n, cp, st, lb); // static link
+						}
+						data[st + 1] = lb; // dynamic link
+						data[st + 2] = cp + 1; // return address
+						lb = st;
+						LB = lb;
+						displayLB = -1;
+						st = st + 3;
+						cp = d + CB;
+						if (n > 15) {
+							throw stop(failedInvalidInstruction);
+						}
+						if (limited) {
+							chargeOrStop(cp, st);
+						}
+						if (jit != null && tierUp(cp, st)) {
+							if (status != running || LB == callerLB) {
+								return status;
+							}
+							continue reload;
+						}
+						break;
+					case CodeSegment.CALLADDop:
+						st = st - 1;
+						cp = cp + 1;
+						data[st - 1] = checked((long) data[st - 1] + data[st]);
+						break;
+					case CodeSegment.CALLSUBop:
+						st = st - 1;
+						cp = cp + 1;
+						data[st - 1] = checked((long) data[st - 1] - data[st]);
+						break;
+					case CodeSegment.CALLPRIMop:
+						st = st - 1;
+						cp = cp + 1;
+						data[st - 1] = dyadic(d, data[st - 1], data[st]);
+						break;
+					case CodeSegment.JUMPCBop:
+						cp = d + CB;
+						if (limited) {
+							chargeOrStop(cp, st);
+						}
+						if (jit != null && 2 * cp <= pc && tierUp(cp, st)) {
+							if (status != running || LB == callerLB) {
+								return status;
+							}
+							continue reload;
+						}
+						break;
+					case CodeSegment.JUMPIFCBop:
+						st = st - 1;
+						if (data[st] == n) {
+							cp = d + CB;
+							if (limited) {
+								chargeOrStop(cp, st);
+							}
+							if (jit != null && 2 * cp <= pc && tierUp(cp, st)) {
+								if (status != running || LB == callerLB) {
+									return status;
+								}
+								continue reload;
+							}
+						} else {
+							cp = cp + 1;
+							if (limited) {
+								chargeOrStop(cp, st);
+							}
+						}
+						break;
+					}
+				}
+			} catch (Stop stop) {
+				if (stop.status == failedOverflow) {
+					data[st - 1] = 0; // the instruction that overflowed leaves 0 as its result
+				}
+				CP = cp;
+				ST = st;
+				status = stop.status;
+				return status;
+			}
+		}
+	}
+}
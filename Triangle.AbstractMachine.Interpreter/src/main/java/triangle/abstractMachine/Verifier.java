@@ -0,0 +1,337 @@
+/*
+ * @(#)Verifier.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Checks a {@link CodeSegment} once, when it is loaded, so that a machine can
+ * run it without checking each instruction as it goes.
+ *
+ * <p>
+ * A program is verified if every instruction is valid, every jump and call
+ * goes to a fixed address inside the code, no instruction can run off the end
+ * of the code, and in every routine the stack has the same depth each time an
+ * instruction is reached and never drops below the routine's frame. Each
+ * routine then has a fixed limit on how far it can grow the stack, and one
+ * check against that limit when the routine is entered covers every
+ * instruction in it.
+ * </p>
+ *
+ * <p>
+ * JUMPI makes a program unverifiable. CALLI is allowed if every routine made
+ * into a closure has the same effect on the stack; the machine still checks,
+ * as it calls, that the target is one of them.
+ * </p>
+ */
+final class Verifier {
+
+	final CodeSegment code;
+
+	private final int CT;
+
+	// for each routine entry point, the words of stack the routine may use
+	// above its frame, or -1 at other addresses
+	final int[] needs;
+
+	// addresses just after a CALL or CALLI, where a RETURN may go
+	final boolean[] returnPoints;
+
+	// addresses that may be called through CALLI, including primitives
+	private final BitSet closures = new BitSet();
+
+	private int closureEffect = CodeSegment.unknown;
+
+	private final String problem;
+
+	Verifier(CodeSegment code) {
+		this.code = code;
+		this.CT = code.CT;
+		this.needs = new int[CT];
+		this.returnPoints = new boolean[CT];
+		Arrays.fill(needs, -1);
+		this.problem = verify();
+	}
+
+	/**
+	 * @return null if the program is verified, else why it is not.
+	 */
+	String problem() {
+		return problem;
+	}
+
+	private int op(int addr) {
+		return CodeSegment.baseOp(CodeSegment.op(code.words[2 * addr]));
+	}
+
+	private int register(int addr) {
+		return CodeSegment.register(code.words[2 * addr]);
+	}
+
+	private int length(int addr) {
+		return CodeSegment.length(code.words[2 * addr]);
+	}
+
+	private int operand(int addr) {
+		return code.words[2 * addr + 1];
+	}
+
+	private String verify() {
+		if (CT == Machine.CB) {
+			return "no instructions";
+		}
+
+		// Check the targets of every instruction, and find the routines
+		var entries = new BitSet(CT);
+		var hasCALLI = false;
+		for (var a = Machine.CB; a < CT; a++) {
+			var r = register(a);
+			var n = length(a);
+			var d = operand(a);
+			switch (op(a)) {
+			case Machine.CALLop:
+				if (r == Machine.CBr && Machine.CB <= d && d < CT) {
+					entries.set(d);
+					if (a + 1 < CT) {
+						returnPoints[a + 1] = true;
+					}
+				} else if (r != Machine.PBr || d < 0 || d >= Machine.PT - Machine.PB) {
+					return "call to an unknown address at " + a;
+				}
+				if (n > Machine.CPr) {
+					return "invalid static link register at " + a;
+				}
+				break;
+			case Machine.CALLIop:
+				hasCALLI = true;
+				if (a + 1 < CT) {
+					returnPoints[a + 1] = true;
+				}
+				break;
+			case Machine.LOADAop:
+				if (r == Machine.CBr && Machine.CB <= d && d < CT) {
+					entries.set(d);
+					closures.set(d);
+				} else if (r == Machine.PBr && 0 <= d && d < Machine.PT - Machine.PB) {
+					closures.set(Machine.PB + d);
+				}
+				break;
+			case Machine.JUMPop:
+			case Machine.JUMPIFop:
+				if (r != Machine.CBr || d < Machine.CB || d >= CT) {
+					return "jump to an unknown address at " + a;
+				}
+				break;
+			case Machine.JUMPIop:
+				return "JUMPI at " + a;
+			case CodeSegment.INVALIDop:
+				return "invalid instruction at " + a;
+			}
+		}
+		if (entries.get(Machine.CB)) {
+			return "the main program is called as a routine";
+		}
+		entries.set(Machine.CB);
+
+		if (hasCALLI) {
+			for (var c = closures.nextSetBit(0); c >= 0; c = closures.nextSetBit(c + 1)) {
+				var effect = effect(c);
+				if (effect == CodeSegment.unknown || (closureEffect != CodeSegment.unknown && effect != closureEffect)) {
+					return "closures with different effects on the stack";
+				}
+				closureEffect = effect;
+			}
+			if (closureEffect == CodeSegment.unknown) {
+				return "CALLI without closures";
+			}
+		}
+
+		for (var e = entries.nextSetBit(0); e >= 0; e = entries.nextSetBit(e + 1)) {
+			var problem = analyse(e);
+			if (problem != null) {
+				return problem;
+			}
+		}
+		return null;
+	}
+
+	private int effect(int closure) {
+		// The change in stack depth made by calling a closure, not counting
+		// the two words of the closure itself.
+
+		if (closure >= Machine.PB) {
+			var primitive = closure - Machine.PB;
+			var pops = CodeSegment.pops(primitive);
+			return pops < 0 ? CodeSegment.unknown : CodeSegment.pushes(primitive) - pops;
+		}
+		return code.returnEffect(closure);
+	}
+
+	boolean isClosure(int addr) {
+		return closures.get(addr);
+	}
+
+	private String analyse(int entry) {
+		// Works out the depth of the stack before each instruction of the
+		// routine at entry, and how deep it can get.
+
+		var main = entry == Machine.CB;
+		var depth = new int[CT];
+		Arrays.fill(depth, -1);
+		var jumpedTo = new boolean[CT];
+		var comparisons = new ArrayDeque<Integer>();
+		var need = 0;
+		var work = new ArrayDeque<Integer>();
+		depth[entry] = 0;
+		work.push(entry);
+		while (!work.isEmpty()) {
+			int addr = work.pop();
+			var k = depth[addr];
+			var n = length(addr);
+			var d = operand(addr);
+			var next = addr + 1;
+			var jump = -1;
+			int after;
+
+			switch (op(addr)) {
+			case Machine.LOADop:
+				after = k + n;
+				break;
+			case Machine.LOADAop:
+			case Machine.LOADLop:
+				after = k + 1;
+				break;
+			case Machine.LOADIop:
+				after = k - 1 + n;
+				if (k < 1) {
+					return "stack underflow at " + addr;
+				}
+				break;
+			case Machine.STOREop:
+				after = k - n;
+				break;
+			case Machine.STOREIop:
+				after = k - 1 - n;
+				break;
+			case Machine.CALLop:
+				if (register(addr) == Machine.PBr) {
+					var primitive = d;
+					if (primitive == Machine.eqDisplacement || primitive == Machine.neDisplacement) {
+						// the compiler pushes the size of the comparands just before
+						var size = (addr > 0 && op(addr - 1) == Machine.LOADLop) ? operand(addr - 1) : -1;
+						if (size < 0) {
+							return "comparison of unknown size at " + addr;
+						}
+						comparisons.add(addr);
+						after = k - 2 * size;
+						if (k < 2 * size + 1) {
+							after = -1;
+						}
+					} else {
+						after = k - CodeSegment.pops(primitive) + CodeSegment.pushes(primitive);
+						if (k < CodeSegment.pops(primitive)) {
+							after = -1;
+						}
+					}
+				} else {
+					var effect = code.returnEffect(d);
+					if (effect == CodeSegment.unknown) {
+						return "routine at " + d + " returns inconsistently";
+					}
+					after = k + effect;
+				}
+				break;
+			case Machine.CALLIop:
+				after = k - 2 + closureEffect;
+				if (k < 2) {
+					after = -1;
+				}
+				break;
+			case Machine.RETURNop:
+				if (main) {
+					return "RETURN from the main program at " + addr;
+				}
+				after = k - n;
+				next = -1;
+				break;
+			case Machine.PUSHop:
+				if (d < 0) {
+					return "negative PUSH at " + addr;
+				}
+				after = k + d;
+				break;
+			case Machine.POPop:
+				if (d < 0) {
+					return "negative POP at " + addr;
+				}
+				after = k - n - d < 0 ? -1 : k - d;
+				break;
+			case Machine.JUMPop:
+				after = k;
+				next = -1;
+				jump = d;
+				break;
+			case Machine.JUMPIFop:
+				after = k - 1;
+				jump = d;
+				break;
+			case Machine.HALTop:
+				after = k;
+				next = -1;
+				break;
+			default:
+				return "unexpected instruction at " + addr;
+			}
+
+			if (after < 0) {
+				return "stack underflow at " + addr;
+			}
+			need = Math.max(need, after);
+			for (var successor : new int[] { next, jump }) {
+				if (successor < 0) {
+					continue;
+				}
+				if (successor >= CT) {
+					return "code runs off the end at " + addr;
+				}
+				if (depth[successor] < 0) {
+					depth[successor] = after;
+					work.push(successor);
+				} else if (depth[successor] != after) {
+					return "stack depth differs at " + successor;
+				}
+			}
+			if (jump >= 0) {
+				jumpedTo[jump] = true;
+			}
+		}
+
+		// An eq or ne reached other than from its LOADL could compare values
+		// of some other size.
+		for (var addr : comparisons) {
+			if (jumpedTo[addr] || addr == entry) {
+				return "comparison of unknown size at " + addr;
+			}
+		}
+		needs[entry] = Math.max(needs[entry], need);
+		return null;
+	}
+}
@@ -0,0 +1,352 @@
+/*
+ * @(#)VmOptions.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+/**
+ * Settings for a single run of a {@link TamVm}.
+ *
+ * <p>
+ * The data store holds the stack, growing up from SB, and the heap, growing
+ * down from HB, so its size is {@code stackSize + heapSize} words. As in TAM
+ * the two regions grow towards each other and either may use space the other
+ * leaves free. The defaults give the original 1024-word store.
+ * </p>
+ */
+public class VmOptions {
+
+	public final static int defaultStackSize = 768, defaultHeapSize = 256;
+
+	public final static int defaultCompileThreshold = 1000;
+
+	// Initial capacity of a growable store, in words
+	final static int initialCapacity = 256;
+
+	int stackSize = defaultStackSize;
+
+	int heapSize = defaultHeapSize;
+
+	boolean growable = false;
+
+	int compileThreshold = defaultCompileThreshold;
+
+	boolean closureCompiled = false;
+
+	boolean registerCompiled = false;
+
+	boolean verified = false;
+
+	boolean displayCached = true;
+
+	boolean profiled = false;
+
+	// Limits for untrusted programs; 0 for no limit
+	long fuel = 0, timeLimit = 0;
+
+	int stackQuota = 0, heapQuota = 0;
+
+	boolean pausedBeforeInput = false;
+
+	boolean counted = false;
+
+	VmOptions copy() {
+		var copy = new VmOptions();
+		copy.stackSize = stackSize;
+		copy.heapSize = heapSize;
+		copy.growable = growable;
+		copy.compileThreshold = compileThreshold;
+		copy.closureCompiled = closureCompiled;
+		copy.registerCompiled = registerCompiled;
+		copy.verified = verified;
+		copy.displayCached = displayCached;
+		copy.profiled = profiled;
+		copy.fuel = fuel;
+		copy.timeLimit = timeLimit;
+		copy.stackQuota = stackQuota;
+		copy.heapQuota = heapQuota;
+		copy.pausedBeforeInput = pausedBeforeInput;
+		copy.counted = counted;
+		return copy;
+	}
+
+	public int getStackSize() {
+		return stackSize;
+	}
+
+	/**
+	 * @param stackSize the number of words reserved for the stack.
+	 */
+	public void setStackSize(int stackSize) {
+		if (stackSize < 0) {
+			throw new IllegalArgumentException("stack size must not be negative: " + stackSize);
+		}
+		this.stackSize = stackSize;
+	}
+
+	public int getHeapSize() {
+		return heapSize;
+	}
+
+	/**
+	 * @param heapSize the number of words reserved for the heap.
+	 */
+	public void setHeapSize(int heapSize) {
+		if (heapSize < 0) {
+			throw new IllegalArgumentException("heap size must not be negative: " + heapSize);
+		}
+		this.heapSize = heapSize;
+	}
+
+	/**
+	 * @return the size of the whole data store, which is also the value of HB.
+	 */
+	public int getDataStoreSize() {
+		return Math.addExact(stackSize, heapSize);
+	}
+
+	public boolean isGrowable() {
+		return growable;
+	}
+
+	/**
+	 * Selects whether the data store is allocated in full up front, or grown on
+	 * demand. A growable store starts small and doubles as the stack needs it;
+	 * the heap, which sits at the top of the store, is materialised on the first
+	 * NEW. Either way the program sees the same addresses and limits.
+	 *
+	 * @param growable true to grow the store on demand.
+	 */
+	public void setGrowable(boolean growable) {
+		this.growable = growable;
+	}
+
+	public int getCompileThreshold() {
+		return compileThreshold;
+	}
+
+	/**
+	 * Sets how soon routines are compiled to JVM bytecode. The calls to each
+	 * routine, and the backward jumps to each loop header, are counted, and a
+	 * routine is compiled once any of its counts reaches the threshold. Compiled
+	 * routines leave the machine in exactly the state the interpreter would.
+	 *
+	 * @param compileThreshold the count at which a routine is compiled, or 0 to
+	 *                         interpret everything.
+	 */
+	public void setCompileThreshold(int compileThreshold) {
+		if (compileThreshold < 0) {
+			throw new IllegalArgumentException("compile threshold must not be negative: " + compileThreshold);
+		}
+		this.compileThreshold = compileThreshold;
+	}
+
+	public boolean isClosureCompiled() {
+		return closureCompiled;
+	}
+
+	/**
+	 * Selects the engine that runs whatever is not compiled to JVM bytecode.
+	 * By default each instruction is decoded and dispatched by a {@code switch}
+	 * as it runs; the closure engine instead turns each basic block, when first
+	 * reached, into a chain of Java lambdas with their operands already bound.
+	 * Both leave the machine in the same state.
+	 *
+	 * @param closureCompiled true to run basic blocks as closures.
+	 */
+	public void setClosureCompiled(boolean closureCompiled) {
+		this.closureCompiled = closureCompiled;
+	}
+
+	public boolean isRegisterCompiled() {
+		return registerCompiled;
+	}
+
+	/**
+	 * Selects the register engine to run whatever is not compiled to JVM
+	 * bytecode, in place of either engine above. Each basic block, when first
+	 * reached, is translated into instructions that each do a whole operation,
+	 * such as an addition, with its operands fetched straight from their
+	 * variables and its result stored straight into one, rather than pushed
+	 * and popped by separate instructions. It too leaves the machine in the
+	 * same state.
+	 *
+	 * @param registerCompiled true to run basic blocks as register
+	 *                         instructions.
+	 */
+	public void setRegisterCompiled(boolean registerCompiled) {
+		this.registerCompiled = registerCompiled;
+	}
+
+	public boolean isVerified() {
+		return verified;
+	}
+
+	/**
+	 * Selects verified mode, for programs that pass the checks of
+	 * {@link CodeSegment#verify()}. The switch loop then checks for space once
+	 * as each routine is entered, rather than at every instruction, and no
+	 * longer checks jump and call targets as it goes. A program that fails
+	 * verification runs fully checked, and a verified one drops back to the
+	 * checked loop part-way if its heap grows.
+	 *
+	 * @param verified true to use verified mode when the program allows it.
+	 */
+	public void setVerified(boolean verified) {
+		this.verified = verified;
+	}
+
+	public boolean isDisplayCached() {
+		return displayCached;
+	}
+
+	/**
+	 * Selects whether L1..L6 are looked up in a display cached per frame, or
+	 * found by following the static links from LB on every access, as TAM
+	 * defines them. The results are the same.
+	 *
+	 * @param displayCached false to follow the static links every time.
+	 */
+	public void setDisplayCached(boolean displayCached) {
+		this.displayCached = displayCached;
+	}
+
+	public boolean isProfiled() {
+		return profiled;
+	}
+
+	/**
+	 * Selects profiling, in which the machine counts the instructions executed
+	 * at each code address and, for each routine, the calls made to it and the
+	 * instructions executed inside it. A profiled run uses the switch loop
+	 * only, one instruction at a time, so that every instruction is counted;
+	 * the compiled tier, the closure engine and verified mode are not used.
+	 *
+	 * @param profiled true to profile the run; see {@link TamVm#getProfiler()}.
+	 */
+	public void setProfiled(boolean profiled) {
+		this.profiled = profiled;
+	}
+
+	public long getFuel() {
+		return fuel;
+	}
+
+	/**
+	 * Limits the number of instructions the program may execute. The machine
+	 * charges for a whole run of straight-line code as control reaches it, and
+	 * stops with {@link TamVm#failedOutOfFuel} before starting a run it cannot
+	 * pay for.
+	 *
+	 * @param fuel the number of instructions, or 0 for no limit.
+	 */
+	public void setFuel(long fuel) {
+		if (fuel < 0) {
+			throw new IllegalArgumentException("fuel must not be negative: " + fuel);
+		}
+		this.fuel = fuel;
+	}
+
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	/**
+	 * Limits how long the program may run, from {@link TamVm#run()}. The clock
+	 * is read every so many transfers of control, so the machine stops with
+	 * {@link TamVm#failedTimeLimit} a little after the limit, and not at all
+	 * while waiting for input.
+	 *
+	 * @param timeLimit the time limit in milliseconds, or 0 for no limit.
+	 */
+	public void setTimeLimit(long timeLimit) {
+		if (timeLimit < 0) {
+			throw new IllegalArgumentException("time limit must not be negative: " + timeLimit);
+		}
+		this.timeLimit = timeLimit;
+	}
+
+	public int getStackQuota() {
+		return stackQuota;
+	}
+
+	/**
+	 * Limits the words of the data store the stack may use, within the stack
+	 * size. The quota is checked as control is transferred, so the stack may
+	 * pass it by the growth of one run of straight-line code before the
+	 * machine stops with {@link TamVm#failedStackQuota}.
+	 *
+	 * @param stackQuota the number of words, or 0 for no quota.
+	 */
+	public void setStackQuota(int stackQuota) {
+		if (stackQuota < 0) {
+			throw new IllegalArgumentException("stack quota must not be negative: " + stackQuota);
+		}
+		this.stackQuota = stackQuota;
+	}
+
+	public int getHeapQuota() {
+		return heapQuota;
+	}
+
+	/**
+	 * Limits the words of the data store the heap may use. A {@code new} that
+	 * would take the heap past the quota stops the machine with
+	 * {@link TamVm#failedHeapQuota}.
+	 *
+	 * @param heapQuota the number of words, or 0 for no quota.
+	 */
+	public void setHeapQuota(int heapQuota) {
+		if (heapQuota < 0) {
+			throw new IllegalArgumentException("heap quota must not be negative: " + heapQuota);
+		}
+		this.heapQuota = heapQuota;
+	}
+
+	public boolean isPausedBeforeInput() {
+		return pausedBeforeInput;
+	}
+
+	/**
+	 * Selects whether the machine pauses, with {@link TamVm#paused}, as control
+	 * reaches a run of straight-line code that reads input with {@code get},
+	 * {@code geteol} or {@code getint}. A paused machine can be forked, with
+	 * {@link TamVm#fork(java.io.InputStream, java.io.PrintStream)}, or carried
+	 * on with {@link TamVm#resume()}.
+	 *
+	 * @param pausedBeforeInput true to pause before reading input.
+	 */
+	public void setPausedBeforeInput(boolean pausedBeforeInput) {
+		this.pausedBeforeInput = pausedBeforeInput;
+	}
+
+	public boolean isCounted() {
+		return counted;
+	}
+
+	/**
+	 * Selects whether the machine counts the instructions it executes, as it
+	 * does when it has a limit, by charging for each run of straight-line code
+	 * as control reaches it. Unlike profiling, this leaves every engine in use.
+	 *
+	 * @param counted true to count instructions; see
+	 *                {@link TamVm#getInstructionCount()}.
+	 */
+	public void setCounted(boolean counted) {
+		this.counted = counted;
+	}
+}
@@ -0,0 +1,839 @@
+package triangle.abstractMachine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class TestTamVm {
+
+	/* small hand-assembled programs, so these tests don't need the compiler */
+
+	// putint(6 * 7)
+	private static final Instruction[] MULTIPLY = {
+			new Instruction(OpCode.LOADL, Register.CB, 0, 6),
+			new Instruction(OpCode.LOADL, Register.CB, 0, 7),
+			new Instruction(OpCode.CALL, Register.PB, 0, Primitive.MULT.ordinal()),
+			new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()),
+			new Instruction(OpCode.HALT, Register.CB, 0, 0) };
+
+	// var i; getint(var i); putint(i + 1)
+	private static final Instruction[] ECHO = {
+			new Instruction(OpCode.PUSH, Register.CB, 0, 1),
+			new Instruction(OpCode.LOADA, Register.SB, 0, 0),
+			new Instruction(OpCode.CALL, Register.PB, 0, Primitive.GETINT.ordinal()),
+			new Instruction(OpCode.LOAD, Register.SB, 1, 0),
+			new Instruction(OpCode.CALL, Register.PB, 0, Primitive.SUCC.ordinal()),
+			new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()),
+			new Instruction(OpCode.HALT, Register.CB, 0, 0) };
+
+	// s := 0; i := 0; while i <= limit do begin s := s + i; i := i + 1 end; putint(s)
+	private static Instruction[] sumTo(int limit) {
+		return new Instruction[] { new Instruction(OpCode.PUSH, Register.CB, 0, 2),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 0),
+				new Instruction(OpCode.STORE, Register.SB, 1, 0),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 0),
+				new Instruction(OpCode.STORE, Register.SB, 1, 1),
+				new Instruction(OpCode.JUMP, Register.CB, 0, 14),
+				new Instruction(OpCode.LOAD, Register.SB, 1, 1),
+				new Instruction(OpCode.LOAD, Register.SB, 1, 0),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.ADD.ordinal()),
+				new Instruction(OpCode.STORE, Register.SB, 1, 1),
+				new Instruction(OpCode.LOAD, Register.SB, 1, 0),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 1),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.ADD.ordinal()),
+				new Instruction(OpCode.STORE, Register.SB, 1, 0),
+				new Instruction(OpCode.LOAD, Register.SB, 1, 0),
+				new Instruction(OpCode.LOADL, Register.CB, 0, limit),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.LE.ordinal()),
+				new Instruction(OpCode.JUMPIF, Register.CB, 1, 6),
+				new Instruction(OpCode.LOAD, Register.SB, 1, 1),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()),
+				new Instruction(OpCode.HALT, Register.CB, 0, 0) };
+	}
+
+	// putint(triangle(n)) where triangle(n) = if n > 0 then n + triangle(n - 1) else 0
+	private static Instruction[] triangle(int n) {
+		return new Instruction[] { new Instruction(OpCode.LOADL, Register.CB, 0, n),
+				new Instruction(OpCode.CALL, Register.CB, Register.SB.ordinal(), 4),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()),
+				new Instruction(OpCode.HALT, Register.CB, 0, 0),
+				new Instruction(OpCode.LOAD, Register.LB, 1, -1),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 0),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.GT.ordinal()),
+				new Instruction(OpCode.JUMPIF, Register.CB, 0, 14),
+				new Instruction(OpCode.LOAD, Register.LB, 1, -1),
+				new Instruction(OpCode.LOAD, Register.LB, 1, -1),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PRED.ordinal()),
+				new Instruction(OpCode.CALL, Register.CB, Register.SB.ordinal(), 4),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.ADD.ordinal()),
+				new Instruction(OpCode.RETURN, Register.CB, 1, 1),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 0),
+				new Instruction(OpCode.RETURN, Register.CB, 1, 1) };
+	}
+
+	// Seven nested procedures, the innermost reading a local of each of the
+	// six around it through L1..L6:
+	//
+	// x := 0; repeat calls times p1() where
+	// p1 = let a1 ~ 1 in p2() ... p6 = let a6 ~ 6 in p7() and
+	// p7 = repeat iterations times x := a6 + a5 + a4 + a3 + a2 + a1;
+	// putint(x)
+	private static Instruction[] nested(int calls, int iterations) {
+		var program = new ArrayList<Instruction>();
+		var p1 = 13;
+		var p7 = p1 + 3 * 6;
+
+		program.add(new Instruction(OpCode.LOADL, Register.CB, 0, 0));
+		program.add(new Instruction(OpCode.LOADL, Register.CB, 0, calls));
+		program.add(new Instruction(OpCode.CALL, Register.CB, Register.SB.ordinal(), p1));
+		countDown(program, Register.SB, 1, 2);
+		program.add(new Instruction(OpCode.LOAD, Register.SB, 1, 0));
+		program.add(new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()));
+		program.add(new Instruction(OpCode.HALT, Register.CB, 0, 0));
+
+		for (var level = 1; level < 7; level++) {
+			program.add(new Instruction(OpCode.LOADL, Register.CB, 0, level));
+			program.add(new Instruction(OpCode.CALL, Register.CB, Register.LB.ordinal(), p1 + 3 * level));
+			program.add(new Instruction(OpCode.RETURN, Register.CB, 0, 0));
+		}
+
+		program.add(new Instruction(OpCode.LOADL, Register.CB, 0, iterations));
+		program.add(new Instruction(OpCode.LOAD, Register.L1, 1, 3));
+		for (var level = 2; level <= 6; level++) {
+			program.add(new Instruction(OpCode.LOAD, Register.values()[Register.LB.ordinal() + level], 1, 3));
+			program.add(new Instruction(OpCode.CALL, Register.PB, 0, Primitive.ADD.ordinal()));
+		}
+		program.add(new Instruction(OpCode.STORE, Register.SB, 1, 0));
+		countDown(program, Register.LB, 3, p7 + 1);
+		program.add(new Instruction(OpCode.RETURN, Register.CB, 0, 0));
+		return program.toArray(new Instruction[0]);
+	}
+
+	private static void countDown(ArrayList<Instruction> program, Register r, int d, int loop) {
+		// Decrements the counter at d[r] and jumps back to loop while it is
+		// positive.
+
+		program.add(new Instruction(OpCode.LOAD, r, 1, d));
+		program.add(new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PRED.ordinal()));
+		program.add(new Instruction(OpCode.STORE, r, 1, d));
+		program.add(new Instruction(OpCode.LOAD, r, 1, d));
+		program.add(new Instruction(OpCode.LOADL, Register.CB, 0, 0));
+		program.add(new Instruction(OpCode.CALL, Register.PB, 0, Primitive.GT.ordinal()));
+		program.add(new Instruction(OpCode.JUMPIF, Register.CB, 1, loop));
+	}
+
+	// c := 0; i := 3; repeat begin s(); c := c + 1; t(); i := i - 1 end until i <= 0; putint(c)
+	// where s holds a JUMPI, so it is never compiled, and t does nothing
+	private static final Instruction[] MIXED = {
+			new Instruction(OpCode.LOADL, Register.CB, 0, 0),
+			new Instruction(OpCode.LOADL, Register.CB, 0, 3),
+			new Instruction(OpCode.CALL, Register.CB, Register.SB.ordinal(), 18),
+			new Instruction(OpCode.LOAD, Register.SB, 1, 0),
+			new Instruction(OpCode.LOADL, Register.CB, 0, 1),
+			new Instruction(OpCode.CALL, Register.PB, 0, Primitive.ADD.ordinal()),
+			new Instruction(OpCode.STORE, Register.SB, 1, 0),
+			new Instruction(OpCode.CALL, Register.CB, Register.SB.ordinal(), 23),
+			new Instruction(OpCode.LOAD, Register.SB, 1, 1),
+			new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PRED.ordinal()),
+			new Instruction(OpCode.STORE, Register.SB, 1, 1),
+			new Instruction(OpCode.LOAD, Register.SB, 1, 1),
+			new Instruction(OpCode.LOADL, Register.CB, 0, 0),
+			new Instruction(OpCode.CALL, Register.PB, 0, Primitive.GT.ordinal()),
+			new Instruction(OpCode.JUMPIF, Register.CB, 1, 2),
+			new Instruction(OpCode.LOAD, Register.SB, 1, 0),
+			new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()),
+			new Instruction(OpCode.HALT, Register.CB, 0, 0),
+			new Instruction(OpCode.LOADL, Register.CB, 0, 0),
+			new Instruction(OpCode.JUMPIF, Register.CB, 0, 22),
+			new Instruction(OpCode.LOADA, Register.CB, 0, 22),
+			new Instruction(OpCode.JUMPI, Register.CB, 0, 0),
+			new Instruction(OpCode.RETURN, Register.CB, 0, 0),
+			new Instruction(OpCode.RETURN, Register.CB, 0, 0) };
+
+	@Test
+	public void testRun() {
+		assertEquals("42", run(MULTIPLY, ""));
+	}
+
+	@Test
+	public void testOverflow() {
+		var program = MULTIPLY.clone();
+		program[0] = new Instruction(OpCode.LOADL, Register.CB, 0, Machine.maxintRep);
+		var vm = new TamVm(CodeSegment.decode(program, program.length), System.in, new PrintStream(new ByteArrayOutputStream()));
+		assertEquals(TamVm.failedOverflow, vm.run());
+	}
+
+	@Test
+	public void testSuperinstructions() {
+		var program = sumTo(100);
+		assertEquals("5050", run(CodeSegment.decode(program, program.length, true), ""));
+		assertEquals("5050", run(CodeSegment.decode(program, program.length, false), ""));
+
+		// overflow part-way through a fused sequence leaves the same state
+		program = sumTo(300);
+		assertEquals(failureReport(CodeSegment.decode(program, program.length, false)),
+				failureReport(CodeSegment.decode(program, program.length, true)));
+
+		// a word popped by add is still in the store just above ST
+		program = new Instruction[] { new Instruction(OpCode.LOADL, Register.CB, 0, 5),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 3),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.ADD.ordinal()),
+				new Instruction(OpCode.LOAD, Register.SB, 1, 1),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()),
+				new Instruction(OpCode.HALT, Register.CB, 0, 0) };
+		assertEquals("3", run(CodeSegment.decode(program, program.length, false), ""));
+		assertEquals("3", run(CodeSegment.decode(program, program.length, true), ""));
+	}
+
+	@Test
+	public void testQuickenedInstructions() {
+		var program = triangle(10);
+		var code = CodeSegment.decode(program, program.length, true);
+		assertEquals(CodeSegment.CALLCBop, CodeSegment.op(code.words[2 * 1]));
+		assertEquals(CodeSegment.LOADLBop, CodeSegment.op(code.words[2 * 8]));
+		assertEquals(CodeSegment.CALLADDop, CodeSegment.op(code.words[2 * 12]));
+		assertEquals(Machine.CALLop, CodeSegment.baseOp(CodeSegment.op(code.words[2 * 12])));
+		assertEquals(code.hash(), CodeSegment.decode(program, program.length, false).hash());
+		assertEquals("55", run(code, ""));
+
+		// running out of room deep in a recursion leaves the same state
+		var options = new VmOptions();
+		options.setCompileThreshold(0);
+		options.setStackSize(600);
+		program = triangle(1000);
+		assertEquals(failureReport(CodeSegment.decode(program, program.length, false), options, TamVm.failedDataStoreFull),
+				failureReport(CodeSegment.decode(program, program.length, true), options, TamVm.failedDataStoreFull));
+	}
+
+	@Test
+	public void testCompiledTier() {
+		var interpreted = new VmOptions();
+		interpreted.setCompileThreshold(0);
+		var compiled = new VmOptions();
+		compiled.setCompileThreshold(1);
+
+		var program = sumTo(100);
+		var code = CodeSegment.decode(program, program.length);
+		assertEquals("5050", run(code, "", compiled));
+		program = triangle(10);
+		code = CodeSegment.decode(program, program.length);
+		assertEquals("55", run(code, "", compiled));
+		assertEquals(1, code.jit().compiledRoutines());
+
+		// an interpreted routine returning to a compiled one
+		assertEquals("3", run(CodeSegment.decode(MIXED, MIXED.length), "", compiled));
+		compiled.setClosureCompiled(true);
+		assertEquals("3", run(CodeSegment.decode(MIXED, MIXED.length), "", compiled));
+		compiled.setClosureCompiled(false);
+
+		// overflow in compiled code, in a loop and deep in a recursion
+		interpreted.setStackSize(4096);
+		compiled.setStackSize(4096);
+		program = sumTo(300);
+		assertEquals(failureReport(CodeSegment.decode(program, program.length), interpreted),
+				failureReport(CodeSegment.decode(program, program.length), compiled));
+		program = triangle(300);
+		assertEquals(failureReport(CodeSegment.decode(program, program.length), interpreted),
+				failureReport(CodeSegment.decode(program, program.length), compiled));
+	}
+
+	@Test
+	public void testPrecompiledProgram() throws Exception {
+		var program = triangle(10);
+		var code = CodeSegment.decode(program, program.length);
+		var compiler = new ProgramCompiler(code);
+		var compiled = ProgramCompiler.define(compiler.compile());
+		assertEquals(2, compiler.translated());
+		var output = new ByteArrayOutputStream();
+		var vm = PrecompiledRunner.machine(code, compiled, System.in, new PrintStream(output), new VmOptions());
+		assertEquals(TamVm.halted, vm.run());
+		assertEquals("55", output.toString());
+		assertTrue(code.jit().isPrecompiled());
+
+		// a routine that cannot be translated is interpreted
+		code = CodeSegment.decode(MIXED, MIXED.length);
+		compiler = new ProgramCompiler(code);
+		compiled = ProgramCompiler.define(compiler.compile());
+		assertEquals(3, compiler.routines());
+		assertEquals(2, compiler.translated());
+		output = new ByteArrayOutputStream();
+		vm = PrecompiledRunner.machine(code, compiled, System.in, new PrintStream(output), new VmOptions());
+		assertEquals(TamVm.halted, vm.run());
+		assertEquals("3", output.toString());
+
+		// failures leave the same state as in the interpreter
+		var interpreted = new VmOptions();
+		interpreted.setCompileThreshold(0);
+		interpreted.setStackSize(4096);
+		var options = new VmOptions();
+		options.setStackSize(4096);
+		program = sumTo(300);
+		assertEquals(failureReport(CodeSegment.decode(program, program.length), interpreted),
+				precompiledReport(program, options, TamVm.failedOverflow));
+		program = triangle(300);
+		assertEquals(failureReport(CodeSegment.decode(program, program.length), interpreted),
+				precompiledReport(program, options, TamVm.failedOverflow));
+		program = new Instruction[] { new Instruction(OpCode.LOADL, Register.CB, 0, 7),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 0),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.DIV.ordinal()),
+				new Instruction(OpCode.HALT, Register.CB, 0, 0) };
+		assertEquals(failureReport(CodeSegment.decode(program, program.length), interpreted, TamVm.failedZeroDivide),
+				precompiledReport(program, options, TamVm.failedZeroDivide));
+	}
+
+	@Test
+	public void testClosureEngine() {
+		var switched = new VmOptions();
+		switched.setCompileThreshold(0);
+		var closures = new VmOptions();
+		closures.setCompileThreshold(0);
+		closures.setClosureCompiled(true);
+
+		var program = sumTo(100);
+		assertEquals("5050", run(CodeSegment.decode(program, program.length), "", closures));
+		program = triangle(10);
+		assertEquals("55", run(CodeSegment.decode(program, program.length), "", closures));
+		assertEquals("enter int: \n42", run(CodeSegment.decode(ECHO, ECHO.length), "41", closures));
+
+		// failing part-way through a block leaves the same state
+		switched.setStackSize(4096);
+		closures.setStackSize(4096);
+		program = sumTo(300);
+		assertEquals(failureReport(CodeSegment.decode(program, program.length), switched),
+				failureReport(CodeSegment.decode(program, program.length), closures));
+		program = triangle(300);
+		assertEquals(failureReport(CodeSegment.decode(program, program.length), switched),
+				failureReport(CodeSegment.decode(program, program.length), closures));
+	}
+
+	@Test
+	public void testRegisterEngine() {
+		var switched = new VmOptions();
+		switched.setCompileThreshold(0);
+		var registers = new VmOptions();
+		registers.setCompileThreshold(0);
+		registers.setRegisterCompiled(true);
+
+		var program = sumTo(100);
+		assertEquals("5050", run(CodeSegment.decode(program, program.length), "", registers));
+		program = triangle(10);
+		assertEquals("55", run(CodeSegment.decode(program, program.length), "", registers));
+		assertEquals("enter int: \n42", run(CodeSegment.decode(ECHO, ECHO.length), "41", registers));
+
+		// popped words are still written, as a later LOAD may read them
+		Instruction[] popped = { new Instruction(OpCode.LOADL, Register.CB, 0, 5),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 3),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.ADD.ordinal()),
+				new Instruction(OpCode.LOAD, Register.SB, 1, 1),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()),
+				new Instruction(OpCode.HALT, Register.CB, 0, 0) };
+		assertEquals("3", run(CodeSegment.decode(popped, popped.length), "", registers));
+
+		// failing part-way through a block, or short of room for one, leaves the same state
+		switched.setStackSize(4096);
+		registers.setStackSize(4096);
+		program = sumTo(300);
+		assertEquals(failureReport(CodeSegment.decode(program, program.length), switched),
+				failureReport(CodeSegment.decode(program, program.length), registers));
+		program = triangle(300);
+		assertEquals(failureReport(CodeSegment.decode(program, program.length), switched),
+				failureReport(CodeSegment.decode(program, program.length), registers));
+		switched.setStackSize(600);
+		registers.setStackSize(600);
+		program = triangle(1000);
+		assertEquals(failureReport(CodeSegment.decode(program, program.length), switched, TamVm.failedDataStoreFull),
+				failureReport(CodeSegment.decode(program, program.length), registers, TamVm.failedDataStoreFull));
+	}
+
+	@Test
+	public void testVerifiedMode() {
+		var checked = new VmOptions();
+		checked.setCompileThreshold(0);
+		var verified = new VmOptions();
+		verified.setCompileThreshold(0);
+		verified.setVerified(true);
+
+		var program = sumTo(100);
+		var code = CodeSegment.decode(program, program.length);
+		assertNull(code.verify());
+		assertEquals("5050", run(code, "", verified));
+		program = triangle(10);
+		code = CodeSegment.decode(program, program.length);
+		assertNull(code.verify());
+		assertEquals("55", run(code, "", verified));
+		code = CodeSegment.decode(MIXED, MIXED.length);
+		assertNotNull(code.verify());
+		assertEquals("3", run(code, "", verified));
+
+		// failures, including running out of room for a routine, leave the same state
+		program = triangle(300);
+		assertEquals(failureReport(CodeSegment.decode(program, program.length), checked, TamVm.failedDataStoreFull),
+				failureReport(CodeSegment.decode(program, program.length), verified, TamVm.failedDataStoreFull));
+		checked.setStackSize(4096);
+		verified.setStackSize(4096);
+		program = sumTo(300);
+		assertEquals(failureReport(CodeSegment.decode(program, program.length), checked),
+				failureReport(CodeSegment.decode(program, program.length), verified));
+		program = triangle(300);
+		assertEquals(failureReport(CodeSegment.decode(program, program.length), checked),
+				failureReport(CodeSegment.decode(program, program.length), verified));
+	}
+
+	@Test
+	public void testDisplay() {
+		var program = nested(3, 5);
+		var options = new VmOptions();
+		options.setCompileThreshold(0);
+		assertEquals("21", run(CodeSegment.decode(program, program.length), "", options));
+		options.setDisplayCached(false);
+		assertEquals("21", run(CodeSegment.decode(program, program.length), "", options));
+		options.setDisplayCached(true);
+		options.setClosureCompiled(true);
+		assertEquals("21", run(CodeSegment.decode(program, program.length), "", options));
+	}
+
+	@Test
+	public void testProfiler() {
+		var program = triangle(3);
+		var options = new VmOptions();
+		options.setProfiled(true);
+		var output = new ByteArrayOutputStream();
+		var vm = new TamVm(CodeSegment.decode(program, program.length), new ByteArrayInputStream(new byte[0]),
+				new PrintStream(output), options);
+		assertEquals(TamVm.halted, vm.run());
+		assertEquals("6", output.toString());
+
+		// the routine runs 10 instructions for each of 3, 2 and 1, and 6 for 0
+		var profiler = vm.getProfiler();
+		assertEquals(40, profiler.getInstructionCount());
+		assertEquals(4, profiler.getCount(4));
+		assertEquals(1, profiler.getCount(14));
+		assertArrayEquals(new long[] { 1, 40, 4 }, profiler.getRoutine(-1));
+		assertArrayEquals(new long[] { 4, 36, 36 }, profiler.getRoutine(4));
+
+		var stacks = new ByteArrayOutputStream();
+		profiler.writeCollapsedStacks(new PrintStream(stacks));
+		assertEquals("main 4\nmain;4[CB] 10\nmain;4[CB];4[CB] 10\nmain;4[CB];4[CB];4[CB] 10\n"
+				+ "main;4[CB];4[CB];4[CB];4[CB] 6\n", stacks.toString().replace(System.lineSeparator(), "\n"));
+	}
+
+	@Test
+	public void testBufferedOutput() {
+		// putint(-12); put('\u00e9'); puteol; put('!'); putint(0)
+		Instruction[] program = { new Instruction(OpCode.LOADL, Register.CB, 0, -12),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()),
+				new Instruction(OpCode.LOADL, Register.CB, 0, '\u00e9'),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUT.ordinal()),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTEOL.ordinal()),
+				new Instruction(OpCode.LOADL, Register.CB, 0, '!'),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUT.ordinal()),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 0),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()),
+				new Instruction(OpCode.HALT, Register.CB, 0, 0) };
+		var expected = new ByteArrayOutputStream();
+		var printed = new PrintStream(expected);
+		printed.print(-12L);
+		printed.print('\u00e9');
+		printed.println("");
+		printed.print('!');
+		printed.print(0L);
+		printed.flush();
+
+		var output = new ByteArrayOutputStream();
+		var vm = new TamVm(CodeSegment.decode(program, program.length), System.in, new PrintStream(output));
+		assertEquals(TamVm.halted, vm.run());
+		assertArrayEquals(expected.toByteArray(), output.toByteArray());
+	}
+
+	@Test
+	public void testLimits() {
+		// sumTo(10) executes 145 instructions, in every engine
+		var sum = sumTo(10);
+		var code = CodeSegment.decode(sum, sum.length);
+		var sink = new PrintStream(new ByteArrayOutputStream());
+		for (var engine = 0; engine < 5; engine++) {
+			var options = new VmOptions();
+			options.setCompileThreshold(engine == 1 ? 1 : 0);
+			options.setClosureCompiled(engine == 2);
+			options.setVerified(engine == 3);
+			options.setRegisterCompiled(engine == 4);
+			options.setFuel(145);
+			assertEquals(TamVm.halted, new TamVm(code, System.in, sink, options).run());
+			options.setFuel(144);
+			var vm = new TamVm(code, System.in, sink, options);
+			assertEquals(TamVm.failedOutOfFuel, vm.run());
+			assertEquals(18, vm.CP); // the run after the loop is not started
+		}
+
+		Instruction[] forever = { new Instruction(OpCode.JUMP, Register.CB, 0, 0) };
+		var options = new VmOptions();
+		options.setTimeLimit(50);
+		options.setCompileThreshold(1);
+		assertEquals(TamVm.failedTimeLimit,
+				new TamVm(CodeSegment.decode(forever, forever.length), System.in, sink, options).run());
+
+		var deep = triangle(100);
+		options = new VmOptions();
+		options.setStackQuota(100);
+		assertEquals(TamVm.failedStackQuota,
+				new TamVm(CodeSegment.decode(deep, deep.length), System.in, sink, options).run());
+
+		Instruction[] allocate = { new Instruction(OpCode.LOADL, Register.CB, 0, 10),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.NEW.ordinal()),
+				new Instruction(OpCode.HALT, Register.CB, 0, 0) };
+		options = new VmOptions();
+		options.setHeapQuota(10);
+		assertEquals(TamVm.halted,
+				new TamVm(CodeSegment.decode(allocate, allocate.length), System.in, sink, options).run());
+		options.setHeapQuota(9);
+		assertEquals(TamVm.failedHeapQuota,
+				new TamVm(CodeSegment.decode(allocate, allocate.length), System.in, sink, options).run());
+	}
+
+	@Test
+	public void testCheckpoint() throws Exception {
+		var sum = sumTo(200);
+		var options = new VmOptions();
+		options.setFuel(1000);
+		var vm = new TamVm(CodeSegment.decode(sum, sum.length), System.in, new PrintStream(new ByteArrayOutputStream()),
+				options);
+		assertEquals(TamVm.failedOutOfFuel, vm.run());
+		var snapshot = new ByteArrayOutputStream();
+		vm.checkpoint(snapshot);
+
+		// restored into a machine with no limit, and unfused code
+		var output = new ByteArrayOutputStream();
+		var restored = new TamVm(CodeSegment.decode(sum, sum.length, false), System.in, new PrintStream(output));
+		restored.restore(new ByteArrayInputStream(snapshot.toByteArray()));
+		assertEquals(TamVm.halted, restored.resume());
+		assertEquals("20100", output.toString());
+
+		// or resumed where it stopped
+		vm.addFuel(1_000_000);
+		assertEquals(TamVm.halted, vm.resume());
+
+		var other = sumTo(199);
+		try {
+			new TamVm(CodeSegment.decode(other, other.length)).restore(new ByteArrayInputStream(snapshot.toByteArray()));
+			fail("restored a snapshot of another program");
+		} catch (IOException e) {
+			assertEquals("snapshot is of a different program", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testFork() {
+		// s := sum of 0..100; var x; getint(var x); putint(s + x)
+		var sum = sumTo(100);
+		var program = Arrays.copyOf(sum, 26);
+		System.arraycopy(new Instruction[] { new Instruction(OpCode.PUSH, Register.CB, 0, 1),
+				new Instruction(OpCode.LOADA, Register.SB, 0, 2),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.GETINT.ordinal()),
+				new Instruction(OpCode.LOAD, Register.SB, 1, 1),
+				new Instruction(OpCode.LOAD, Register.SB, 1, 2),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.ADD.ordinal()),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()),
+				new Instruction(OpCode.HALT, Register.CB, 0, 0) }, 0, program, 18, 8);
+		var code = CodeSegment.decode(program, program.length);
+
+		for (var engine = 0; engine < 4; engine++) {
+			var options = new VmOptions();
+			options.setCompileThreshold(engine == 1 ? 1 : 0);
+			options.setClosureCompiled(engine == 2);
+			options.setRegisterCompiled(engine == 3);
+			options.setPausedBeforeInput(true);
+			var parent = new TamVm(code, System.in, new PrintStream(new ByteArrayOutputStream()), options);
+			assertEquals(TamVm.paused, parent.run());
+			assertEquals(18, parent.CP);
+
+			for (var x = 1; x <= 3; x++) {
+				var output = new ByteArrayOutputStream();
+				var child = parent.fork(new ByteArrayInputStream((x + "\n").getBytes()), new PrintStream(output));
+				assertEquals(TamVm.halted, child.resume());
+				assertEquals("enter int: \n" + (5050 + x), output.toString());
+			}
+			assertEquals(TamVm.paused, parent.status);
+		}
+
+		var halted = new TamVm(code, new ByteArrayInputStream("1\n".getBytes()),
+				new PrintStream(new ByteArrayOutputStream()));
+		assertEquals(TamVm.halted, halted.run());
+		try {
+			halted.fork(System.in, System.out);
+			fail("forked a machine that had halted");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void testObjectFile() throws Exception {
+		var program = triangle(10);
+		var bytes = ObjectFile.encode(program, program.length, true);
+		assertEquals(12 + 4 * program.length + 4, bytes.length);
+		assertSameInstructions(program, ObjectFile.decode(ByteBuffer.wrap(bytes)));
+
+		// an operand too big for 16 bits makes every instruction wider
+		var big = sumTo(100000);
+		var wide = ObjectFile.encode(big, big.length, false);
+		assertEquals(12 + 6 * big.length, wide.length);
+		assertSameInstructions(big, ObjectFile.decode(ByteBuffer.wrap(wide)));
+
+		// the legacy format is still read
+		var legacy = new ByteArrayOutputStream();
+		var legacyStream = new DataOutputStream(legacy);
+		for (var instr : MULTIPLY) {
+			instr.write(legacyStream);
+		}
+		var legacyFile = Files.createTempFile("tam", ".tam");
+		Files.write(legacyFile, legacy.toByteArray());
+		assertEquals("42", run(CodeSegment.load(legacyFile.toString()), ""));
+		var file = Files.createTempFile("tam", ".tam");
+		ObjectFile.write(file.toString(), MULTIPLY, MULTIPLY.length, true);
+		assertEquals(12 + 4 * MULTIPLY.length + 4, Files.size(file));
+		assertEquals("42", run(CodeSegment.load(file.toString()), ""));
+
+		// a mapped file is decoded an instruction at a time, in either format
+		for (var view : new ObjectFile.View[] { ObjectFile.map(file.toString()),
+				ObjectFile.map(legacyFile.toString()), ObjectFile.open(ByteBuffer.wrap(wide)) }) {
+			var expected = view.count() == big.length ? big : MULTIPLY;
+			assertEquals(expected.length, view.count());
+			for (var addr = 0; addr < expected.length; addr++) {
+				assertEquals(expected[addr].opCode.ordinal(), view.opCode(addr));
+				assertEquals(expected[addr].register.ordinal(), view.register(addr));
+				assertEquals(expected[addr].length, view.length(addr));
+				assertEquals(expected[addr].operand, view.operand(addr));
+			}
+		}
+		var tooBig = new Instruction[Machine.PB + 1];
+		Arrays.fill(tooBig, MULTIPLY[4]);
+		try {
+			CodeSegment.decode(ObjectFile.open(ByteBuffer.wrap(ObjectFile.encode(tooBig, tooBig.length, false))), true);
+			fail("decoded more instructions than fit in the code store");
+		} catch (IOException e) {
+			assertEquals("too many instructions for code segment", e.getMessage());
+		}
+
+		var corrupt = bytes.clone();
+		corrupt[20] ^= 1;
+		try {
+			ObjectFile.decode(ByteBuffer.wrap(corrupt));
+			fail("decoded a corrupt object file");
+		} catch (IOException e) {
+			assertEquals("object file checksum does not match", e.getMessage());
+		}
+		try {
+			ObjectFile.decode(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 1)));
+			fail("decoded a truncated object file");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("object file should hold"));
+		}
+	}
+
+	private static void assertSameInstructions(Instruction[] expected, Instruction[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (var i = 0; i < expected.length; i++) {
+			assertEquals(expected[i].opCode, actual[i].opCode);
+			assertEquals(expected[i].register, actual[i].register);
+			assertEquals(expected[i].length, actual[i].length);
+			assertEquals(expected[i].operand, actual[i].operand);
+		}
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		var inputs = Files.createTempDirectory("tam-batch");
+		for (var i = 0; i < 20; i++) {
+			Files.writeString(inputs.resolve("run" + i + ".txt"), i + "\n");
+		}
+		var summary = new ByteArrayOutputStream();
+		var results = new BatchRunner(CodeSegment.decode(ECHO, ECHO.length), new VmOptions()).run(inputs, inputs, 4,
+				new PrintStream(summary));
+
+		assertEquals(20, results.size());
+		for (var result : results) {
+			assertEquals(TamVm.halted, result.status);
+			assertEquals(ECHO.length, result.instructions);
+			var i = Integer.parseInt(result.name.replaceAll("\\D", ""));
+			assertEquals("enter int: \n" + (i + 1), Files.readString(inputs.resolve("run" + i + ".txt.out")));
+		}
+		assertTrue(summary.toString().contains("20 runs, 20 halted, 140 instructions"));
+		assertTrue(summary.toString().contains("on 4 threads"));
+
+		// a second run takes no notice of the outputs of the first
+		assertEquals(20, BatchRunner.inputFiles(inputs).size());
+	}
+
+	@Test
+	public void testBatchSameStem() throws Exception {
+		// inputs differing only in their extensions get an output each, and
+		// the summary gives the threads actually used
+		var inputs = Files.createTempDirectory("tam-batch");
+		Files.writeString(inputs.resolve("a.txt"), "9\n");
+		Files.writeString(inputs.resolve("a.in"), "13\n");
+		var summary = new ByteArrayOutputStream();
+		new BatchRunner(CodeSegment.decode(ECHO, ECHO.length), new VmOptions()).run(inputs, inputs, 8,
+				new PrintStream(summary));
+
+		assertEquals("enter int: \n10", Files.readString(inputs.resolve("a.txt.out")));
+		assertEquals("enter int: \n14", Files.readString(inputs.resolve("a.in.out")));
+		assertTrue(summary.toString().contains("on 2 threads"));
+	}
+
+	@Test
+	public void testHeap() {
+		// for i := 0 .. 999 do dispose(new(200)), far more than the store holds
+		Instruction[] program = { new Instruction(OpCode.PUSH, Register.CB, 0, 1),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 0),
+				new Instruction(OpCode.STORE, Register.SB, 1, 0),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 200),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.NEW.ordinal()),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.DISPOSE.ordinal()),
+				new Instruction(OpCode.LOAD, Register.SB, 1, 0),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.SUCC.ordinal()),
+				new Instruction(OpCode.STORE, Register.SB, 1, 0),
+				new Instruction(OpCode.LOAD, Register.SB, 1, 0),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 1000),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.LT.ordinal()),
+				new Instruction(OpCode.JUMPIF, Register.CB, 1, 3),
+				new Instruction(OpCode.HALT, Register.CB, 0, 0) };
+		var code = CodeSegment.decode(program, program.length);
+		for (var engine = 0; engine < 4; engine++) {
+			var options = new VmOptions();
+			options.setCompileThreshold(engine == 1 ? 1 : 0);
+			options.setClosureCompiled(engine == 2);
+			options.setRegisterCompiled(engine == 3);
+			var vm = new TamVm(code, System.in, new PrintStream(new ByteArrayOutputStream()), options);
+			assertEquals(TamVm.halted, vm.run());
+			assertEquals(1000, vm.getHeap().getAllocations());
+			assertEquals(1000, vm.getHeap().getDisposals());
+			assertEquals(200, vm.getHeap().getHighWater());
+			assertEquals(vm.HB, vm.HT);
+		}
+
+		// blocks are reused, split and merged
+		var vm = new TamVm(code);
+		vm.HT = vm.HB;
+		var heap = vm.heap;
+		var a = heap.allocate(vm, 10);
+		var b = heap.allocate(vm, 30);
+		var c = heap.allocate(vm, 10);
+		var d = heap.allocate(vm, 5);
+		assertEquals(vm.HB - 55, vm.HT);
+		heap.dispose(vm, a);
+		heap.dispose(vm, c);
+		assertEquals(2, heap.getFreeBlocks());
+		assertEquals(0.5, heap.getFragmentation(), 1e-9);
+		assertEquals(c, heap.allocate(vm, 4)); // the best fit of the two
+		assertEquals(c + 4, heap.allocate(vm, 6));
+		heap.dispose(vm, b);
+		assertEquals(1, heap.getFreeBlocks());
+		assertEquals(40, heap.getLargestFreeBlock());
+		assertEquals(b, heap.allocate(vm, 40));
+		heap.dispose(vm, d); // at HT, so handed back to the stack
+		assertEquals(vm.HB - 50, vm.HT);
+		heap.dispose(vm, d);
+		assertEquals(1, heap.getInvalidDisposals());
+	}
+
+	@Test
+	public void testDataStoreSize() {
+		// push 2000 words, more than the default store holds
+		Instruction[] program = { new Instruction(OpCode.PUSH, Register.CB, 0, 2000),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 1),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()),
+				new Instruction(OpCode.HALT, Register.CB, 0, 0) };
+		var code = CodeSegment.decode(program, program.length);
+		var sink = new PrintStream(new ByteArrayOutputStream());
+
+		assertEquals(TamVm.failedDataStoreFull, new TamVm(code, System.in, sink).run());
+
+		var options = new VmOptions();
+		options.setStackSize(4096);
+		assertEquals(TamVm.halted, new TamVm(code, System.in, sink, options).run());
+
+		options.setGrowable(true);
+		var vm = new TamVm(code, System.in, sink, options);
+		assertEquals(TamVm.halted, vm.run());
+		assertEquals(4096 + VmOptions.defaultHeapSize, vm.HB);
+		assertTrue(vm.data.length < vm.HB);
+	}
+
+	@Test
+	public void testConcurrentMachines() throws Exception {
+		// one shared code segment, many machines each with their own input
+		var code = CodeSegment.decode(ECHO, ECHO.length);
+		var executor = Executors.newFixedThreadPool(8);
+		try {
+			var results = new ArrayList<Future<String>>();
+			for (var i = 0; i < 200; i++) {
+				var input = Integer.toString(i);
+				results.add(executor.submit((Callable<String>) () -> run(code, input)));
+			}
+			for (var i = 0; i < 200; i++) {
+				assertEquals("enter int: \n" + (i + 1), results.get(i).get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static String failureReport(CodeSegment code) {
+		return failureReport(code, new VmOptions());
+	}
+
+	private static String failureReport(CodeSegment code, VmOptions options) {
+		return failureReport(code, options, TamVm.failedOverflow);
+	}
+
+	private static String failureReport(CodeSegment code, VmOptions options, int failure) {
+		var output = new ByteArrayOutputStream();
+		var vm = new TamVm(code, System.in, new PrintStream(output), options);
+		assertEquals(failure, vm.run());
+		vm.showStatus();
+		return output.toString();
+	}
+
+	private static String precompiledReport(Instruction[] program, VmOptions options, int failure)
+			throws ReflectiveOperationException {
+		var code = CodeSegment.decode(program, program.length);
+		var compiled = ProgramCompiler.define(new ProgramCompiler(code).compile());
+		var output = new ByteArrayOutputStream();
+		var vm = PrecompiledRunner.machine(code, compiled, System.in, new PrintStream(output), options);
+		assertEquals(failure, vm.run());
+		vm.showStatus();
+		return output.toString();
+	}
+
+	private static String run(Instruction[] program, String input) {
+		return run(CodeSegment.decode(program, program.length), input);
+	}
+
+	private static String run(CodeSegment code, String input) {
+		return run(code, input, new VmOptions());
+	}
+
+	private static String run(CodeSegment code, String input, VmOptions options) {
+		var output = new ByteArrayOutputStream();
+		var vm = new TamVm(code, new ByteArrayInputStream(input.getBytes()), new PrintStream(output), options);
+		assertEquals(TamVm.halted, vm.run());
+		return output.toString().replace(System.lineSeparator(), "\n");
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * @(#)InputBuffer.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads the input of the GET, GETEOL and GETINT primitives from the machine's
+ * stream a buffer at a time, rather than a byte at a time.
+ *
+ * <p>
+ * A read of the stream returns whatever is already available, so an
+ * interactive program still sees each line as soon as it is typed. The buffer
+ * does read ahead, though, so a stream should only be read by one machine.
+ * </p>
+ */
+final class InputBuffer {
+
+	private final static int size = 8192;
+
+	private final InputStream in;
+
+	private final byte[] buffer = new byte[size];
+
+	private int position = 0, limit = 0;
+
+	InputBuffer(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * @return the next byte of input, or -1 at the end of the stream.
+	 * @throws IOException if the stream cannot be read.
+	 */
+	int read() throws IOException {
+		if (position == limit) {
+			var n = in.read(buffer, 0, size);
+			if (n <= 0) {
+				return -1; // the next read asks the stream again
+			}
+			position = 0;
+			limit = n;
+		}
+		return buffer[position++] & 0xFF;
+	}
+
+	/**
+	 * @return the bytes read from the stream but not yet returned by read.
+	 */
+	byte[] pending() {
+		return Arrays.copyOfRange(buffer, position, limit);
+	}
+
+	/**
+	 * Replaces any bytes read ahead with the given ones, which read returns
+	 * before reading the stream again.
+	 *
+	 * @param bytes at most a buffer's worth of bytes, as from pending.
+	 */
+	void unread(byte[] bytes) {
+		System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+		position = 0;
+		limit = bytes.length;
+	}
+}
@@ -33,6 +33,10 @@ public class Instruction {
 	// Length = 0..255; {8 bits unsigned}
 	// Operand = -32767..+32767; {16 bits signed}
 
+	static final OpCode[] opCodes = OpCode.values();
+	static final Register[] registers = Register.values();
+	static final Primitive[] primitives = Primitive.values();
+
 	// Represents TAM instructions.
 	final OpCode opCode;
 	final Register register;
@@ -59,8 +63,8 @@ public class Instruction {
 
 	public static Instruction read(DataInputStream input) throws IOException {
 		try {
-			var opCode = OpCode.values()[input.readInt()];
-			var register = Register.values()[input.readInt()];
+			var opCode = opCodes[input.readInt()];
+			var register = registers[input.readInt()];
 			var length = input.readInt();
 			var operand = input.readInt();
 			return new Instruction(opCode, register, length, operand);
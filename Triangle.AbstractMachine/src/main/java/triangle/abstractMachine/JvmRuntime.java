@@ -0,0 +1,331 @@
+/*
+ * @(#)JvmRuntime.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * The run-time support of Triangle programs compiled straight to JVM classes.
+ *
+ * <p>
+ * A compiled program keeps its scalar variables in JVM locals and fields, and
+ * everything that needs an address in {@link #data}: arrays and records,
+ * variables passed as var parameters, and variables of a routine that routines
+ * nested in it use. That store is a stack, whose top is {@link #st}; the
+ * compiled code pushes and pops it itself, and calls the methods here for the
+ * primitives that are more than a JVM instruction or two.
+ * </p>
+ *
+ * <p>
+ * The primitives behave as the interpreter's do: arithmetic fails on overflow
+ * and on division by zero, and input and output go through the same buffers.
+ * A program is run by {@link #execute}, which reports how it ended in the
+ * interpreter's words. Only one program can run at a time.
+ * </p>
+ */
+public final class JvmRuntime {
+
+	/**
+	 * The number of words in the store.
+	 */
+	public final static int storeSize = 1 << 20;
+
+	/**
+	 * The store.
+	 */
+	public final static int[] data = new int[storeSize];
+
+	/**
+	 * The address of the first free word of the store.
+	 */
+	public static int st;
+
+	// ways for a program to end, as the interpreter numbers them
+	private final static int halted = 1, failedDataStoreFull = 2, failedOverflow = 5, failedZeroDivide = 6,
+			failedIOError = 7;
+
+	private static int status;
+
+	private static InputBuffer input;
+
+	private static OutputBuffer output;
+
+	private static int currentChar;
+
+	private final static class Failure extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		final int status;
+
+		Failure(int status) {
+			super(null, null, false, false);
+			this.status = status;
+		}
+	}
+
+	private JvmRuntime() {
+	}
+
+	/**
+	 * Runs a compiled program, then writes how it ended.
+	 *
+	 * @param program the program's main body.
+	 * @param in      the stream read by the input primitives.
+	 * @param out     the stream written by the output primitives.
+	 */
+	public static void execute(Runnable program, InputStream in, PrintStream out) {
+		input = new InputBuffer(in);
+		output = new OutputBuffer(out);
+		currentChar = 0;
+		st = 0;
+
+		var startTimeNanos = System.nanoTime();
+		try {
+			program.run();
+			status = halted;
+		} catch (Failure f) {
+			status = f.status;
+		} catch (StackOverflowError | ArrayIndexOutOfBoundsException e) {
+			// routines nested too deeply for the JVM, or an index outside the
+			// store
+			status = failedDataStoreFull;
+		}
+
+		output.flush();
+		out.println("");
+		switch (status) {
+		case halted:
+			out.println("Program has halted normally.");
+			out.println("Total execution time (ns): " + (System.nanoTime() - startTimeNanos));
+			break;
+		case failedDataStoreFull:
+			out.println("Program has failed due to exhaustion of Data Store.");
+			break;
+		case failedOverflow:
+			out.println("Program has failed due to overflow.");
+			break;
+		case failedZeroDivide:
+			out.println("Program has failed due to division by zero.");
+			break;
+		case failedIOError:
+			out.println("Program has failed due to an IO error.");
+			break;
+		}
+	}
+
+	// ARITHMETIC
+
+	private static int checked(long datum) {
+		if ((-Machine.maxintRep <= datum) && (datum <= Machine.maxintRep)) {
+			return (int) datum;
+		}
+		throw new Failure(failedOverflow);
+	}
+
+	public static int add(int left, int right) {
+		return checked((long) left + right);
+	}
+
+	public static int sub(int left, int right) {
+		return checked((long) left - right);
+	}
+
+	public static int mult(int left, int right) {
+		return checked((long) left * right);
+	}
+
+	// int division gives what the interpreter's long division does, even
+	// for Integer.MIN_VALUE / -1, and is cheaper
+	public static int div(int left, int right) {
+		if (right == 0) {
+			throw new Failure(failedZeroDivide);
+		}
+		return left / right;
+	}
+
+	public static int mod(int left, int right) {
+		if (right == 0) {
+			throw new Failure(failedZeroDivide);
+		}
+		return left % right;
+	}
+
+	// THE STORE
+
+	/**
+	 * Pushes the given number of words, all zero, on to the store.
+	 *
+	 * @param size the number of words.
+	 * @return the address of the first of them.
+	 */
+	public static int allocate(int size) {
+		var base = st;
+		if (size > storeSize - base) {
+			throw new Failure(failedDataStoreFull);
+		}
+		Arrays.fill(data, base, base + size, 0);
+		st = base + size;
+		return base;
+	}
+
+	/**
+	 * Pushes a word on to the store.
+	 *
+	 * @param word the word.
+	 */
+	public static void pushWord(int word) {
+		if (st == storeSize) {
+			throw new Failure(failedDataStoreFull);
+		}
+		data[st] = word;
+		st = st + 1;
+	}
+
+	/**
+	 * Pushes a copy of a value in the store on to the store.
+	 *
+	 * @param addr the address of the value.
+	 * @param size the number of words in it.
+	 */
+	public static void push(int addr, int size) {
+		if (size > storeSize - st) {
+			throw new Failure(failedDataStoreFull);
+		}
+		System.arraycopy(data, addr, data, st, size);
+		st = st + size;
+	}
+
+	/**
+	 * Pops the value on the top of the store into a variable.
+	 *
+	 * @param addr the address of the variable.
+	 * @param size the number of words in the value.
+	 */
+	public static void pop(int addr, int size) {
+		st = st - size;
+		System.arraycopy(data, st, data, addr, size);
+	}
+
+	/**
+	 * Pops everything above the given address except the value on the top of
+	 * the store, which is moved down to the address.
+	 *
+	 * @param base the address.
+	 * @param size the number of words in the value.
+	 */
+	public static void keep(int base, int size) {
+		System.arraycopy(data, st - size, data, base, size);
+		st = base + size;
+	}
+
+	/**
+	 * Pops two values from the top of the store and compares them.
+	 *
+	 * @param size the number of words in each value.
+	 * @return the representation of true if they are equal, otherwise that of
+	 *         false.
+	 */
+	public static int equal(int size) {
+		st = st - 2 * size;
+		return Arrays.equals(data, st, st + size, data, st + size, st + 2 * size) ? Machine.trueRep
+				: Machine.falseRep;
+	}
+
+	// INPUT AND OUTPUT
+
+	public static int eol() {
+		return currentChar == '\n' ? Machine.trueRep : Machine.falseRep;
+	}
+
+	public static int eof() {
+		return currentChar == -1 ? Machine.trueRep : Machine.falseRep;
+	}
+
+	public static int get() {
+		output.flush();
+		try {
+			currentChar = input.read();
+		} catch (IOException s) {
+			throw new Failure(failedIOError);
+		}
+		return currentChar;
+	}
+
+	public static void put(int ch) {
+		output.put((char) ch);
+	}
+
+	public static void geteol() {
+		output.flush();
+		try {
+			while ((currentChar = input.read()) != '\n')
+				;
+		} catch (IOException s) {
+			throw new Failure(failedIOError);
+		}
+	}
+
+	public static void puteol() {
+		output.putEol();
+	}
+
+	public static int getint() {
+		output.putString("enter int: ");
+		output.putEol();
+		output.flush();
+		try {
+			return readInt();
+		} catch (IOException s) {
+			throw new Failure(failedIOError);
+		}
+	}
+
+	public static void putint(int value) {
+		output.putInt(value);
+	}
+
+	private static int readInt() throws IOException {
+		int temp = 0;
+		int sign = 1;
+
+		do {
+			currentChar = input.read();
+		} while (Character.isWhitespace((char) currentChar));
+
+		if ((currentChar == '-') || (currentChar == '+')) {
+			do {
+				sign = (currentChar == '-') ? -1 : 1;
+				currentChar = input.read();
+			} while ((currentChar == '-') || currentChar == '+');
+		}
+
+		if (Character.isDigit((char) currentChar)) {
+			do {
+				temp = temp * 10 + (currentChar - '0');
+				currentChar = input.read();
+			} while (Character.isDigit((char) currentChar));
+		}
+
+		return sign * temp;
+	}
+}
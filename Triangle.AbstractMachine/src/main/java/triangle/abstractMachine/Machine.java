@@ -35,6 +35,11 @@ public final class Machine {
 
 	// INSTRUCTIONS
 
+	// Operation codes, numbered as in OpCode
+	public final static int LOADop = 0, LOADAop = 1, LOADIop = 2, LOADLop = 3, STOREop = 4, STOREIop = 5, CALLop = 6,
+			CALLIop = 7, RETURNop = 8, NOPop = 9, PUSHop = 10, POPop = 11, JUMPop = 12, JUMPIop = 13, JUMPIFop = 14,
+			HALTop = 15;
+
 	// CODE STORE
 
 	public static Instruction[] code = new Instruction[1024];
@@ -46,6 +51,21 @@ public final class Machine {
 
 	// REGISTER NUMBERS
 
+	// Numbered as in Register
+	public final static int CBr = 0, CTr = 1, PBr = 2, PTr = 3, SBr = 4, STr = 5, HBr = 6, HTr = 7, LBr = 8,
+			L1r = LBr + 1, L2r = LBr + 2, L3r = LBr + 3, L4r = LBr + 4, L5r = LBr + 5, L6r = LBr + 6, CPr = 15;
+
+	// PRIMITIVE ROUTINES
+
+	// Displacements from PB, numbered as in Primitive
+	public final static int idDisplacement = 0, notDisplacement = 1, andDisplacement = 2, orDisplacement = 3,
+			succDisplacement = 4, predDisplacement = 5, negDisplacement = 6, addDisplacement = 7, subDisplacement = 8,
+			multDisplacement = 9, divDisplacement = 10, modDisplacement = 11, ltDisplacement = 12, leDisplacement = 13,
+			geDisplacement = 14, gtDisplacement = 15, eqDisplacement = 16, neDisplacement = 17, eolDisplacement = 18,
+			eofDisplacement = 19, getDisplacement = 20, putDisplacement = 21, geteolDisplacement = 22,
+			puteolDisplacement = 23, getintDisplacement = 24, putintDisplacement = 25, newDisplacement = 26,
+			disposeDisplacement = 27;
+
 	// DATA REPRESENTATION
 
 	public final static int booleanSize = 1, characterSize = 1, integerSize = 1, addressSize = 1,
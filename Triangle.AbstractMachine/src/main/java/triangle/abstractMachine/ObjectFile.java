@@ -0,0 +1,342 @@
+/*
+ * @(#)ObjectFile.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes TAM object files.
+ *
+ * <p>
+ * An object file starts with a header: the magic number {@link #magic}, the
+ * format version and flags as two 16-bit numbers, and the number of
+ * instructions. The instructions follow, each packed into 4 bytes: the opcode
+ * and register in the first, 4 bits each, then the length, then the operand
+ * as a signed 16-bit number. If any operand is too big for that, as a large
+ * literal might be, every instruction of the file is written in 6 bytes
+ * instead, with a 32-bit operand, and the {@link #wide} flag is set. If the
+ * {@link #checksummed} flag is set, a CRC-32 of everything before it ends the
+ * file. All numbers are big-endian.
+ * </p>
+ *
+ * <p>
+ * The legacy format, still read, has no header, and four 32-bit numbers for
+ * each instruction: opcode, register, length and operand, 16 bytes in all.
+ * Its first byte is always 0, which the magic number's is not.
+ * </p>
+ *
+ * <p>
+ * A file is memory-mapped and opened as a {@link View}, which checks the
+ * header and checksum but decodes each instruction only when asked for it.
+ * </p>
+ */
+public final class ObjectFile {
+
+	/**
+	 * The first four bytes of an object file: "TAM" and a control-Z.
+	 */
+	public final static int magic = 0x54414D1A;
+
+	/**
+	 * The version of the format written.
+	 */
+	public final static int version = 1;
+
+	/**
+	 * Flags in the header.
+	 */
+	public final static int checksummed = 1, wide = 2;
+
+	final static int headerSize = 12, compactSize = 4, wideSize = 6, legacySize = 16, checksumSize = 4;
+
+	private ObjectFile() {
+	}
+
+	// WRITING
+
+	/**
+	 * Encodes instructions code[CB..CT-1] as an object file.
+	 *
+	 * @param code     the instructions.
+	 * @param CT       the code top, one past the last instruction.
+	 * @param checksum whether to end the file with a checksum.
+	 * @return the contents of the object file.
+	 * @throws IllegalArgumentException if an instruction's length is outside
+	 *                                  0..255.
+	 */
+	public static byte[] encode(Instruction[] code, int CT, boolean checksum) {
+		var isWide = false;
+		for (var addr = Machine.CB; addr < CT; addr++) {
+			var instr = code[addr];
+			if (instr.length < 0 || instr.length > 255) {
+				throw new IllegalArgumentException("length " + instr.length + " at " + addr + " is outside 0..255");
+			}
+			isWide |= instr.operand != (short) instr.operand;
+		}
+
+		var count = CT - Machine.CB;
+		var buffer = ByteBuffer.allocate(
+				headerSize + count * (isWide ? wideSize : compactSize) + (checksum ? checksumSize : 0));
+		buffer.putInt(magic);
+		buffer.putShort((short) version);
+		buffer.putShort((short) ((checksum ? checksummed : 0) | (isWide ? wide : 0)));
+		buffer.putInt(count);
+		for (var addr = Machine.CB; addr < CT; addr++) {
+			var instr = code[addr];
+			buffer.put((byte) (instr.opCode.ordinal() << 4 | instr.register.ordinal()));
+			buffer.put((byte) instr.length);
+			if (isWide) {
+				buffer.putInt(instr.operand);
+			} else {
+				buffer.putShort((short) instr.operand);
+			}
+		}
+		if (checksum) {
+			var crc = new CRC32();
+			crc.update(buffer.array(), 0, buffer.position());
+			buffer.putInt((int) crc.getValue());
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Writes instructions code[CB..CT-1] to the named object file, in one go.
+	 *
+	 * @param objectName the name of the file.
+	 * @param code       the instructions.
+	 * @param CT         the code top, one past the last instruction.
+	 * @param checksum   whether to end the file with a checksum.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static void write(String objectName, Instruction[] code, int CT, boolean checksum) throws IOException {
+		var bytes = encode(code, CT, checksum);
+		try (var objectFile = new FileOutputStream(objectName)) {
+			objectFile.write(bytes);
+		}
+	}
+
+	// READING
+
+	/**
+	 * Reads the named object file, in either format.
+	 *
+	 * @param objectName the name of the file.
+	 * @return its instructions, from address CB.
+	 * @throws IOException if the file cannot be opened or read, or is not a
+	 *                     valid object file.
+	 */
+	public static Instruction[] load(String objectName) throws IOException {
+		return map(objectName).instructions();
+	}
+
+	/**
+	 * Decodes the remaining bytes of the buffer as an object file, in either
+	 * format.
+	 *
+	 * @param buffer the contents of the object file.
+	 * @return its instructions, from address CB.
+	 * @throws IOException if the bytes are not a valid object file.
+	 */
+	public static Instruction[] decode(ByteBuffer buffer) throws IOException {
+		return open(buffer).instructions();
+	}
+
+	/**
+	 * Maps the named object file into memory and opens it, without reading
+	 * its instructions yet.
+	 *
+	 * @param objectName the name of the file.
+	 * @return a view of the instructions of the file.
+	 * @throws IOException if the file cannot be opened or mapped, or is not a
+	 *                     valid object file.
+	 */
+	public static View map(String objectName) throws IOException {
+		try (var channel = FileChannel.open(Path.of(objectName), StandardOpenOption.READ)) {
+			return open(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Opens the remaining bytes of the buffer as an object file, in either
+	 * format, checking its header and checksum, but decoding no instructions.
+	 *
+	 * @param buffer the contents of the object file, which must not change
+	 *               while the view is used.
+	 * @return a view of the instructions of the file.
+	 * @throws IOException if the bytes are not a valid object file.
+	 */
+	public static View open(ByteBuffer buffer) throws IOException {
+		buffer = buffer.slice();
+		if (isVersioned(buffer)) {
+			return openVersioned(buffer);
+		}
+		return openLegacy(buffer);
+	}
+
+	/**
+	 * @param buffer the contents of an object file.
+	 * @return whether the bytes of the buffer start with the magic number, so
+	 *         are in the versioned format rather than the legacy one.
+	 */
+	public static boolean isVersioned(ByteBuffer buffer) {
+		return buffer.remaining() >= Integer.BYTES && buffer.getInt(buffer.position()) == magic;
+	}
+
+	private static View openVersioned(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < headerSize) {
+			throw new IOException("object file header is truncated");
+		}
+		var fileVersion = buffer.getShort(4) & 0xFFFF;
+		var flags = buffer.getShort(6) & 0xFFFF;
+		var count = buffer.getInt(8);
+		if (fileVersion != version) {
+			throw new IOException("unsupported object file version " + fileVersion);
+		}
+		if ((flags & ~(checksummed | wide)) != 0) {
+			throw new IOException("unknown object file flags " + Integer.toHexString(flags));
+		}
+		var isWide = (flags & wide) != 0;
+		var hasChecksum = (flags & checksummed) != 0;
+		var size = isWide ? wideSize : compactSize;
+		var expected = (long) count * size + (hasChecksum ? checksumSize : 0);
+		if (count < 0 || buffer.remaining() - headerSize != expected) {
+			throw new IOException("object file should hold " + count + " instructions, but has "
+					+ (buffer.remaining() - headerSize) + " bytes for them");
+		}
+
+		if (hasChecksum) {
+			var end = headerSize + count * size;
+			var crc = new CRC32();
+			crc.update(buffer.duplicate().limit(end));
+			if (buffer.getInt(end) != (int) crc.getValue()) {
+				throw new IOException("object file checksum does not match");
+			}
+		}
+		return new View(buffer, headerSize, count, size, isWide);
+	}
+
+	private static View openLegacy(ByteBuffer buffer) throws IOException {
+		// A partial instruction at the end is ignored, as it always was.
+		var count = buffer.remaining() / legacySize;
+		for (var i = 0; i < count; i++) {
+			var opCode = buffer.getInt(i * legacySize);
+			var register = buffer.getInt(i * legacySize + 4);
+			if (opCode < 0 || opCode >= Instruction.opCodes.length || register < 0
+					|| register >= Instruction.registers.length) {
+				throw new IOException("invalid instruction at " + i + " of object file");
+			}
+		}
+		return new View(buffer, 0, count, legacySize, false);
+	}
+
+	/**
+	 * The instructions of an object file, each decoded from the bytes of the
+	 * file only when its fields are asked for, so that a program can be
+	 * decoded straight into another form without making an
+	 * {@link Instruction} of each.
+	 */
+	public static final class View {
+
+		private final ByteBuffer buffer;
+
+		private final int start, count, size;
+
+		private final boolean isWide;
+
+		private View(ByteBuffer buffer, int start, int count, int size, boolean isWide) {
+			this.buffer = buffer;
+			this.start = start;
+			this.count = count;
+			this.size = size;
+			this.isWide = isWide;
+		}
+
+		/**
+		 * @return the number of instructions.
+		 */
+		public int count() {
+			return count;
+		}
+
+		/**
+		 * @param addr the code address of an instruction, from CB.
+		 * @return the ordinal of its op-code.
+		 */
+		public int opCode(int addr) {
+			var at = start + addr * size;
+			return size == legacySize ? buffer.getInt(at) : (buffer.get(at) & 0xFF) >>> 4;
+		}
+
+		/**
+		 * @param addr the code address of an instruction, from CB.
+		 * @return the ordinal of its register.
+		 */
+		public int register(int addr) {
+			var at = start + addr * size;
+			return size == legacySize ? buffer.getInt(at + 4) : buffer.get(at) & 0xF;
+		}
+
+		/**
+		 * @param addr the code address of an instruction, from CB.
+		 * @return its length field.
+		 */
+		public int length(int addr) {
+			var at = start + addr * size;
+			return size == legacySize ? buffer.getInt(at + 8) : buffer.get(at + 1) & 0xFF;
+		}
+
+		/**
+		 * @param addr the code address of an instruction, from CB.
+		 * @return its operand.
+		 */
+		public int operand(int addr) {
+			var at = start + addr * size;
+			if (size == legacySize) {
+				return buffer.getInt(at + 12);
+			}
+			return isWide ? buffer.getInt(at + 2) : buffer.getShort(at + 2);
+		}
+
+		/**
+		 * @param addr the code address of an instruction, from CB.
+		 * @return the instruction.
+		 */
+		public Instruction instruction(int addr) {
+			return new Instruction(Instruction.opCodes[opCode(addr)], Instruction.registers[register(addr)],
+					length(addr), operand(addr));
+		}
+
+		/**
+		 * @return all the instructions.
+		 */
+		public Instruction[] instructions() {
+			var code = new Instruction[count];
+			for (var addr = 0; addr < count; addr++) {
+				code[addr] = instruction(addr);
+			}
+			return code;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * @(#)OutputBuffer.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.io.PrintStream;
+
+/**
+ * Collects the output of the PUT, PUTEOL and PUTINT primitives in a byte
+ * buffer, and writes it to the machine's stream in large pieces.
+ *
+ * <p>
+ * The bytes written are exactly those that printing each character, line end
+ * and integer to the stream would have written. ASCII characters and integers
+ * are encoded into the buffer directly; any other character is left to the
+ * stream itself, so that it is encoded in the stream's own charset.
+ * </p>
+ */
+final class OutputBuffer {
+
+	private final static int size = 8192;
+
+	private final static byte[] lineSeparator = System.lineSeparator().getBytes();
+
+	private final PrintStream out;
+
+	private final byte[] buffer = new byte[size];
+
+	private int count = 0;
+
+	OutputBuffer(PrintStream out) {
+		this.out = out;
+	}
+
+	void put(char ch) {
+		if (ch >= 0x80) {
+			drain();
+			out.print(ch);
+		} else {
+			if (count == size) {
+				drain();
+			}
+			buffer[count++] = (byte) ch;
+		}
+	}
+
+	void putInt(long value) {
+		// Formats the value as Long.toString would, without allocating.
+
+		if (count > size - 20) {
+			drain();
+		}
+		if (value < 0) {
+			buffer[count++] = '-';
+		} else {
+			value = -value; // negative values reach Long.MIN_VALUE
+		}
+		var start = count;
+		do {
+			buffer[count++] = (byte) ('0' - value % 10);
+			value = value / 10;
+		} while (value != 0);
+		for (int i = start, j = count - 1; i < j; i++, j--) {
+			var digit = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = digit;
+		}
+	}
+
+	void putString(String s) {
+		// Only used for the machine's own ASCII prompts.
+
+		for (var i = 0; i < s.length(); i++) {
+			put(s.charAt(i));
+		}
+	}
+
+	void putEol() {
+		if (count > size - lineSeparator.length) {
+			drain();
+		}
+		for (var b : lineSeparator) {
+			buffer[count++] = b;
+		}
+	}
+
+	/**
+	 * Writes everything buffered so far through to the stream's destination,
+	 * for when the program halts or fails, or waits for input.
+	 */
+	void flush() {
+		drain();
+		out.flush();
+	}
+
+	private void drain() {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * @(#)ClassWriter.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assembles a single JVM class file.
+ *
+ * <p>
+ * Only what the TAM-to-JVM translators need is supported: int, long and string
+ * constants, fields without initial values, and methods whose bodies are built
+ * with a {@link CodeWriter}. Classes are written in the Java 5 (49.0) format,
+ * which the JVM verifies by type inference, so no stack map frames are needed.
+ * </p>
+ *
+ * <p>
+ * Names are internal names, such as {@code "java/lang/Object"}, and types are
+ * field or method descriptors, such as {@code "(I)V"}.
+ * </p>
+ */
+public final class ClassWriter {
+
+	public final static int ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002, ACC_STATIC = 0x0008, ACC_FINAL = 0x0010,
+			ACC_SUPER = 0x0020;
+
+	private final static int MAGIC = 0xCAFEBABE, MAJOR_VERSION = 49;
+
+	// constant pool tags
+	private final static int CONSTANT_Utf8 = 1, CONSTANT_Integer = 3, CONSTANT_Long = 5, CONSTANT_Class = 7,
+			CONSTANT_String = 8, CONSTANT_Fieldref = 9, CONSTANT_Methodref = 10, CONSTANT_InterfaceMethodref = 11,
+			CONSTANT_NameAndType = 12;
+
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+
+	private final Map<String, Integer> poolIndex = new HashMap<>();
+
+	private int poolCount = 1;
+
+	private final int access, thisClass, superClass;
+
+	private final int[] interfaces;
+
+	private final ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+
+	private int fieldCount = 0;
+
+	private final List<CodeWriter> methods = new ArrayList<>();
+
+	/**
+	 * Starts a class.
+	 *
+	 * @param access     the class access flags, such as
+	 *                   {@code ACC_PUBLIC | ACC_SUPER}.
+	 * @param name       the internal name of the class.
+	 * @param superName  the internal name of its superclass.
+	 * @param interfaces the internal names of the interfaces it implements.
+	 */
+	public ClassWriter(int access, String name, String superName, String... interfaces) {
+		this.access = access;
+		this.thisClass = classRef(name);
+		this.superClass = classRef(superName);
+		this.interfaces = new int[interfaces.length];
+		for (var i = 0; i < interfaces.length; i++) {
+			this.interfaces[i] = classRef(interfaces[i]);
+		}
+	}
+
+	/**
+	 * Declares a field.
+	 *
+	 * @param access     the field access flags.
+	 * @param name       the field name.
+	 * @param descriptor the field type.
+	 */
+	public void addField(int access, String name, String descriptor) {
+		var out = new DataOutputStream(fieldBytes);
+		try {
+			out.writeShort(access);
+			out.writeShort(utf8(name));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(0); // attributes
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		fieldCount = fieldCount + 1;
+	}
+
+	/**
+	 * Declares a method. Its body is whatever has been written to the returned
+	 * writer by the time {@link #toByteArray()} is called.
+	 *
+	 * @param access     the method access flags.
+	 * @param name       the method name.
+	 * @param descriptor the method type.
+	 * @return a writer for the method body.
+	 */
+	public CodeWriter addMethod(int access, String name, String descriptor) {
+		var method = new CodeWriter(this, access, name, descriptor);
+		methods.add(method);
+		return method;
+	}
+
+	/**
+	 * @return the class file.
+	 */
+	public byte[] toByteArray() {
+		try {
+			var methodBytes = new ByteArrayOutputStream();
+			var methodOut = new DataOutputStream(methodBytes);
+			for (var method : methods) {
+				method.write(methodOut);
+			}
+
+			var bytes = new ByteArrayOutputStream();
+			var out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeShort(0);
+			out.writeShort(MAJOR_VERSION);
+			out.writeShort(poolCount);
+			poolBytes.writeTo(out);
+			out.writeShort(access);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(interfaces.length);
+			for (var i : interfaces) {
+				out.writeShort(i);
+			}
+			out.writeShort(fieldCount);
+			fieldBytes.writeTo(out);
+			out.writeShort(methods.size());
+			methodBytes.writeTo(out);
+			out.writeShort(0); // attributes
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// CONSTANT POOL
+
+	private int constant(String key, int slots, PoolEntry entry) {
+		// Returns the index of the pool entry with the given key, adding it if
+		// it is not there yet.
+
+		var index = poolIndex.get(key);
+		if (index == null) {
+			if (poolCount + slots > 0xFFFF) {
+				throw new IllegalStateException("constant pool is full");
+			}
+			try {
+				entry.write();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			index = poolCount;
+			poolCount = poolCount + slots;
+			poolIndex.put(key, index);
+		}
+		return index;
+	}
+
+	private interface PoolEntry {
+		void write() throws IOException;
+	}
+
+	int utf8(String value) {
+		return constant("U" + value, 1, () -> {
+			pool.writeByte(CONSTANT_Utf8);
+			pool.writeUTF(value);
+		});
+	}
+
+	int classRef(String name) {
+		var nameIndex = utf8(name);
+		return constant("C" + name, 1, () -> {
+			pool.writeByte(CONSTANT_Class);
+			pool.writeShort(nameIndex);
+		});
+	}
+
+	int string(String value) {
+		var valueIndex = utf8(value);
+		return constant("S" + value, 1, () -> {
+			pool.writeByte(CONSTANT_String);
+			pool.writeShort(valueIndex);
+		});
+	}
+
+	int integer(int value) {
+		return constant("I" + value, 1, () -> {
+			pool.writeByte(CONSTANT_Integer);
+			pool.writeInt(value);
+		});
+	}
+
+	int longConstant(long value) {
+		// Long constants take two pool slots.
+		return constant("J" + value, 2, () -> {
+			pool.writeByte(CONSTANT_Long);
+			pool.writeLong(value);
+		});
+	}
+
+	private int nameAndType(String name, String descriptor) {
+		var nameIndex = utf8(name);
+		var descriptorIndex = utf8(descriptor);
+		return constant("N" + name + ":" + descriptor, 1, () -> {
+			pool.writeByte(CONSTANT_NameAndType);
+			pool.writeShort(nameIndex);
+			pool.writeShort(descriptorIndex);
+		});
+	}
+
+	private int memberRef(int tag, String owner, String name, String descriptor) {
+		var classIndex = classRef(owner);
+		var nameAndTypeIndex = nameAndType(name, descriptor);
+		return constant(tag + owner + "." + name + ":" + descriptor, 1, () -> {
+			pool.writeByte(tag);
+			pool.writeShort(classIndex);
+			pool.writeShort(nameAndTypeIndex);
+		});
+	}
+
+	int fieldRef(String owner, String name, String descriptor) {
+		return memberRef(CONSTANT_Fieldref, owner, name, descriptor);
+	}
+
+	int methodRef(String owner, String name, String descriptor) {
+		return memberRef(CONSTANT_Methodref, owner, name, descriptor);
+	}
+
+	int interfaceMethodRef(String owner, String name, String descriptor) {
+		return memberRef(CONSTANT_InterfaceMethodref, owner, name, descriptor);
+	}
+}
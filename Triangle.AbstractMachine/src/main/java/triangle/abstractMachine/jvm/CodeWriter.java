@@ -0,0 +1,485 @@
+/*
+ * @(#)CodeWriter.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine.jvm;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assembles the body of one method of a {@link ClassWriter}.
+ *
+ * <p>
+ * The writer tracks the operand stack depth of straight-line code, so that the
+ * maximum stack and local variable sizes are worked out as the code is
+ * written. The stack is taken to be empty at a label that is only reached by
+ * jumps written after it.
+ * </p>
+ */
+public final class CodeWriter {
+
+	// JVM op-codes
+	public final static int NOP = 0x00, ACONST_NULL = 0x01, ICONST_M1 = 0x02, ICONST_0 = 0x03, LCONST_0 = 0x09,
+			LCONST_1 = 0x0A, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13, LDC2_W = 0x14, ILOAD = 0x15,
+			LLOAD = 0x16, ALOAD = 0x19, IALOAD = 0x2E, AALOAD = 0x32, ISTORE = 0x36, LSTORE = 0x37, ASTORE = 0x3A,
+			IASTORE = 0x4F, AASTORE = 0x53, POP = 0x57, POP2 = 0x58, DUP = 0x59, DUP_X1 = 0x5A, DUP2 = 0x5C,
+			SWAP = 0x5F, IADD = 0x60, LADD = 0x61, ISUB = 0x64, LSUB = 0x65, IMUL = 0x68, LMUL = 0x69, IDIV = 0x6C,
+			LDIV = 0x6D, IREM = 0x70, LREM = 0x71, INEG = 0x74, ISHL = 0x78, ISHR = 0x7A, IUSHR = 0x7C, IAND = 0x7E,
+			IOR = 0x80, IXOR = 0x82, IINC = 0x84, I2L = 0x85, L2I = 0x88, I2C = 0x92, LCMP = 0x94, IFEQ = 0x99,
+			IFNE = 0x9A, IFLT = 0x9B, IFGE = 0x9C, IFGT = 0x9D, IFLE = 0x9E, IF_ICMPEQ = 0x9F, IF_ICMPNE = 0xA0,
+			IF_ICMPLT = 0xA1, IF_ICMPGE = 0xA2, IF_ICMPGT = 0xA3, IF_ICMPLE = 0xA4, IF_ACMPEQ = 0xA5,
+			IF_ACMPNE = 0xA6, GOTO = 0xA7, TABLESWITCH = 0xAA, LOOKUPSWITCH = 0xAB, IRETURN = 0xAC, LRETURN = 0xAD,
+			ARETURN = 0xB0, RETURN = 0xB1, GETSTATIC = 0xB2, PUTSTATIC = 0xB3, GETFIELD = 0xB4, PUTFIELD = 0xB5,
+			INVOKEVIRTUAL = 0xB6, INVOKESPECIAL = 0xB7, INVOKESTATIC = 0xB8, INVOKEINTERFACE = 0xB9, NEW = 0xBB,
+			NEWARRAY = 0xBC, ANEWARRAY = 0xBD, ARRAYLENGTH = 0xBE, ATHROW = 0xBF, CHECKCAST = 0xC0, IFNULL = 0xC6,
+			IFNONNULL = 0xC7, WIDE = 0xC4;
+
+	// array types for NEWARRAY
+	public final static int T_CHAR = 5, T_INT = 10;
+
+	/**
+	 * A position in the code, which may be jumped to before it is marked.
+	 */
+	public final static class Label {
+		int position = -1;
+		int stack = -1;
+	}
+
+	private final static int UNKNOWN = Integer.MIN_VALUE;
+
+	// stack effect of each op-code without operands
+	private final static int[] stackEffect = new int[256];
+
+	static {
+		Arrays.fill(stackEffect, UNKNOWN);
+		for (var op = ICONST_M1; op <= ICONST_0 + 5; op++) {
+			stackEffect[op] = 1;
+		}
+		for (var op : new int[] { NOP, INEG, I2C, SWAP, RETURN, ARRAYLENGTH }) {
+			stackEffect[op] = 0;
+		}
+		for (var op : new int[] { ACONST_NULL, DUP, DUP_X1, I2L }) {
+			stackEffect[op] = 1;
+		}
+		for (var op : new int[] { LCONST_0, LCONST_1, DUP2 }) {
+			stackEffect[op] = 2;
+		}
+		for (var op : new int[] { IALOAD, AALOAD, POP, IADD, ISUB, IMUL, IDIV, IREM, ISHL, ISHR, IUSHR, IAND, IOR,
+				IXOR, L2I, IRETURN, ARETURN, ATHROW }) {
+			stackEffect[op] = -1;
+		}
+		for (var op : new int[] { POP2, LADD, LSUB, LMUL, LDIV, LREM, LRETURN }) {
+			stackEffect[op] = -2;
+		}
+		stackEffect[IASTORE] = -3;
+		stackEffect[AASTORE] = -3;
+		stackEffect[LCMP] = -3;
+	}
+
+	private final ClassWriter owner;
+
+	private final int access, name, descriptor;
+
+	private byte[] code = new byte[256];
+
+	private int length = 0;
+
+	private int stack = 0, maxStack = 0, maxLocals;
+
+	private final List<int[]> fixups = new ArrayList<>(); // {instruction, offset, wide}
+
+	private final List<Label> fixupLabels = new ArrayList<>();
+
+	CodeWriter(ClassWriter owner, int access, String name, String descriptor) {
+		this.owner = owner;
+		this.access = access;
+		this.name = owner.utf8(name);
+		this.descriptor = owner.utf8(descriptor);
+		this.maxLocals = argumentSize(descriptor) + ((access & ClassWriter.ACC_STATIC) != 0 ? 0 : 1);
+	}
+
+	/**
+	 * @return the number of bytes of code written so far.
+	 */
+	public int size() {
+		return length;
+	}
+
+	// INSTRUCTIONS
+
+	/**
+	 * Writes an instruction that has no operands.
+	 *
+	 * @param op the op-code, such as {@link #IADD}.
+	 */
+	public void op(int op) {
+		if (stackEffect[op] == UNKNOWN) {
+			throw new IllegalArgumentException("op-code needs operands: " + op);
+		}
+		put1(op);
+		adjustStack(stackEffect[op]);
+		if (op == ATHROW || (IRETURN <= op && op <= RETURN)) {
+			stack = -1;
+		}
+	}
+
+	/**
+	 * Writes the shortest instruction that pushes the given int.
+	 *
+	 * @param value the constant.
+	 */
+	public void iconst(int value) {
+		if (-1 <= value && value <= 5) {
+			put1(ICONST_0 + value);
+		} else if (Byte.MIN_VALUE <= value && value <= Byte.MAX_VALUE) {
+			put1(BIPUSH);
+			put1(value);
+		} else if (Short.MIN_VALUE <= value && value <= Short.MAX_VALUE) {
+			put1(SIPUSH);
+			put2(value);
+		} else {
+			ldc(owner.integer(value));
+			return;
+		}
+		adjustStack(1);
+	}
+
+	/**
+	 * Writes an instruction that pushes the given long.
+	 *
+	 * @param value the constant.
+	 */
+	public void lconst(long value) {
+		if (value == 0 || value == 1) {
+			put1(LCONST_0 + (int) value);
+		} else {
+			put1(LDC2_W);
+			put2(owner.longConstant(value));
+		}
+		adjustStack(2);
+	}
+
+	/**
+	 * Writes an instruction that pushes the given string.
+	 *
+	 * @param value the constant.
+	 */
+	public void sconst(String value) {
+		ldc(owner.string(value));
+	}
+
+	private void ldc(int index) {
+		if (index <= 0xFF) {
+			put1(LDC);
+			put1(index);
+		} else {
+			put1(LDC_W);
+			put2(index);
+		}
+		adjustStack(1);
+	}
+
+	/**
+	 * Writes a load or store of a local variable.
+	 *
+	 * @param op    one of {@link #ILOAD}, {@link #LLOAD}, {@link #ALOAD},
+	 *              {@link #ISTORE}, {@link #LSTORE} or {@link #ASTORE}.
+	 * @param local the index of the variable.
+	 */
+	public void local(int op, int local) {
+		var size = (op == LLOAD || op == LSTORE) ? 2 : 1;
+		if (local <= 0xFF) {
+			put1(op);
+			put1(local);
+		} else {
+			put1(WIDE);
+			put1(op);
+			put2(local);
+		}
+		maxLocals = Math.max(maxLocals, local + size);
+		adjustStack(op < ISTORE ? size : -size);
+	}
+
+	/**
+	 * Writes an IINC instruction.
+	 *
+	 * @param local the index of the int variable.
+	 * @param delta the amount to add to it.
+	 */
+	public void iinc(int local, int delta) {
+		if (local <= 0xFF && Byte.MIN_VALUE <= delta && delta <= Byte.MAX_VALUE) {
+			put1(IINC);
+			put1(local);
+			put1(delta);
+		} else {
+			put1(WIDE);
+			put1(IINC);
+			put2(local);
+			put2(delta);
+		}
+		maxLocals = Math.max(maxLocals, local + 1);
+	}
+
+	/**
+	 * Writes a field access.
+	 *
+	 * @param op         one of {@link #GETFIELD}, {@link #PUTFIELD},
+	 *                   {@link #GETSTATIC} or {@link #PUTSTATIC}.
+	 * @param className  the class declaring the field.
+	 * @param name       the field name.
+	 * @param descriptor the field type.
+	 */
+	public void field(int op, String className, String name, String descriptor) {
+		put1(op);
+		put2(owner.fieldRef(className, name, descriptor));
+		var size = typeSize(descriptor.charAt(0));
+		switch (op) {
+		case GETSTATIC:
+			adjustStack(size);
+			break;
+		case PUTSTATIC:
+			adjustStack(-size);
+			break;
+		case GETFIELD:
+			adjustStack(size - 1);
+			break;
+		default:
+			adjustStack(-size - 1);
+			break;
+		}
+	}
+
+	/**
+	 * Writes a method call.
+	 *
+	 * @param op         one of {@link #INVOKEVIRTUAL}, {@link #INVOKESPECIAL},
+	 *                   {@link #INVOKESTATIC} or {@link #INVOKEINTERFACE}.
+	 * @param className  the class or interface declaring the method.
+	 * @param name       the method name.
+	 * @param descriptor the method type.
+	 */
+	public void invoke(int op, String className, String name, String descriptor) {
+		var arguments = argumentSize(descriptor);
+		put1(op);
+		if (op == INVOKEINTERFACE) {
+			put2(owner.interfaceMethodRef(className, name, descriptor));
+			put1(arguments + 1);
+			put1(0);
+		} else {
+			put2(owner.methodRef(className, name, descriptor));
+		}
+		var result = typeSize(descriptor.charAt(descriptor.indexOf(')') + 1));
+		adjustStack(result - arguments - (op == INVOKESTATIC ? 0 : 1));
+	}
+
+	/**
+	 * Writes an instruction that takes a class operand.
+	 *
+	 * @param op        one of {@link #NEW}, {@link #ANEWARRAY} or
+	 *                  {@link #CHECKCAST}.
+	 * @param className the internal name of the class.
+	 */
+	public void type(int op, String className) {
+		put1(op);
+		put2(owner.classRef(className));
+		adjustStack(op == NEW ? 1 : 0);
+	}
+
+	/**
+	 * Writes a NEWARRAY instruction.
+	 *
+	 * @param elementType {@link #T_INT} or {@link #T_CHAR}.
+	 */
+	public void newarray(int elementType) {
+		put1(NEWARRAY);
+		put1(elementType);
+	}
+
+	/**
+	 * Writes a jump, conditional or not, to the given label.
+	 *
+	 * @param op    {@link #GOTO}, or one of the IF op-codes.
+	 * @param label where to jump to.
+	 */
+	public void jump(int op, Label label) {
+		if (op == GOTO) {
+			adjustStack(0);
+		} else if (op == IFNULL || op == IFNONNULL || (IFEQ <= op && op <= IFLE)) {
+			adjustStack(-1);
+		} else {
+			adjustStack(-2);
+		}
+		reach(label);
+		fixup(length, length + 1, false, label);
+		put1(op);
+		put2(0);
+		if (op == GOTO) {
+			stack = -1;
+		}
+	}
+
+	/**
+	 * Writes a LOOKUPSWITCH on the int on top of the stack.
+	 *
+	 * @param keys   the case values, in increasing order.
+	 * @param labels where to jump for each case.
+	 * @param dflt   where to jump if no case matches.
+	 */
+	public void lookupswitch(int[] keys, Label[] labels, Label dflt) {
+		adjustStack(-1);
+		var start = length;
+		put1(LOOKUPSWITCH);
+		while (length % 4 != 0) {
+			put1(0);
+		}
+		reach(dflt);
+		fixup(start, length, true, dflt);
+		put4(0);
+		put4(keys.length);
+		for (var i = 0; i < keys.length; i++) {
+			put4(keys[i]);
+			reach(labels[i]);
+			fixup(start, length, true, labels[i]);
+			put4(0);
+		}
+		stack = -1;
+	}
+
+	/**
+	 * Places the given label at the current position.
+	 *
+	 * @param label an unplaced label.
+	 */
+	public void mark(Label label) {
+		label.position = length;
+		if (stack < 0) {
+			stack = Math.max(label.stack, 0);
+		}
+		label.stack = stack;
+	}
+
+	private void reach(Label label) {
+		if (label.stack < 0) {
+			label.stack = stack;
+		}
+	}
+
+	private void fixup(int instruction, int offset, boolean wide, Label label) {
+		fixups.add(new int[] { instruction, offset, wide ? 1 : 0 });
+		fixupLabels.add(label);
+	}
+
+	private void adjustStack(int delta) {
+		if (stack < 0) {
+			stack = 0; // unreachable code
+		}
+		stack = stack + delta;
+		maxStack = Math.max(maxStack, stack);
+	}
+
+	// ENCODING
+
+	private void put1(int b) {
+		if (length == code.length) {
+			code = Arrays.copyOf(code, 2 * length);
+		}
+		code[length] = (byte) b;
+		length = length + 1;
+	}
+
+	private void put2(int s) {
+		put1(s >> 8);
+		put1(s);
+	}
+
+	private void put4(int i) {
+		put2(i >> 16);
+		put2(i);
+	}
+
+	private static int typeSize(char type) {
+		switch (type) {
+		case 'V':
+			return 0;
+		case 'J':
+		case 'D':
+			return 2;
+		default:
+			return 1;
+		}
+	}
+
+	private static int argumentSize(String descriptor) {
+		var size = 0;
+		var i = 1;
+		while (descriptor.charAt(i) != ')') {
+			var type = descriptor.charAt(i);
+			size = size + typeSize(type);
+			while (descriptor.charAt(i) == '[') {
+				i = i + 1;
+			}
+			if (descriptor.charAt(i) == 'L') {
+				i = descriptor.indexOf(';', i);
+			}
+			i = i + 1;
+		}
+		return size;
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		for (var i = 0; i < fixups.size(); i++) {
+			var fixup = fixups.get(i);
+			var label = fixupLabels.get(i);
+			if (label.position < 0) {
+				throw new IllegalStateException("jump to a label that was never marked");
+			}
+			var offset = label.position - fixup[0];
+			if (fixup[2] == 1) {
+				code[fixup[1]] = (byte) (offset >> 24);
+				code[fixup[1] + 1] = (byte) (offset >> 16);
+				code[fixup[1] + 2] = (byte) (offset >> 8);
+				code[fixup[1] + 3] = (byte) offset;
+			} else {
+				if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+					throw new IllegalStateException("jump too far: " + offset);
+				}
+				code[fixup[1]] = (byte) (offset >> 8);
+				code[fixup[1] + 1] = (byte) offset;
+			}
+		}
+		if (length > 0xFFFF) {
+			throw new IllegalStateException("method too large: " + length + " bytes");
+		}
+
+		out.writeShort(access);
+		out.writeShort(name);
+		out.writeShort(descriptor);
+		out.writeShort(1); // attributes
+		out.writeShort(owner.utf8("Code"));
+		out.writeInt(12 + length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(length);
+		out.write(code, 0, length);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * @(#)AstNodes.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.benchmarks;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+
+import triangle.abstractSyntaxTrees.AbstractSyntaxTree;
+
+/**
+ * Counts the nodes of an abstract syntax tree, by following every field that
+ * holds a node. The tree should be as the parser left it: once checked, its
+ * identifiers point to their declarations, and its types to the standard
+ * environment, which would be counted too.
+ */
+final class AstNodes {
+
+	static int count(AbstractSyntaxTree tree) {
+		var seen = Collections.newSetFromMap(new IdentityHashMap<AbstractSyntaxTree, Boolean>());
+		var work = new ArrayDeque<AbstractSyntaxTree>();
+		work.push(tree);
+		while (!work.isEmpty()) {
+			var node = work.pop();
+			if (!seen.add(node)) {
+				continue;
+			}
+			for (Class<?> type = node.getClass(); type != Object.class; type = type.getSuperclass()) {
+				for (var field : type.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers())
+							|| !AbstractSyntaxTree.class.isAssignableFrom(field.getType())) {
+						continue;
+					}
+					try {
+						field.setAccessible(true);
+						var child = (AbstractSyntaxTree) field.get(node);
+						if (child != null) {
+							work.push(child);
+						}
+					} catch (ReflectiveOperationException | RuntimeException e) {
+						// a field that cannot be read is not counted
+					}
+				}
+			}
+		}
+		return seen.size();
+	}
+}
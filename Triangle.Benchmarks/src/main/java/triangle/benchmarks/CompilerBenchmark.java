@@ -0,0 +1,193 @@
+/*
+ * @(#)CompilerBenchmark.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import triangle.ErrorReporter;
+import triangle.abstractSyntaxTrees.Program;
+import triangle.codeGenerator.Emitter;
+import triangle.codeGenerator.Encoder;
+import triangle.contextualAnalyzer.Checker;
+import triangle.optimiser.ConstantFolder;
+import triangle.syntacticAnalyzer.Parser;
+import triangle.syntacticAnalyzer.Scanner;
+import triangle.syntacticAnalyzer.SourceFile;
+
+/**
+ * Measures each phase of the compiler on its own, and the whole compilation,
+ * over the example programs and over generated programs far larger than any of
+ * them. The source is held in memory, so reading it costs nothing.
+ *
+ * <p>
+ * Beside the compilations per second, each benchmark reports the work done as
+ * rates: tokens scanned, nodes of the syntax tree parsed, checked or folded,
+ * and instructions emitted. Parsing includes scanning, as the parser drives
+ * the scanner. The checker, folder and encoder change the tree they work on,
+ * so each is given a freshly parsed, or parsed and checked, tree every time;
+ * for the smallest programs JMH will warn that this set-up is as costly as the
+ * phase itself.
+ * </p>
+ *
+ * <p>
+ * Run with {@code -prof gc} for the allocation rate of each phase, e.g.
+ * {@code gradle -Pbenchmarks :Triangle.Benchmarks:jmh -PjmhArgs="Compiler -prof gc"}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xss16m")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CompilerBenchmark {
+
+	/**
+	 * An example program, or {@code generated-n} for a generated program of n
+	 * declarations.
+	 */
+	@Param({ "factorials", "arrays", "records", "procedures", "functions", "triangle", "while-longloop",
+			"generated-100", "generated-2000" })
+	public String source;
+
+	byte[] text;
+
+	private long tokens, nodes, instructions;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		text = Programs.text(source);
+		tokens = new Scanner(SourceFile.fromBytes(text)).scanAll();
+		var program = parseText();
+		nodes = AstNodes.count(program);
+		checkTree(program);
+		instructions = encodeTree(program);
+	}
+
+	Program parseText() {
+		return new Parser(new Scanner(SourceFile.fromBytes(text)), new ErrorReporter(true)).parseProgram();
+	}
+
+	static void checkTree(Program program) {
+		new Checker(new ErrorReporter(true)).check(program);
+	}
+
+	static int encodeTree(Program program) {
+		var reporter = new ErrorReporter(true);
+		var emitter = new Emitter(reporter);
+		new Encoder(emitter, reporter).encodeRun(program, false);
+		return emitter.getNextInstrAddr();
+	}
+
+	/**
+	 * The work done, as rates beside the compilations per second.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Work {
+
+		public long tokens, nodes, instructions;
+	}
+
+	/**
+	 * A tree as the parser leaves it, for the checker.
+	 */
+	@State(Scope.Thread)
+	public static class Parsed {
+
+		Program program;
+
+		@Setup(Level.Invocation)
+		public void setUp(CompilerBenchmark benchmark) {
+			program = benchmark.parseText();
+		}
+	}
+
+	/**
+	 * A tree as the checker leaves it, for the folder and the encoder.
+	 */
+	@State(Scope.Thread)
+	public static class Checked {
+
+		Program program;
+
+		@Setup(Level.Invocation)
+		public void setUp(CompilerBenchmark benchmark) {
+			program = benchmark.parseText();
+			checkTree(program);
+		}
+	}
+
+	@Benchmark
+	public int scan(Work work) {
+		work.tokens += tokens;
+		return new Scanner(SourceFile.fromBytes(text)).scanAll();
+	}
+
+	@Benchmark
+	public Program parse(Work work) {
+		work.tokens += tokens;
+		work.nodes += nodes;
+		return parseText();
+	}
+
+	@Benchmark
+	public Program check(Parsed parsed, Work work) {
+		work.nodes += nodes;
+		checkTree(parsed.program);
+		return parsed.program;
+	}
+
+	@Benchmark
+	public Program fold(Checked checked, Work work) {
+		work.nodes += nodes;
+		checked.program.visit(new ConstantFolder());
+		return checked.program;
+	}
+
+	@Benchmark
+	public int encode(Checked checked, Work work) {
+		work.instructions += instructions;
+		return encodeTree(checked.program);
+	}
+
+	@Benchmark
+	public int compile(Work work) {
+		work.tokens += tokens;
+		work.nodes += nodes;
+		work.instructions += instructions;
+		var program = parseText();
+		checkTree(program);
+		return encodeTree(program);
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * @(#)DisplayBenchmark.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import triangle.abstractMachine.CodeSegment;
+import triangle.abstractMachine.Instruction;
+import triangle.abstractMachine.OpCode;
+import triangle.abstractMachine.Primitive;
+import triangle.abstractMachine.Register;
+import triangle.abstractMachine.TamVm;
+import triangle.abstractMachine.VmOptions;
+
+/**
+ * Measures the display cache, which holds L1..L6 for each frame, against
+ * following the static links for every access, on deeply nested code that the
+ * example programs have too little of.
+ *
+ * <p>
+ * The program is seven nested procedures, the innermost reading a local of
+ * each of the six around it through L1..L6, many times over. Run with, e.g.,
+ * {@code -PjmhArgs="Display -p engine=switch"}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DisplayBenchmark {
+
+	/**
+	 * The engine: {@code switch}, the switch loop, or {@code closures}, the
+	 * closure engine. Neither compiles routines to JVM bytecode, which would
+	 * make no use of the display.
+	 */
+	@Param({ "switch", "closures" })
+	public String engine;
+
+	@Param({ "true", "false" })
+	public boolean displayCached;
+
+	/** The calls of the outermost procedure. */
+	@Param({ "2000" })
+	public int calls;
+
+	/** The iterations of the innermost procedure, for each call. */
+	@Param({ "1000" })
+	public int iterations;
+
+	private CodeSegment code;
+
+	private VmOptions options;
+
+	private final PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		var program = nested(calls, iterations);
+		code = CodeSegment.decode(program, program.length);
+		options = new VmOptions();
+		options.setCompileThreshold(0);
+		options.setClosureCompiled(engine.equals("closures"));
+		options.setDisplayCached(displayCached);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int timePerRun() {
+		var status = new TamVm(code, new ByteArrayInputStream(new byte[0]), nowhere, options).run();
+		if (status != TamVm.halted) {
+			throw new IllegalStateException("benchmark program failed: " + status);
+		}
+		return status;
+	}
+
+	// x := 0; repeat calls times p1() where
+	// p1 = let a1 ~ 1 in p2() ... p6 = let a6 ~ 6 in p7() and
+	// p7 = repeat iterations times x := a6 + a5 + a4 + a3 + a2 + a1;
+	// putint(x)
+	private static Instruction[] nested(int calls, int iterations) {
+		var program = new ArrayList<Instruction>();
+		var p1 = 13;
+		var p7 = p1 + 3 * 6;
+
+		program.add(new Instruction(OpCode.LOADL, Register.CB, 0, 0));
+		program.add(new Instruction(OpCode.LOADL, Register.CB, 0, calls));
+		program.add(new Instruction(OpCode.CALL, Register.CB, Register.SB.ordinal(), p1));
+		countDown(program, Register.SB, 1, 2);
+		program.add(new Instruction(OpCode.LOAD, Register.SB, 1, 0));
+		program.add(new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()));
+		program.add(new Instruction(OpCode.HALT, Register.CB, 0, 0));
+
+		for (var level = 1; level < 7; level++) {
+			program.add(new Instruction(OpCode.LOADL, Register.CB, 0, level));
+			program.add(new Instruction(OpCode.CALL, Register.CB, Register.LB.ordinal(), p1 + 3 * level));
+			program.add(new Instruction(OpCode.RETURN, Register.CB, 0, 0));
+		}
+
+		program.add(new Instruction(OpCode.LOADL, Register.CB, 0, iterations));
+		program.add(new Instruction(OpCode.LOAD, Register.L1, 1, 3));
+		for (var level = 2; level <= 6; level++) {
+			program.add(new Instruction(OpCode.LOAD, Register.values()[Register.LB.ordinal() + level], 1, 3));
+			program.add(new Instruction(OpCode.CALL, Register.PB, 0, Primitive.ADD.ordinal()));
+		}
+		program.add(new Instruction(OpCode.STORE, Register.SB, 1, 0));
+		countDown(program, Register.LB, 3, p7 + 1);
+		program.add(new Instruction(OpCode.RETURN, Register.CB, 0, 0));
+		return program.toArray(new Instruction[0]);
+	}
+
+	private static void countDown(ArrayList<Instruction> program, Register r, int d, int loop) {
+		// Decrements the counter at d[r] and jumps back to loop while it is
+		// positive.
+
+		program.add(new Instruction(OpCode.LOAD, r, 1, d));
+		program.add(new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PRED.ordinal()));
+		program.add(new Instruction(OpCode.STORE, r, 1, d));
+		program.add(new Instruction(OpCode.LOAD, r, 1, d));
+		program.add(new Instruction(OpCode.LOADL, Register.CB, 0, 0));
+		program.add(new Instruction(OpCode.CALL, Register.PB, 0, Primitive.GT.ordinal()));
+		program.add(new Instruction(OpCode.JUMPIF, Register.CB, 1, loop));
+	}
+}
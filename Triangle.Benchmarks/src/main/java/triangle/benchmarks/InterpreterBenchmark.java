@@ -0,0 +1,160 @@
+/*
+ * @(#)InterpreterBenchmark.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import triangle.abstractMachine.CodeSegment;
+import triangle.abstractMachine.TamVm;
+import triangle.abstractMachine.VmOptions;
+
+/**
+ * Measures how fast each engine of the TAM interpreter runs the example
+ * programs: the time for a whole run, from a fresh machine to HALT, and the
+ * instructions executed per second.
+ *
+ * <p>
+ * Each program is compiled and decoded once, in the set-up, and shared by the
+ * machines of every run, as the batch runner shares it. The machines read a
+ * fixed input and write to nowhere.
+ * </p>
+ *
+ * <p>
+ * From the top-level folder, run {@code gradle -Pbenchmarks
+ * :Triangle.Benchmarks:jmh}, or {@code mvn -P benchmarks package} then
+ * {@code java -jar Triangle.Benchmarks/target/benchmarks.jar}. JMH options
+ * pick out programs and engines, e.g. {@code -p engine=jit,closures}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xss16m")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class InterpreterBenchmark {
+
+	@Param({ "while-longloop", "factorials", "arrays", "records", "nesting", "procedures", "functions",
+			"triangle" })
+	public String program;
+
+	/**
+	 * The engine: {@code switch}, the switch loop over fused instructions;
+	 * {@code unfused}, the switch loop one TAM instruction at a time;
+	 * {@code closures}, the closure engine; {@code registers}, the register
+	 * engine; {@code jit}, the switch loop with hot routines compiled to JVM
+	 * bytecode; {@code verified}, the switch loop in verified mode.
+	 */
+	@Param({ "switch", "unfused", "closures", "registers", "jit", "verified" })
+	public String engine;
+
+	private CodeSegment code;
+
+	private VmOptions options;
+
+	private long instructionsPerRun;
+
+	private final PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		var program = Programs.compile(this.program);
+		code = CodeSegment.decode(program, program.length, !engine.equals("unfused"));
+		options = new VmOptions();
+		switch (engine) {
+		case "switch":
+		case "unfused":
+			options.setCompileThreshold(0);
+			break;
+		case "closures":
+			options.setCompileThreshold(0);
+			options.setClosureCompiled(true);
+			break;
+		case "registers":
+			options.setCompileThreshold(0);
+			options.setRegisterCompiled(true);
+			break;
+		case "jit":
+			break;
+		case "verified":
+			options.setCompileThreshold(0);
+			options.setVerified(true);
+			code.verify();
+			break;
+		default:
+			throw new IllegalArgumentException("unknown engine " + engine);
+		}
+
+		// A counted run, which costs a little, gives the instructions in each.
+		// Some examples, such as nesting, end by overflowing on purpose; the
+		// work up to that point is measured all the same.
+		var counted = new VmOptions();
+		counted.setCompileThreshold(0);
+		counted.setCounted(true);
+		var vm = new TamVm(code, new ByteArrayInputStream(Programs.input), nowhere, counted);
+		if (vm.run() == TamVm.failedIOError) {
+			throw new IllegalStateException(this.program + " needs more input");
+		}
+		instructionsPerRun = vm.getInstructionCount();
+	}
+
+	/**
+	 * The instructions executed, as a rate beside the runs per second.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Instructions {
+
+		public long instructions;
+	}
+
+	private int runOnce() {
+		return new TamVm(code, new ByteArrayInputStream(Programs.input), nowhere, options).run();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public int timePerRun() {
+		return runOnce();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public int instructionsPerSecond(Instructions counter) {
+		counter.instructions += instructionsPerRun;
+		return runOnce();
+	}
+}
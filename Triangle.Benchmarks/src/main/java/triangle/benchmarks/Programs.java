@@ -0,0 +1,126 @@
+/*
+ * @(#)Programs.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import triangle.ErrorReporter;
+import triangle.ProgramGenerator;
+import triangle.abstractMachine.Instruction;
+import triangle.abstractMachine.Machine;
+import triangle.codeGenerator.Emitter;
+import triangle.codeGenerator.Encoder;
+import triangle.contextualAnalyzer.Checker;
+import triangle.syntacticAnalyzer.Parser;
+import triangle.syntacticAnalyzer.Scanner;
+import triangle.syntacticAnalyzer.SourceFile;
+
+/**
+ * Finds and compiles the example programs the benchmarks run.
+ */
+final class Programs {
+
+	/**
+	 * The folder of example programs, {@code programs} in the folder the
+	 * benchmarks are run from unless the system property
+	 * {@code triangle.programs} says otherwise.
+	 */
+	static Path folder() {
+		return Path.of(System.getProperty("triangle.programs", "programs"));
+	}
+
+	static Path source(String name) {
+		return folder().resolve(name + ".tri");
+	}
+
+	/**
+	 * @param name the name of an example program, without {@code .tri}, or
+	 *             {@code generated-n} for a generated program of n
+	 *             declarations.
+	 * @return the text of the program.
+	 * @throws IllegalArgumentException if the program cannot be read.
+	 */
+	static byte[] text(String name) {
+		if (name.startsWith(generatedPrefix)) {
+			return generate(Integer.parseInt(name.substring(generatedPrefix.length())))
+					.getBytes(StandardCharsets.US_ASCII);
+		}
+		try {
+			return Files.readAllBytes(source(name));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("can't access " + source(name), e);
+		}
+	}
+
+	static final String generatedPrefix = "generated-";
+
+	/**
+	 * Generates a program of the given number of declarations, with the other
+	 * parameters of the generator left as they are, but no nesting. Its
+	 * declarations, beyond the first few variables, are constants and types,
+	 * which emit no code, so the program can be far larger than the example
+	 * programs without overflowing the code store, while the scanner, parser
+	 * and checker have work in proportion to its size.
+	 */
+	static String generate(int declarations) {
+		var generator = new ProgramGenerator(1);
+		generator.setDeclarations(declarations);
+		generator.setNestingDepth(0);
+		return generator.generate();
+	}
+
+	/**
+	 * Input for the programs that read some: a few small numbers, enough times
+	 * over for any of them, then a 0 for those that read until they get one.
+	 * getint leaves the end of its line unread only if there is more on it, so
+	 * a blank line follows each number for a geteol to skip.
+	 */
+	static final byte[] input = ("5\n\n7\n\n3\n\n2\n\n1\n\n9\n\n8\n\n4\n\n6\n\n".repeat(16) + "0\n\n")
+			.getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Compiles the named example program, as the compiler does but without
+	 * writing the object file.
+	 *
+	 * @param name the name of the program, without {@code .tri}.
+	 * @return the instructions of the object program.
+	 * @throws IllegalArgumentException if the program cannot be read or does not
+	 *                                  compile.
+	 */
+	static Instruction[] compile(String name) {
+		var source = SourceFile.fromBytes(text(name));
+		var reporter = new ErrorReporter(true);
+		var parser = new Parser(new Scanner(source), reporter);
+		var checker = new Checker(reporter);
+		var emitter = new Emitter(reporter);
+		var encoder = new Encoder(emitter, reporter);
+
+		var program = parser.parseProgram();
+		checker.check(program);
+		encoder.encodeRun(program, false);
+		if (reporter.getNumErrors() > 0) {
+			throw new IllegalArgumentException(name + " does not compile");
+		}
+		return Arrays.copyOf(Machine.code, emitter.getNextInstrAddr());
+	}
+}
@@ -17,6 +17,7 @@ package triangle;
 import triangle.abstractSyntaxTrees.Program;
 import triangle.codeGenerator.Emitter;
 import triangle.codeGenerator.Encoder;
+import triangle.codeGenerator.JvmEncoder;
 import triangle.contextualAnalyzer.Checker;
 import triangle.optimiser.ConstantFolder;
 import triangle.syntacticAnalyzer.Parser;
@@ -32,15 +33,20 @@ public class Compiler {
 	/** Default output file for TAM object code. */
 	private static String objectName = "obj.tam";
 
-	/** Flags for visualisation and optimisation. */
+	/** Default output file for a JVM jar. */
+	private static final String jarName = "obj.jar";
+
+	/** Flags for visualisation, optimisation and the target. */
 	private static boolean showTree = false;
 	private static boolean folding = false;
+	private static boolean jvm = false;
 
 	/** Compiler components. */
 	private static Scanner scanner;
 	private static Parser parser;
 	private static Checker checker;
 	private static Encoder encoder;
+	private static JvmEncoder jvmEncoder;
 	private static Emitter emitter;
 	private static ErrorReporter reporter;
 	private static Drawer drawer;
@@ -49,10 +55,11 @@ public class Compiler {
 	private static Program theAST;
 
 	/**
-	 * Compile the source program to TAM code.
+	 * Compile the source program to TAM code, or to a runnable jar if the jvm
+	 * flag is set.
 	 *
 	 * @param sourceName   path to the source file (.tri)
-	 * @param objectName   name of the output TAM file
+	 * @param objectName   name of the output TAM file or jar
 	 * @param showingAST   display AST graphically after contextual analysis
 	 * @param showingTable display object details during code generation (unused)
 	 * @return true if compilation succeeds, false otherwise
@@ -76,6 +83,7 @@ public class Compiler {
 		checker = new Checker(reporter);
 		emitter = new Emitter(reporter);
 		encoder = new Encoder(emitter, reporter);
+		jvmEncoder = new JvmEncoder(reporter);
 		drawer = new Drawer();
 
 		// === 1. Parse ===
@@ -97,13 +105,21 @@ public class Compiler {
 		// === 4. Code Generation ===
 		if (reporter.getNumErrors() == 0) {
 			System.out.println("Code Generation ...");
-			encoder.encodeRun(theAST, showingTable);
+			if (jvm) {
+				jvmEncoder.encodeRun(theAST);
+			} else {
+				encoder.encodeRun(theAST, showingTable);
+			}
 		}
 
 		// === 5. Save Output ===
 		boolean success = (reporter.getNumErrors() == 0);
-		if (success) {
+		if (success && jvm) {
+			success = jvmEncoder.saveProgram(objectName);
+		} else if (success) {
 			emitter.saveObjectProgram(objectName);
+		}
+		if (success) {
 			System.out.println("Compilation was successful.");
 		} else {
 			System.out.println("Compilation was unsuccessful.");
@@ -113,11 +129,11 @@ public class Compiler {
 
 	/**
 	 * Entry point for command-line execution.
-	 * Usage:  tc <sourcefile.tri> [-o=output.tam] [tree] [folding]
+	 * Usage:  tc <sourcefile.tri> [-o=output.tam] [tree] [folding] [jvm]
 	 */
 	public static void main(String[] args) {
 		if (args.length < 1) {
-			System.out.println("Usage: tc filename [-o=outputfilename] [tree] [folding]");
+			System.out.println("Usage: tc filename [-o=outputfilename] [tree] [folding] [jvm]");
 			System.exit(1);
 		}
 
@@ -135,15 +151,22 @@ public class Compiler {
 	 * Parse command-line flags.
 	 */
 	private static void parseArgs(String[] args) {
+		boolean named = false;
 		for (String s : args) {
 			String lower = s.toLowerCase();
 			if (lower.equals("tree")) {
 				showTree = true;
 			} else if (lower.startsWith("-o=")) {
 				objectName = s.substring(3);
+				named = true;
 			} else if (lower.equals("folding")) {
 				folding = true;
+			} else if (lower.equals("jvm")) {
+				jvm = true;
 			}
 		}
+		if (jvm && !named) {
+			objectName = jarName;
+		}
 	}
 }
@@ -0,0 +1,535 @@
+/*
+ * @(#)ProgramGenerator.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates valid Triangle programs of a chosen size and shape, for testing
+ * the compiler and the interpreter at scale. The same seed and parameters
+ * always give the same program.
+ *
+ * <p>
+ * A program is a block: declarations, then commands. Each block has the given
+ * number of declarations, mostly constants and types, with at most four
+ * Integer variables, one array and one record, however many declarations
+ * there are; while the nesting depth allows, about one in five is a procedure
+ * or function, whose body is a block of its own, and a command may be a block
+ * too. So the declarations alone may be scaled far beyond what the 1024
+ * instructions of the TAM code store can hold, but the number of blocks grows
+ * as the power of the nesting depth, and only small shapes still fit.
+ * </p>
+ *
+ * <p>
+ * The programs run to completion without failing: every variable is assigned
+ * before it is read, every arithmetic result is taken modulo 100 so nothing
+ * overflows, nothing is divided, arrays are only indexed in range, and every
+ * procedure and function is called exactly once each time its block runs, so
+ * the running time grows with the size of the program and the loop count, not
+ * exponentially with the nesting.
+ * </p>
+ */
+public final class ProgramGenerator {
+
+	private final long seed;
+
+	private int declarations = 8;
+
+	private int nestingDepth = 2;
+
+	private int expressionDepth = 2;
+
+	private int arraySize = 8;
+
+	private int recordSize = 4;
+
+	private int loopCount = 10;
+
+	private int commands = 4;
+
+	private Random random;
+
+	private int names;
+
+	/**
+	 * @param seed the seed of the random choices.
+	 */
+	public ProgramGenerator(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @param declarations the number of declarations in each block, at least 1.
+	 */
+	public void setDeclarations(int declarations) {
+		this.declarations = atLeast(1, declarations, "declarations");
+	}
+
+	/**
+	 * @param nestingDepth how deep blocks, procedures and functions may nest
+	 *                     inside the program, 0 for none.
+	 */
+	public void setNestingDepth(int nestingDepth) {
+		this.nestingDepth = atLeast(0, nestingDepth, "nesting depth");
+	}
+
+	/**
+	 * @param expressionDepth how deep operators may nest in an expression, 0
+	 *                        for single operands.
+	 */
+	public void setExpressionDepth(int expressionDepth) {
+		this.expressionDepth = atLeast(0, expressionDepth, "expression depth");
+	}
+
+	/**
+	 * @param arraySize the number of elements in each array, at least 1.
+	 */
+	public void setArraySize(int arraySize) {
+		this.arraySize = atLeast(1, arraySize, "array size");
+	}
+
+	/**
+	 * @param recordSize the number of fields in each record, at least 1.
+	 */
+	public void setRecordSize(int recordSize) {
+		this.recordSize = atLeast(1, recordSize, "record size");
+	}
+
+	/**
+	 * @param loopCount the number of times each while loop runs.
+	 */
+	public void setLoopCount(int loopCount) {
+		this.loopCount = atLeast(0, loopCount, "loop count");
+	}
+
+	/**
+	 * @param commands the number of commands in each block, besides those
+	 *                 assigning its variables and calling its procedures and
+	 *                 functions.
+	 */
+	public void setCommands(int commands) {
+		this.commands = atLeast(0, commands, "commands");
+	}
+
+	private static int atLeast(int least, int value, String what) {
+		if (value < least) {
+			throw new IllegalArgumentException(what + " must be at least " + least);
+		}
+		return value;
+	}
+
+	/**
+	 * @return the text of the program.
+	 */
+	public String generate() {
+		random = new Random(seed);
+		names = 0;
+		return block(new Scope(), nestingDepth, "", true) + "\n";
+	}
+
+	// BLOCKS
+
+	// What is visible at some point in the program. Only Integer values are
+	// read, and only the procedures and functions declared in a block are
+	// called, by its commands.
+	private static final class Scope {
+
+		// constants, variables, parameters and record fields of type Integer
+		final List<String> values = new ArrayList<>();
+
+		// the variables, var parameters and record fields among those
+		final List<String> targets = new ArrayList<>();
+
+		final List<String> arrays = new ArrayList<>();
+
+		final List<String> arrayTypes = new ArrayList<>();
+
+		// record type names, with their Integer fields
+		final Map<String, List<String>> recordTypes = new HashMap<>();
+
+		final List<String> recordTypeNames = new ArrayList<>();
+
+		final List<String> procs = new ArrayList<>();
+
+		final List<String> funcs = new ArrayList<>();
+
+		Scope child() {
+			var scope = new Scope();
+			scope.values.addAll(values);
+			scope.targets.addAll(targets);
+			scope.arrays.addAll(arrays);
+			scope.arrayTypes.addAll(arrayTypes);
+			scope.recordTypes.putAll(recordTypes);
+			scope.recordTypeNames.addAll(recordTypeNames);
+			return scope;
+		}
+	}
+
+	// The declarations of a block, and the commands that give its variables
+	// their first values.
+	private final class Block {
+
+		final Scope scope;
+
+		final List<String> declarations = new ArrayList<>();
+
+		final List<String> initialisations = new ArrayList<>();
+
+		final String counter;
+
+		int variables, arrays, records;
+
+		Block(Scope scope, boolean commands) {
+			this.scope = scope;
+			this.counter = commands ? name("i") : null;
+			if (commands) {
+				declarations.add("var " + counter + " : Integer");
+			}
+		}
+
+		void declareVariable() {
+			var v = name("v");
+			declarations.add("var " + v + " : Integer");
+			initialisations.add(v + " := " + random.nextInt(100));
+			scope.values.add(v);
+			scope.targets.add(v);
+			variables++;
+		}
+
+		void declareArray() {
+			var a = name("a");
+			var type = scope.arrayTypes.isEmpty() ? "array " + arraySize + " of Integer" : pick(scope.arrayTypes);
+			declarations.add("var " + a + " : " + type);
+			initialisations.add("begin " + counter + " := 0; while " + counter + " < " + arraySize + " do begin " + a
+					+ "[" + counter + "] := " + random.nextInt(100) + "; " + counter + " := " + counter
+					+ " + 1 end end");
+			scope.arrays.add(a);
+			arrays++;
+		}
+
+		void declareRecord() {
+			var r = name("r");
+			List<String> fields;
+			String type;
+			if (scope.recordTypeNames.isEmpty()) {
+				fields = new ArrayList<>();
+				type = recordType(fields);
+			} else {
+				type = pick(scope.recordTypeNames);
+				fields = scope.recordTypes.get(type);
+			}
+			declarations.add("var " + r + " : " + type);
+			for (var field : fields) {
+				initialisations.add(r + "." + field + " := " + random.nextInt(100));
+				scope.values.add(r + "." + field);
+				scope.targets.add(r + "." + field);
+			}
+			records++;
+		}
+	}
+
+	private String block(Scope outer, int depth, String indent, boolean main) {
+		var block = new Block(outer.child(), true);
+		block.declareVariable();
+		for (var d = 1; d < declarations; d++) {
+			var choice = random.nextInt(10);
+			if (depth > 0 && choice < 2) {
+				if (random.nextBoolean()) {
+					block.declarations.add(proc(block.scope, depth, indent + "  "));
+				} else {
+					block.declarations.add(func(block.scope, depth, indent + "  "));
+				}
+			} else if (choice < 5) {
+				block.declarations.add(constant(block.scope));
+			} else if (choice < 7) {
+				block.declarations.add(type(block.scope));
+			} else if (block.variables < 4) {
+				block.declareVariable();
+			} else if (block.arrays < 1) {
+				block.declareArray();
+			} else if (block.records < 1) {
+				block.declareRecord();
+			} else {
+				block.declarations.add(constant(block.scope));
+			}
+		}
+
+		var scope = block.scope;
+		var body = new ArrayList<>(block.initialisations);
+		for (var p : scope.procs) {
+			body.add(p + "(" + expression(scope, expressionDepth) + ", var " + pick(scope.targets) + ")");
+		}
+		for (var f : scope.funcs) {
+			body.add(pick(scope.targets) + " := " + f + "(" + expression(scope, expressionDepth) + ")");
+		}
+		for (var c = 0; c < commands; c++) {
+			body.add(command(block, depth, indent + "    "));
+		}
+		if (main) {
+			for (var v : scope.targets) {
+				body.add("putint(" + v + ")");
+				body.add("puteol()");
+			}
+		}
+
+		var inner = indent + "  ";
+		return "let\n" + inner + String.join(";\n" + inner, block.declarations) + "\n" + indent + "in\n" + inner
+				+ "begin\n" + inner + "  " + String.join(";\n" + inner + "  ", body) + "\n" + inner + "end";
+	}
+
+	// A let expression, for the body of a function: it has no commands, so no
+	// variables and no procedures either.
+	private String letExpression(Scope outer, int depth, String indent) {
+		var block = new Block(outer.child(), false);
+		for (var d = 0; d < declarations; d++) {
+			var choice = random.nextInt(10);
+			if (depth > 0 && choice < 2) {
+				block.declarations.add(func(block.scope, depth, indent + "  "));
+			} else if (choice < 6) {
+				block.declarations.add(constant(block.scope));
+			} else {
+				block.declarations.add(type(block.scope));
+			}
+		}
+		var result = expression(block.scope, expressionDepth);
+		for (var f : block.scope.funcs) {
+			result = "((" + result + " + " + f + "(" + expression(block.scope, expressionDepth) + ")) // 100)";
+		}
+		var inner = indent + "  ";
+		return "let\n" + inner + String.join(";\n" + inner, block.declarations) + "\n" + indent + "in\n" + inner
+				+ result;
+	}
+
+	// DECLARATIONS
+
+	private String constant(Scope scope) {
+		var c = name("c");
+		scope.values.add(c);
+		return "const " + c + " ~ " + random.nextInt(100);
+	}
+
+	private String type(Scope scope) {
+		var t = name("t");
+		if (random.nextBoolean()) {
+			scope.arrayTypes.add(t);
+			return "type " + t + " ~ array " + arraySize + " of Integer";
+		}
+		var fields = new ArrayList<String>();
+		var type = recordType(fields);
+		scope.recordTypes.put(t, fields);
+		scope.recordTypeNames.add(t);
+		return "type " + t + " ~ " + type;
+	}
+
+	// A record type, adding the names of its Integer fields to the list.
+	private String recordType(List<String> integerFields) {
+		var fields = new ArrayList<String>();
+		for (var f = 1; f <= recordSize; f++) {
+			switch (f % 3) {
+			case 1:
+				integerFields.add("f" + f);
+				fields.add("f" + f + " : Integer");
+				break;
+			case 2:
+				fields.add("f" + f + " : Boolean");
+				break;
+			default:
+				fields.add("f" + f + " : Char");
+				break;
+			}
+		}
+		return "record " + String.join(", ", fields) + " end";
+	}
+
+	private String proc(Scope scope, int depth, String indent) {
+		var p = name("p");
+		var x = name("x");
+		var y = name("y");
+		var inner = scope.child();
+		inner.values.add(x);
+		inner.values.add(y);
+		inner.targets.add(y);
+		var body = block(inner, depth - 1, indent + "  ", false);
+		scope.procs.add(p);
+		return "proc " + p + "(" + x + " : Integer, var " + y + " : Integer) ~\n" + indent + "  " + body;
+	}
+
+	private String func(Scope scope, int depth, String indent) {
+		var f = name("f");
+		var x = name("x");
+		var inner = scope.child();
+		inner.values.add(x);
+		var body = depth > 1 || random.nextBoolean() ? letExpression(inner, depth - 1, indent + "  ")
+				: expression(inner, expressionDepth);
+		scope.funcs.add(f);
+		return "func " + f + "(" + x + " : Integer) : Integer ~\n" + indent + "  " + body;
+	}
+
+	// COMMANDS
+
+	private String command(Block block, int depth, String indent) {
+		var scope = block.scope;
+		var choice = random.nextInt(10);
+		if (depth > 0 && choice < 1) {
+			return block(scope, depth - 1, indent, false);
+		} else if (choice < 3) {
+			var body = new ArrayList<String>();
+			body.add(block.counter + " := 0");
+			body.add("while " + block.counter + " < " + loopCount + " do begin " + assignment(scope) + "; "
+					+ assignment(scope) + "; " + block.counter + " := " + block.counter + " + 1 end");
+			return "begin " + String.join("; ", body) + " end";
+		} else if (choice < 5) {
+			return "if " + condition(scope, expressionDepth) + " then " + assignment(scope) + " else "
+					+ assignment(scope);
+		} else {
+			return assignment(scope);
+		}
+	}
+
+	private String assignment(Scope scope) {
+		if (!scope.arrays.isEmpty() && random.nextInt(4) == 0) {
+			return pick(scope.arrays) + "[" + random.nextInt(arraySize) + "] := " + expression(scope, expressionDepth);
+		}
+		return pick(scope.targets) + " := " + expression(scope, expressionDepth);
+	}
+
+	// EXPRESSIONS
+
+	// An Integer expression whose value is between -100 and 100, as are those
+	// of all the variables.
+	private String expression(Scope scope, int depth) {
+		if (depth == 0 || random.nextInt(4) == 0) {
+			var choice = random.nextInt(4);
+			if (choice == 0 && !scope.arrays.isEmpty()) {
+				return pick(scope.arrays) + "[" + random.nextInt(arraySize) + "]";
+			} else if (choice == 1 || scope.values.isEmpty()) {
+				return Integer.toString(random.nextInt(100));
+			} else {
+				return pick(scope.values);
+			}
+		}
+		if (random.nextInt(6) == 0) {
+			return "(if " + condition(scope, depth - 1) + " then " + expression(scope, depth - 1) + " else "
+					+ expression(scope, depth - 1) + ")";
+		}
+		var op = pick(List.of("+", "-", "*"));
+		return "((" + expression(scope, depth - 1) + " " + op + " " + expression(scope, depth - 1) + ") // 100)";
+	}
+
+	private String condition(Scope scope, int depth) {
+		var choice = depth == 0 ? random.nextInt(2) : random.nextInt(5);
+		switch (choice) {
+		case 0:
+			return "(" + expression(scope, depth) + " < " + expression(scope, depth) + ")";
+		case 1:
+			return "(" + expression(scope, depth) + " = " + expression(scope, depth) + ")";
+		case 2:
+			return "\\ " + condition(scope, depth - 1);
+		case 3:
+			return "(" + condition(scope, depth - 1) + " /\\ " + condition(scope, depth - 1) + ")";
+		default:
+			return "(" + condition(scope, depth - 1) + " \\/ " + condition(scope, depth - 1) + ")";
+		}
+	}
+
+	private String name(String prefix) {
+		return prefix + ++names;
+	}
+
+	private <T> T pick(List<T> list) {
+		return list.get(random.nextInt(list.size()));
+	}
+
+	/**
+	 * Writes a generated program to a file, or to standard output.
+	 * Usage: generate [-seed=n] [-declarations=n] [-depth=n] [-expressions=n]
+	 * [-array=n] [-record=n] [-loops=n] [-commands=n] [-o=file.tri]
+	 */
+	public static void main(String[] args) {
+		var seed = 1L;
+		String outputName = null;
+		var settings = new HashMap<String, Integer>();
+		try {
+			for (var s : args) {
+				var lower = s.toLowerCase();
+				if (lower.startsWith("-seed=")) {
+					seed = Long.parseLong(s.substring(6));
+				} else if (lower.startsWith("-o=")) {
+					outputName = s.substring(3);
+				} else if (lower.startsWith("-") && lower.contains("=")) {
+					settings.put(lower.substring(1, lower.indexOf('=')),
+							Integer.parseInt(s.substring(s.indexOf('=') + 1)));
+				} else {
+					throw new IllegalArgumentException("unknown option " + s);
+				}
+			}
+			var generator = new ProgramGenerator(seed);
+			for (var setting : settings.entrySet()) {
+				switch (setting.getKey()) {
+				case "declarations":
+					generator.setDeclarations(setting.getValue());
+					break;
+				case "depth":
+					generator.setNestingDepth(setting.getValue());
+					break;
+				case "expressions":
+					generator.setExpressionDepth(setting.getValue());
+					break;
+				case "array":
+					generator.setArraySize(setting.getValue());
+					break;
+				case "record":
+					generator.setRecordSize(setting.getValue());
+					break;
+				case "loops":
+					generator.setLoopCount(setting.getValue());
+					break;
+				case "commands":
+					generator.setCommands(setting.getValue());
+					break;
+				default:
+					throw new IllegalArgumentException("unknown option -" + setting.getKey());
+				}
+			}
+
+			var text = generator.generate();
+			if (outputName == null) {
+				System.out.print(text);
+			} else {
+				try (var out = new PrintStream(outputName)) {
+					out.print(text);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println("Usage: generate [-seed=n] [-declarations=n] [-depth=n] [-expressions=n] [-array=n]"
+					+ " [-record=n] [-loops=n] [-commands=n] [-o=file.tri]");
+			System.exit(1);
+		} catch (FileNotFoundException e) {
+			System.out.println("Can't write " + outputName);
+			System.exit(1);
+		}
+	}
+}
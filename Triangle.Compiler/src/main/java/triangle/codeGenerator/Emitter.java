@@ -1,13 +1,12 @@
 package triangle.codeGenerator;
 
-import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import triangle.ErrorReporter;
 import triangle.abstractMachine.Instruction;
 import triangle.abstractMachine.Machine;
+import triangle.abstractMachine.ObjectFile;
 import triangle.abstractMachine.OpCode;
 import triangle.abstractMachine.Primitive;
 import triangle.abstractMachine.Register;
@@ -101,16 +100,14 @@ public class Emitter {
 	}
 
 	/**
-	 * Saves the object program in the given object file.
+	 * Saves the object program in the given object file, in the versioned
+	 * format with a checksum.
 	 * 
 	 * @param objectFile the object file
 	 */
 	public void saveObjectProgram(String objectFileName) {
-		try (var objectFile = new FileOutputStream(objectFileName)) {
-			var objectStream = new DataOutputStream(objectFile);
-			for (var addr = Machine.CB; addr < nextInstrAddr; addr++) {
-				Machine.code[addr].write(objectStream);
-			}
+		try {
+			ObjectFile.write(objectFileName, Machine.code, nextInstrAddr, true);
 		} catch (FileNotFoundException fnfe) {
 			System.err.println("Error opening object file: " + fnfe);
 		} catch (IOException ioe) {
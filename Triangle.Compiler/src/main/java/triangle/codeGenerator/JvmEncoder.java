@@ -0,0 +1,1432 @@
+/*
+ * @(#)JvmEncoder.java
+ *
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ *
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.codeGenerator;
+
+import static triangle.abstractMachine.jvm.CodeWriter.*;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import triangle.ErrorReporter;
+import triangle.StdEnvironment;
+import triangle.abstractMachine.JvmRuntime;
+import triangle.abstractMachine.Machine;
+import triangle.abstractMachine.jvm.ClassWriter;
+import triangle.abstractMachine.jvm.CodeWriter;
+import triangle.abstractMachine.jvm.CodeWriter.Label;
+import triangle.abstractSyntaxTrees.AbstractSyntaxTree;
+import triangle.abstractSyntaxTrees.Program;
+import triangle.abstractSyntaxTrees.actuals.ActualParameter;
+import triangle.abstractSyntaxTrees.actuals.ActualParameterSequence;
+import triangle.abstractSyntaxTrees.actuals.ConstActualParameter;
+import triangle.abstractSyntaxTrees.actuals.FuncActualParameter;
+import triangle.abstractSyntaxTrees.actuals.MultipleActualParameterSequence;
+import triangle.abstractSyntaxTrees.actuals.ProcActualParameter;
+import triangle.abstractSyntaxTrees.actuals.SingleActualParameterSequence;
+import triangle.abstractSyntaxTrees.actuals.VarActualParameter;
+import triangle.abstractSyntaxTrees.aggregates.MultipleArrayAggregate;
+import triangle.abstractSyntaxTrees.aggregates.MultipleRecordAggregate;
+import triangle.abstractSyntaxTrees.aggregates.SingleArrayAggregate;
+import triangle.abstractSyntaxTrees.aggregates.SingleRecordAggregate;
+import triangle.abstractSyntaxTrees.commands.AssignCommand;
+import triangle.abstractSyntaxTrees.commands.CallCommand;
+import triangle.abstractSyntaxTrees.commands.EmptyCommand;
+import triangle.abstractSyntaxTrees.commands.IfCommand;
+import triangle.abstractSyntaxTrees.commands.LetCommand;
+import triangle.abstractSyntaxTrees.commands.RepeatCommand;
+import triangle.abstractSyntaxTrees.commands.SequentialCommand;
+import triangle.abstractSyntaxTrees.commands.WhileCommand;
+import triangle.abstractSyntaxTrees.declarations.BinaryOperatorDeclaration;
+import triangle.abstractSyntaxTrees.declarations.ConstDeclaration;
+import triangle.abstractSyntaxTrees.declarations.Declaration;
+import triangle.abstractSyntaxTrees.declarations.FuncDeclaration;
+import triangle.abstractSyntaxTrees.declarations.ProcDeclaration;
+import triangle.abstractSyntaxTrees.declarations.SequentialDeclaration;
+import triangle.abstractSyntaxTrees.declarations.UnaryOperatorDeclaration;
+import triangle.abstractSyntaxTrees.declarations.VarDeclaration;
+import triangle.abstractSyntaxTrees.expressions.ArrayExpression;
+import triangle.abstractSyntaxTrees.expressions.BinaryExpression;
+import triangle.abstractSyntaxTrees.expressions.CallExpression;
+import triangle.abstractSyntaxTrees.expressions.CharacterExpression;
+import triangle.abstractSyntaxTrees.expressions.EmptyExpression;
+import triangle.abstractSyntaxTrees.expressions.Expression;
+import triangle.abstractSyntaxTrees.expressions.IfExpression;
+import triangle.abstractSyntaxTrees.expressions.IntegerExpression;
+import triangle.abstractSyntaxTrees.expressions.LetExpression;
+import triangle.abstractSyntaxTrees.expressions.RecordExpression;
+import triangle.abstractSyntaxTrees.expressions.UnaryExpression;
+import triangle.abstractSyntaxTrees.expressions.VnameExpression;
+import triangle.abstractSyntaxTrees.formals.ConstFormalParameter;
+import triangle.abstractSyntaxTrees.formals.FormalParameter;
+import triangle.abstractSyntaxTrees.formals.FormalParameterSequence;
+import triangle.abstractSyntaxTrees.formals.FuncFormalParameter;
+import triangle.abstractSyntaxTrees.formals.MultipleFormalParameterSequence;
+import triangle.abstractSyntaxTrees.formals.ProcFormalParameter;
+import triangle.abstractSyntaxTrees.formals.SingleFormalParameterSequence;
+import triangle.abstractSyntaxTrees.formals.VarFormalParameter;
+import triangle.abstractSyntaxTrees.terminals.Identifier;
+import triangle.abstractSyntaxTrees.types.ArrayTypeDenoter;
+import triangle.abstractSyntaxTrees.types.FieldTypeDenoter;
+import triangle.abstractSyntaxTrees.types.MultipleFieldTypeDenoter;
+import triangle.abstractSyntaxTrees.types.RecordTypeDenoter;
+import triangle.abstractSyntaxTrees.types.TypeDeclaration;
+import triangle.abstractSyntaxTrees.types.TypeDenoter;
+import triangle.abstractSyntaxTrees.visitors.ActualParameterVisitor;
+import triangle.abstractSyntaxTrees.visitors.ArrayAggregateVisitor;
+import triangle.abstractSyntaxTrees.visitors.CommandVisitor;
+import triangle.abstractSyntaxTrees.visitors.DeclarationVisitor;
+import triangle.abstractSyntaxTrees.visitors.ExpressionVisitor;
+import triangle.abstractSyntaxTrees.visitors.RecordAggregateVisitor;
+import triangle.abstractSyntaxTrees.vnames.DotVname;
+import triangle.abstractSyntaxTrees.vnames.SimpleVname;
+import triangle.abstractSyntaxTrees.vnames.SubscriptVname;
+import triangle.abstractSyntaxTrees.vnames.Vname;
+import triangle.codeGenerator.entities.KnownValue;
+
+/**
+ * Generates a JVM class straight from a checked program, as the
+ * {@link Encoder} generates TAM code.
+ *
+ * <p>
+ * Scalar variables and constants become JVM locals of the method for their
+ * routine, or static fields if they are global and routines use them, so the
+ * JVM sees ordinary int arithmetic on locals rather than a simulated stack.
+ * Constants whose values are known become JVM constants, and each operator is
+ * one or two instructions, or a call of a small method of
+ * {@link JvmRuntime} that the JVM inlines. Each routine is a static method
+ * whose parameters are its arguments.
+ * </p>
+ *
+ * <p>
+ * What needs an address lives in the runtime's store, as it would in TAM:
+ * arrays and records, variables passed as var parameters, and variables that
+ * routines nested in their own routine use. A routine that keeps any of these
+ * pushes a frame on to the store, whose first word links to the frame of the
+ * routine it is declared in. Proc and func parameters are closures of two
+ * words, the frame of the routine passed and its number, and are called
+ * through a method that switches on the number.
+ * </p>
+ *
+ * <p>
+ * Which variables need an address is only known once their uses have been
+ * seen, so the program is encoded twice, and the code of the first pass is
+ * thrown away.
+ * </p>
+ *
+ * <p>
+ * Programs behave as they do on TAM, except where TAM runs out of room: the
+ * store is far larger than TAM's, and routines may nest as deeply as the JVM's
+ * stack allows, beyond which the program fails as if the store were full.
+ * </p>
+ */
+public final class JvmEncoder implements ActualParameterVisitor<Void, Void>, ArrayAggregateVisitor<Void, Void>,
+		CommandVisitor<Void, Void>, DeclarationVisitor<Void, Void>, ExpressionVisitor<Void, Void>,
+		RecordAggregateVisitor<Void, Void> {
+
+	/**
+	 * The internal name of the class generated, whose main method runs the
+	 * program.
+	 */
+	public final static String className = "TriangleProgram";
+
+	private final static String RUNTIME = "triangle/abstractMachine/JvmRuntime";
+
+	// the classes of the runtime, which a jar carries along with the program
+	private final static String[] runtimeClasses = { "JvmRuntime", "JvmRuntime$Failure", "InputBuffer",
+			"OutputBuffer" };
+
+	// where a variable is kept
+	private final static int LOCAL = 0, FIELD = 1, STORE = 2;
+
+	private final static class Slot {
+
+		final int kind;
+
+		final int level;
+
+		final int index; // of a local, or the offset in its frame
+
+		final String field;
+
+		final boolean indirect; // holds the address of the value
+
+		Slot(int kind, int level, int index, String field, boolean indirect) {
+			this.kind = kind;
+			this.level = level;
+			this.index = index;
+			this.field = field;
+			this.indirect = indirect;
+		}
+	}
+
+	// what the first pass finds about a routine, or the main program
+	private final static class Facts {
+
+		boolean nested, pushes;
+
+		final List<Declaration> declarations = new ArrayList<>();
+	}
+
+	// the method being written
+	private final static class Method {
+
+		final AbstractSyntaxTree routine;
+
+		final int level;
+
+		final CodeWriter cw;
+
+		int link = -1, fp = -1, nextLocal;
+
+		int depth; // words of the frame, st - fp
+
+		int frameSize = 1; // the link, and the arguments copied into the frame
+
+		boolean hasFrame;
+
+		Method(AbstractSyntaxTree routine, int level, CodeWriter cw, int nextLocal) {
+			this.routine = routine;
+			this.level = level;
+			this.cw = cw;
+			this.nextLocal = nextLocal;
+		}
+	}
+
+	private record Location(boolean dynamic, int offset) {
+	}
+
+	private final ErrorReporter reporter;
+
+	// found by the first pass
+	private final Set<AbstractSyntaxTree> captured = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	private final Set<AbstractSyntaxTree> addressed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	private final Map<AbstractSyntaxTree, Facts> facts = new IdentityHashMap<>();
+
+	private final Map<AbstractSyntaxTree, Integer> levels = new IdentityHashMap<>();
+
+	// the state of a pass
+	private boolean firstPass;
+
+	private ClassWriter cf;
+
+	private Method method;
+
+	private int names;
+
+	private final Map<AbstractSyntaxTree, Slot> slots = new IdentityHashMap<>();
+
+	private final Map<AbstractSyntaxTree, KnownValue> knownValues = new IdentityHashMap<>();
+
+	private final Map<AbstractSyntaxTree, String> routines = new IdentityHashMap<>();
+
+	private final List<AbstractSyntaxTree> closures = new ArrayList<>();
+
+	private final Map<String, List<AbstractSyntaxTree>> dispatchers = new LinkedHashMap<>();
+
+	private byte[] classFile;
+
+	public JvmEncoder(ErrorReporter reporter) {
+		this.reporter = reporter;
+	}
+
+	/**
+	 * Generates the class for a checked program.
+	 *
+	 * @param program the program.
+	 */
+	public final void encodeRun(Program program) {
+		captured.clear();
+		addressed.clear();
+		facts.clear();
+		levels.clear();
+		firstPass = true;
+		encode(program);
+		firstPass = false;
+		try {
+			classFile = encode(program);
+		} catch (IllegalStateException e) {
+			reporter.reportRestriction("can't generate a JVM class for this program: " + e.getMessage());
+			classFile = null;
+		}
+	}
+
+	/**
+	 * @return the class file generated by the last encodeRun, or null if it
+	 *         could not be generated.
+	 */
+	public byte[] getClassFile() {
+		return classFile;
+	}
+
+	/**
+	 * Saves the program generated as a runnable jar, which also holds the
+	 * runtime it needs.
+	 *
+	 * @param jarName the name of the jar.
+	 * @return true if the jar was written.
+	 */
+	public boolean saveProgram(String jarName) {
+		if (classFile == null) {
+			return false;
+		}
+
+		var manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, className);
+		try (var jar = new JarOutputStream(new FileOutputStream(jarName), manifest)) {
+			jar.putNextEntry(new JarEntry(className + ".class"));
+			jar.write(classFile);
+			jar.closeEntry();
+			for (var name : runtimeClasses) {
+				try (var in = JvmRuntime.class.getResourceAsStream(name + ".class")) {
+					if (in == null) {
+						throw new IOException("cannot find the runtime class " + name);
+					}
+					jar.putNextEntry(new JarEntry("triangle/abstractMachine/" + name + ".class"));
+					jar.write(in.readAllBytes());
+					jar.closeEntry();
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Error writing jar: " + e);
+			return false;
+		}
+		return true;
+	}
+
+	private byte[] encode(Program program) {
+		names = 0;
+		slots.clear();
+		knownValues.clear();
+		routines.clear();
+		closures.clear();
+		dispatchers.clear();
+		elaborateStdEnvironment();
+
+		cf = new ClassWriter(ClassWriter.ACC_PUBLIC | ClassWriter.ACC_FINAL | ClassWriter.ACC_SUPER, className,
+				"java/lang/Object", "java/lang/Runnable");
+
+		var init = cf.addMethod(ClassWriter.ACC_PUBLIC, "<init>", "()V");
+		init.local(ALOAD, 0);
+		init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+		init.op(RETURN);
+
+		var main = cf.addMethod(ClassWriter.ACC_PUBLIC | ClassWriter.ACC_STATIC, "main", "([Ljava/lang/String;)V");
+		main.type(NEW, className);
+		main.op(DUP);
+		main.invoke(INVOKESPECIAL, className, "<init>", "()V");
+		main.field(GETSTATIC, "java/lang/System", "in", "Ljava/io/InputStream;");
+		main.field(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+		main.invoke(INVOKESTATIC, RUNTIME, "execute",
+				"(Ljava/lang/Runnable;Ljava/io/InputStream;Ljava/io/PrintStream;)V");
+		main.op(RETURN);
+
+		// the main program keeps its frame at the bottom of the store
+		method = new Method(program, 0, cf.addMethod(ClassWriter.ACC_PUBLIC, "run", "()V"), 1);
+		method.hasFrame = true;
+		program.C.visit(this);
+		method.cw.op(RETURN);
+
+		writeDispatchers();
+		return cf.toByteArray();
+	}
+
+	private void elaborateStdEnvironment() {
+		knownValues.put(StdEnvironment.falseDecl, new KnownValue(Machine.booleanSize, Machine.falseRep));
+		knownValues.put(StdEnvironment.trueDecl, new KnownValue(Machine.booleanSize, Machine.trueRep));
+		knownValues.put(StdEnvironment.maxintDecl, new KnownValue(Machine.integerSize, Machine.maxintRep));
+	}
+
+	// Commands
+	@Override
+	public Void visitAssignCommand(AssignCommand ast, Void arg) {
+		if (isComposite(ast.E.type)) {
+			var size = ast.E.type.getSize();
+			ast.E.visit(this);
+			encodeAddress(ast.V);
+			method.cw.iconst(size);
+			method.cw.invoke(INVOKESTATIC, RUNTIME, "pop", "(II)V");
+			method.depth = method.depth - size;
+		} else {
+			encodeStore(ast.V, () -> ast.E.visit(this), false);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitCallCommand(CallCommand ast, Void arg) {
+		encodeCall(ast.I, ast.APS);
+		return null;
+	}
+
+	@Override
+	public Void visitEmptyCommand(EmptyCommand ast, Void arg) {
+		return null;
+	}
+
+	@Override
+	public Void visitIfCommand(IfCommand ast, Void arg) {
+		var elseLabel = new Label();
+		var endLabel = new Label();
+		encodeJump(ast.E, false, elseLabel);
+		ast.C1.visit(this);
+		method.cw.jump(GOTO, endLabel);
+		method.cw.mark(elseLabel);
+		ast.C2.visit(this);
+		method.cw.mark(endLabel);
+		return null;
+	}
+
+	@Override
+	public Void visitLetCommand(LetCommand ast, Void arg) {
+		var nextLocal = method.nextLocal;
+		var depth = method.depth;
+		ast.D.visit(this);
+		ast.C.visit(this);
+		if (method.depth != depth) {
+			encodeFrameAddress(depth);
+			method.cw.field(PUTSTATIC, RUNTIME, "st", "I");
+			method.depth = depth;
+		}
+		method.nextLocal = nextLocal;
+		return null;
+	}
+
+	@Override
+	public Void visitRepeatCommand(RepeatCommand ast, Void arg) {
+		var loopLabel = new Label();
+		method.cw.mark(loopLabel);
+		ast.C.visit(this);
+		encodeJump(ast.E, false, loopLabel);
+		return null;
+	}
+
+	@Override
+	public Void visitSequentialCommand(SequentialCommand ast, Void arg) {
+		ast.C1.visit(this);
+		ast.C2.visit(this);
+		return null;
+	}
+
+	@Override
+	public Void visitWhileCommand(WhileCommand ast, Void arg) {
+		var loopLabel = new Label();
+		var testLabel = new Label();
+		method.cw.jump(GOTO, testLabel);
+		method.cw.mark(loopLabel);
+		ast.C.visit(this);
+		method.cw.mark(testLabel);
+		encodeJump(ast.E, true, loopLabel);
+		return null;
+	}
+
+	// Expressions
+	//
+	// A scalar value is left on the JVM stack, and an array or record on the
+	// store.
+
+	@Override
+	public Void visitArrayExpression(ArrayExpression ast, Void arg) {
+		ast.AA.visit(this);
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryExpression(BinaryExpression ast, Void arg) {
+		var cw = method.cw;
+		var decl = ast.O.decl;
+		if ((decl == StdEnvironment.equalDecl || decl == StdEnvironment.unequalDecl) && isComposite(ast.E1.type)) {
+			var size = ast.E1.type.getSize();
+			ast.E1.visit(this);
+			ast.E2.visit(this);
+			cw.iconst(size);
+			cw.invoke(INVOKESTATIC, RUNTIME, "equal", "(I)I");
+			method.depth = method.depth - 2 * size;
+			if (decl == StdEnvironment.unequalDecl) {
+				cw.iconst(1);
+				cw.op(IXOR);
+			}
+			return null;
+		}
+
+		var compare = comparison(decl);
+		if (compare != 0) {
+			var trueLabel = new Label();
+			var endLabel = new Label();
+			ast.E1.visit(this);
+			ast.E2.visit(this);
+			cw.jump(compare, trueLabel);
+			cw.iconst(Machine.falseRep);
+			cw.jump(GOTO, endLabel);
+			cw.mark(trueLabel);
+			cw.iconst(Machine.trueRep);
+			cw.mark(endLabel);
+			return null;
+		}
+
+		ast.E1.visit(this);
+		ast.E2.visit(this);
+		if (decl == StdEnvironment.andDecl) {
+			cw.op(IAND); // both operands are evaluated, as in TAM
+		} else if (decl == StdEnvironment.orDecl) {
+			cw.op(IOR);
+		} else if (decl == StdEnvironment.addDecl) {
+			cw.invoke(INVOKESTATIC, RUNTIME, "add", "(II)I");
+		} else if (decl == StdEnvironment.subtractDecl) {
+			cw.invoke(INVOKESTATIC, RUNTIME, "sub", "(II)I");
+		} else if (decl == StdEnvironment.multiplyDecl) {
+			cw.invoke(INVOKESTATIC, RUNTIME, "mult", "(II)I");
+		} else if (decl == StdEnvironment.divideDecl) {
+			cw.invoke(INVOKESTATIC, RUNTIME, "div", "(II)I");
+		} else if (decl == StdEnvironment.moduloDecl) {
+			cw.invoke(INVOKESTATIC, RUNTIME, "mod", "(II)I");
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitCallExpression(CallExpression ast, Void arg) {
+		encodeCall(ast.I, ast.APS);
+		return null;
+	}
+
+	@Override
+	public Void visitCharacterExpression(CharacterExpression ast, Void arg) {
+		method.cw.iconst(ast.CL.getValue());
+		return null;
+	}
+
+	@Override
+	public Void visitEmptyExpression(EmptyExpression ast, Void arg) {
+		return null;
+	}
+
+	@Override
+	public Void visitIfExpression(IfExpression ast, Void arg) {
+		var elseLabel = new Label();
+		var endLabel = new Label();
+		var depth = method.depth;
+		encodeJump(ast.E1, false, elseLabel);
+		ast.E2.visit(this);
+		method.cw.jump(GOTO, endLabel);
+		method.cw.mark(elseLabel);
+		method.depth = depth;
+		ast.E3.visit(this);
+		method.cw.mark(endLabel);
+		return null;
+	}
+
+	@Override
+	public Void visitIntegerExpression(IntegerExpression ast, Void arg) {
+		method.cw.iconst(ast.IL.getValue());
+		return null;
+	}
+
+	@Override
+	public Void visitLetExpression(LetExpression ast, Void arg) {
+		var nextLocal = method.nextLocal;
+		var depth = method.depth;
+		ast.D.visit(this);
+		var valDepth = method.depth;
+		ast.E.visit(this);
+		if (valDepth != depth) {
+			if (isComposite(ast.type)) {
+				var size = ast.type.getSize();
+				encodeFrameAddress(depth);
+				method.cw.iconst(size);
+				method.cw.invoke(INVOKESTATIC, RUNTIME, "keep", "(II)V");
+				method.depth = depth + size;
+			} else {
+				encodeFrameAddress(depth);
+				method.cw.field(PUTSTATIC, RUNTIME, "st", "I");
+				method.depth = depth;
+			}
+		}
+		method.nextLocal = nextLocal;
+		return null;
+	}
+
+	@Override
+	public Void visitRecordExpression(RecordExpression ast, Void arg) {
+		ast.RA.visit(this);
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpression(UnaryExpression ast, Void arg) {
+		// \ is the only unary operator
+		ast.E.visit(this);
+		method.cw.iconst(1);
+		method.cw.op(IXOR);
+		return null;
+	}
+
+	@Override
+	public Void visitVnameExpression(VnameExpression ast, Void arg) {
+		if (isComposite(ast.type)) {
+			var size = ast.type.getSize();
+			encodeAddress(ast.V);
+			method.cw.iconst(size);
+			method.cw.invoke(INVOKESTATIC, RUNTIME, "push", "(II)V");
+			pushed(size);
+		} else {
+			encodeFetch(ast.V);
+		}
+		return null;
+	}
+
+	// Declarations
+	@Override
+	public Void visitBinaryOperatorDeclaration(BinaryOperatorDeclaration ast, Void arg) {
+		return null;
+	}
+
+	@Override
+	public Void visitConstDeclaration(ConstDeclaration ast, Void arg) {
+		if (ast.E.isLiteral()) {
+			knownValues.put(ast, new KnownValue(ast.E.type.getSize(), ast.E.getValue()));
+			return null;
+		}
+
+		declare(ast);
+		if (isComposite(ast.E.type)) {
+			// the value is left where it is pushed
+			slots.put(ast, new Slot(STORE, method.level, method.depth, null, false));
+			ast.E.visit(this);
+		} else {
+			encodeVariable(ast, () -> ast.E.visit(this));
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitFuncDeclaration(FuncDeclaration ast, Void arg) {
+		encodeRoutine(ast, ast.I, ast.FPS, ast.T, () -> ast.E.visit(this));
+		return null;
+	}
+
+	@Override
+	public Void visitProcDeclaration(ProcDeclaration ast, Void arg) {
+		encodeRoutine(ast, ast.I, ast.FPS, null, () -> ast.C.visit(this));
+		return null;
+	}
+
+	@Override
+	public Void visitSequentialDeclaration(SequentialDeclaration ast, Void arg) {
+		ast.D1.visit(this);
+		ast.D2.visit(this);
+		return null;
+	}
+
+	@Override
+	public Void visitTypeDeclaration(TypeDeclaration ast, Void arg) {
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryOperatorDeclaration(UnaryOperatorDeclaration ast, Void arg) {
+		return null;
+	}
+
+	@Override
+	public Void visitVarDeclaration(VarDeclaration ast, Void arg) {
+		declare(ast);
+		if (isComposite(ast.T)) {
+			var size = ast.T.getSize();
+			slots.put(ast, new Slot(STORE, method.level, method.depth, null, false));
+			method.cw.iconst(size);
+			method.cw.invoke(INVOKESTATIC, RUNTIME, "allocate", "(I)I");
+			method.cw.op(POP);
+			pushed(size);
+		} else {
+			encodeVariable(ast, () -> method.cw.iconst(0));
+		}
+		return null;
+	}
+
+	// Formal Parameters
+	//
+	// Each takes the next argument, of one word or, for a closure, two.
+
+	@Override
+	public Void visitConstFormalParameter(ConstFormalParameter ast, Void arg) {
+		declareFormal(ast, 1, isComposite(ast.T));
+		return null;
+	}
+
+	@Override
+	public Void visitFuncFormalParameter(FuncFormalParameter ast, Void arg) {
+		declareFormal(ast, Machine.closureSize, false);
+		return null;
+	}
+
+	@Override
+	public Void visitProcFormalParameter(ProcFormalParameter ast, Void arg) {
+		declareFormal(ast, Machine.closureSize, false);
+		return null;
+	}
+
+	@Override
+	public Void visitVarFormalParameter(VarFormalParameter ast, Void arg) {
+		declareFormal(ast, Machine.addressSize, true);
+		return null;
+	}
+
+	// Actual Parameters
+	@Override
+	public Void visitConstActualParameter(ConstActualParameter ast, Void arg) {
+		if (isComposite(ast.E.type)) {
+			// passed as the address of a copy
+			method.cw.field(GETSTATIC, RUNTIME, "st", "I");
+		}
+		ast.E.visit(this);
+		return null;
+	}
+
+	@Override
+	public Void visitFuncActualParameter(FuncActualParameter ast, Void arg) {
+		encodeClosure(ast.I);
+		return null;
+	}
+
+	@Override
+	public Void visitProcActualParameter(ProcActualParameter ast, Void arg) {
+		encodeClosure(ast.I);
+		return null;
+	}
+
+	@Override
+	public Void visitVarActualParameter(VarActualParameter ast, Void arg) {
+		if (firstPass) {
+			addressed.add(root(ast.V).I.decl);
+		}
+		encodeAddress(ast.V);
+		return null;
+	}
+
+	// Array and Record Aggregates
+	@Override
+	public Void visitMultipleArrayAggregate(MultipleArrayAggregate ast, Void arg) {
+		encodeElement(ast.E);
+		ast.AA.visit(this);
+		return null;
+	}
+
+	@Override
+	public Void visitSingleArrayAggregate(SingleArrayAggregate ast, Void arg) {
+		encodeElement(ast.E);
+		return null;
+	}
+
+	@Override
+	public Void visitMultipleRecordAggregate(MultipleRecordAggregate ast, Void arg) {
+		encodeElement(ast.E);
+		ast.RA.visit(this);
+		return null;
+	}
+
+	@Override
+	public Void visitSingleRecordAggregate(SingleRecordAggregate ast, Void arg) {
+		encodeElement(ast.E);
+		return null;
+	}
+
+	private void encodeElement(Expression E) {
+		E.visit(this);
+		if (!isComposite(E.type)) {
+			method.cw.invoke(INVOKESTATIC, RUNTIME, "pushWord", "(I)V");
+			pushed(1);
+		}
+	}
+
+	// Routines
+
+	private void encodeRoutine(Declaration ast, Identifier I, FormalParameterSequence FPS, TypeDenoter T,
+			Runnable body) {
+		declare(ast);
+		if (firstPass) {
+			facts(method.routine).nested = true;
+		}
+		var level = method.level + 1;
+		var name = I.spelling + "$" + (++names);
+		routines.put(ast, name);
+
+		var outer = method;
+		var cw = cf.addMethod(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_STATIC, name, descriptor(ast));
+		method = new Method(ast, level, cw, 0);
+		if (level > 1) {
+			method.link = method.nextLocal++;
+		}
+
+		// the arguments arrive in locals; those that need an address are then
+		// copied into the frame
+		var formals = formals(FPS);
+		var arguments = new ArrayList<Integer>();
+		for (var formal : formals) {
+			arguments.add(method.nextLocal);
+			formal.visit(this);
+		}
+		var routineFacts = facts(ast);
+		method.hasFrame = firstPass || routineFacts.nested || routineFacts.pushes || method.frameSize > 1
+				|| routineFacts.declarations.stream().anyMatch(this::inStore);
+		if (method.hasFrame) {
+			method.fp = method.nextLocal++;
+			cw.iconst(method.frameSize);
+			cw.invoke(INVOKESTATIC, RUNTIME, "allocate", "(I)I");
+			cw.local(ISTORE, method.fp);
+			method.depth = method.frameSize;
+			if (method.link >= 0) {
+				encodeStoreWord(0, method.link);
+			}
+			for (var i = 0; i < formals.size(); i++) {
+				var slot = slots.get(formals.get(i));
+				if (slot.kind == STORE) {
+					for (var word = 0; word < size(formals.get(i)); word++) {
+						encodeStoreWord(slot.index + word, arguments.get(i) + word);
+					}
+				}
+			}
+		}
+
+		body.run();
+
+		if (T != null && isComposite(T)) {
+			cw.local(ILOAD, method.fp);
+			cw.iconst(T.getSize());
+			cw.invoke(INVOKESTATIC, RUNTIME, "keep", "(II)V");
+			cw.op(RETURN);
+		} else {
+			if (method.hasFrame) {
+				cw.local(ILOAD, method.fp);
+				cw.field(PUTSTATIC, RUNTIME, "st", "I");
+			}
+			cw.op(T != null ? IRETURN : RETURN);
+		}
+		method = outer;
+	}
+
+	private void declareFormal(FormalParameter ast, int words, boolean indirect) {
+		declare(ast);
+		if (inStore(ast)) {
+			slots.put(ast, new Slot(STORE, method.level, method.frameSize, null, indirect));
+			method.frameSize = method.frameSize + words;
+		} else {
+			slots.put(ast, new Slot(LOCAL, method.level, method.nextLocal, null, indirect));
+		}
+		method.nextLocal = method.nextLocal + words;
+	}
+
+	private void encodeCall(Identifier I, ActualParameterSequence APS) {
+		var decl = I.decl;
+		var actuals = actuals(APS);
+		if (encodePrimitive(decl, actuals)) {
+			return;
+		}
+
+		var cw = method.cw;
+		var depth = method.depth;
+		TypeDenoter result;
+		if (decl instanceof FuncFormalParameter || decl instanceof ProcFormalParameter) {
+			encodeClosure(I);
+			for (var actual : actuals) {
+				actual.visit(this);
+			}
+			var signature = signature(decl);
+			cw.invoke(INVOKESTATIC, className, dispatcher(signature), "(II" + signature.substring(1));
+			result = decl instanceof FuncFormalParameter f ? f.T : null;
+		} else {
+			var level = levels.get(decl);
+			if (level > 0) {
+				encodeFrameBase(level);
+			}
+			for (var actual : actuals) {
+				actual.visit(this);
+			}
+			cw.invoke(INVOKESTATIC, className, routines.get(decl), descriptor(decl));
+			result = decl instanceof FuncDeclaration f ? f.T : null;
+		}
+
+		// pop the copies of composite arguments, keeping a composite result
+		var composite = result != null && isComposite(result);
+		if (method.depth != depth) {
+			if (composite) {
+				encodeFrameAddress(depth);
+				cw.iconst(result.getSize());
+				cw.invoke(INVOKESTATIC, RUNTIME, "keep", "(II)V");
+				method.depth = depth + result.getSize();
+			} else {
+				encodeFrameAddress(depth);
+				cw.field(PUTSTATIC, RUNTIME, "st", "I");
+				method.depth = depth;
+			}
+		} else if (composite) {
+			pushed(result.getSize());
+		}
+	}
+
+	private boolean encodePrimitive(AbstractSyntaxTree decl, List<ActualParameter> actuals) {
+		var cw = method.cw;
+		if (decl == StdEnvironment.getDecl || decl == StdEnvironment.getintDecl) {
+			var name = decl == StdEnvironment.getDecl ? "get" : "getint";
+			encodeStore(((VarActualParameter) actuals.get(0)).V,
+					() -> cw.invoke(INVOKESTATIC, RUNTIME, name, "()I"), true);
+		} else if (decl == StdEnvironment.putDecl || decl == StdEnvironment.putintDecl) {
+			actuals.get(0).visit(this);
+			cw.invoke(INVOKESTATIC, RUNTIME, decl == StdEnvironment.putDecl ? "put" : "putint", "(I)V");
+		} else if (decl == StdEnvironment.geteolDecl || decl == StdEnvironment.puteolDecl) {
+			cw.invoke(INVOKESTATIC, RUNTIME, decl == StdEnvironment.geteolDecl ? "geteol" : "puteol", "()V");
+		} else if (decl == StdEnvironment.chrDecl || decl == StdEnvironment.ordDecl) {
+			actuals.get(0).visit(this);
+		} else if (decl == StdEnvironment.eolDecl || decl == StdEnvironment.eofDecl) {
+			cw.invoke(INVOKESTATIC, RUNTIME, decl == StdEnvironment.eolDecl ? "eol" : "eof", "()I");
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	private boolean isPrimitive(AbstractSyntaxTree decl) {
+		return decl == StdEnvironment.getDecl || decl == StdEnvironment.getintDecl || decl == StdEnvironment.putDecl
+				|| decl == StdEnvironment.putintDecl || decl == StdEnvironment.geteolDecl
+				|| decl == StdEnvironment.puteolDecl || decl == StdEnvironment.chrDecl
+				|| decl == StdEnvironment.ordDecl || decl == StdEnvironment.eolDecl
+				|| decl == StdEnvironment.eofDecl;
+	}
+
+	// Closures
+
+	private void encodeClosure(Identifier I) {
+		// pushes the closure of the named routine: the frame it links to, and
+		// its number
+
+		var decl = I.decl;
+		var cw = method.cw;
+		if (decl instanceof FuncFormalParameter || decl instanceof ProcFormalParameter) {
+			use(decl);
+			var slot = slots.get(decl);
+			for (var word = 0; word < Machine.closureSize; word++) {
+				if (slot.kind == STORE) {
+					var offset = slot.index + word;
+					cw.field(GETSTATIC, RUNTIME, "data", "[I");
+					encodeFrameBase(slot.level);
+					cw.iconst(offset);
+					cw.op(IADD);
+					cw.op(IALOAD);
+				} else {
+					cw.local(ILOAD, slot.index + word);
+				}
+			}
+			return;
+		}
+
+		var level = isPrimitive(decl) ? 0 : levels.get(decl);
+		if (level > 0) {
+			encodeFrameBase(level);
+		} else {
+			cw.iconst(0);
+		}
+		var id = closures.indexOf(decl);
+		if (id < 0) {
+			id = closures.size();
+			closures.add(decl);
+			dispatchers.computeIfAbsent(signature(decl), s -> new ArrayList<>()).add(decl);
+		}
+		cw.iconst(id);
+	}
+
+	private String dispatcher(String signature) {
+		dispatchers.computeIfAbsent(signature, s -> new ArrayList<>());
+		return "dispatch$" + new ArrayList<>(dispatchers.keySet()).indexOf(signature);
+	}
+
+	private void writeDispatchers() {
+		// dispatch$n(link, id, arguments) calls routine number id
+
+		var index = 0;
+		for (var entry : dispatchers.entrySet()) {
+			var signature = entry.getKey();
+			var members = entry.getValue();
+			var cw = cf.addMethod(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_STATIC, "dispatch$" + index,
+					"(II" + signature.substring(1));
+			index = index + 1;
+
+			var words = signature.indexOf(')') - 1;
+			var returns = signature.endsWith("I") ? IRETURN : RETURN;
+			var keys = new int[members.size()];
+			var labels = new Label[keys.length];
+			for (var i = 0; i < keys.length; i++) {
+				keys[i] = closures.indexOf(members.get(i));
+				labels[i] = new Label();
+			}
+			var none = new Label();
+			cw.local(ILOAD, 1);
+			cw.lookupswitch(keys, labels, none);
+			for (var i = 0; i < keys.length; i++) {
+				var decl = members.get(i);
+				cw.mark(labels[i]);
+				String name, descriptor;
+				if (isPrimitive(decl)) {
+					name = primitiveRoutine(decl, signature);
+					descriptor = signature;
+				} else {
+					name = routines.get(decl);
+					descriptor = descriptor(decl);
+					if (levels.get(decl) > 0) {
+						cw.local(ILOAD, 0);
+					}
+				}
+				for (var word = 0; word < words; word++) {
+					cw.local(ILOAD, 2 + word);
+				}
+				cw.invoke(INVOKESTATIC, className, name, descriptor);
+				cw.op(returns);
+			}
+			cw.mark(none);
+			if (returns == IRETURN) {
+				cw.iconst(0);
+			}
+			cw.op(returns);
+		}
+	}
+
+	private String primitiveRoutine(AbstractSyntaxTree decl, String signature) {
+		// writes a method doing what a standard routine passed as an argument
+		// does
+
+		var I = decl instanceof ProcDeclaration p ? p.I : ((FuncDeclaration) decl).I;
+		var name = I.spelling + "$std";
+		var outer = method;
+		method = new Method(decl, 1, cf.addMethod(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_STATIC, name, signature),
+				signature.indexOf(')') - 1);
+		var cw = method.cw;
+		if (decl == StdEnvironment.getDecl || decl == StdEnvironment.getintDecl) {
+			cw.field(GETSTATIC, RUNTIME, "data", "[I");
+			cw.local(ILOAD, 0);
+			cw.invoke(INVOKESTATIC, RUNTIME, decl == StdEnvironment.getDecl ? "get" : "getint", "()I");
+			cw.op(IASTORE);
+		} else if (decl == StdEnvironment.putDecl || decl == StdEnvironment.putintDecl) {
+			cw.local(ILOAD, 0);
+			cw.invoke(INVOKESTATIC, RUNTIME, decl == StdEnvironment.putDecl ? "put" : "putint", "(I)V");
+		} else if (decl == StdEnvironment.chrDecl || decl == StdEnvironment.ordDecl) {
+			cw.local(ILOAD, 0);
+		} else {
+			encodePrimitive(decl, List.of());
+		}
+		cw.op(signature.endsWith("I") ? IRETURN : RETURN);
+		method = outer;
+		return name;
+	}
+
+	// Conditions
+
+	private void encodeJump(Expression E, boolean when, Label target) {
+		// jumps to the target if the condition is the given truth value
+
+		var cw = method.cw;
+		if (E instanceof BinaryExpression b && comparison(b.O.decl) != 0 && !isComposite(b.E1.type)) {
+			b.E1.visit(this);
+			b.E2.visit(this);
+			cw.jump(when ? comparison(b.O.decl) : inverse(comparison(b.O.decl)), target);
+		} else if (E instanceof UnaryExpression u) {
+			encodeJump(u.E, !when, target);
+		} else {
+			E.visit(this);
+			cw.jump(when ? IFNE : IFEQ, target);
+		}
+	}
+
+	private static int comparison(AbstractSyntaxTree decl) {
+		if (decl == StdEnvironment.lessDecl) {
+			return IF_ICMPLT;
+		} else if (decl == StdEnvironment.notgreaterDecl) {
+			return IF_ICMPLE;
+		} else if (decl == StdEnvironment.greaterDecl) {
+			return IF_ICMPGT;
+		} else if (decl == StdEnvironment.notlessDecl) {
+			return IF_ICMPGE;
+		} else if (decl == StdEnvironment.equalDecl) {
+			return IF_ICMPEQ;
+		} else if (decl == StdEnvironment.unequalDecl) {
+			return IF_ICMPNE;
+		}
+		return 0;
+	}
+
+	private static int inverse(int comparison) {
+		switch (comparison) {
+		case IF_ICMPLT:
+			return IF_ICMPGE;
+		case IF_ICMPGE:
+			return IF_ICMPLT;
+		case IF_ICMPLE:
+			return IF_ICMPGT;
+		case IF_ICMPGT:
+			return IF_ICMPLE;
+		case IF_ICMPEQ:
+			return IF_ICMPNE;
+		default:
+			return IF_ICMPEQ;
+		}
+	}
+
+	// Variables
+
+	private void declare(Declaration ast) {
+		levels.put(ast, method.level);
+		if (firstPass) {
+			facts(method.routine).declarations.add(ast);
+		}
+	}
+
+	private void encodeVariable(Declaration ast, Runnable value) {
+		// makes a place for a scalar variable or constant, and initialises it
+
+		var cw = method.cw;
+		if (inStore(ast)) {
+			slots.put(ast, new Slot(STORE, method.level, method.depth, null, false));
+			value.run();
+			cw.invoke(INVOKESTATIC, RUNTIME, "pushWord", "(I)V");
+			pushed(1);
+		} else if (method.level == 0 && !firstPass && captured.contains(ast)) {
+			var name = name(ast) + "$" + (++names);
+			cf.addField(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_STATIC, name, "I");
+			slots.put(ast, new Slot(FIELD, 0, 0, name, false));
+			value.run();
+			cw.field(PUTSTATIC, className, name, "I");
+		} else {
+			var local = method.nextLocal++;
+			slots.put(ast, new Slot(LOCAL, method.level, local, null, false));
+			value.run();
+			cw.local(ISTORE, local);
+		}
+	}
+
+	private boolean inStore(Declaration decl) {
+		// whether the variable needs an address, or must be reached from
+		// other routines' frames
+
+		var composite = false;
+		var indirect = false;
+		if (decl instanceof VarDeclaration v) {
+			composite = isComposite(v.T);
+		} else if (decl instanceof ConstDeclaration c) {
+			if (c.E.isLiteral()) {
+				return false;
+			}
+			composite = isComposite(c.E.type);
+		} else if (decl instanceof ConstFormalParameter f) {
+			indirect = isComposite(f.T);
+		} else if (decl instanceof VarFormalParameter) {
+			indirect = true;
+		} else if (!(decl instanceof FuncFormalParameter || decl instanceof ProcFormalParameter)) {
+			return false;
+		}
+
+		if (composite && !indirect) {
+			return true;
+		}
+		if (firstPass) {
+			return false;
+		}
+		if (addressed.contains(decl) && !indirect) {
+			return true;
+		}
+		return levels.get(decl) > 0 && captured.contains(decl);
+	}
+
+	private void use(AbstractSyntaxTree decl) {
+		var level = levels.get(decl);
+		if (firstPass && level != null && level != method.level) {
+			captured.add(decl);
+		}
+	}
+
+	private void pushed(int words) {
+		method.depth = method.depth + words;
+		if (firstPass && words > 0) {
+			facts(method.routine).pushes = true;
+		}
+	}
+
+	private Facts facts(AbstractSyntaxTree routine) {
+		return facts.computeIfAbsent(routine, r -> new Facts());
+	}
+
+	private void encodeFetch(Vname V) {
+		if (V instanceof SimpleVname s) {
+			var decl = s.I.decl;
+			var known = knownValues.get(decl);
+			if (known != null) {
+				method.cw.iconst(known.getValue());
+				return;
+			}
+			use(decl);
+			var slot = slots.get(decl);
+			if (slot != null && !slot.indirect && slot.kind == LOCAL) {
+				method.cw.local(ILOAD, slot.index);
+				return;
+			} else if (slot != null && slot.kind == FIELD) {
+				method.cw.field(GETSTATIC, className, slot.field, "I");
+				return;
+			}
+		}
+		method.cw.field(GETSTATIC, RUNTIME, "data", "[I");
+		encodeAddress(V);
+		method.cw.op(IALOAD);
+	}
+
+	private void encodeStore(Vname V, Runnable value, boolean addressFirst) {
+		var cw = method.cw;
+		if (V instanceof SimpleVname s) {
+			var decl = s.I.decl;
+			use(decl);
+			var slot = slots.get(decl);
+			if (slot != null && !slot.indirect && slot.kind == LOCAL) {
+				value.run();
+				cw.local(ISTORE, slot.index);
+				return;
+			} else if (slot != null && slot.kind == FIELD) {
+				value.run();
+				cw.field(PUTSTATIC, className, slot.field, "I");
+				return;
+			}
+		}
+		cw.field(GETSTATIC, RUNTIME, "data", "[I");
+		if (addressFirst) {
+			encodeAddress(V);
+			value.run();
+		} else {
+			// the value is evaluated before the address, as in TAM
+			value.run();
+			encodeAddress(V);
+			cw.op(SWAP);
+		}
+		cw.op(IASTORE);
+	}
+
+	private void encodeStoreWord(int offset, int local) {
+		// stores a local at the given offset in the current frame
+
+		var cw = method.cw;
+		cw.field(GETSTATIC, RUNTIME, "data", "[I");
+		encodeFrameAddress(offset);
+		cw.local(ILOAD, local);
+		cw.op(IASTORE);
+	}
+
+	private void encodeAddress(Vname V) {
+		var location = locate(V);
+		if (!location.dynamic()) {
+			method.cw.iconst(location.offset());
+		} else if (location.offset() != 0) {
+			method.cw.iconst(location.offset());
+			method.cw.op(IADD);
+		}
+	}
+
+	private Location locate(Vname V) {
+		// pushes what is not known of the address of the variable, and returns
+		// what is
+
+		var cw = method.cw;
+		if (V instanceof DotVname d) {
+			var location = locate(d.V);
+			return new Location(location.dynamic(),
+					location.offset() + fieldOffset(((RecordTypeDenoter) d.V.type).FT, d.I.spelling));
+		} else if (V instanceof SubscriptVname s) {
+			var location = locate(s.V);
+			var elemSize = s.type.getSize();
+			if (s.E.isLiteral()) {
+				return new Location(location.dynamic(), location.offset() + s.E.getValue() * elemSize);
+			}
+			s.E.visit(this);
+			if (elemSize != 1) {
+				cw.iconst(elemSize);
+				cw.op(IMUL);
+			}
+			if (location.dynamic()) {
+				cw.op(IADD);
+			}
+			return new Location(true, location.offset());
+		}
+
+		var decl = ((SimpleVname) V).I.decl;
+		use(decl);
+		var slot = slots.get(decl);
+		if (slot == null || (slot.kind != STORE && !slot.indirect)) {
+			// only in the first pass, before the variable is known to need an
+			// address
+			return new Location(false, 0);
+		}
+		if (slot.kind == LOCAL) {
+			cw.local(ILOAD, slot.index);
+			return new Location(true, 0);
+		}
+		if (slot.indirect) {
+			cw.field(GETSTATIC, RUNTIME, "data", "[I");
+			encodeFrameBase(slot.level);
+			cw.iconst(slot.index);
+			cw.op(IADD);
+			cw.op(IALOAD);
+			return new Location(true, 0);
+		}
+		if (slot.level == 0) {
+			return new Location(false, slot.index);
+		}
+		encodeFrameBase(slot.level);
+		return new Location(true, slot.index);
+	}
+
+	private void encodeFrameBase(int level) {
+		// pushes the address of the frame of the routine at the given level
+		// that encloses the current one
+
+		var cw = method.cw;
+		if (level == 0) {
+			cw.iconst(0);
+		} else if (level == method.level) {
+			cw.local(ILOAD, method.fp);
+		} else {
+			cw.local(ILOAD, method.link);
+			for (var l = method.level - 1; l > level; l--) {
+				cw.field(GETSTATIC, RUNTIME, "data", "[I");
+				cw.op(SWAP);
+				cw.op(IALOAD);
+			}
+		}
+	}
+
+	private void encodeFrameAddress(int offset) {
+		// pushes the address of the given offset in the current frame
+
+		if (method.level == 0) {
+			method.cw.iconst(offset);
+		} else {
+			encodeFrameBase(method.level);
+			if (offset != 0) {
+				method.cw.iconst(offset);
+				method.cw.op(IADD);
+			}
+		}
+	}
+
+	// Types and signatures
+
+	private static boolean isComposite(TypeDenoter type) {
+		return type instanceof ArrayTypeDenoter || type instanceof RecordTypeDenoter;
+	}
+
+	private static int fieldOffset(FieldTypeDenoter FT, String spelling) {
+		var offset = 0;
+		while (FT instanceof MultipleFieldTypeDenoter m) {
+			if (m.I.spelling.equals(spelling)) {
+				return offset;
+			}
+			offset = offset + m.T.getSize();
+			FT = m.FT;
+		}
+		return offset; // the single field that remains
+	}
+
+	private static int size(FormalParameter formal) {
+		return formal instanceof FuncFormalParameter || formal instanceof ProcFormalParameter ? Machine.closureSize
+				: 1;
+	}
+
+	private static String name(Declaration decl) {
+		if (decl instanceof VarDeclaration v) {
+			return v.I.spelling;
+		}
+		return ((ConstDeclaration) decl).I.spelling;
+	}
+
+	private static List<FormalParameter> formals(FormalParameterSequence FPS) {
+		var formals = new ArrayList<FormalParameter>();
+		while (FPS instanceof MultipleFormalParameterSequence m) {
+			formals.add(m.FP);
+			FPS = m.FPS;
+		}
+		if (FPS instanceof SingleFormalParameterSequence s) {
+			formals.add(s.FP);
+		}
+		return formals;
+	}
+
+	private static List<ActualParameter> actuals(ActualParameterSequence APS) {
+		var actuals = new ArrayList<ActualParameter>();
+		while (APS instanceof MultipleActualParameterSequence m) {
+			actuals.add(m.AP);
+			APS = m.APS;
+		}
+		if (APS instanceof SingleActualParameterSequence s) {
+			actuals.add(s.AP);
+		}
+		return actuals;
+	}
+
+	private static SimpleVname root(Vname V) {
+		while (!(V instanceof SimpleVname)) {
+			V = V instanceof DotVname d ? d.V : ((SubscriptVname) V).V;
+		}
+		return (SimpleVname) V;
+	}
+
+	private static String signature(AbstractSyntaxTree decl) {
+		// the descriptor of the routine's method, without its link
+
+		FormalParameterSequence FPS;
+		TypeDenoter T = null;
+		if (decl instanceof ProcDeclaration p) {
+			FPS = p.FPS;
+		} else if (decl instanceof FuncDeclaration f) {
+			FPS = f.FPS;
+			T = f.T;
+		} else if (decl instanceof ProcFormalParameter p) {
+			FPS = p.FPS;
+		} else {
+			FPS = ((FuncFormalParameter) decl).FPS;
+			T = ((FuncFormalParameter) decl).T;
+		}
+
+		var signature = new StringBuilder("(");
+		for (var formal : formals(FPS)) {
+			signature.append(size(formal) == 1 ? "I" : "II");
+		}
+		signature.append(T == null || isComposite(T) ? ")V" : ")I");
+		return signature.toString();
+	}
+
+	private String descriptor(AbstractSyntaxTree decl) {
+		var signature = signature(decl);
+		return levels.get(decl) > 0 ? "(I" + signature.substring(1) : signature;
+	}
+}
@@ -54,6 +54,20 @@ public final class Scanner {
 		debug = true;
 	}
 
+	/**
+	 * Scans the rest of the source, for when only the number of tokens matters,
+	 * e.g. to measure the scanner on its own.
+	 *
+	 * @return the number of tokens, not counting the end of the source.
+	 */
+	public int scanAll() {
+		int count = 0;
+		while (scan().kind != Token.Kind.EOT) {
+			count++;
+		}
+		return count;
+	}
+
 	// takeIt appends the current character to the current token, and gets
 	// the next character from the source program.
 
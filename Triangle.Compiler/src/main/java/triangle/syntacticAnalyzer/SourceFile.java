@@ -47,6 +47,16 @@ public class SourceFile {
 		return sf;
 	}
 
+	/**
+	 * @param text the source program, held in memory rather than read from a
+	 *             file, e.g. when it was generated.
+	 */
+	public static SourceFile fromBytes(byte[] text) {
+		SourceFile sf = new SourceFile();
+		sf.source = new java.io.ByteArrayInputStream(text);
+		return sf;
+	}
+
 	private SourceFile() {
 		currentLine = 1;
 	}
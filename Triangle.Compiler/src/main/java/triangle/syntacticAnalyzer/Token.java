@@ -120,6 +120,6 @@ final class Token {
 
 		/** Defines the start and end of the reserved word range. */
 		private static final Kind firstReservedWord = ARRAY;
-		private static final Kind lastReservedWord  = UNTIL;
+		private static final Kind lastReservedWord  = WHILE;
 	}
 }
@@ -0,0 +1,74 @@
+package triangle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import triangle.abstractMachine.Machine;
+import triangle.abstractSyntaxTrees.Program;
+import triangle.codeGenerator.Emitter;
+import triangle.codeGenerator.Encoder;
+import triangle.contextualAnalyzer.Checker;
+import triangle.syntacticAnalyzer.Parser;
+import triangle.syntacticAnalyzer.Scanner;
+import triangle.syntacticAnalyzer.SourceFile;
+
+public class TestProgramGenerator {
+
+	@Test
+	public void testSameSeedSameProgram() {
+		assertEquals(new ProgramGenerator(42).generate(), new ProgramGenerator(42).generate());
+		assertNotEquals(new ProgramGenerator(42).generate(), new ProgramGenerator(43).generate());
+
+		ProgramGenerator generator = new ProgramGenerator(7);
+		assertEquals(generator.generate(), generator.generate());
+	}
+
+	@Test
+	public void testDefaultShapeCompiles() {
+		// the default shape fits in the code store, so the programs can be run too
+		for (int seed = 1; seed <= 20; seed++) {
+			int instructions = compile(new ProgramGenerator(seed).generate());
+			assertTrue("seed " + seed + " needs " + instructions + " instructions", instructions < Machine.PB);
+		}
+	}
+
+	@Test
+	public void testShapes() {
+		for (int seed = 1; seed <= 5; seed++) {
+			ProgramGenerator generator = new ProgramGenerator(seed);
+			generator.setDeclarations(3);
+			generator.setNestingDepth(4);
+			generator.setExpressionDepth(1);
+			generator.setCommands(1);
+			check(generator.generate());
+
+			generator = new ProgramGenerator(seed);
+			generator.setNestingDepth(0);
+			generator.setDeclarations(500);
+			generator.setExpressionDepth(6);
+			generator.setArraySize(100);
+			generator.setRecordSize(20);
+			generator.setLoopCount(1000);
+			check(generator.generate());
+		}
+	}
+
+	private Program check(String text) {
+		ErrorReporter reporter = new ErrorReporter(true);
+		Program program = new Parser(new Scanner(SourceFile.fromBytes(text.getBytes())), reporter).parseProgram();
+		new Checker(reporter).check(program);
+		assertEquals(0, reporter.getNumErrors());
+		return program;
+	}
+
+	private int compile(String text) {
+		Program program = check(text);
+		ErrorReporter reporter = new ErrorReporter(true);
+		Emitter emitter = new Emitter(reporter);
+		new Encoder(emitter, reporter).encodeRun(program, false);
+		return emitter.getNextInstrAddr();
+	}
+}
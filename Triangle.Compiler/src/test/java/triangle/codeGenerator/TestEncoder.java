@@ -0,0 +1,59 @@
+package triangle.codeGenerator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import triangle.ErrorReporter;
+import triangle.abstractMachine.CodeSegment;
+import triangle.abstractMachine.Instruction;
+import triangle.abstractMachine.Machine;
+import triangle.abstractMachine.TamVm;
+import triangle.abstractSyntaxTrees.Program;
+import triangle.contextualAnalyzer.Checker;
+import triangle.syntacticAnalyzer.Parser;
+import triangle.syntacticAnalyzer.Scanner;
+import triangle.syntacticAnalyzer.SourceFile;
+
+public class TestEncoder {
+
+	@Test
+	public void testVarParameter() {
+		// reading through a var parameter loads the whole value, whether a
+		// word, a field of a record, or the record itself
+		String text = String.join("\n",
+				"let",
+				"  type Pt ~ record x : Integer, y : Integer end;",
+				"  var n : Integer;",
+				"  var p : Pt;",
+				"  proc show (var m : Integer, var q : Pt) ~",
+				"    let var r : Pt in",
+				"    begin r := q; putint (m + 1); put (' '); putint (q.y); put (' '); putint (r.x) end",
+				"in",
+				"  begin n := 41; p := {x ~ 3, y ~ 4}; show (var n, var p) end");
+		assertEquals("42 4 3", run(compile(text)));
+	}
+
+	private static Instruction[] compile(String text) {
+		ErrorReporter reporter = new ErrorReporter(true);
+		Program program = new Parser(new Scanner(SourceFile.fromBytes(text.getBytes())), reporter).parseProgram();
+		new Checker(reporter).check(program);
+		Emitter emitter = new Emitter(reporter);
+		new Encoder(emitter, reporter).encodeRun(program, false);
+		assertEquals(0, reporter.getNumErrors());
+		return Arrays.copyOf(Machine.code, emitter.getNextInstrAddr());
+	}
+
+	private static String run(Instruction[] program) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TamVm vm = new TamVm(CodeSegment.decode(program, program.length), new ByteArrayInputStream(new byte[0]),
+				new PrintStream(output));
+		assertEquals(TamVm.halted, vm.run());
+		return output.toString();
+	}
+}
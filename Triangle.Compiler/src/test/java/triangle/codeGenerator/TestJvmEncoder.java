@@ -0,0 +1,149 @@
+package triangle.codeGenerator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import triangle.ErrorReporter;
+import triangle.abstractMachine.JvmRuntime;
+import triangle.abstractSyntaxTrees.Program;
+import triangle.contextualAnalyzer.Checker;
+import triangle.syntacticAnalyzer.Parser;
+import triangle.syntacticAnalyzer.Scanner;
+import triangle.syntacticAnalyzer.SourceFile;
+
+public class TestJvmEncoder {
+
+	// routines nested in routines, closures, and arrays and records passed
+	// and returned
+	private static final String NESTED = String.join("\n",
+			"let",
+			"  type Pt ~ record x : Integer, y : Integer end;",
+			"  var row : array 3 of Pt;",
+			"  func swap (p : Pt) : Pt ~ {x ~ p.y, y ~ p.x};",
+			"  func twice (func f (n : Integer) : Integer, n : Integer) : Integer ~ f (f (n));",
+			"  proc bump (var n : Integer) ~ n := n + 1;",
+			"  proc outer (k : Integer) ~",
+			"    let",
+			"      var acc : Integer;",
+			"      func add (n : Integer) : Integer ~ acc + n * k",
+			"    in",
+			"      begin acc := 1; acc := twice (func add, 2); bump (var acc); putint (acc) end",
+			"in",
+			"  begin",
+			"    row := [{x ~ 1, y ~ 2}, swap ({x ~ 3, y ~ 4}), {x ~ 5, y ~ 6}];",
+			"    putint (row[1].x); bump (var row[2].y); putint (row[2].y);",
+			"    if swap (row[0]) = {x ~ 2, y ~ 1} then put ('T') else put ('F');",
+			"    outer (3)",
+			"  end");
+
+	@Test
+	public void testNested() throws Exception {
+		// operators associate to the left, so add (n) is (acc + n) * k: twice
+		// gives (1 + 9) * 3, which bump makes 31
+		assertEquals("47T31", output(run(compile(NESTED), "")));
+	}
+
+	@Test
+	public void testInput() throws Exception {
+		String text = "let var n : Integer; var c : Char in "
+				+ "begin getint (var n); get (var c); get (var c); putint (n * 2); put (c) end";
+		// getint reads the character after the digits
+		assertEquals("enter int: \n84x", output(run(compile(text), "42 \nx")));
+	}
+
+	@Test
+	public void testFailures() throws Exception {
+		assertTrue(run(compile("putint (maxint + 1)"), "").endsWith("Program has failed due to overflow.\n"));
+		assertTrue(run(compile("let var z : Integer in begin z := 0; putint (1 / z) end"), "")
+				.endsWith("Program has failed due to division by zero.\n"));
+		assertTrue(run(compile("let proc r (n : Integer) ~ r (n + 1) in r (0)"), "")
+				.endsWith("Program has failed due to exhaustion of Data Store.\n"));
+	}
+
+	@Test
+	public void testScalarsStayInLocals() throws Exception {
+		// nothing needs an address, so nothing goes to the store
+		byte[] classFile = compile("let var a : Integer; var b : Integer in "
+				+ "begin a := 0; b := 0; while a < 10 do begin b := b + a; a := a + 1 end; putint (b) end");
+		assertFalse(new String(classFile, StandardCharsets.ISO_8859_1).contains("allocate"));
+		assertEquals("45", output(run(classFile, "")));
+	}
+
+	@Test
+	public void testSampleProgram() throws Exception {
+		assertEquals("enter int: \n5! = 120", output(run(compile(read("/factorials.tri")), "5\n")));
+	}
+
+	@Test
+	public void testJarRuns() throws Exception {
+		File jar = File.createTempFile("triangle", ".jar");
+		jar.deleteOnExit();
+		JvmEncoder encoder = new JvmEncoder(new ErrorReporter(true));
+		encoder.encodeRun(check("putint (6 * 7)"));
+		assertTrue(encoder.saveProgram(jar.getPath()));
+
+		// the jar carries its own runtime
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { jar.toURI().toURL() },
+				ClassLoader.getPlatformClassLoader())) {
+			assertNotNull(loader.loadClass(JvmEncoder.className).getMethod("main", String[].class));
+			assertEquals(loader, loader.loadClass(JvmRuntime.class.getName()).getClassLoader());
+		}
+	}
+
+	private static String read(String name) throws IOException {
+		try (InputStream in = TestJvmEncoder.class.getResourceAsStream(name)) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static Program check(String text) {
+		ErrorReporter reporter = new ErrorReporter(true);
+		Program program = new Parser(new Scanner(SourceFile.fromBytes(text.getBytes())), reporter).parseProgram();
+		new Checker(reporter).check(program);
+		assertEquals(0, reporter.getNumErrors());
+		return program;
+	}
+
+	private static byte[] compile(String text) {
+		JvmEncoder encoder = new JvmEncoder(new ErrorReporter(true));
+		encoder.encodeRun(check(text));
+		assertNotNull(encoder.getClassFile());
+		return encoder.getClassFile();
+	}
+
+	private static String run(byte[] classFile, String input) throws Exception {
+		ClassLoader loader = new ClassLoader(TestJvmEncoder.class.getClassLoader()) {
+			@Override
+			protected Class<?> findClass(String name) throws ClassNotFoundException {
+				if (!name.equals(JvmEncoder.className)) {
+					throw new ClassNotFoundException(name);
+				}
+				return defineClass(name, classFile, 0, classFile.length);
+			}
+		};
+		Runnable program = (Runnable) loader.loadClass(JvmEncoder.className).getConstructor().newInstance();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JvmRuntime.execute(program, new ByteArrayInputStream(input.getBytes()), new PrintStream(out, true));
+		return out.toString().replace(System.lineSeparator(), "\n");
+	}
+
+	// what the program wrote, without the report of how it ended
+	private static String output(String run) {
+		assertTrue(run, run.contains("\nProgram has halted normally.\n"));
+		return run.substring(0, run.indexOf("\nProgram has halted normally.\n"));
+	}
+}
@@ -6,6 +6,14 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 import org.junit.function.ThrowingRunnable;
 
@@ -45,8 +53,14 @@ public class TestScanner {
 		assertFalse(Scanner.isOperator(';'));
 		assertFalse(Scanner.isOperator('\n'));
 	}
-	
-	
+
+	@Test
+	public void testScanAll() {
+		Scanner scanner = new Scanner(SourceFile.fromBytes("let var x : Integer in x := 1 ! a comment\n".getBytes()));
+		assertEquals(9, scanner.scanAll());
+	}
+
+
 	/* these tests all try to compile example programs... */
 	
 	@Test
@@ -75,7 +89,14 @@ public class TestScanner {
 
 	@Test
 	public void testRepeatUntil() {
-		compileExpectFailure("/repeatuntil.tri");
+		compileExpectSuccess("/repeatuntil.tri");
+	}
+
+	@Test
+	public void testKeywords() throws IOException {
+		// var and while are the last of the reserved words, and whilst is not one
+		assertEquals(List.of("Kind=ARRAY", "Kind=UNTIL", "Kind=VAR", "Kind=WHILE", "Kind=IDENTIFIER"),
+				scanKinds("array until var while whilst", 5));
 	}
 	
 	
@@ -98,6 +119,33 @@ public class TestScanner {
 		assertEquals("Problem compiling " + filename, 0, reporter.getNumErrors());
 	}
 	
+	private List<String> scanKinds(String text, int count) throws IOException {
+		Path file = Files.createTempFile("keywords", ".tri");
+		file.toFile().deleteOnExit();
+		Files.writeString(file, text);
+		Scanner scanner = new Scanner(SourceFile.ofPath(file.toString()));
+
+		// Token is private to the scanner's package, but it prints each token
+		// it returns when debugging
+		scanner.enableDebugging();
+		PrintStream out = System.out;
+		ByteArrayOutputStream tokens = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(tokens, true));
+		try {
+			for (int i = 0; i < count; i++) {
+				scanner.scan();
+			}
+		} finally {
+			System.setOut(out);
+		}
+
+		List<String> kinds = new ArrayList<>();
+		for (String token : tokens.toString().split("\\R")) {
+			kinds.add(token.substring(0, token.indexOf(',')));
+		}
+		return kinds;
+	}
+
 	private void compileExpectFailure(String filename) {
 		//SourceFile source = SourceFile.ofPath(this.getClass().getResource(filename).getFile().toString());
 		SourceFile source = SourceFile.fromResource(filename);